@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server;
+
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+
+/**
+ * Support for writing {@link StateMachine} snapshots off the state machine thread.
+ * <p>
+ * {@link Snapshottable} state machines write snapshots synchronously in the state machine thread, and no commands
+ * or queries can be applied to the state machine until the snapshot has been written. For state machines with large
+ * state, writing a snapshot can take a significant amount of time. Asynchronous snapshottable state machines instead
+ * capture a {@link View} of their state in the state machine thread. The view must be unaffected by subsequent changes
+ * to the state machine's state, for example by copying the state or by using persistent or copy-on-write data
+ * structures. Once the view has been captured, the state machine continues to apply commands while the view is
+ * {@link View#write(SnapshotWriter) written} to the snapshot in a background thread.
+ * <p>
+ * <pre>
+ *   {@code
+ *   public class MyStateMachine extends StateMachine implements AsyncSnapshottable {
+ *     private Map<String, String> map = new HashMap<>();
+ *
+ *     public View snapshotView() {
+ *       Map<String, String> copy = new HashMap<>(map);
+ *       return writer -> writer.writeObject(copy);
+ *     }
+ *
+ *     public void install(SnapshotReader reader) {
+ *       map = reader.readObject();
+ *     }
+ *   }
+ *   }
+ * </pre>
+ * A snapshot is not completed until the view has been written to the snapshot <em>and</em> all events published
+ * prior to the snapshot index have been received by clients.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public interface AsyncSnapshottable extends Snapshottable {
+
+  /**
+   * A frozen view of the state machine state.
+   */
+  @FunctionalInterface
+  interface View {
+
+    /**
+     * Writes the view to a snapshot.
+     * <p>
+     * This method is called in a background thread and so must not access mutable state machine state.
+     *
+     * @param writer The snapshot writer.
+     */
+    void write(SnapshotWriter writer);
+  }
+
+  /**
+   * Captures a view of the state machine state.
+   * <p>
+   * This method is called in the state machine thread each time a snapshot is taken. The returned view must not be
+   * affected by changes to the state machine state made after this method returns.
+   *
+   * @return A frozen view of the state machine state.
+   */
+  View snapshotView();
+
+  /**
+   * Takes a snapshot of the state machine state synchronously by writing a {@link #snapshotView() view} of the state.
+   *
+   * @param writer The snapshot writer.
+   */
+  @Override
+  default void snapshot(SnapshotWriter writer) {
+    snapshotView().write(writer);
+  }
+
+}
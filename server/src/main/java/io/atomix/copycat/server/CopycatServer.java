@@ -857,6 +857,12 @@ public class CopycatServer {
     private static final Duration DEFAULT_HEARTBEAT_INTERVAL = Duration.ofMillis(250);
     private static final Duration DEFAULT_SESSION_TIMEOUT = Duration.ofMillis(5000);
     private static final Duration DEFAULT_GLOBAL_SUSPEND_TIMEOUT = Duration.ofHours(1);
+    private static final int DEFAULT_SNAPSHOT_CHUNK_SIZE = 1024 * 32;
+    private static final int DEFAULT_SNAPSHOT_INSTALL_WINDOW = 4;
+    private static final Duration DEFAULT_APPEND_LINGER = Duration.ZERO;
+    private static final int DEFAULT_APPEND_BATCH_SIZE = 64;
+    private static final int DEFAULT_CATCH_UP_THREADS = 1;
+    private static final long DEFAULT_CATCH_UP_BANDWIDTH = 0;
 
     private String name = DEFAULT_NAME;
     private Member.Type type = Member.Type.ACTIVE;
@@ -871,6 +877,12 @@ public class CopycatServer {
     private Duration heartbeatInterval = DEFAULT_HEARTBEAT_INTERVAL;
     private Duration sessionTimeout = DEFAULT_SESSION_TIMEOUT;
     private Duration globalSuspendTimeout = DEFAULT_GLOBAL_SUSPEND_TIMEOUT;
+    private int snapshotChunkSize = DEFAULT_SNAPSHOT_CHUNK_SIZE;
+    private int snapshotInstallWindow = DEFAULT_SNAPSHOT_INSTALL_WINDOW;
+    private Duration appendLinger = DEFAULT_APPEND_LINGER;
+    private int appendBatchSize = DEFAULT_APPEND_BATCH_SIZE;
+    private int catchUpThreads = DEFAULT_CATCH_UP_THREADS;
+    private long catchUpBandwidth = DEFAULT_CATCH_UP_BANDWIDTH;
 
     private Builder(Address clientAddress, Address serverAddress) {
       this.clientAddress = Assert.notNull(clientAddress, "clientAddress");
@@ -1033,6 +1045,105 @@ public class CopycatServer {
       return this;
     }
 
+    /**
+     * Sets the maximum number of snapshot bytes to send to a member in a single install request.
+     * <p>
+     * When a member falls behind the leader's snapshot, the leader sends the snapshot to the member in chunks of
+     * up to the configured size. Larger chunks reduce the number of round trips required to install large snapshots
+     * at the cost of larger messages. Defaults to {@code 32KB}.
+     *
+     * @param snapshotChunkSize The maximum number of snapshot bytes to send in a single install request.
+     * @return The server builder.
+     * @throws IllegalArgumentException if {@code snapshotChunkSize} is not positive
+     */
+    public Builder withSnapshotChunkSize(int snapshotChunkSize) {
+      this.snapshotChunkSize = Assert.arg(snapshotChunkSize, snapshotChunkSize > 0, "snapshotChunkSize must be positive");
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of snapshot chunks that may be in flight to a single member.
+     * <p>
+     * The leader pipelines install requests, sending up to the configured number of chunks to a member before
+     * waiting for responses. Defaults to {@code 4}.
+     *
+     * @param snapshotInstallWindow The maximum number of outstanding install requests per member.
+     * @return The server builder.
+     * @throws IllegalArgumentException if {@code snapshotInstallWindow} is not positive
+     */
+    public Builder withSnapshotInstallWindow(int snapshotInstallWindow) {
+      this.snapshotInstallWindow = Assert.arg(snapshotInstallWindow, snapshotInstallWindow > 0, "snapshotInstallWindow must be positive");
+      return this;
+    }
+
+    /**
+     * Sets the maximum amount of time for which the leader delays replicating new entries.
+     * <p>
+     * By default, the leader sends new entries to followers as soon as they're appended to the leader's log. Under
+     * high load, this can result in many small append requests. When an append linger is configured, the leader
+     * accumulates commands, keep-alives and other entries for up to the linger time and replicates them to each
+     * follower in a single round of append requests, trading latency for throughput. Entries are replicated before
+     * the linger expires once the {@link #withAppendBatchSize(int) append batch size} is reached. Defaults to
+     * {@code 0}, which disables lingering.
+     *
+     * @param appendLinger The maximum amount of time for which to delay replicating new entries.
+     * @return The server builder.
+     * @throws NullPointerException if {@code appendLinger} is null
+     * @throws IllegalArgumentException if {@code appendLinger} is negative
+     */
+    public Builder withAppendLinger(Duration appendLinger) {
+      Assert.notNull(appendLinger, "appendLinger");
+      this.appendLinger = Assert.argNot(appendLinger, appendLinger.isNegative(), "appendLinger cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the number of new entries that triggers replication before the append linger expires.
+     * <p>
+     * This setting has no effect unless an {@link #withAppendLinger(Duration) append linger} is configured.
+     * Defaults to {@code 64}.
+     *
+     * @param appendBatchSize The number of new entries that triggers replication.
+     * @return The server builder.
+     * @throws IllegalArgumentException if {@code appendBatchSize} is not positive
+     */
+    public Builder withAppendBatchSize(int appendBatchSize) {
+      this.appendBatchSize = Assert.arg(appendBatchSize, appendBatchSize > 0, "appendBatchSize must be positive");
+      return this;
+    }
+
+    /**
+     * Sets the number of threads with which the leader reads entries for lagging members.
+     * <p>
+     * When a follower falls far enough behind the leader that the entries it needs are no longer cached in memory,
+     * the leader reads the entries from disk on a dedicated pool of catch-up threads rather than on the server
+     * thread, so catching up a recovering follower does not delay client operations. Defaults to {@code 1}.
+     *
+     * @param catchUpThreads The number of catch-up threads.
+     * @return The server builder.
+     * @throws IllegalArgumentException if {@code catchUpThreads} is not positive
+     */
+    public Builder withCatchUpThreads(int catchUpThreads) {
+      this.catchUpThreads = Assert.arg(catchUpThreads, catchUpThreads > 0, "catchUpThreads must be positive");
+      return this;
+    }
+
+    /**
+     * Sets the maximum rate in bytes per second at which the leader reads entries for lagging members.
+     * <p>
+     * The catch-up bandwidth limits only entries read from disk for followers that have fallen behind. Replication
+     * of new entries to followers that are up to date is not limited. Defaults to {@code 0}, which does not limit
+     * catch-up reads.
+     *
+     * @param catchUpBandwidth The maximum catch-up rate in bytes per second.
+     * @return The server builder.
+     * @throws IllegalArgumentException if {@code catchUpBandwidth} is negative
+     */
+    public Builder withCatchUpBandwidth(long catchUpBandwidth) {
+      this.catchUpBandwidth = Assert.argNot(catchUpBandwidth, catchUpBandwidth < 0, "catchUpBandwidth cannot be negative");
+      return this;
+    }
+
     /**
      * @throws ConfigurationException if a state machine, members or transport are not configured
      */
@@ -1079,7 +1190,13 @@ public class CopycatServer {
       context.setElectionTimeout(electionTimeout)
         .setHeartbeatInterval(heartbeatInterval)
         .setSessionTimeout(sessionTimeout)
-        .setGlobalSuspendTimeout(globalSuspendTimeout);
+        .setGlobalSuspendTimeout(globalSuspendTimeout)
+        .setSnapshotChunkSize(snapshotChunkSize)
+        .setSnapshotInstallWindow(snapshotInstallWindow)
+        .setAppendLinger(appendLinger)
+        .setAppendBatchSize(appendBatchSize)
+        .setCatchUpThreads(catchUpThreads)
+        .setCatchUpBandwidth(catchUpBandwidth);
 
       return new CopycatServer(name, clientTransport, serverTransport, context);
     }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server;
+
+import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tracks the keys of {@link IncrementalSnapshottable} state machine state that have changed since the last snapshot.
+ * <p>
+ * State machines {@link #markDirty(Object) mark} keys as dirty as they're changed by commands. When a delta snapshot
+ * is taken, the tracker {@link #writeDelta(Map, SnapshotWriter) writes} the current value of each dirty key to the
+ * snapshot, recording keys that have since been removed, and resets the tracked keys. Deltas written by the tracker
+ * are {@link #installDelta(Map, SnapshotReader) installed} by applying the recorded values to the state machine state.
+ * <p>
+ * See {@link IncrementalSnapshottable} for an example of a state machine that uses a tracker.
+ * <p>
+ * Keys and values are written to the snapshot with the snapshot's serializer, so their types must be serializable.
+ * Like the state machine state it tracks, the tracker must only be accessed from the state machine thread.
+ *
+ * @param <K> The type of the tracked keys.
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class DirtyTracker<K> {
+  private final Set<K> dirty = new HashSet<>();
+
+  /**
+   * Marks the given key as changed since the last snapshot.
+   *
+   * @param key The changed key.
+   * @return The dirty tracker.
+   * @throws NullPointerException if {@code key} is null
+   */
+  public DirtyTracker<K> markDirty(K key) {
+    dirty.add(Assert.notNull(key, "key"));
+    return this;
+  }
+
+  /**
+   * Returns a boolean indicating whether the given key has changed since the last snapshot.
+   *
+   * @param key The key to check.
+   * @return Indicates whether the given key has changed since the last snapshot.
+   */
+  public boolean isDirty(K key) {
+    return dirty.contains(key);
+  }
+
+  /**
+   * Returns the keys that have changed since the last snapshot.
+   *
+   * @return An unmodifiable view of the keys that have changed since the last snapshot.
+   */
+  public Set<K> dirtyKeys() {
+    return Collections.unmodifiableSet(dirty);
+  }
+
+  /**
+   * Returns the number of keys that have changed since the last snapshot.
+   *
+   * @return The number of keys that have changed since the last snapshot.
+   */
+  public int count() {
+    return dirty.size();
+  }
+
+  /**
+   * Resets the tracked keys.
+   * <p>
+   * State machines must reset the tracker when a full snapshot is written or installed.
+   *
+   * @return The dirty tracker.
+   */
+  public DirtyTracker<K> reset() {
+    dirty.clear();
+    return this;
+  }
+
+  /**
+   * Writes the current value of each dirty key in the given state to a delta snapshot and resets the tracked keys.
+   * <p>
+   * Dirty keys that are no longer present in the state are recorded as removed.
+   *
+   * @param state The state machine state.
+   * @param writer The delta snapshot writer.
+   * @param <V> The type of the state values.
+   * @throws NullPointerException if {@code state} or {@code writer} is null
+   */
+  public <V> void writeDelta(Map<K, V> state, SnapshotWriter writer) {
+    Assert.notNull(state, "state");
+    Assert.notNull(writer, "writer");
+    writer.writeInt(dirty.size());
+    for (K key : dirty) {
+      V value = state.get(key);
+      writer.writeObject(key);
+      writer.writeBoolean(value != null);
+      if (value != null) {
+        writer.writeObject(value);
+      }
+    }
+    reset();
+  }
+
+  /**
+   * Installs a delta snapshot written by {@link #writeDelta(Map, SnapshotWriter)} in the given state and resets the
+   * tracked keys.
+   *
+   * @param state The state machine state.
+   * @param reader The delta snapshot reader.
+   * @param <V> The type of the state values.
+   * @throws NullPointerException if {@code state} or {@code reader} is null
+   */
+  public <V> void installDelta(Map<K, V> state, SnapshotReader reader) {
+    Assert.notNull(state, "state");
+    Assert.notNull(reader, "reader");
+    int count = reader.readInt();
+    for (int i = 0; i < count; i++) {
+      K key = reader.readObject();
+      if (reader.readBoolean()) {
+        state.put(key, reader.readObject());
+      } else {
+        state.remove(key);
+      }
+    }
+    reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[dirty=%d]", getClass().getSimpleName(), dirty.size());
+  }
+
+}
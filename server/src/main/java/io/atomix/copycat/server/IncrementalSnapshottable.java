@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server;
+
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+
+/**
+ * Support for writing {@link StateMachine} snapshots as deltas of the prior snapshot.
+ * <p>
+ * {@link Snapshottable} state machines write their complete state to each snapshot. For state machines with large
+ * state of which only a small portion changes between snapshots, incremental snapshottable state machines can instead
+ * write {@link #snapshotDelta(SnapshotWriter) deltas} containing only the state that has changed since the prior
+ * snapshot. Delta snapshots are chained to the prior snapshot, and the state at a delta snapshot is restored by
+ * {@link #install(SnapshotReader) installing} the full snapshot at the start of the chain and then
+ * {@link #installDelta(SnapshotReader) installing} each delta in order. Once the chain reaches the configured
+ * {@link io.atomix.copycat.server.storage.Storage#maxDeltaSnapshots() maximum length}, a full snapshot is taken.
+ * <p>
+ * To support deltas, the state machine tracks the state that has changed since the last snapshot. The
+ * tracked changes must be reset each time a full or delta snapshot is written, and each time a full or delta snapshot
+ * is installed. Deltas should record the current value of changed state rather than the operations that changed it,
+ * since a delta may be installed on a base snapshot that already contains some of the changes. State machines whose
+ * state is held in a {@link java.util.Map} can use a {@link DirtyTracker} to track changed keys and to write and
+ * install deltas:
+ * <p>
+ * <pre>
+ *   {@code
+ *   public class MyStateMachine extends StateMachine implements IncrementalSnapshottable {
+ *     private Map<String, String> map = new HashMap<>();
+ *     private DirtyTracker<String> dirty = new DirtyTracker<>();
+ *
+ *     public void put(Commit<Put> commit) {
+ *       map.put(commit.operation().key(), commit.operation().value());
+ *       dirty.markDirty(commit.operation().key());
+ *       commit.close();
+ *     }
+ *
+ *     public void snapshot(SnapshotWriter writer) {
+ *       writer.writeObject(new HashMap<>(map));
+ *       dirty.reset();
+ *     }
+ *
+ *     public void snapshotDelta(SnapshotWriter writer) {
+ *       dirty.writeDelta(map, writer);
+ *     }
+ *
+ *     public void install(SnapshotReader reader) {
+ *       map = reader.readObject();
+ *       dirty.reset();
+ *     }
+ *
+ *     public void installDelta(SnapshotReader reader) {
+ *       dirty.installDelta(map, reader);
+ *     }
+ *   }
+ *   }
+ * </pre>
+ * Delta snapshots are always written synchronously in the state machine thread, even if the state machine also
+ * implements {@link AsyncSnapshottable}.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public interface IncrementalSnapshottable extends Snapshottable {
+
+  /**
+   * Takes a snapshot of the changes to the state machine state since the last snapshot.
+   * <p>
+   * This method is called in place of {@link #snapshot(SnapshotWriter)} when the server takes a delta snapshot.
+   * Once the delta has been written, the state machine should reset the changes it has tracked.
+   *
+   * @param writer The snapshot writer.
+   */
+  void snapshotDelta(SnapshotWriter writer);
+
+  /**
+   * Installs a delta snapshot of the state machine state.
+   * <p>
+   * Deltas are installed in order after the full snapshot at the start of the chain has been
+   * {@link #install(SnapshotReader) installed}.
+   *
+   * @param reader The snapshot reader.
+   */
+  void installDelta(SnapshotReader reader);
+
+}
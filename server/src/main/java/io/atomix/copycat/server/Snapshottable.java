@@ -89,6 +89,11 @@ import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
  * and other commands, and state machine implementations should take care not to overwrite non-snapshot command
  * state with snapshots. For simpler state machines, <em>users should use either snapshotting or log cleaning
  * but not both</em>.
+ * <p>
+ * In addition to the state machine state, servers store the state of open client sessions in each snapshot.
+ * Once a snapshot has been completed, the entries that registered and kept alive sessions prior to the snapshot
+ * can be removed from the log, and sessions are restored from the snapshot when it's installed. Sessions with
+ * open {@link Commit}s retain their entries in the log until the commits are closed.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
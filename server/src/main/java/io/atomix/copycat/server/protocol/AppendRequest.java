@@ -33,6 +33,11 @@ import java.util.Objects;
  * Append entries requests are at the core of the replication protocol. Leaders send append requests
  * to followers to replicate and commit log entries, and followers sent append requests to passive members
  * to replicate committed log entries.
+ * <p>
+ * Servers replicate entries as {@link io.atomix.copycat.server.storage.entry.RawEntry raw entries} containing the
+ * entries' encoded bytes as they're stored in the sender's log. This allows the same encoded entries to be sent to
+ * each member without deserializing and reserializing them, and allows receivers to append entries to their logs
+ * without deserializing them.
  *
  * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
  */
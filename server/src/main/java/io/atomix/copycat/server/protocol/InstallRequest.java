@@ -20,6 +20,7 @@ import io.atomix.catalyst.buffer.BufferOutput;
 import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.protocol.AbstractRequest;
+import io.atomix.copycat.server.storage.snapshot.SnapshotCompression;
 
 import java.util.Arrays;
 import java.util.Objects;
@@ -61,6 +62,8 @@ public class InstallRequest extends AbstractRequest {
   private int leader;
   protected long index;
   protected int offset;
+  protected SnapshotCompression compression = SnapshotCompression.NONE;
+  protected long baseIndex;
   protected byte[] data;
   protected boolean complete;
 
@@ -100,6 +103,30 @@ public class InstallRequest extends AbstractRequest {
     return offset;
   }
 
+  /**
+   * Returns the snapshot compression format.
+   * <p>
+   * Snapshot data is sent in the format in which it's stored by the leader, so followers must store the
+   * snapshot with the same compression format.
+   *
+   * @return The snapshot compression format.
+   */
+  public SnapshotCompression compression() {
+    return compression;
+  }
+
+  /**
+   * Returns the index of the snapshot on which the snapshot is based.
+   * <p>
+   * Full snapshots have a base index of {@code 0}. Delta snapshots are sent only after their base snapshot
+   * has been installed.
+   *
+   * @return The base snapshot index.
+   */
+  public long baseIndex() {
+    return baseIndex;
+  }
+
   /**
    * Returns the snapshot data.
    *
@@ -124,6 +151,8 @@ public class InstallRequest extends AbstractRequest {
       .writeInt(leader)
       .writeLong(index)
       .writeInt(offset)
+      .writeByte(compression.id())
+      .writeLong(baseIndex)
       .writeBoolean(complete);
     serializer.writeObject(data, buffer);
   }
@@ -134,13 +163,15 @@ public class InstallRequest extends AbstractRequest {
     leader = buffer.readInt();
     index = buffer.readLong();
     offset = buffer.readInt();
+    compression = SnapshotCompression.forId(buffer.readByte());
+    baseIndex = buffer.readLong();
     complete = buffer.readBoolean();
     data = serializer.<byte[]>readObject(buffer);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(getClass(), term, leader, index, offset, complete, data);
+    return Objects.hash(getClass(), term, leader, index, offset, compression, baseIndex, complete, data);
   }
 
   @Override
@@ -151,6 +182,8 @@ public class InstallRequest extends AbstractRequest {
         && request.leader == leader
         && request.index == index
         && request.offset == offset
+        && request.compression == compression
+        && request.baseIndex == baseIndex
         && request.complete == complete
         && Arrays.equals(request.data, data);
     }
@@ -159,7 +192,7 @@ public class InstallRequest extends AbstractRequest {
 
   @Override
   public String toString() {
-    return String.format("%s[term=%d, leader=%d, index=%d, offset=%d, data=%s, complete=%b]", getClass().getSimpleName(), term, leader, index, offset, data, complete);
+    return String.format("%s[term=%d, leader=%d, index=%d, offset=%d, compression=%s, baseIndex=%d, data=%s, complete=%b]", getClass().getSimpleName(), term, leader, index, offset, compression, baseIndex, data, complete);
   }
 
   /**
@@ -216,6 +249,29 @@ public class InstallRequest extends AbstractRequest {
       return this;
     }
 
+    /**
+     * Sets the request snapshot compression format.
+     *
+     * @param compression The snapshot compression format.
+     * @return The request builder.
+     * @throws NullPointerException if {@code compression} is null
+     */
+    public Builder withCompression(SnapshotCompression compression) {
+      request.compression = Assert.notNull(compression, "compression");
+      return this;
+    }
+
+    /**
+     * Sets the index of the snapshot on which the snapshot is based.
+     *
+     * @param baseIndex The base snapshot index, or {@code 0} for a full snapshot.
+     * @return The request builder.
+     */
+    public Builder withBaseIndex(long baseIndex) {
+      request.baseIndex = Assert.argNot(baseIndex, baseIndex < 0, "baseIndex must be positive");
+      return this;
+    }
+
     /**
      * Sets the request snapshot bytes.
      *
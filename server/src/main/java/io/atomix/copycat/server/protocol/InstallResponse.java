@@ -18,6 +18,7 @@ package io.atomix.copycat.server.protocol;
 import io.atomix.catalyst.buffer.BufferInput;
 import io.atomix.catalyst.buffer.BufferOutput;
 import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.error.CopycatError;
 import io.atomix.copycat.protocol.AbstractResponse;
 
@@ -27,8 +28,9 @@ import java.util.Objects;
  * Snapshot installation response.
  * <p>
  * Install responses are sent once a snapshot installation request has been received and processed.
- * Install responses provide no additional metadata aside from indicating whether or not the request
- * was successful.
+ * In addition to indicating whether or not the request was successful, install responses provide the
+ * {@link #nextOffset() offset} of the next chunk the responding server expects for the snapshot being installed.
+ * Leaders use the offset to resume an install from the first chunk the server has not received.
  *
  * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
  */
@@ -53,6 +55,17 @@ public class InstallResponse extends AbstractResponse {
     return new Builder(response);
   }
 
+  private int nextOffset;
+
+  /**
+   * Returns the offset of the next chunk expected by the responding server.
+   *
+   * @return The offset of the next chunk expected by the responding server.
+   */
+  public int nextOffset() {
+    return nextOffset;
+  }
+
   @Override
   public void readObject(BufferInput buffer, Serializer serializer) {
     status = Status.forId(buffer.readByte());
@@ -61,6 +74,7 @@ public class InstallResponse extends AbstractResponse {
     } else {
       error = CopycatError.forId(buffer.readByte());
     }
+    nextOffset = buffer.readInt();
   }
 
   @Override
@@ -69,25 +83,27 @@ public class InstallResponse extends AbstractResponse {
     if (status == Status.ERROR) {
       buffer.writeByte(error.id());
     }
+    buffer.writeInt(nextOffset);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(getClass(), status);
+    return Objects.hash(getClass(), status, nextOffset);
   }
 
   @Override
   public boolean equals(Object object) {
     if (object instanceof InstallResponse) {
       InstallResponse response = (InstallResponse) object;
-      return response.status == status;
+      return response.status == status
+        && response.nextOffset == nextOffset;
     }
     return false;
   }
 
   @Override
   public String toString() {
-    return String.format("%s[status=%s, error=%s]", getClass().getSimpleName(), status, error);
+    return String.format("%s[status=%s, error=%s, nextOffset=%d]", getClass().getSimpleName(), status, error, nextOffset);
   }
 
   /**
@@ -97,6 +113,18 @@ public class InstallResponse extends AbstractResponse {
     protected Builder(InstallResponse response) {
       super(response);
     }
+
+    /**
+     * Sets the offset of the next chunk expected by the responding server.
+     *
+     * @param nextOffset The offset of the next chunk expected by the responding server.
+     * @return The install response builder.
+     * @throws IllegalArgumentException if {@code nextOffset} is negative
+     */
+    public Builder withNextOffset(int nextOffset) {
+      response.nextOffset = Assert.argNot(nextOffset, nextOffset < 0, "nextOffset must not be negative");
+      return this;
+    }
   }
 
 }
@@ -39,7 +39,9 @@ public interface SessionListener {
    * Called when a new session is registered.
    * <p>
    * A session is registered when a new client connects to the cluster or an existing client recovers its
-   * session after being partitioned from the cluster. It's important to note that when this method is called,
+   * session after being partitioned from the cluster. Sessions are also registered when they're restored from a
+   * snapshot after the entries that originally registered them have been removed from the log, in which case this
+   * method is called once the snapshot has been installed. It's important to note that when this method is called,
    * the {@link Session} is <em>not yet open</em> and so events cannot be {@link ServerSession#publish(String, Object) published}
    * to the registered session. This is because clients cannot reliably track messages pushed from server state machines
    * to the client until the session has been fully registered. Session event messages may still be published to
@@ -36,7 +36,7 @@ import java.util.List;
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 abstract class AbstractAppender implements AutoCloseable {
-  private static final int MAX_BATCH_SIZE = 1024 * 32;
+  static final int MAX_BATCH_SIZE = 1024 * 32;
   protected final Logger logger = LoggerFactory.getLogger(getClass());
   protected final ServerContext context;
   protected boolean open = true;
@@ -117,7 +117,9 @@ abstract class AbstractAppender implements AutoCloseable {
     // Build a list of entries up to the MAX_BATCH_SIZE. Note that entries in the log may
     // be null if they've been compacted and the member to which we're sending entries is just
     // joining the cluster or is otherwise far behind. Null entries are simply skipped and not
-    // counted towards the size of the batch.
+    // counted towards the size of the batch. Entries are read as raw entries so the encoded bytes
+    // of each entry are shared by requests to all members rather than being decoded and reencoded
+    // for each member.
     // If there exists an entry in the log with size >= MAX_BATCH_SIZE the logic ensures that
     // entry will be sent in a batch of size one
     int size = 0;
@@ -127,7 +129,7 @@ abstract class AbstractAppender implements AutoCloseable {
       // Get the entry from the log and append it if it's not null. Entries in the log can be null
       // if they've been cleaned or compacted from the log. Each entry sent in the append request
       // has a unique index to handle gaps in the log.
-      Entry entry = context.getLog().get(i);
+      Entry entry = context.getLog().getRaw(i);
       if (entry != null) {
         if (!entries.isEmpty() && size + entry.size() > MAX_BATCH_SIZE) {
           break;
@@ -167,7 +169,7 @@ abstract class AbstractAppender implements AutoCloseable {
    */
   protected void sendAppendRequest(MemberState member, AppendRequest request) {
     // Start the append to the member.
-    member.startAppend();
+    member.startAppend(sizeOf(request));
 
     context.getConnections().getConnection(member.getMember().address()).whenComplete((connection, error) -> {
       context.checkThread();
@@ -177,7 +179,7 @@ abstract class AbstractAppender implements AutoCloseable {
           sendAppendRequest(connection, member, request);
         } else {
           // Complete the append to the member.
-          member.completeAppend();
+          member.completeAppend(sizeOf(request));
 
           // Trigger reactions to the request failure.
           handleAppendRequestFailure(member, request, error);
@@ -196,11 +198,12 @@ abstract class AbstractAppender implements AutoCloseable {
     connection.<AppendRequest, AppendResponse>sendAndReceive(request).whenComplete((response, error) -> {
       context.checkThread();
 
-      // Complete the append to the member.
+      // Complete the append to the member. Round trip times are only recorded for requests containing entries
+      // since empty requests do not reflect the cost of replication.
       if (!request.entries().isEmpty()) {
-        member.completeAppend(System.nanoTime() - timestamp);
+        member.completeAppend(sizeOf(request), System.nanoTime() - timestamp);
       } else {
-        member.completeAppend();
+        member.completeAppend(0);
       }
 
       if (open) {
@@ -225,6 +228,9 @@ abstract class AbstractAppender implements AutoCloseable {
   protected void handleAppendRequestFailure(MemberState member, AppendRequest request, Throwable error) {
     // Log the failed attempt to contact the member.
     failAttempt(member, error);
+
+    // Reduce the append window and ensure the request's entries are resent.
+    failAppend(member, request);
   }
 
   /**
@@ -233,6 +239,28 @@ abstract class AbstractAppender implements AutoCloseable {
   protected void handleAppendResponseFailure(MemberState member, AppendRequest request, Throwable error) {
     // Log the failed attempt to contact the member.
     failAttempt(member, error);
+
+    // Reduce the append window and ensure the request's entries are resent.
+    failAppend(member, request);
+  }
+
+  /**
+   * Handles the failure of an append request that may not have been received by the member.
+   * <p>
+   * Append requests are pipelined, so the member's next index may have been advanced past the entries in the
+   * failed request. The next index is rewound to the first entry that may not have been received by the member
+   * to ensure the entries are resent. Resending entries that were received is safe since the member ignores
+   * entries it already has.
+   */
+  protected void failAppend(MemberState member, AppendRequest request) {
+    if (!request.entries().isEmpty()) {
+      member.reduceAppendWindow();
+      long nextIndex = Math.max(request.logIndex(), member.getMatchIndex()) + 1;
+      if (nextIndex < member.getNextIndex()) {
+        member.setNextIndex(nextIndex);
+        logger.trace("{} - Reset next index for {} to {}", context.getCluster().member().address(), member, member.getNextIndex());
+      }
+    }
   }
 
   /**
@@ -326,8 +354,20 @@ abstract class AbstractAppender implements AutoCloseable {
    * Updates the match index when a response is received.
    */
   protected void updateMatchIndex(MemberState member, AppendResponse response) {
-    // If the replica returned a valid match index then update the existing match index.
-    member.setMatchIndex(response.logIndex());
+    // If the replica returned a valid match index then update the existing match index. Pipelined responses
+    // may be received out of order, so never decrease the match index on a successful response.
+    member.setMatchIndex(Math.max(member.getMatchIndex(), response.logIndex()));
+  }
+
+  /**
+   * Returns the size of the entries in the given append request.
+   */
+  protected static int sizeOf(AppendRequest request) {
+    int size = 0;
+    for (Entry entry : request.entries()) {
+      size += entry.size();
+    }
+    return size;
   }
 
   /**
@@ -476,39 +516,98 @@ abstract class AbstractAppender implements AutoCloseable {
 
   /**
    * Builds an install request for the given member.
+   * <p>
+   * Snapshots are sent to members in {@link ServerContext#getSnapshotChunkSize() chunks}. A single
+   * {@link SnapshotReader} is held open for the duration of the install and read sequentially as chunks
+   * are sent, so multiple chunks can be in flight to the member at once. Compressed snapshots are sent
+   * as stored so they needn't be decompressed and recompressed.
+   * <p>
+   * If the current snapshot is a delta snapshot, each snapshot in its chain that the member has not yet
+   * installed is sent in order, beginning with the full snapshot at the start of the chain.
+   *
+   * @return The install request or {@code null} if all chunks of the snapshot have already been sent.
    */
   protected InstallRequest buildInstallRequest(MemberState member) {
-    Snapshot snapshot = context.getSnapshotStore().currentSnapshot();
+    Snapshot snapshot = nextSnapshot(member);
     if (member.getNextSnapshotIndex() != snapshot.index()) {
-      member.setNextSnapshotIndex(snapshot.index()).setNextSnapshotOffset(0);
+      member.setNextSnapshotIndex(snapshot.index())
+        .setNextSnapshotOffset(0)
+        .setSnapshotReader(null);
     }
 
     InstallRequest request;
     synchronized (snapshot) {
-      // Open a new snapshot reader.
-      try (SnapshotReader reader = snapshot.reader()) {
-        // Skip to the next batch of bytes according to the snapshot chunk size and current offset.
-        reader.skip(member.getNextSnapshotOffset() * MAX_BATCH_SIZE);
-        byte[] data = new byte[Math.min(MAX_BATCH_SIZE, (int) reader.remaining())];
-        reader.read(data);
-
-        // Create the install request, indicating whether this is the last chunk of data based on the number
-        // of bytes remaining in the buffer.
-        ServerMember leader = context.getLeader();
-        request = InstallRequest.builder()
-          .withTerm(context.getTerm())
-          .withLeader(leader != null ? leader.id() : 0)
-          .withIndex(member.getNextSnapshotIndex())
-          .withOffset(member.getNextSnapshotOffset())
-          .withData(data)
-          .withComplete(!reader.hasRemaining())
-          .build();
+      // If no reader is open for the member, open a new snapshot reader and skip to the next chunk of bytes
+      // according to the snapshot chunk size and current offset.
+      SnapshotReader reader = member.getSnapshotReader();
+      if (reader == null) {
+        reader = snapshot.storedReader();
+        reader.skip((long) member.getNextSnapshotOffset() * context.getSnapshotChunkSize());
+        member.setSnapshotReader(reader);
+      }
+      // If the final chunk has already been sent, wait for outstanding install requests to complete.
+      else if (member.getNextSnapshotOffset() > 0 && !reader.hasRemaining()) {
+        return null;
       }
+
+      byte[] data = new byte[(int) Math.min(context.getSnapshotChunkSize(), reader.remaining())];
+      reader.read(data);
+
+      // Create the install request, indicating whether this is the last chunk of data based on the number
+      // of bytes remaining in the buffer.
+      ServerMember leader = context.getLeader();
+      request = InstallRequest.builder()
+        .withTerm(context.getTerm())
+        .withLeader(leader != null ? leader.id() : 0)
+        .withIndex(member.getNextSnapshotIndex())
+        .withOffset(member.getNextSnapshotOffset())
+        .withCompression(snapshot.compression())
+        .withBaseIndex(snapshot.baseIndex())
+        .withData(data)
+        .withComplete(!reader.hasRemaining())
+        .build();
     }
 
+    // Increment the member's snapshot offset to allow the next chunk to be sent before this one is acknowledged.
+    member.setNextSnapshotOffset(request.offset() + 1);
     return request;
   }
 
+  /**
+   * Returns the next snapshot in the current snapshot's chain to send to the given member.
+   */
+  private Snapshot nextSnapshot(MemberState member) {
+    for (Snapshot snapshot : context.getSnapshotStore().snapshotChain(context.getSnapshotStore().currentSnapshot())) {
+      if (snapshot.index() > member.getSnapshotIndex()) {
+        return snapshot;
+      }
+    }
+    return context.getSnapshotStore().currentSnapshot();
+  }
+
+  /**
+   * Rewinds the snapshot install for the given member to resend chunks beginning at the given offset.
+   * <p>
+   * Chunks preceding the offset have been received by the member, so the install is resumed rather than restarted.
+   * The snapshot reader is closed and reopened at the offset when the next chunk is built. If the member has since
+   * moved on to another snapshot or the install has already been rewound further, the install is left unchanged.
+   */
+  protected void rewindSnapshot(MemberState member, InstallRequest request, int offset) {
+    if (member.getNextSnapshotIndex() == request.index() && offset < member.getNextSnapshotOffset()) {
+      member.setNextSnapshotOffset(offset)
+        .setSnapshotReader(null);
+    }
+  }
+
+  /**
+   * Resets the snapshot install state for the given member, closing any open snapshot reader.
+   */
+  protected void resetSnapshot(MemberState member) {
+    member.setNextSnapshotIndex(0)
+      .setNextSnapshotOffset(0)
+      .setSnapshotReader(null);
+  }
+
   /**
    * Connects to the member and sends a snapshot request.
    */
@@ -556,12 +655,22 @@ abstract class AbstractAppender implements AutoCloseable {
         }
       }
     });
+
+    // If more chunks of the snapshot remain, attempt to send the next chunk without awaiting the response.
+    if (!request.complete()) {
+      appendEntries(member);
+    }
   }
 
   /**
    * Handles an install request failure.
    */
   protected void handleInstallRequestFailure(MemberState member, InstallRequest request, Throwable error) {
+    // Rewind the member's snapshot offset to resend the snapshot from the failed chunk since it was never sent.
+    // Chunks sent before the failed chunk are either acknowledged or in flight, and in-flight chunks that fail
+    // rewind the install further.
+    rewindSnapshot(member, request, request.offset());
+
     // Log the failed attempt to contact the member.
     failAttempt(member, error);
   }
@@ -570,9 +679,9 @@ abstract class AbstractAppender implements AutoCloseable {
    * Handles an install response failure.
    */
   protected void handleInstallResponseFailure(MemberState member, InstallRequest request, Throwable error) {
-    // Reset the member's snapshot index and offset to resend the snapshot from the start
-    // once a connection to the member is re-established.
-    member.setNextSnapshotIndex(0).setNextSnapshotOffset(0);
+    // Rewind the member's snapshot offset to resend the snapshot from the unacknowledged chunk once a connection
+    // to the member is re-established.
+    rewindSnapshot(member, request, request.offset());
 
     // Log the failed attempt to contact the member.
     failAttempt(member, error);
@@ -598,15 +707,10 @@ abstract class AbstractAppender implements AutoCloseable {
     succeedAttempt(member);
 
     // If the install request was completed successfully, set the member's snapshotIndex and reset
-    // the next snapshot index/offset.
+    // the next snapshot index/offset. The offset of incomplete chunks is incremented when the request is built.
     if (request.complete()) {
-      member.setSnapshotIndex(request.index())
-        .setNextSnapshotIndex(0)
-        .setNextSnapshotOffset(0);
-    }
-    // If more install requests remain, increment the member's snapshot offset.
-    else {
-      member.setNextSnapshotOffset(request.offset() + 1);
+      member.setSnapshotIndex(request.index());
+      resetSnapshot(member);
     }
 
     // Recursively append entries to the member.
@@ -619,12 +723,31 @@ abstract class AbstractAppender implements AutoCloseable {
   @SuppressWarnings("unused")
   protected void handleInstallResponseError(MemberState member, InstallRequest request, InstallResponse response) {
     logger.warn("{} - Failed to install {}", context.getCluster().member().address(), member.getMember().serverAddress());
-    member.setNextSnapshotIndex(0).setNextSnapshotOffset(0);
+
+    // If the chunk was rejected because an earlier chunk was not received, resume the install from the first
+    // chunk the member has not received.
+    if (request.offset() > response.nextOffset()) {
+      rewindSnapshot(member, request, response.nextOffset());
+      return;
+    }
+
+    resetSnapshot(member);
+
+    // If a delta snapshot was rejected, the member may be missing its base snapshot, so resend the
+    // snapshot chain from the start.
+    if (request.baseIndex() > 0) {
+      member.setSnapshotIndex(0);
+    }
   }
 
   @Override
   public void close() {
     open = false;
+
+    // Close any snapshot readers held open for in-progress installs.
+    for (MemberState member : context.getClusterState().getRemoteMemberStates()) {
+      resetSnapshot(member);
+    }
   }
 
 }
@@ -21,6 +21,8 @@ import io.atomix.copycat.server.CopycatServer;
 import io.atomix.copycat.server.protocol.*;
 import io.atomix.copycat.server.storage.entry.Entry;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
@@ -91,6 +93,11 @@ abstract class ActiveState extends PassiveState {
 
   @Override
   protected AppendResponse appendEntries(AppendRequest request) {
+    // If any entry in the request is corrupt, reject the request before truncating or appending to the log.
+    if (!verifyEntries(request)) {
+      return rejectEntries(request);
+    }
+
     // Get the last entry index or default to the request log index.
     long lastEntryIndex = request.logIndex();
     if (!request.entries().isEmpty()) {
@@ -100,12 +107,13 @@ abstract class ActiveState extends PassiveState {
     // Ensure the commitIndex is not increased beyond the index of the last entry in the request.
     long commitIndex = Math.max(context.getCommitIndex(), Math.min(request.commitIndex(), lastEntryIndex));
 
-    // Iterate through request entries and append them to the log.
+    // Iterate through request entries and collect the entries to append to the log. Because entries in the
+    // request are sequential, once an entry is to be appended all subsequent entries will be appended as well.
+    List<Entry> entries = new ArrayList<>(request.entries().size());
     for (Entry entry : request.entries()) {
-      // If the entry index is greater than the last log index, skip missing entries.
-      if (context.getLog().lastIndex() < entry.getIndex()) {
-        context.getLog().skip(entry.getIndex() - context.getLog().lastIndex() - 1).append(entry);
-        LOGGER.trace("{} - Appended {} to log at index {}", context.getCluster().member().address(), entry, entry.getIndex());
+      // If the entry index is greater than the last log index, append the entry. Missing entries are skipped.
+      if (!entries.isEmpty() || context.getLog().lastIndex() < entry.getIndex()) {
+        entries.add(entry);
       } else if (entry.getIndex() > context.getCommitIndex()) {
         // Compare the term of the received entry with the matching entry in the log.
         long term = context.getLog().term(entry.getIndex());
@@ -114,16 +122,22 @@ abstract class ActiveState extends PassiveState {
             // We found an invalid entry in the log. Remove the invalid entry and append the new entry.
             // If appending to the log fails, apply commits and reply false to the append request.
             LOGGER.debug("{} - Appended entry term does not match local log, removing incorrect entries", context.getCluster().member().address());
-            context.getLog().truncate(entry.getIndex() - 1).append(entry);
-            LOGGER.trace("{} - Appended {} to log at index {}", context.getCluster().member().address(), entry, entry.getIndex());
+            context.getLog().truncate(entry.getIndex() - 1);
+            entries.add(entry);
           }
         } else {
-          context.getLog().truncate(entry.getIndex() - 1).append(entry);
-          LOGGER.trace("{} - Appended {} to log at index {}", context.getCluster().member().address(), entry, entry.getIndex());
+          context.getLog().truncate(entry.getIndex() - 1);
+          entries.add(entry);
         }
       }
     }
 
+    // Append the entries to the log in a single batch.
+    if (!entries.isEmpty()) {
+      context.getLog().append(entries);
+      LOGGER.trace("{} - Appended {} entries to log at index {}", context.getCluster().member().address(), entries.size(), entries.get(0).getIndex());
+    }
+
     // If we've made it this far, apply commits and send a successful response.
     long previousCommitIndex = context.getCommitIndex();
     context.setCommitIndex(commitIndex);
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package io.atomix.copycat.server.state;
+
+import io.atomix.catalyst.concurrent.CatalystThreadFactory;
+import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.LogIterator;
+import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads batches of entries for members that have fallen behind the leader.
+ * <p>
+ * When a member falls far enough behind the leader that its entries are no longer cached in memory, the entries
+ * must be read from disk. Rather than reading old entries on the server thread, the leader reads batches of entries
+ * for lagging members from a {@link LogIterator} on a dedicated thread pool. Reads are limited to the configured
+ * {@link ServerContext#getCatchUpBandwidth() catch-up bandwidth} using a token bucket that allows bursts of up to
+ * one second of reads, so recovering members can't starve the leader's disk or network.
+ * <p>
+ * The bandwidth limit is shared by all lagging members, but it never blocks reader threads. Once a batch has been
+ * read, its bytes are charged to the bucket and the batch is released after the delay required to repay any
+ * overdraft, so reads for other members continue while a batch waits. Since only one batch is read for a member
+ * at a time, a member that is slow to acknowledge its entries consumes no bandwidth while its batch is outstanding.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+final class CatchUpReader implements AutoCloseable {
+  private final ScheduledExecutorService executor;
+  private final long bandwidth;
+  private double tokens;
+  private long time = System.nanoTime();
+
+  CatchUpReader(int threads, long bandwidth) {
+    Assert.arg(threads, threads > 0, "threads must be positive");
+    this.bandwidth = Assert.argNot(bandwidth, bandwidth < 0, "bandwidth cannot be negative");
+    this.tokens = bandwidth;
+    this.executor = Executors.newScheduledThreadPool(threads, new CatalystThreadFactory("copycat-catchup-%d"));
+  }
+
+  /**
+   * Reads the next batch of entries from the given iterator.
+   * <p>
+   * Entries are read until the batch reaches the maximum batch size or the iterator is exhausted. The returned
+   * future is completed on a catch-up reader thread once the batch is permitted by the bandwidth limit.
+   *
+   * @param iterator The iterator from which to read entries.
+   * @return A future to be completed with the next batch of entries.
+   */
+  CompletableFuture<Batch> read(LogIterator iterator) {
+    CompletableFuture<Batch> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        try {
+          RawEntry prevEntry = iterator.previous();
+          List<Entry> entries = new ArrayList<>();
+          int size = 0;
+          while (size < AbstractAppender.MAX_BATCH_SIZE && iterator.hasNext()) {
+            RawEntry entry = iterator.next();
+            size += entry.size();
+            entries.add(entry);
+          }
+
+          Batch batch = new Batch(prevEntry, entries);
+          long delay = reserve(size);
+          if (delay > 0) {
+            executor.schedule(() -> future.complete(batch), delay, TimeUnit.NANOSECONDS);
+          } else {
+            future.complete(batch);
+          }
+        } catch (Exception e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Charges the given number of bytes to the bandwidth limit.
+   *
+   * @return The time in nanoseconds after which the bytes are permitted by the bandwidth limit.
+   */
+  private synchronized long reserve(long bytes) {
+    if (bandwidth == 0)
+      return 0;
+
+    long now = System.nanoTime();
+    tokens = Math.min(bandwidth, tokens + (now - time) * bandwidth / (double) TimeUnit.SECONDS.toNanos(1));
+    time = now;
+    tokens -= bytes;
+    return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bandwidth);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Batch of entries read to catch up a member.
+   */
+  static final class Batch {
+    private final RawEntry prevEntry;
+    private final List<Entry> entries;
+
+    private Batch(RawEntry prevEntry, List<Entry> entries) {
+      this.prevEntry = prevEntry;
+      this.entries = entries;
+    }
+
+    /**
+     * Returns the entry preceding the batch.
+     *
+     * @return The entry preceding the batch or {@code null} if no preceding entry exists.
+     */
+    RawEntry prevEntry() {
+      return prevEntry;
+    }
+
+    /**
+     * Returns the entries in the batch.
+     *
+     * @return The entries in the batch.
+     */
+    List<Entry> entries() {
+      return entries;
+    }
+  }
+
+}
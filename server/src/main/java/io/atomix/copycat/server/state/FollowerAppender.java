@@ -16,6 +16,7 @@
 package io.atomix.copycat.server.state;
 
 import io.atomix.copycat.server.cluster.Member;
+import io.atomix.copycat.server.protocol.InstallRequest;
 
 /**
  * Follower appender.
@@ -55,8 +56,11 @@ final class FollowerAppender extends AbstractAppender {
     if (context.getSnapshotStore().currentSnapshot() != null
       && context.getSnapshotStore().currentSnapshot().index() >= member.getNextIndex()
       && context.getSnapshotStore().currentSnapshot().index() > member.getSnapshotIndex()) {
-      if (member.canInstall()) {
-        sendInstallRequest(member, buildInstallRequest(member));
+      if (member.canInstall(context.getSnapshotInstallWindow())) {
+        InstallRequest request = buildInstallRequest(member);
+        if (request != null) {
+          sendInstallRequest(member, request);
+        }
       }
     }
     // If no AppendRequest is already being sent, send an AppendRequest.
@@ -15,6 +15,7 @@
  */
 package io.atomix.copycat.server.state;
 
+import io.atomix.catalyst.concurrent.Scheduled;
 import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.error.InternalException;
 import io.atomix.copycat.protocol.Response;
@@ -26,8 +27,15 @@ import io.atomix.copycat.server.protocol.ConfigureRequest;
 import io.atomix.copycat.server.protocol.ConfigureResponse;
 import io.atomix.copycat.server.protocol.InstallRequest;
 import io.atomix.copycat.server.protocol.InstallResponse;
+import io.atomix.copycat.server.storage.LogIterator;
+import io.atomix.copycat.server.storage.compaction.Compactor;
+import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +44,21 @@ import java.util.concurrent.CompletableFuture;
 /**
  * The leader appender is responsible for sending {@link AppendRequest}s on behalf of a leader to followers.
  * Append requests are sent by the leader only to other active members of the cluster.
+ * <p>
+ * If an {@link ServerContext#getAppendLinger() append linger} is configured, new entries are not replicated
+ * immediately. Instead, entries are accumulated until either the linger expires or the
+ * {@link ServerContext#getAppendBatchSize() append batch size} is reached, and the accumulated entries are
+ * then replicated to each member in a single round of append requests.
+ * <p>
+ * Entries {@link #append(Entry) appended} through the appender are written to the leader's log and flushed to disk
+ * asynchronously, so entries are replicated to followers while the leader's own write is in progress. The leader
+ * counts toward the quorum for an entry only once the entry has been flushed to its local disk.
+ * <p>
+ * Members that have fallen far enough behind that their entries are no longer cached in memory are caught up by
+ * streaming entries from a {@link LogIterator} on a separate {@link CatchUpReader} thread pool, so reading old
+ * entries from disk does not block the server thread. Once a snapshot that covers a lagging member's next index
+ * becomes available, catch-up reads for the member are abandoned and the snapshot is installed instead, unless the
+ * entries the snapshot covers are still in the log and are cheaper to send than the snapshot.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
@@ -52,10 +75,15 @@ final class LeaderAppender extends AbstractAppender {
   private CompletableFuture<Long> heartbeatFuture;
   private CompletableFuture<Long> nextHeartbeatFuture;
   private final Map<Long, CompletableFuture<Long>> appendFutures = new HashMap<>();
+  private int pendingEntries;
+  private Scheduled lingerTimer;
+  private long localIndex;
+  private final CatchUpReader catchUpReader;
 
   LeaderAppender(LeaderState leader) {
     super(leader.context);
     this.leader = Assert.notNull(leader, "leader");
+    this.catchUpReader = new CatchUpReader(context.getCatchUpThreads(), context.getCatchUpBandwidth());
     this.leaderTime = System.currentTimeMillis();
     this.leaderIndex = context.getLog().nextIndex();
     this.heartbeatTime = leaderTime;
@@ -80,6 +108,54 @@ final class LeaderAppender extends AbstractAppender {
     return leaderIndex;
   }
 
+  /**
+   * Appends an entry to the leader's log.
+   * <p>
+   * The entry is written to the log immediately and can be replicated to followers, but the leader's local
+   * write is flushed to disk in the background. Once the entry is durable, the leader's local index is updated
+   * and commit futures are checked. If the flush fails, the leader can no longer count itself toward a quorum,
+   * so pending appends are failed and the leader steps down.
+   *
+   * @param entry The entry to append.
+   * @return The appended entry index.
+   */
+  long append(Entry entry) {
+    CompletableFuture<Long> future = context.getLog().appendAsync(entry);
+    long index = entry.getIndex();
+    if (future.isDone() && !future.isCompletedExceptionally()) {
+      localIndex = Math.max(localIndex, index);
+    } else {
+      future.whenComplete((result, error) -> context.getThreadContext().executor().execute(() -> {
+        if (!open) {
+          return;
+        }
+        if (error == null) {
+          if (result > localIndex) {
+            localIndex = result;
+            commitEntries();
+          }
+        } else {
+          failFlush(index, error);
+        }
+      }));
+    }
+    return index;
+  }
+
+  /**
+   * Fails pending appends and steps down after the leader failed to flush an entry to its own log.
+   */
+  private void failFlush(long index, Throwable error) {
+    logger.warn("{} - Failed to flush entry {}. Stepping down", context.getCluster().member().address(), index, error);
+    List<CompletableFuture<Long>> futures = new ArrayList<>(appendFutures.values());
+    appendFutures.clear();
+    for (CompletableFuture<Long> future : futures) {
+      future.completeExceptionally(error);
+    }
+    context.setLeader(0);
+    context.transition(CopycatServer.State.FOLLOWER);
+  }
+
   /**
    * Returns the current quorum index.
    *
@@ -139,8 +215,9 @@ final class LeaderAppender extends AbstractAppender {
     if (index == 0)
       return appendEntries();
 
+    // If the index has already been committed, wait for it to be flushed to disk before completing the future.
     if (index <= context.getCommitIndex())
-      return CompletableFuture.completedFuture(index);
+      return syncCommit(index);
 
     // If there are no other stateful servers in the cluster, immediately commit the index.
     if (context.getClusterState().getActiveMemberStates().isEmpty() && context.getClusterState().getPassiveMemberStates().isEmpty()) {
@@ -148,7 +225,7 @@ final class LeaderAppender extends AbstractAppender {
       context.setCommitIndex(index);
       context.setGlobalIndex(index);
       completeCommits(previousCommitIndex, index);
-      return CompletableFuture.completedFuture(index);
+      return syncCommit(index);
     }
     // If there are no other active members in the cluster, update the commit index and complete the commit.
     // The updated commit index will be sent to passive/reserve members on heartbeats.
@@ -156,16 +233,45 @@ final class LeaderAppender extends AbstractAppender {
       long previousCommitIndex = context.getCommitIndex();
       context.setCommitIndex(index);
       completeCommits(previousCommitIndex, index);
-      return CompletableFuture.completedFuture(index);
+      return syncCommit(index);
     }
 
-    // Only send entry-specific AppendRequests to active members of the cluster.
-    return appendFutures.computeIfAbsent(index, i -> {
-      for (MemberState member : context.getClusterState().getActiveMemberStates()) {
-        appendEntries(member);
-      }
-      return new CompletableFuture<>();
-    });
+    // Only send entry-specific AppendRequests to active members of the cluster. The future is registered before
+    // entries are sent since a failed request can transition the leader inline.
+    CompletableFuture<Long> future = appendFutures.get(index);
+    if (future == null) {
+      future = new CompletableFuture<>();
+      appendFutures.put(index, future);
+      lingerEntries();
+    }
+    return future;
+  }
+
+  /**
+   * Replicates a new entry to active members, lingering to batch it with other new entries if configured.
+   */
+  private void lingerEntries() {
+    Duration linger = context.getAppendLinger();
+    if (linger.isZero() || ++pendingEntries >= context.getAppendBatchSize()) {
+      flushEntries();
+    } else if (lingerTimer == null) {
+      lingerTimer = context.getThreadContext().schedule(linger, this::flushEntries);
+    }
+  }
+
+  /**
+   * Sends pending entries to all active members.
+   */
+  private void flushEntries() {
+    pendingEntries = 0;
+    if (lingerTimer != null) {
+      lingerTimer.cancel();
+      lingerTimer = null;
+    }
+
+    for (MemberState member : context.getClusterState().getActiveMemberStates()) {
+      appendEntries(member);
+    }
   }
 
   @Override
@@ -201,17 +307,161 @@ final class LeaderAppender extends AbstractAppender {
     }
     // If the member's current snapshot index is less than the latest snapshot index and the latest snapshot index
     // is less than the nextIndex, send a snapshot request.
-    else if (member.getMember().type() == Member.Type.ACTIVE && context.getSnapshotStore().currentSnapshot() != null
-      && context.getSnapshotStore().currentSnapshot().index() >= member.getNextIndex()
-      && context.getSnapshotStore().currentSnapshot().index() > member.getSnapshotIndex()) {
-      if (member.canInstall()) {
-        sendInstallRequest(member, buildInstallRequest(member));
+    else if (needsSnapshot(member)) {
+      if (member.canInstall(context.getSnapshotInstallWindow())) {
+        InstallRequest request = buildInstallRequest(member);
+        if (request != null) {
+          sendInstallRequest(member, request);
+        }
       }
     }
-    // If no AppendRequest is already being sent, send an AppendRequest.
+    // If no AppendRequest is already being sent, send an AppendRequest. If the member has fallen far enough
+    // behind that its entries must be read from disk, read the entries on the catch-up reader.
     else if (member.canAppend()) {
-      sendAppendRequest(member, buildAppendRequest(member, context.getLog().lastIndex()));
+      long lastIndex = context.getLog().lastIndex();
+      if (isLagging(member, lastIndex)) {
+        catchUp(member);
+      } else {
+        sendAppendRequest(member, buildAppendRequest(member, lastIndex));
+      }
+    }
+  }
+
+  /**
+   * Returns a boolean indicating whether the current snapshot must be installed on the given member.
+   * <p>
+   * A snapshot that covers the member's next index is installed if any of the entries it covers may be hidden or
+   * removed from the log by compaction, if an install is already in progress, or if the snapshot chain is smaller
+   * than the entries it covers. Otherwise, the member is sent the entries from the log.
+   * <p>
+   * Once the compactor's snapshot index or minor index reaches the member's next index, entries the member needs
+   * are skipped when read from the log, even in segments that have not yet been compacted, so the snapshot must
+   * be installed to ensure the member's state machine sees their effects.
+   */
+  boolean needsSnapshot(MemberState member) {
+    Snapshot snapshot = context.getSnapshotStore().currentSnapshot();
+    if (member.getMember().type() != Member.Type.ACTIVE || snapshot == null
+      || snapshot.index() < member.getNextIndex()
+      || snapshot.index() <= member.getSnapshotIndex()) {
+      return false;
+    }
+
+    if (member.getNextSnapshotIndex() > 0)
+      return true;
+
+    Compactor compactor = context.getLog().compactor();
+    if (member.getNextIndex() <= Math.max(compactor.snapshotIndex(), compactor.minorIndex()))
+      return true;
+
+    long logSize = context.getLog().size(member.getNextIndex(), snapshot.index());
+    return logSize < 0 || snapshotSize(member, snapshot) < logSize;
+  }
+
+  /**
+   * Returns the size of the snapshots in the given snapshot's chain that have not been installed on the member.
+   */
+  private long snapshotSize(MemberState member, Snapshot snapshot) {
+    long size = 0;
+    for (Snapshot chained : context.getSnapshotStore().snapshotChain(snapshot)) {
+      if (chained.index() > member.getSnapshotIndex()) {
+        size += chained.size();
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns a boolean indicating whether the given member has fallen far enough behind that the entries it needs
+   * are no longer cached in memory.
+   */
+  private boolean isLagging(MemberState member, long lastIndex) {
+    return member.getFailureCount() == 0
+      && !context.getLog().isEmpty()
+      && lastIndex - member.getNextIndex() >= context.getStorage().entryBufferSize();
+  }
+
+  /**
+   * Reads the next batch of entries for a lagging member on the catch-up reader and sends them to the member.
+   * <p>
+   * Only one batch is read for a member at a time. The member's iterator is reused across batches as long as
+   * it continues from the member's next index, so entries are streamed sequentially from disk. Once a batch has
+   * been sent, the next batch is read while the prior append request is in flight.
+   */
+  private void catchUp(MemberState member) {
+    if (member.isCatchingUp())
+      return;
+
+    long nextIndex = member.getNextIndex();
+    LogIterator iterator = catchUpIterator(member);
+    member.startCatchUp();
+    catchUpReader.read(iterator).whenComplete((batch, error) -> context.getThreadContext().executor().execute(() -> {
+      completeCatchUp(member, iterator, nextIndex, batch, error);
+    }));
+  }
+
+  /**
+   * Returns the iterator from which to read the next batch of entries for the given member.
+   * <p>
+   * The member's existing iterator is reused if it continues from the member's next index and has entries
+   * remaining. Otherwise, a new iterator is opened at the member's next index.
+   */
+  LogIterator catchUpIterator(MemberState member) {
+    long nextIndex = member.getNextIndex();
+    LogIterator iterator = member.getCatchUpIterator();
+    if (iterator == null || iterator.index() != nextIndex || iterator.index() > iterator.lastIndex()) {
+      iterator = context.getLog().iterator(nextIndex);
+      member.setCatchUpIterator(iterator);
     }
+    return iterator;
+  }
+
+  /**
+   * Completes a catch-up read for the given member, sending the batch to the member if it's still needed.
+   *
+   * @param member The member for which the batch was read.
+   * @param iterator The iterator from which the batch was read.
+   * @param nextIndex The member's next index when the read was started.
+   * @param batch The batch that was read, or {@code null} if the read failed.
+   * @param error The error with which the read failed, or {@code null} if the read succeeded.
+   */
+  void completeCatchUp(MemberState member, LogIterator iterator, long nextIndex, CatchUpReader.Batch batch, Throwable error) {
+    // If the member's state was reset while the batch was being read, discard the batch.
+    if (member.getCatchUpIterator() != iterator)
+      return;
+
+    member.completeCatchUp();
+    if (!open)
+      return;
+
+    if (error != null) {
+      logger.warn("{} - Failed to read entries for {}", context.getCluster().member().address(), member.getMember().serverAddress(), error);
+      member.setCatchUpIterator(null);
+    }
+    // If the member's next index changed or a snapshot covering the member's next index became available
+    // while the batch was being read, discard the batch and send the member the appropriate request.
+    else if (member.getNextIndex() != nextIndex || needsSnapshot(member)) {
+      member.setCatchUpIterator(null);
+      appendEntries(member);
+    } else {
+      sendAppendRequest(member, buildCatchUpRequest(batch));
+    }
+  }
+
+  /**
+   * Builds an append request for a batch of entries read by the catch-up reader.
+   */
+  private AppendRequest buildCatchUpRequest(CatchUpReader.Batch batch) {
+    RawEntry prevEntry = batch.prevEntry();
+    ServerMember leader = context.getLeader();
+    return AppendRequest.builder()
+      .withTerm(context.getTerm())
+      .withLeader(leader != null ? leader.id() : 0)
+      .withLogIndex(prevEntry != null ? prevEntry.getIndex() : 0)
+      .withLogTerm(prevEntry != null ? prevEntry.getTerm() : 0)
+      .withEntries(batch.entries())
+      .withCommitIndex(context.getCommitIndex())
+      .withGlobalIndex(context.getGlobalIndex())
+      .build();
   }
 
   @Override
@@ -327,8 +577,14 @@ final class LeaderAppender extends AbstractAppender {
       return;
     }
 
-    // Calculate the current commit index as the median matchIndex.
-    long commitIndex = members.get(quorumIndex()).getMatchIndex();
+    // Calculate the current commit index as the median matchIndex. The leader counts toward the quorum only
+    // for entries that have been flushed to its local disk, so if the leader's local index is behind the quorum
+    // index, the commit index is either the leader's local index or the next highest member's match index.
+    int quorumIndex = quorumIndex();
+    long commitIndex = Math.min(members.get(quorumIndex).getMatchIndex(), localIndex);
+    if (quorumIndex + 1 < members.size()) {
+      commitIndex = Math.max(commitIndex, members.get(quorumIndex + 1).getMatchIndex());
+    }
 
     // If the commit index has increased then update the commit index. Note that in order to ensure
     // the leader completeness property holds, we verify that the commit index is greater than or equal to
@@ -341,13 +597,48 @@ final class LeaderAppender extends AbstractAppender {
   }
 
   /**
-   * Completes append entries attempts up to the given index.
+   * Returns a future to be completed on the server thread once the given committed index has been flushed to disk.
+   */
+  private CompletableFuture<Long> syncCommit(long index) {
+    CompletableFuture<Long> sync = context.getLog().sync(index);
+    if (sync.isDone())
+      return sync;
+
+    CompletableFuture<Long> future = new CompletableFuture<>();
+    sync.whenComplete((result, error) -> context.getThreadContext().executor().execute(() -> {
+      if (error == null) {
+        future.complete(index);
+      } else {
+        future.completeExceptionally(error);
+      }
+    }));
+    return future;
+  }
+
+  /**
+   * Completes append entries attempts up to the given index once the index has been flushed to disk.
    */
   private void completeCommits(long previousCommitIndex, long commitIndex) {
+    CompletableFuture<Long> sync = context.getLog().sync(commitIndex);
+    if (sync.isDone()) {
+      completeCommitFutures(previousCommitIndex, commitIndex, null);
+    } else {
+      sync.whenComplete((result, error) -> context.getThreadContext().executor().execute(() -> completeCommitFutures(previousCommitIndex, commitIndex, error)));
+    }
+  }
+
+  /**
+   * Completes append entries attempts up to the given index.
+   */
+  private void completeCommitFutures(long previousCommitIndex, long commitIndex, Throwable error) {
     for (long i = previousCommitIndex + 1; i <= commitIndex; i++) {
       CompletableFuture<Long> future = appendFutures.remove(i);
       if (future != null) {
-        future.complete(i);
+        if (error == null) {
+          future.complete(i);
+        } else {
+          future.completeExceptionally(error);
+        }
       }
     }
   }
@@ -402,7 +693,7 @@ final class LeaderAppender extends AbstractAppender {
 
     // If replication succeeded then trigger commit futures.
     if (response.succeeded()) {
-      member.appendSucceeded();
+      member.appendSucceeded(sizeOf(request));
       updateMatchIndex(member, response);
 
       // If entries were committed to the replica then check commit indexes.
@@ -529,4 +820,14 @@ final class LeaderAppender extends AbstractAppender {
     super.handleInstallResponseFailure(member, request, error);
   }
 
+  @Override
+  public void close() {
+    if (lingerTimer != null) {
+      lingerTimer.cancel();
+      lingerTimer = null;
+    }
+    super.close();
+    catchUpReader.close();
+  }
+
 }
@@ -91,7 +91,7 @@ final class LeaderState extends ActiveState {
     try (InitializeEntry entry = context.getLog().create(InitializeEntry.class)) {
       entry.setTerm(term)
         .setTimestamp(appender.time());
-      Assert.state(context.getLog().append(entry) == appender.index(), "Initialize entry not appended at the start of the leader's term");
+      Assert.state(appender.append(entry) == appender.index(), "Initialize entry not appended at the start of the leader's term");
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
     }
 
@@ -172,7 +172,7 @@ final class LeaderState extends ActiveState {
             .setSession(session.id())
             .setExpired(true)
             .setTimestamp(System.currentTimeMillis());
-          index = context.getLog().append(entry);
+          index = appender.append(entry);
           LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
         }
 
@@ -220,7 +220,7 @@ final class LeaderState extends ActiveState {
       entry.setTerm(context.getTerm())
         .setTimestamp(System.currentTimeMillis())
         .setMembers(members);
-      index = context.getLog().append(entry);
+      index = appender.append(entry);
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
 
       // Store the index of the configuration entry in order to prevent other configurations from
@@ -515,7 +515,7 @@ final class LeaderState extends ActiveState {
         .setTimestamp(timestamp)
         .setSequence(request.sequence())
         .setCommand(command);
-      index = context.getLog().append(entry);
+      index = appender.append(entry);
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
     }
 
@@ -657,7 +657,7 @@ final class LeaderState extends ActiveState {
         .setTimestamp(timestamp)
         .setClient(request.client())
         .setTimeout(timeout);
-      index = context.getLog().append(entry);
+      index = appender.append(entry);
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
     }
 
@@ -742,7 +742,7 @@ final class LeaderState extends ActiveState {
         .setCommandSequence(request.commandSequence())
         .setEventIndex(request.eventIndex())
         .setTimestamp(timestamp);
-      index = context.getLog().append(entry);
+      index = appender.append(entry);
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
     }
 
@@ -809,7 +809,7 @@ final class LeaderState extends ActiveState {
         .setSession(request.session())
         .setExpired(false)
         .setTimestamp(timestamp);
-      index = context.getLog().append(entry);
+      index = appender.append(entry);
       LOGGER.trace("{} - Appended {}", context.getCluster().member().address(), entry);
     }
 
@@ -17,31 +17,59 @@ package io.atomix.copycat.server.state;
 
 import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.server.storage.Log;
+import io.atomix.copycat.server.storage.LogIterator;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
 
 /**
  * Cluster member state.
+ * <p>
+ * In addition to replication indexes, the member state maintains a flow control window that limits the number of
+ * bytes of entries in outstanding {@link io.atomix.copycat.server.protocol.AppendRequest}s to the member. Similar
+ * to TCP congestion control, the window grows exponentially up to a threshold and linearly thereafter as appends
+ * are acknowledged by the member, and it's halved when an append fails or when the round trip time of appends
+ * rises significantly above the minimum observed round trip time. This allows the leader to keep more entries in
+ * flight to members over high latency links without overwhelming slow members.
+ * <p>
+ * Round trip times are only sampled from requests carrying at least half a batch of entries, since the round trip
+ * time of small requests is dominated by fixed per-request costs and would set an unrealistically low minimum. The
+ * minimum round trip time expires periodically so that a lasting increase in latency between the leader and the
+ * member is eventually treated as the new baseline rather than as ongoing congestion.
  *
  * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
  */
 final class MemberState {
-  private static final int MAX_APPENDS = 2;
+  static final int MIN_APPEND_WINDOW = 1024 * 32;
+  static final int INITIAL_APPEND_WINDOW = MIN_APPEND_WINDOW * 2;
+  static final int MAX_APPEND_WINDOW = 1024 * 1024 * 8;
+  static final int MIN_APPEND_REQUESTS = 2;
+  static final int MIN_RTT_SAMPLE_SIZE = AbstractAppender.MAX_BATCH_SIZE / 2;
+  static final long MIN_RTT_EXPIRATION = 10_000_000_000L;
+  private static final int RTT_CONGESTION_FACTOR = 2;
   private final ServerMember member;
   private long term;
   private long configIndex;
   private long snapshotIndex;
   private long nextSnapshotIndex;
   private int nextSnapshotOffset;
+  private SnapshotReader snapshotReader;
+  private LogIterator catchUpIterator;
+  private boolean catchingUp;
   private long matchIndex;
   private long nextIndex;
   private long heartbeatTime;
   private long heartbeatStartTime;
   private int appending;
+  private long appendingBytes;
   private boolean appendSucceeded;
-  private long appendTime;
+  private int appendWindow = INITIAL_APPEND_WINDOW;
+  private int appendThreshold = MAX_APPEND_WINDOW;
+  private long appendRtt;
+  private long minAppendRtt;
+  private long minAppendRttTime;
+  private long appendWindowTime;
   private boolean configuring;
-  private boolean installing;
+  private int installing;
   private int failures;
-  private final TimeBuffer timeBuffer = new TimeBuffer(8);
 
   public MemberState(ServerMember member, ClusterState cluster) {
     this.member = Assert.notNull(member, "member").setCluster(cluster);
@@ -53,14 +81,23 @@ final class MemberState {
   void resetState(Log log) {
     nextSnapshotIndex = 0;
     nextSnapshotOffset = 0;
+    setSnapshotReader(null);
+    catchUpIterator = null;
+    catchingUp = false;
     matchIndex = 0;
     nextIndex = log.lastIndex() + 1;
     heartbeatTime = 0;
     heartbeatStartTime = 0;
     appending = 0;
-    timeBuffer.reset();
+    appendingBytes = 0;
+    appendWindow = INITIAL_APPEND_WINDOW;
+    appendThreshold = MAX_APPEND_WINDOW;
+    appendRtt = 0;
+    minAppendRtt = 0;
+    minAppendRttTime = 0;
+    appendWindowTime = 0;
     configuring = false;
-    installing = false;
+    installing = 0;
     appendSucceeded = false;
     failures = 0;
   }
@@ -174,6 +211,79 @@ final class MemberState {
     return this;
   }
 
+  /**
+   * Returns the reader for the snapshot being installed on the member.
+   *
+   * @return The reader for the snapshot being installed on the member or {@code null} if no reader is open.
+   */
+  SnapshotReader getSnapshotReader() {
+    return snapshotReader;
+  }
+
+  /**
+   * Sets the reader for the snapshot being installed on the member, closing the previous reader if necessary.
+   *
+   * @param snapshotReader The reader for the snapshot being installed on the member.
+   * @return The member state.
+   */
+  MemberState setSnapshotReader(SnapshotReader snapshotReader) {
+    if (this.snapshotReader != null && this.snapshotReader != snapshotReader) {
+      this.snapshotReader.close();
+    }
+    this.snapshotReader = snapshotReader;
+    return this;
+  }
+
+  /**
+   * Returns the iterator from which entries are read to catch up the member.
+   *
+   * @return The iterator from which entries are read to catch up the member or {@code null} if the member is not
+   * catching up.
+   */
+  LogIterator getCatchUpIterator() {
+    return catchUpIterator;
+  }
+
+  /**
+   * Sets the iterator from which entries are read to catch up the member.
+   *
+   * @param catchUpIterator The iterator from which entries are read to catch up the member.
+   * @return The member state.
+   */
+  MemberState setCatchUpIterator(LogIterator catchUpIterator) {
+    this.catchUpIterator = catchUpIterator;
+    return this;
+  }
+
+  /**
+   * Returns a boolean indicating whether entries are currently being read to catch up the member.
+   *
+   * @return Indicates whether entries are currently being read to catch up the member.
+   */
+  boolean isCatchingUp() {
+    return catchingUp;
+  }
+
+  /**
+   * Starts reading entries to catch up the member.
+   *
+   * @return The member state.
+   */
+  MemberState startCatchUp() {
+    catchingUp = true;
+    return this;
+  }
+
+  /**
+   * Completes reading entries to catch up the member.
+   *
+   * @return The member state.
+   */
+  MemberState completeCatchUp() {
+    catchingUp = false;
+    return this;
+  }
+
   /**
    * Returns the member's match index.
    *
@@ -216,19 +326,37 @@ final class MemberState {
 
   /**
    * Returns a boolean indicating whether an append request can be sent to the member.
+   * <p>
+   * An append request can always be sent if no other appends are outstanding. Otherwise, append requests are
+   * pipelined only if the last append succeeded and the outstanding appends have not filled the append window.
+   * The number of outstanding requests is also limited to the number of full batches that fit in the window to
+   * prevent small requests from flooding the member, but at least {@link #MIN_APPEND_REQUESTS} requests may be
+   * outstanding so that the member isn't left idle while an acknowledgement is in flight.
    *
    * @return Indicates whether an append request can be sent to the member.
    */
   boolean canAppend() {
-    return appending == 0 || (appendSucceeded && appending < MAX_APPENDS && System.nanoTime() - (timeBuffer.average() / MAX_APPENDS) >= appendTime);
+    return appending == 0 || (appendSucceeded && appendingBytes < appendWindow
+      && appending < Math.max(appendWindow / MIN_APPEND_WINDOW, MIN_APPEND_REQUESTS));
   }
 
   /**
-   * Flags the last append to the member as successful.
+   * Flags the last append to the member as successful, growing the append window.
+   * <p>
+   * The window is grown only if the outstanding appends were using at least half the window when the append was
+   * acknowledged. This prevents the window from growing arbitrarily large while the member is idle.
    *
+   * @param size The size of the entries in the successful append.
    * @return The member state.
    */
-  MemberState appendSucceeded() {
+  MemberState appendSucceeded(int size) {
+    if (size > 0 && appendingBytes + size >= appendWindow / 2) {
+      if (appendWindow < appendThreshold) {
+        appendWindow = (int) Math.min((long) appendWindow + size, MAX_APPEND_WINDOW);
+      } else {
+        appendWindow = (int) Math.min(appendWindow + Math.max((long) MIN_APPEND_WINDOW * size / appendWindow, 1), MAX_APPEND_WINDOW);
+      }
+    }
     return appendSucceeded(true);
   }
 
@@ -252,36 +380,131 @@ final class MemberState {
     return this;
   }
 
+  /**
+   * Halves the append window.
+   * <p>
+   * The window is reduced at most once per round trip since appends that were already outstanding when the
+   * window was reduced are likely to be affected by the same congestion.
+   *
+   * @return The member state.
+   */
+  MemberState reduceAppendWindow() {
+    return reduceAppendWindow(System.nanoTime());
+  }
+
+  /**
+   * Halves the append window at the given time.
+   */
+  private MemberState reduceAppendWindow(long time) {
+    if (appendWindowTime == 0 || time - appendWindowTime >= appendRtt) {
+      appendThreshold = Math.max(appendWindow / 2, MIN_APPEND_WINDOW);
+      appendWindow = appendThreshold;
+      appendWindowTime = time;
+    }
+    return this;
+  }
+
   /**
    * Starts an append request to the member.
    *
+   * @param size The size of the entries in the append request.
    * @return The member state.
    */
-  MemberState startAppend() {
+  MemberState startAppend(int size) {
     appending++;
-    appendTime = System.nanoTime();
+    appendingBytes += size;
     return this;
   }
 
   /**
    * Completes an append request to the member.
    *
+   * @param size The size of the entries in the append request.
    * @return The member state.
    */
-  MemberState completeAppend() {
-    appending--;
+  MemberState completeAppend(int size) {
+    // Append requests started prior to the member state being reset may complete after the reset.
+    if (appending > 0) {
+      appending--;
+    }
+    appendingBytes = Math.max(appendingBytes - size, 0);
     return this;
   }
 
   /**
-   * Completes an append request to the member.
+   * Completes an append request to the member, recording the round trip time of the request.
+   * <p>
+   * If the smoothed round trip time rises to more than twice the minimum observed round trip time, requests are
+   * assumed to be queueing between the leader and the member and the append window is reduced. Round trip times
+   * are only recorded for requests of at least {@link #MIN_RTT_SAMPLE_SIZE} bytes.
+   *
+   * @param size The size of the entries in the append request.
+   * @param time The time in nanoseconds for the append.
+   * @return The member state.
+   */
+  MemberState completeAppend(int size, long time) {
+    return completeAppend(size, time, System.nanoTime());
+  }
+
+  /**
+   * Completes an append request to the member at the given time, recording the round trip time of the request.
+   * <p>
+   * The minimum round trip time is replaced by the request's round trip time if it hasn't been matched or
+   * undercut within {@link #MIN_RTT_EXPIRATION} nanoseconds.
    *
-   * @param time The time in milliseconds for the append.
+   * @param size The size of the entries in the append request.
+   * @param time The time in nanoseconds for the append.
+   * @param now The current time in nanoseconds.
    * @return The member state.
    */
-  MemberState completeAppend(long time) {
-    timeBuffer.record(time);
-    return completeAppend();
+  MemberState completeAppend(int size, long time, long now) {
+    if (time > 0 && size >= MIN_RTT_SAMPLE_SIZE) {
+      if (minAppendRtt == 0 || time <= minAppendRtt || now - minAppendRttTime >= MIN_RTT_EXPIRATION) {
+        minAppendRtt = time;
+        minAppendRttTime = now;
+      }
+      appendRtt = appendRtt == 0 ? time : appendRtt - appendRtt / 8 + time / 8;
+      if (appendRtt > minAppendRtt * RTT_CONGESTION_FACTOR) {
+        reduceAppendWindow(now);
+      }
+    }
+    return completeAppend(size);
+  }
+
+  /**
+   * Returns the number of outstanding append requests to the member.
+   *
+   * @return The number of outstanding append requests to the member.
+   */
+  int getAppending() {
+    return appending;
+  }
+
+  /**
+   * Returns the size of the entries in outstanding append requests to the member.
+   *
+   * @return The size of the entries in outstanding append requests to the member in bytes.
+   */
+  long getAppendingBytes() {
+    return appendingBytes;
+  }
+
+  /**
+   * Returns the append window.
+   *
+   * @return The maximum size of the entries in outstanding append requests to the member in bytes.
+   */
+  int getAppendWindow() {
+    return appendWindow;
+  }
+
+  /**
+   * Returns the smoothed round trip time of append requests to the member.
+   *
+   * @return The smoothed round trip time of append requests to the member in nanoseconds.
+   */
+  long getAppendRoundTripTime() {
+    return appendRtt;
   }
 
   /**
@@ -316,10 +539,11 @@ final class MemberState {
   /**
    * Returns a boolean indicating whether an install request can be sent to the member.
    *
+   * @param window The maximum number of outstanding install requests to the member.
    * @return Indicates whether an install request can be sent to the member.
    */
-  boolean canInstall() {
-    return !installing;
+  boolean canInstall(int window) {
+    return installing < window;
   }
 
   /**
@@ -328,7 +552,7 @@ final class MemberState {
    * @return The member state.
    */
   MemberState startInstall() {
-    installing = true;
+    installing++;
     return this;
   }
 
@@ -338,7 +562,10 @@ final class MemberState {
    * @return The member state.
    */
   MemberState completeInstall() {
-    installing = false;
+    // Install requests started prior to the member state being reset may complete after the reset.
+    if (installing > 0) {
+      installing--;
+    }
     return this;
   }
 
@@ -415,53 +642,4 @@ final class MemberState {
     return member.serverAddress().toString();
   }
 
-  /**
-   * Timestamp ring buffer.
-   */
-  private static class TimeBuffer {
-    private final long[] buffer;
-    private int position;
-
-    public TimeBuffer(int size) {
-      this.buffer = new long[size];
-    }
-
-    /**
-     * Records a request round trip time.
-     *
-     * @param time The request round trip time to record.
-     */
-    public void record(long time) {
-      buffer[position++] = time;
-      if (position >= buffer.length) {
-        position = 0;
-      }
-    }
-
-    /**
-     * Returns the average of all recorded round trip times.
-     *
-     * @return The average of all recorded round trip times.
-     */
-    public long average() {
-      long total = 0;
-      for (long time : buffer) {
-        if (time > 0) {
-          total += time;
-        }
-      }
-      return total / buffer.length;
-    }
-
-    /**
-     * Resets the recorded round trip times.
-     */
-    public void reset() {
-      for (int i = 0; i < buffer.length; i++) {
-        buffer[i] = 0;
-      }
-      position = 0;
-    }
-  }
-
 }
@@ -29,9 +29,12 @@ import io.atomix.copycat.server.protocol.InstallResponse;
 import io.atomix.copycat.server.session.ServerSession;
 import io.atomix.copycat.server.storage.entry.Entry;
 import io.atomix.copycat.server.storage.entry.QueryEntry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
 import io.atomix.copycat.server.storage.snapshot.Snapshot;
 import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
@@ -43,6 +46,7 @@ import java.util.stream.Collectors;
  */
 class PassiveState extends ReserveState {
   private Snapshot pendingSnapshot;
+  private SnapshotWriter pendingSnapshotWriter;
   private int nextSnapshotOffset;
 
   public PassiveState(ServerContext context) {
@@ -188,6 +192,11 @@ class PassiveState extends ReserveState {
    * Appends entries to the local log.
    */
   protected AppendResponse appendEntries(AppendRequest request) {
+    // If any entry in the request is corrupt, reject the request without modifying the log.
+    if (!verifyEntries(request)) {
+      return rejectEntries(request);
+    }
+
     // Get the last entry index or default to the request log index.
     long lastEntryIndex = request.logIndex();
     if (!request.entries().isEmpty()) {
@@ -198,15 +207,21 @@ class PassiveState extends ReserveState {
     long commitIndex = Math.max(context.getCommitIndex(), Math.min(request.commitIndex(), lastEntryIndex));
 
     // Append entries to the log starting at the last log index.
+    List<Entry> entries = new ArrayList<>(request.entries().size());
     for (Entry entry : request.entries()) {
       // If the entry index is greater than the last index and less than the commit index, append the entry.
       // We perform no additional consistency checks here since passive members may only receive committed entries.
       if (context.getLog().lastIndex() < entry.getIndex() && entry.getIndex() <= commitIndex) {
-        context.getLog().skip(entry.getIndex() - context.getLog().lastIndex() - 1).append(entry);
-        LOGGER.trace("{} - Appended {} to log at index {}", context.getCluster().member().address(), entry, entry.getIndex());
+        entries.add(entry);
       }
     }
 
+    // Append the entries to the log in a single batch. Missing entries are skipped.
+    if (!entries.isEmpty()) {
+      context.getLog().append(entries);
+      LOGGER.trace("{} - Appended {} entries to log at index {}", context.getCluster().member().address(), entries.size(), entries.get(0).getIndex());
+    }
+
     // Update the context commit and global indices.
     long previousCommitIndex = context.getCommitIndex();
     context.setCommitIndex(commitIndex);
@@ -227,6 +242,36 @@ class PassiveState extends ReserveState {
       .build();
   }
 
+  /**
+   * Returns a boolean indicating whether the checksums of all raw entries in the given request are valid.
+   * <p>
+   * Checksums are verified before any entries are appended to or truncated from the log so that a corrupt entry
+   * can't leave the log partially modified.
+   */
+  protected boolean verifyEntries(AppendRequest request) {
+    for (Entry entry : request.entries()) {
+      if (entry instanceof RawEntry && !((RawEntry) entry).isValid()) {
+        LOGGER.warn("{} - Rejected {}: Checksum mismatch for entry {}", context.getCluster().member().address(), request, entry.getIndex());
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a failed append response for a request containing a corrupt entry.
+   * <p>
+   * The response indicates the last index in the log so that the leader resends the entries following it.
+   */
+  protected AppendResponse rejectEntries(AppendRequest request) {
+    return AppendResponse.builder()
+      .withStatus(Response.Status.OK)
+      .withTerm(context.getTerm())
+      .withSucceeded(false)
+      .withLogIndex(context.getLog().lastIndex())
+      .build();
+  }
+
   @Override
   public CompletableFuture<QueryResponse> query(QueryRequest request) {
     context.checkThread();
@@ -418,11 +463,9 @@ class PassiveState extends ReserveState {
     // where snapshots must be sent since entries can still legitimately exist prior to the snapshot,
     // and so snapshots aren't simply sent at the beginning of the follower's log, but rather the
     // leader dictates when a snapshot needs to be sent.
-    if (pendingSnapshot != null && request.index() != pendingSnapshot.index()) {
-      pendingSnapshot.close();
-      pendingSnapshot.delete();
-      pendingSnapshot = null;
-      nextSnapshotOffset = 0;
+    // Similarly, if the leader restarted the install from the first chunk, discard the partially written snapshot.
+    if (pendingSnapshot != null && (request.index() != pendingSnapshot.index() || (request.offset() == 0 && nextSnapshotOffset > 0))) {
+      discardPendingSnapshot();
     }
 
     // If there is no pending snapshot, create a new snapshot.
@@ -435,25 +478,47 @@ class PassiveState extends ReserveState {
           .build()));
       }
 
-      pendingSnapshot = context.getSnapshotStore().createSnapshot(request.index());
+      // Delta snapshots can only be installed once the snapshot on which they're based has been installed.
+      // Reject the delta to force the leader to resend the snapshot chain from the start.
+      if (request.baseIndex() > 0 && context.getSnapshotStore().snapshot(request.baseIndex()) == null) {
+        return CompletableFuture.completedFuture(logResponse(InstallResponse.builder()
+          .withStatus(Response.Status.ERROR)
+          .withError(CopycatError.Type.ILLEGAL_MEMBER_STATE_ERROR)
+          .build()));
+      }
+
+      // Store the snapshot in the format in which the leader sends it.
+      pendingSnapshot = context.getSnapshotStore().createSnapshot(request.index(), request.compression(), request.baseIndex());
+      pendingSnapshotWriter = pendingSnapshot.storedWriter();
       nextSnapshotOffset = 0;
     }
 
-    // If the request offset is greater than the next expected snapshot offset, fail the request.
+    // If the request offset is greater than the next expected snapshot offset, fail the request, returning the
+    // expected offset so the leader can resume the install from the first chunk that was not received.
     if (request.offset() > nextSnapshotOffset) {
       return CompletableFuture.completedFuture(logResponse(InstallResponse.builder()
         .withStatus(Response.Status.ERROR)
         .withError(CopycatError.Type.ILLEGAL_MEMBER_STATE_ERROR)
+        .withNextOffset(nextSnapshotOffset)
         .build()));
     }
 
-    // Write the data to the snapshot.
-    try (SnapshotWriter writer = pendingSnapshot.writer()) {
-      writer.write(request.data());
+    // If the chunk has already been written, acknowledge it without writing it again so that redelivered
+    // chunks can't corrupt the snapshot.
+    if (request.offset() < nextSnapshotOffset) {
+      return CompletableFuture.completedFuture(logResponse(InstallResponse.builder()
+        .withStatus(Response.Status.OK)
+        .withNextOffset(nextSnapshotOffset)
+        .build()));
     }
 
+    // Write the data to the snapshot. The writer is held open until the snapshot is complete.
+    pendingSnapshotWriter.write(request.data());
+
     // If the snapshot is complete, store the snapshot and reset state, otherwise update the next snapshot offset.
     if (request.complete()) {
+      pendingSnapshotWriter.close();
+      pendingSnapshotWriter = null;
       pendingSnapshot.complete();
       pendingSnapshot = null;
       nextSnapshotOffset = 0;
@@ -463,16 +528,29 @@ class PassiveState extends ReserveState {
 
     return CompletableFuture.completedFuture(logResponse(InstallResponse.builder()
       .withStatus(Response.Status.OK)
+      .withNextOffset(nextSnapshotOffset)
       .build()));
   }
 
-  @Override
-  public CompletableFuture<Void> close() {
+  /**
+   * Closes and deletes the snapshot currently being installed.
+   */
+  private void discardPendingSnapshot() {
+    if (pendingSnapshotWriter != null) {
+      pendingSnapshotWriter.close();
+      pendingSnapshotWriter = null;
+    }
     if (pendingSnapshot != null) {
       pendingSnapshot.close();
       pendingSnapshot.delete();
       pendingSnapshot = null;
     }
+    nextSnapshotOffset = 0;
+  }
+
+  @Override
+  public CompletableFuture<Void> close() {
+    discardPendingSnapshot();
     return super.close();
   }
 
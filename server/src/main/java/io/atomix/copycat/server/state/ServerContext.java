@@ -74,6 +74,12 @@ public class ServerContext implements AutoCloseable {
   private Duration sessionTimeout = Duration.ofMillis(5000);
   private Duration heartbeatInterval = Duration.ofMillis(150);
   private Duration globalSuspendTimeout = Duration.ofHours(1);
+  private int snapshotChunkSize = 1024 * 32;
+  private int snapshotInstallWindow = 4;
+  private Duration appendLinger = Duration.ZERO;
+  private int appendBatchSize = 64;
+  private int catchUpThreads = 1;
+  private long catchUpBandwidth;
   private volatile int leader;
   private volatile long term;
   private int lastVotedFor;
@@ -239,6 +245,127 @@ public class ServerContext implements AutoCloseable {
     return this;
   }
 
+  /**
+   * Returns the maximum number of snapshot bytes to send in a single install request.
+   *
+   * @return The snapshot chunk size.
+   */
+  public int getSnapshotChunkSize() {
+    return snapshotChunkSize;
+  }
+
+  /**
+   * Sets the maximum number of snapshot bytes to send in a single install request.
+   *
+   * @param snapshotChunkSize The snapshot chunk size.
+   * @return The Raft context.
+   */
+  public ServerContext setSnapshotChunkSize(int snapshotChunkSize) {
+    this.snapshotChunkSize = Assert.arg(snapshotChunkSize, snapshotChunkSize > 0, "snapshotChunkSize must be positive");
+    return this;
+  }
+
+  /**
+   * Returns the maximum number of install requests that may be outstanding to a single member.
+   *
+   * @return The snapshot install window.
+   */
+  public int getSnapshotInstallWindow() {
+    return snapshotInstallWindow;
+  }
+
+  /**
+   * Sets the maximum number of install requests that may be outstanding to a single member.
+   *
+   * @param snapshotInstallWindow The snapshot install window.
+   * @return The Raft context.
+   */
+  public ServerContext setSnapshotInstallWindow(int snapshotInstallWindow) {
+    this.snapshotInstallWindow = Assert.arg(snapshotInstallWindow, snapshotInstallWindow > 0, "snapshotInstallWindow must be positive");
+    return this;
+  }
+
+  /**
+   * Returns the maximum amount of time for which the leader delays replicating new entries.
+   *
+   * @return The append linger.
+   */
+  public Duration getAppendLinger() {
+    return appendLinger;
+  }
+
+  /**
+   * Sets the maximum amount of time for which the leader delays replicating new entries.
+   *
+   * @param appendLinger The append linger.
+   * @return The Raft context.
+   */
+  public ServerContext setAppendLinger(Duration appendLinger) {
+    Assert.notNull(appendLinger, "appendLinger");
+    this.appendLinger = Assert.argNot(appendLinger, appendLinger.isNegative(), "appendLinger cannot be negative");
+    return this;
+  }
+
+  /**
+   * Returns the number of new entries that triggers replication before the append linger expires.
+   *
+   * @return The append batch size.
+   */
+  public int getAppendBatchSize() {
+    return appendBatchSize;
+  }
+
+  /**
+   * Sets the number of new entries that triggers replication before the append linger expires.
+   *
+   * @param appendBatchSize The append batch size.
+   * @return The Raft context.
+   */
+  public ServerContext setAppendBatchSize(int appendBatchSize) {
+    this.appendBatchSize = Assert.arg(appendBatchSize, appendBatchSize > 0, "appendBatchSize must be positive");
+    return this;
+  }
+
+  /**
+   * Returns the number of threads with which the leader reads entries for lagging members.
+   *
+   * @return The number of catch-up threads.
+   */
+  public int getCatchUpThreads() {
+    return catchUpThreads;
+  }
+
+  /**
+   * Sets the number of threads with which the leader reads entries for lagging members.
+   *
+   * @param catchUpThreads The number of catch-up threads.
+   * @return The Raft context.
+   */
+  public ServerContext setCatchUpThreads(int catchUpThreads) {
+    this.catchUpThreads = Assert.arg(catchUpThreads, catchUpThreads > 0, "catchUpThreads must be positive");
+    return this;
+  }
+
+  /**
+   * Returns the maximum rate in bytes per second at which the leader reads entries for lagging members.
+   *
+   * @return The catch-up bandwidth or {@code 0} if catch-up reads are not limited.
+   */
+  public long getCatchUpBandwidth() {
+    return catchUpBandwidth;
+  }
+
+  /**
+   * Sets the maximum rate in bytes per second at which the leader reads entries for lagging members.
+   *
+   * @param catchUpBandwidth The catch-up bandwidth or {@code 0} if catch-up reads are not limited.
+   * @return The Raft context.
+   */
+  public ServerContext setCatchUpBandwidth(long catchUpBandwidth) {
+    this.catchUpBandwidth = Assert.argNot(catchUpBandwidth, catchUpBandwidth < 0, "catchUpBandwidth cannot be negative");
+    return this;
+  }
+
   /**
    * Sets the state leader.
    *
@@ -49,14 +49,12 @@ class ServerSessionContext implements ServerSession {
   private long keepAliveIndex;
   private long requestSequence;
   private long commandSequence;
-  private long lastApplied;
   private long commandLowWaterMark;
   private long eventIndex;
   private long completeIndex;
   private long closeIndex;
   private long timestamp;
   private final Map<Long, List<Runnable>> sequenceQueries = new HashMap<>();
-  private final Map<Long, List<Runnable>> indexQueries = new HashMap<>();
   private final Map<Long, ServerStateMachine.Result> results = new HashMap<>();
   private final Queue<EventHolder> events = new LinkedList<>();
   private EventHolder event;
@@ -69,7 +67,6 @@ class ServerSessionContext implements ServerSession {
     this.log = Assert.notNull(log, "log");
     this.eventIndex = id;
     this.completeIndex = id;
-    this.lastApplied = id - 1;
     this.context = context;
     this.timeout = timeout;
   }
@@ -267,6 +264,12 @@ class ServerSessionContext implements ServerSession {
    * @return The server session.
    */
   ServerSessionContext setCommandSequence(long sequence) {
+    // If no queries are awaiting a sequence number, skip directly to the given sequence number.
+    if (sequenceQueries.isEmpty()) {
+      commandSequence = Math.max(commandSequence, sequence);
+      return this;
+    }
+
     // For each increment of the sequence number, trigger query callbacks that are dependent on the specific sequence.
     for (long i = commandSequence + 1; i <= sequence; i++) {
       commandSequence = i;
@@ -282,34 +285,14 @@ class ServerSessionContext implements ServerSession {
 
   /**
    * Returns the session index.
+   * <p>
+   * The session index is shared by all sessions and is tracked by the {@link ServerSessionManager}. Sessions
+   * cannot have applied any index prior to the index at which they were registered.
    *
    * @return The session index.
    */
   long getLastApplied() {
-    return lastApplied;
-  }
-
-  /**
-   * Sets the session index.
-   *
-   * @param index The session index.
-   * @return The server session.
-   */
-  ServerSessionContext setLastApplied(long index) {
-    // Query callbacks for this session are added to the indexQueries map to be executed once the required index
-    // for the query is reached. For each increment of the index, trigger query callbacks that are dependent
-    // on the specific index.
-    for (long i = lastApplied + 1; i <= index; i++) {
-      lastApplied = i;
-      List<Runnable> queries = this.indexQueries.remove(lastApplied);
-      if (queries != null) {
-        for (Runnable query : queries) {
-          query.run();
-        }
-      }
-    }
-
-    return this;
+    return Math.max(id - 1, context.sessions().getLastApplied());
   }
 
   /**
@@ -328,15 +311,16 @@ class ServerSessionContext implements ServerSession {
 
   /**
    * Registers a session index query.
+   * <p>
+   * Index queries are registered with the {@link ServerSessionManager} which triggers queries for all sessions
+   * in index order as entries are applied to the state machine.
    *
    * @param index The state machine index at which to execute the query.
    * @param query The query to execute.
    * @return The server session.
    */
   ServerSessionContext registerIndexQuery(long index, Runnable query) {
-    // Add a query to be run once the session's index reaches the given index.
-    List<Runnable> queries = this.indexQueries.computeIfAbsent(index, v -> new LinkedList<>());
-    queries.add(query);
+    context.sessions().registerIndexQuery(index, query);
     return this;
   }
 
@@ -376,6 +360,48 @@ class ServerSessionContext implements ServerSession {
     return this;
   }
 
+  /**
+   * Returns the highest sequence number for which results have been cleared.
+   *
+   * @return The highest sequence number for which results have been cleared.
+   */
+  long getCommandLowWaterMark() {
+    return commandLowWaterMark;
+  }
+
+  /**
+   * Returns the cached command results by sequence number.
+   *
+   * @return The cached command results.
+   */
+  Map<Long, ServerStateMachine.Result> getResults() {
+    return results;
+  }
+
+  /**
+   * Restores command results from a snapshot.
+   * <p>
+   * Results already cached by the session are retained, and results up to the given low water mark are cleared.
+   *
+   * @param commandLowWaterMark The highest sequence number for which results have been cleared.
+   * @param results The cached command results.
+   * @return The server session.
+   */
+  ServerSessionContext restoreResults(long commandLowWaterMark, Map<Long, ServerStateMachine.Result> results) {
+    // Clear results in a single pass rather than by sequence number since sessions restored from a snapshot
+    // may have a low water mark far beyond the current one.
+    if (commandLowWaterMark > this.commandLowWaterMark) {
+      this.results.keySet().removeIf(sequence -> sequence <= commandLowWaterMark);
+      this.commandLowWaterMark = commandLowWaterMark;
+    }
+    for (Map.Entry<Long, ServerStateMachine.Result> entry : results.entrySet()) {
+      if (entry.getKey() > this.commandLowWaterMark) {
+        this.results.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+    }
+    return this;
+  }
+
   /**
    * Returns the session response for the given sequence number.
    *
@@ -412,6 +438,30 @@ class ServerSessionContext implements ServerSession {
     return eventIndex;
   }
 
+  /**
+   * Returns the index up to which events have been acknowledged by the client.
+   *
+   * @return The index up to which events have been acknowledged by the client.
+   */
+  long getCompleteIndex() {
+    return completeIndex;
+  }
+
+  /**
+   * Restores the session event indexes from a snapshot.
+   * <p>
+   * Snapshots are only completed once all prior events have been acknowledged by clients, so events
+   * are not stored in snapshots. Only the indexes are restored.
+   *
+   * @param eventIndex The index of the last event published to the session.
+   * @param completeIndex The index up to which events have been acknowledged by the client.
+   * @return The server session.
+   */
+  ServerSessionContext restoreEvents(long eventIndex, long completeIndex) {
+    this.eventIndex = Math.max(this.eventIndex, eventIndex);
+    return clearEvents(completeIndex);
+  }
+
   @Override
   public Session publish(String event) {
     return publish(event, null);
@@ -448,6 +498,7 @@ class ServerSessionContext implements ServerSession {
   void commit(long index) {
     if (event != null && event.eventIndex == index) {
       events.add(event);
+      updateLastCompleted();
       sendEvent(event);
     }
   }
@@ -464,7 +515,7 @@ class ServerSessionContext implements ServerSession {
       return event.eventIndex - 1;
     }
     // If no events are queued, return the highest index applied to the session.
-    return lastApplied;
+    return getLastApplied();
   }
 
   /**
@@ -482,10 +533,26 @@ class ServerSessionContext implements ServerSession {
         event = events.peek();
       }
       completeIndex = index;
+      updateLastCompleted();
     }
     return this;
   }
 
+  /**
+   * Updates the index completed for the session in the session manager.
+   * <p>
+   * Only sessions with events awaiting acknowledgement are tracked by the session manager. Once all events
+   * have been acknowledged by the client, the session is removed from the completed index tracking.
+   */
+  private void updateLastCompleted() {
+    EventHolder event = events.peek();
+    if (event != null && event.eventIndex > completeIndex) {
+      context.sessions().setLastCompleted(this, event.eventIndex - 1);
+    } else {
+      context.sessions().setLastCompleted(this, 0);
+    }
+  }
+
   /**
    * Resends events from the given sequence.
    *
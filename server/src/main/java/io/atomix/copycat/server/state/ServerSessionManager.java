@@ -23,9 +23,14 @@ import io.atomix.copycat.server.session.Sessions;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Session manager.
@@ -37,7 +42,11 @@ class ServerSessionManager implements Sessions {
   final Map<Long, ServerSessionContext> sessions = new ConcurrentHashMap<>();
   final Map<String, ServerSessionContext> clients = new ConcurrentHashMap<>();
   final Set<SessionListener> listeners = new HashSet<>();
+  private final NavigableMap<Long, List<Runnable>> indexQueries = new TreeMap<>();
+  private final Map<Long, Long> completeIndexes = new ConcurrentHashMap<>();
+  private final NavigableMap<Long, Integer> completeCounts = new ConcurrentSkipListMap<>();
   private final ServerContext context;
+  private volatile long lastApplied;
 
   public ServerSessionManager(ServerContext context) {
     this.context = Assert.notNull(context, "context");
@@ -60,6 +69,100 @@ class ServerSessionManager implements Sessions {
     return this;
   }
 
+  /**
+   * Returns the last index applied to all sessions.
+   *
+   * @return The last index applied to all sessions.
+   */
+  long getLastApplied() {
+    return lastApplied;
+  }
+
+  /**
+   * Sets the last index applied to all sessions.
+   * <p>
+   * Index queries for all sessions are held in a single map sorted by index, so updating the last applied
+   * index only triggers the queries that were waiting on indexes up to the given index rather than
+   * visiting every open session.
+   *
+   * @param index The last applied index.
+   * @return The session manager.
+   */
+  ServerSessionManager setLastApplied(long index) {
+    if (index > lastApplied) {
+      lastApplied = index;
+      Map.Entry<Long, List<Runnable>> entry = indexQueries.firstEntry();
+      while (entry != null && entry.getKey() <= index) {
+        indexQueries.pollFirstEntry();
+        for (Runnable query : entry.getValue()) {
+          query.run();
+        }
+        entry = indexQueries.firstEntry();
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Registers a query to be executed once the given index has been applied.
+   *
+   * @param index The state machine index at which to execute the query.
+   * @param query The query to execute.
+   * @return The session manager.
+   */
+  ServerSessionManager registerIndexQuery(long index, Runnable query) {
+    indexQueries.computeIfAbsent(index, i -> new LinkedList<>()).add(query);
+    return this;
+  }
+
+  /**
+   * Returns the highest index completed for all sessions.
+   * <p>
+   * Sessions with no pending events are considered complete up to the last applied index. Sessions with
+   * pending events are tracked in a map of completed indexes to session counts, so the lowest index can be
+   * read without visiting every open session.
+   *
+   * @param index The index up to which to calculate the completed index.
+   * @return The highest index completed for all sessions.
+   */
+  long getLastCompleted(long index) {
+    long lastCompleted = sessions.isEmpty() ? index : Math.min(index, lastApplied);
+    Map.Entry<Long, Integer> entry = completeCounts.firstEntry();
+    if (entry != null) {
+      lastCompleted = Math.min(lastCompleted, entry.getKey());
+    }
+    return lastCompleted;
+  }
+
+  /**
+   * Sets the highest index completed for a session with pending events.
+   *
+   * @param session The session for which to set the completed index.
+   * @param lastCompleted The highest index completed for the session or {@code 0} if no events are pending.
+   * @return The session manager.
+   */
+  ServerSessionManager setLastCompleted(ServerSessionContext session, long lastCompleted) {
+    Long previousIndex;
+    if (lastCompleted > 0 && sessions.containsKey(session.id())) {
+      previousIndex = completeIndexes.put(session.id(), lastCompleted);
+    } else {
+      lastCompleted = 0;
+      previousIndex = completeIndexes.remove(session.id());
+    }
+
+    if (previousIndex != null) {
+      if (previousIndex == lastCompleted) {
+        return this;
+      }
+      completeCounts.computeIfPresent(previousIndex, (i, count) -> count > 1 ? count - 1 : null);
+    }
+
+    if (lastCompleted > 0) {
+      completeCounts.merge(lastCompleted, 1, Integer::sum);
+    }
+    return this;
+  }
+
   /**
    * Registers a connection.
    */
@@ -97,6 +200,7 @@ class ServerSessionManager implements Sessions {
     ServerSessionContext oldSession = clients.remove(session.client());
     if (oldSession != null) {
       sessions.remove(oldSession.id());
+      setLastCompleted(oldSession, 0);
     }
     session.setConnection(connections.get(session.client()));
     sessions.put(session.id(), session);
@@ -110,6 +214,7 @@ class ServerSessionManager implements Sessions {
   ServerSessionContext unregisterSession(long sessionId) {
     ServerSessionContext session = sessions.remove(sessionId);
     if (session != null) {
+      setLastCompleted(session, 0);
       clients.remove(session.client(), session);
       connections.remove(session.client(), session.getConnection());
     }
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.state;
+
+import io.atomix.catalyst.buffer.Buffer;
+import io.atomix.catalyst.buffer.HeapBuffer;
+import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.copycat.server.session.SessionListener;
+import io.atomix.copycat.server.storage.Log;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+import io.atomix.copycat.session.Session;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshot of server session state.
+ * <p>
+ * Session state is written at the start of each state machine snapshot, preceded by a magic number that
+ * distinguishes snapshots that contain sessions from snapshots written by prior versions. Once a snapshot
+ * containing a session has been completed, the session's register and keep-alive entries no longer need to
+ * be replayed and can be released from the log.
+ * <p>
+ * Session state is owned by two threads. Sequence numbers, timestamps and keep-alive indexes are updated in
+ * the server thread, and cached results and event indexes are updated in the state machine thread. Session
+ * state is therefore {@link #capture(Collection) captured} in the server thread and {@link #complete()} completed
+ * in the state machine thread, and restored likewise. Command results are stored as serialized bytes so that
+ * the server thread can read session state without sharing the serializer with the state machine thread.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+final class ServerSessionSnapshot {
+  private static final long MAGIC = 0x636f707963617453L;
+  private final List<SessionState> sessions;
+
+  private ServerSessionSnapshot(List<SessionState> sessions) {
+    this.sessions = sessions;
+  }
+
+  /**
+   * Captures the server thread state of the given sessions.
+   * <p>
+   * This method must be called in the server thread.
+   *
+   * @param sessions The sessions to capture.
+   * @return The session snapshot.
+   */
+  static ServerSessionSnapshot capture(Collection<ServerSessionContext> sessions) {
+    List<SessionState> states = new ArrayList<>(sessions.size());
+    for (ServerSessionContext session : sessions) {
+      SessionState state = new SessionState(session.id(), session.client(), session.timeout());
+      state.session = session;
+      state.timestamp = session.getTimestamp();
+      state.suspect = session.state() == Session.State.UNSTABLE;
+      state.keepAliveIndex = session.getKeepAliveIndex();
+      state.requestSequence = session.getRequestSequence();
+      state.commandSequence = session.getCommandSequence();
+      states.add(state);
+    }
+    return new ServerSessionSnapshot(states);
+  }
+
+  /**
+   * Completes the snapshot with the state machine thread state of each session.
+   * <p>
+   * This method must be called in the state machine thread at the same index at which the snapshot was
+   * {@link #capture(Collection) captured}. Sessions that were closed in the state machine thread prior to the
+   * snapshot index are removed from the snapshot.
+   *
+   * @return The session snapshot.
+   */
+  ServerSessionSnapshot complete() {
+    sessions.removeIf(state -> !state.session.state().active());
+    for (SessionState state : sessions) {
+      ServerSessionContext session = state.session;
+      state.releasable = session.references() == 0;
+      state.commandLowWaterMark = session.getCommandLowWaterMark();
+      state.results = new TreeMap<>(session.getResults());
+      state.eventIndex = session.getEventIndex();
+      state.completeIndex = session.getCompleteIndex();
+
+      // The command sequence is updated in the server thread after the command at the snapshot index is
+      // applied, so account for results of commands that were applied but not yet sequenced.
+      if (!state.results.isEmpty()) {
+        state.commandSequence = Math.max(state.commandSequence, state.results.lastKey());
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Writes the session snapshot to the given writer.
+   *
+   * @param writer The snapshot writer.
+   * @param serializer The serializer with which to serialize command results.
+   */
+  void writeTo(SnapshotWriter writer, Serializer serializer) {
+    writer.writeLong(MAGIC).writeInt(sessions.size());
+    for (SessionState state : sessions) {
+      writer.writeLong(state.id)
+        .writeString(state.client)
+        .writeLong(state.timeout)
+        .writeLong(state.timestamp)
+        .writeBoolean(state.suspect)
+        .writeLong(state.keepAliveIndex)
+        .writeLong(state.requestSequence)
+        .writeLong(state.commandSequence)
+        .writeLong(state.commandLowWaterMark)
+        .writeLong(state.eventIndex)
+        .writeLong(state.completeIndex)
+        .writeInt(state.results.size());
+      for (Map.Entry<Long, ServerStateMachine.Result> entry : state.results.entrySet()) {
+        ServerStateMachine.Result result = entry.getValue();
+        Buffer buffer = serializer.writeObject(result.result).flip();
+        byte[] bytes = new byte[(int) buffer.remaining()];
+        buffer.read(bytes);
+        buffer.close();
+        writer.writeLong(entry.getKey())
+          .writeLong(result.index)
+          .writeLong(result.eventIndex)
+          .writeInt(bytes.length)
+          .write(bytes);
+      }
+    }
+  }
+
+  /**
+   * Reads a session snapshot from the given reader.
+   * <p>
+   * If the snapshot does not begin with a session snapshot, {@code null} is returned and the reader must be
+   * reopened to read the state machine state.
+   *
+   * @param reader The snapshot reader.
+   * @return The session snapshot or {@code null} if the snapshot does not contain sessions.
+   */
+  static ServerSessionSnapshot readFrom(SnapshotReader reader) {
+    if (reader.remaining() < Long.BYTES || reader.readLong() != MAGIC) {
+      return null;
+    }
+
+    int count = reader.readInt();
+    List<SessionState> states = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      SessionState state = new SessionState(reader.readLong(), reader.readString(), reader.readLong());
+      state.timestamp = reader.readLong();
+      state.suspect = reader.readBoolean();
+      state.keepAliveIndex = reader.readLong();
+      state.requestSequence = reader.readLong();
+      state.commandSequence = reader.readLong();
+      state.commandLowWaterMark = reader.readLong();
+      state.eventIndex = reader.readLong();
+      state.completeIndex = reader.readLong();
+      int results = reader.readInt();
+      state.storedResults = new TreeMap<>();
+      for (int j = 0; j < results; j++) {
+        long sequence = reader.readLong();
+        StoredResult result = new StoredResult(reader.readLong(), reader.readLong(), new byte[reader.readInt()]);
+        reader.read(result.bytes);
+        state.storedResults.put(sequence, result);
+      }
+      states.add(state);
+    }
+    return new ServerSessionSnapshot(states);
+  }
+
+  /**
+   * Releases the register and keep-alive entries of sessions that have no open commits.
+   * <p>
+   * This method must be called in the server thread once the snapshot has been completed. Sessions with open
+   * commits retain their entries since the commits may precede the snapshot and must be replayed with the session.
+   *
+   * @param log The log from which to release entries.
+   */
+  void release(Log log) {
+    for (SessionState state : sessions) {
+      if (state.releasable) {
+        log.release(state.id);
+        if (state.keepAliveIndex > 0) {
+          log.release(state.keepAliveIndex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Restores the server thread state of each session.
+   * <p>
+   * This method must be called in the server thread. Sessions that were registered by replaying the log are
+   * updated, and sessions whose register entries have been released from the log are registered.
+   *
+   * @param log The server log.
+   * @param context The state machine context.
+   */
+  void restoreSessions(Log log, ServerStateMachineContext context) {
+    for (SessionState state : sessions) {
+      ServerSessionContext session = context.sessions().getSession(state.id);
+      if (session == null) {
+        session = new ServerSessionContext(state.id, state.client, log, context, state.timeout);
+        state.replaced = context.sessions().registerSession(session);
+        session.setKeepAliveIndex(state.keepAliveIndex);
+        state.registered = true;
+      }
+      state.session = session;
+
+      session.setTimestamp(state.timestamp)
+        .resetRequestSequence(state.requestSequence)
+        .setCommandSequence(state.commandSequence);
+      if (state.suspect) {
+        session.suspect();
+      }
+    }
+  }
+
+  /**
+   * Restores the state machine thread state of each session.
+   * <p>
+   * This method must be called in the state machine thread after the state machine snapshot has been installed.
+   * Sessions registered from the snapshot are opened and registered with session listeners.
+   *
+   * @param listeners The session listeners.
+   * @param serializer The serializer with which to deserialize command results.
+   */
+  void restoreState(Collection<SessionListener> listeners, Serializer serializer) {
+    for (SessionState state : sessions) {
+      Map<Long, ServerStateMachine.Result> results = new TreeMap<>();
+      for (Map.Entry<Long, StoredResult> entry : state.storedResults.entrySet()) {
+        StoredResult result = entry.getValue();
+        results.put(entry.getKey(), new ServerStateMachine.Result(result.index, result.eventIndex, serializer.readObject(HeapBuffer.wrap(result.bytes))));
+      }
+
+      ServerSessionContext session = state.session;
+      session.restoreResults(state.commandLowWaterMark, results)
+        .restoreEvents(state.eventIndex, state.completeIndex);
+
+      if (state.registered) {
+        if (state.replaced != null) {
+          state.replaced.expire(0);
+        }
+        for (SessionListener listener : listeners) {
+          if (state.replaced != null) {
+            listener.expire(state.replaced);
+            listener.close(state.replaced);
+          }
+          listener.register(session);
+        }
+        session.open();
+      }
+    }
+  }
+
+  /**
+   * Snapshot of a single session.
+   */
+  private static final class SessionState {
+    private final long id;
+    private final String client;
+    private final long timeout;
+    private long timestamp;
+    private boolean suspect;
+    private long keepAliveIndex;
+    private long requestSequence;
+    private long commandSequence;
+    private long commandLowWaterMark;
+    private long eventIndex;
+    private long completeIndex;
+    private TreeMap<Long, ServerStateMachine.Result> results;
+    private TreeMap<Long, StoredResult> storedResults;
+    private ServerSessionContext session;
+    private ServerSessionContext replaced;
+    private boolean registered;
+    private boolean releasable;
+
+    private SessionState(long id, String client, long timeout) {
+      this.id = id;
+      this.client = client;
+      this.timeout = timeout;
+    }
+  }
+
+  /**
+   * Command result read from a snapshot.
+   */
+  private static final class StoredResult {
+    private final long index;
+    private final long eventIndex;
+    private final byte[] bytes;
+
+    private StoredResult(long index, long eventIndex, byte[] bytes) {
+      this.index = index;
+      this.eventIndex = eventIndex;
+      this.bytes = bytes;
+    }
+  }
+
+}
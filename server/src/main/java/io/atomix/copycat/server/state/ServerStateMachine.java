@@ -15,12 +15,15 @@
  */
 package io.atomix.copycat.server.state;
 
+import io.atomix.catalyst.concurrent.CatalystThreadFactory;
 import io.atomix.catalyst.concurrent.ComposableFuture;
 import io.atomix.catalyst.concurrent.Futures;
 import io.atomix.catalyst.concurrent.ThreadContext;
 import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.error.InternalException;
 import io.atomix.copycat.error.UnknownSessionException;
+import io.atomix.copycat.server.AsyncSnapshottable;
+import io.atomix.copycat.server.IncrementalSnapshottable;
 import io.atomix.copycat.server.Snapshottable;
 import io.atomix.copycat.server.StateMachine;
 import io.atomix.copycat.server.session.SessionListener;
@@ -33,7 +36,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Internal server state machine.
@@ -52,10 +59,15 @@ final class ServerStateMachine implements AutoCloseable {
   private final ServerCommitPool commits;
   private volatile long lastApplied;
   private long lastCompleted;
+  private final ExecutorService snapshotExecutor;
   private volatile Snapshot pendingSnapshot;
+  private volatile CompletableFuture<Void> pendingSnapshotWrite;
+  private ServerSessionSnapshot pendingSessions;
+  private boolean fullSnapshotRequired = true;
 
   ServerStateMachine(StateMachine stateMachine, ServerContext state, ThreadContext executor) {
     this.stateMachine = Assert.notNull(stateMachine, "stateMachine");
+    this.snapshotExecutor = stateMachine instanceof AsyncSnapshottable ? Executors.newSingleThreadExecutor(new CatalystThreadFactory("copycat-snapshot-%d")) : null;
     this.state = Assert.notNull(state, "state");
     this.log = state.getLog();
     this.executor = new ServerStateMachineExecutor(new ServerStateMachineContext(state.getConnections(), new ServerSessionManager(state)), executor);
@@ -88,21 +100,78 @@ final class ServerStateMachine implements AutoCloseable {
     Snapshot currentSnapshot = state.getSnapshotStore().currentSnapshot();
     if (pendingSnapshot == null && stateMachine instanceof Snapshottable
       && (currentSnapshot == null || (log.compactor().compactIndex() > currentSnapshot.index() && lastApplied > currentSnapshot.index()))) {
-      pendingSnapshot = state.getSnapshotStore().createSnapshot(lastApplied);
+      // Incremental state machines write a delta of the current snapshot until the chain reaches the maximum
+      // length. Deltas are based on the state captured by the state machine's last snapshot, so if that snapshot
+      // was discarded or another snapshot has since been installed, a full snapshot is required.
+      boolean delta = stateMachine instanceof IncrementalSnapshottable && !fullSnapshotRequired && currentSnapshot != null
+        && state.getSnapshotStore().snapshotChain(currentSnapshot).size() <= state.getStorage().maxDeltaSnapshots();
+      Snapshot snapshot = delta ? state.getSnapshotStore().createDeltaSnapshot(lastApplied) : state.getSnapshotStore().createSnapshot(lastApplied);
+      CompletableFuture<Void> future = new CompletableFuture<>();
+      pendingSnapshot = snapshot;
+      pendingSnapshotWrite = future;
+      fullSnapshotRequired = false;
+
+      // Session state is written to the snapshot ahead of the state machine state. Capture the session state
+      // owned by the server thread now, and the state owned by the state machine thread before the state machine
+      // state is captured.
+      ServerSessionSnapshot sessions = ServerSessionSnapshot.capture(executor.context().sessions().sessions.values());
+      pendingSessions = sessions;
 
       // Write the snapshot data. Note that we don't complete the snapshot here since the completion
       // of a snapshot is predicated on session events being received by clients up to the snapshot index.
-      LOGGER.info("{} - Taking snapshot {}", state.getCluster().member().address(), pendingSnapshot.index());
-      executor.executor().execute(() -> {
-        synchronized (pendingSnapshot) {
-          try (SnapshotWriter writer = pendingSnapshot.writer()) {
-            ((Snapshottable) stateMachine).snapshot(writer);
+      // Asynchronous snapshottable state machines capture a view of their state in the state machine thread,
+      // and the view is written to the snapshot in a background thread.
+      // If the snapshot can't be taken, the future is failed so that the snapshot is discarded and a new snapshot
+      // can be taken.
+      LOGGER.info("{} - Taking {} snapshot {}", state.getCluster().member().address(), delta ? "delta" : "full", snapshot.index());
+      try {
+        executor.executor().execute(() -> {
+          try {
+            sessions.complete();
+            if (delta) {
+              writeSnapshot(snapshot, sessions, ((IncrementalSnapshottable) stateMachine)::snapshotDelta, future);
+            } else if (stateMachine instanceof AsyncSnapshottable) {
+              AsyncSnapshottable.View view = ((AsyncSnapshottable) stateMachine).snapshotView();
+              snapshotExecutor.execute(() -> writeSnapshot(snapshot, sessions, view::write, future));
+            } else {
+              writeSnapshot(snapshot, sessions, ((Snapshottable) stateMachine)::snapshot, future);
+            }
+          } catch (Exception e) {
+            LOGGER.warn("{} - Failed to take snapshot {}", state.getCluster().member().address(), snapshot.index(), e);
+            future.completeExceptionally(e);
           }
+        });
+      } catch (Exception e) {
+        LOGGER.warn("{} - Failed to take snapshot {}", state.getCluster().member().address(), snapshot.index(), e);
+        future.completeExceptionally(e);
+      }
+
+      // Once the snapshot has been written, attempt to complete it in the server thread.
+      future.whenComplete((result, error) -> state.getThreadContext().executor().execute(() -> {
+        if (log.isOpen()) {
+          completeSnapshot();
         }
-      });
+      }));
     }
   }
 
+  /**
+   * Writes a snapshot, completing the given future once the snapshot has been written.
+   */
+  private void writeSnapshot(Snapshot snapshot, ServerSessionSnapshot sessions, Consumer<SnapshotWriter> snapshotter, CompletableFuture<Void> future) {
+    synchronized (snapshot) {
+      try (SnapshotWriter writer = snapshot.writer()) {
+        sessions.writeTo(writer, state.getSnapshotStore().serializer());
+        snapshotter.accept(writer);
+      } catch (Exception e) {
+        LOGGER.warn("{} - Failed to write snapshot {}", state.getCluster().member().address(), snapshot.index(), e);
+        future.completeExceptionally(e);
+        return;
+      }
+    }
+    future.complete(null);
+  }
+
   /**
    * Installs a snapshot of the state machine state if necessary.
    * <p>
@@ -122,20 +191,60 @@ final class ServerStateMachine implements AutoCloseable {
       // synchronize on the snapshot object. In practice, this probably isn't even necessary and could prove
       // to be an expensive operation. Snapshots can be read concurrently with separate SnapshotReaders since
       // memory snapshots are copied to the reader and file snapshots open a separate FileBuffer for each reader.
+      // Delta snapshots are installed by installing the full snapshot at the start of the chain followed by
+      // each delta in order.
+      List<Snapshot> chain = state.getSnapshotStore().snapshotChain(currentSnapshot);
       LOGGER.info("{} - Installing snapshot {}", state.getCluster().member().address(), currentSnapshot.index());
+
+      // Restore sessions from the snapshot in the server thread before any further entries are applied, since
+      // the register entries of sessions stored in the snapshot may have been released from the log.
+      ServerSessionSnapshot sessions;
+      synchronized (currentSnapshot) {
+        try (SnapshotReader reader = currentSnapshot.reader()) {
+          sessions = ServerSessionSnapshot.readFrom(reader);
+        }
+      }
+      if (sessions != null) {
+        sessions.restoreSessions(log, executor.context());
+      }
+
       executor.executor().execute(() -> {
-        synchronized (currentSnapshot) {
-          try (SnapshotReader reader = currentSnapshot.reader()) {
-            ((Snapshottable) stateMachine).install(reader);
+        for (Snapshot snapshot : chain) {
+          synchronized (snapshot) {
+            try (SnapshotReader reader = openStateReader(snapshot)) {
+              if (snapshot.isDelta()) {
+                ((IncrementalSnapshottable) stateMachine).installDelta(reader);
+              } else {
+                ((Snapshottable) stateMachine).install(reader);
+              }
+            }
           }
         }
+        if (sessions != null) {
+          sessions.restoreState(executor.context().sessions().listeners, state.getSnapshotStore().serializer());
+        }
       });
 
+      // The state machine's state no longer corresponds to its last snapshot, so the next snapshot must be full.
+      fullSnapshotRequired = true;
+
       // Once a snapshot has been applied, snapshot dependent entries can be cleaned from the log.
       log.compactor().snapshotIndex(currentSnapshot.index());
     }
   }
 
+  /**
+   * Opens a reader positioned at the state machine state of the given snapshot, skipping any session state.
+   */
+  private SnapshotReader openStateReader(Snapshot snapshot) {
+    SnapshotReader reader = snapshot.reader();
+    if (ServerSessionSnapshot.readFrom(reader) == null) {
+      reader.close();
+      reader = snapshot.reader();
+    }
+    return reader;
+  }
+
   /**
    * Completes a snapshot of the state machine state.
    * <p>
@@ -148,20 +257,39 @@ final class ServerStateMachine implements AutoCloseable {
   private void completeSnapshot() {
     state.checkThread();
 
+    // If the snapshot failed to be written, discard it. A new snapshot will be taken once more entries are applied.
+    if (pendingSnapshot != null && pendingSnapshotWrite.isCompletedExceptionally()) {
+      LOGGER.debug("{} - Discarding failed snapshot at index {}", state.getCluster().member().address(), pendingSnapshot.index());
+      pendingSnapshot.close();
+      pendingSnapshot.delete();
+      pendingSnapshot = null;
+      pendingSnapshotWrite = null;
+      pendingSessions = null;
+      fullSnapshotRequired = true;
+      return;
+    }
+
     // If a snapshot is pending to be persisted and the last completed index is greater than the
     // waiting snapshot index and no current or newer snapshot exists,
     // persist the snapshot and update the last snapshot index.
-    if (pendingSnapshot != null && lastCompleted > pendingSnapshot.index()) {
+    // The snapshot cannot be completed until it has been written by the state machine.
+    if (pendingSnapshot != null && lastCompleted > pendingSnapshot.index() && pendingSnapshotWrite.isDone()) {
       long snapshotIndex = pendingSnapshot.index();
       LOGGER.debug("{} - Completing snapshot {}", state.getCluster().member().address(), snapshotIndex);
       synchronized (pendingSnapshot) {
         Snapshot currentSnapshot = state.getSnapshotStore().currentSnapshot();
         if (currentSnapshot == null || snapshotIndex > currentSnapshot.index()) {
           pendingSnapshot.complete();
+
+          // Sessions stored in the snapshot no longer need to be rebuilt from the log.
+          pendingSessions.release(log);
         } else {
           LOGGER.debug("{} - Discarding pending snapshot at index {} since the current snapshot is at index {}", state.getCluster().member().address(), pendingSnapshot.index(), currentSnapshot.index());
+          fullSnapshotRequired = true;
         }
         pendingSnapshot = null;
+        pendingSnapshotWrite = null;
+        pendingSessions = null;
       }
 
       // Once the snapshot has been completed, snapshot dependent entries can be cleaned from the log.
@@ -202,12 +330,10 @@ final class ServerStateMachine implements AutoCloseable {
 
       this.lastApplied = lastApplied;
 
-      // Update the index for each session. This will be used to trigger queries that are awaiting the
+      // Update the index for all sessions. This will be used to trigger queries that are awaiting the
       // application of specific indexes to the state machine. Setting the session index may cause query
       // callbacks to be called and queries to be evaluated.
-      for (ServerSessionContext session : executor.context().sessions().sessions.values()) {
-        session.setLastApplied(lastApplied);
-      }
+      executor.context().sessions().setLastApplied(lastApplied);
 
       // Take a state machine snapshot if necessary.
       takeSnapshot();
@@ -237,11 +363,7 @@ final class ServerStateMachine implements AutoCloseable {
    */
   private long calculateLastCompleted(long index) {
     // Calculate the last completed index as the lowest index acknowledged by all clients.
-    long lastCompleted = index;
-    for (ServerSessionContext session : executor.context().sessions().sessions.values()) {
-      lastCompleted = Math.min(lastCompleted, session.getLastCompleted());
-    }
-    return lastCompleted;
+    return executor.context().sessions().getLastCompleted(index);
   }
 
   /**
@@ -984,6 +1106,9 @@ final class ServerStateMachine implements AutoCloseable {
   @Override
   public void close() {
     executor.close();
+    if (snapshotExecutor != null) {
+      snapshotExecutor.shutdown();
+    }
   }
 
   /**
@@ -21,9 +21,12 @@ import io.atomix.catalyst.concurrent.CatalystThreadFactory;
 import io.atomix.copycat.server.storage.compaction.Compaction;
 import io.atomix.copycat.server.storage.compaction.Compactor;
 import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
 import io.atomix.copycat.server.storage.entry.TypedEntryPool;
 import io.atomix.copycat.server.storage.util.EntryBuffer;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 
 /**
@@ -118,8 +121,10 @@ public class Log implements AutoCloseable {
   private final Storage storage;
   final SegmentManager segments;
   private final Compactor compactor;
+  private final LogFlusher flusher;
   private final EntryBuffer entryBuffer;
   private final TypedEntryPool entryPool = new TypedEntryPool();
+  private long bytesWritten;
   private boolean open = true;
 
   /**
@@ -129,6 +134,9 @@ public class Log implements AutoCloseable {
     this.storage = Assert.notNull(storage, "storage");
     this.segments = new SegmentManager(name, storage, serializer);
     this.compactor = new Compactor(storage, segments, Executors.newScheduledThreadPool(storage.compactionThreads(), new CatalystThreadFactory("copycat-compactor-%d")));
+    this.flusher = (storage.groupCommit() || storage.flushOnCommit()) && storage.level() != StorageLevel.MEMORY
+      ? new LogFlusher(storage, segments, compactor.throttle(), Executors.newSingleThreadScheduledExecutor(new CatalystThreadFactory("copycat-flusher-%d")))
+      : null;
     this.entryBuffer = new EntryBuffer(storage.entryBufferSize());
   }
 
@@ -199,6 +207,41 @@ public class Log implements AutoCloseable {
     return segments.segments().stream().mapToLong(Segment::size).sum();
   }
 
+  /**
+   * Returns the approximate size of the entries in the given range of indexes in bytes.
+   * <p>
+   * The size is estimated from the size of each {@link Segment segment} containing the range, assuming entries are
+   * evenly sized within a segment. If any segment containing the range has been {@link Segment#isCompacted()
+   * compacted} or the range precedes the first index in the log, entries in the range may have been removed from
+   * the log and {@code -1} is returned.
+   *
+   * @param fromIndex The first index in the range.
+   * @param toIndex The last index in the range.
+   * @return The approximate size of the entries in the range in bytes, or {@code -1} if entries in the range may
+   *         have been removed from the log.
+   * @throws IllegalStateException If the log is not open.
+   */
+  public long size(long fromIndex, long toIndex) {
+    assertIsOpen();
+    if (isEmpty() || fromIndex < firstIndex())
+      return -1;
+
+    long size = 0;
+    for (Segment segment : segments.segments()) {
+      if (segment.isEmpty() || segment.lastIndex() < fromIndex)
+        continue;
+      if (segment.firstIndex() > toIndex)
+        break;
+      if (segment.isCompacted())
+        return -1;
+
+      long first = Math.max(fromIndex, segment.firstIndex());
+      long last = Math.min(toIndex, segment.lastIndex());
+      size += segment.size() * (last - first + 1) / segment.length();
+    }
+    return size;
+  }
+
   /**
    * Returns the number of entries in the log.
    * <p>
@@ -253,7 +296,7 @@ public class Log implements AutoCloseable {
   private Segment currentSegment() {
     Segment segment = segments.currentSegment();
     if (segment.isFull()) {
-      segments.currentSegment().flush();
+      flushCurrentSegment();
       segment = segments.nextSegment();
     }
     return segment;
@@ -291,11 +334,78 @@ public class Log implements AutoCloseable {
     assertIsOpen();
 
     // Append the entry to the appropriate segment.
-    long index = currentSegment().append(entry);
+    Segment segment = currentSegment();
+    long size = segment.size();
+    long index = segment.append(entry);
+    bytesWritten += segment.size() - size;
     entryBuffer.append(entry);
     return index;
   }
 
+  /**
+   * Appends an entry to the log, flushing it to disk asynchronously.
+   * <p>
+   * The entry is written to the log before this method returns and can be read and replicated immediately, but the
+   * entry is flushed to disk in the background. The returned future is completed on the log's I/O thread once the
+   * entry is durable. If the log is not configured to {@link Storage#flushOnCommit() flush} entries to disk, the
+   * returned future is completed immediately.
+   * <p>
+   * This allows a leader to replicate an entry to followers while its own write is flushed, counting itself toward
+   * the quorum for the entry only once the returned future has been completed.
+   * <p>
+   * If {@link Storage#groupCommit() group commit} is enabled, the entry is flushed with the next group commit rather
+   * than immediately, so appends are batched into a single flush per {@link Storage#groupCommitDelay() delay} or
+   * {@link Storage#groupCommitBytes() bytes} just like commits. Otherwise, a flush is requested immediately.
+   *
+   * @param entry The entry to append.
+   * @return A future to be completed with the appended entry index once the entry has been flushed to disk.
+   * @throws IllegalStateException If the log is not open
+   * @throws NullPointerException If {@code entry} is {@code null}
+   * @throws IndexOutOfBoundsException If the entry's index does not match the expected next log index.
+   */
+  public CompletableFuture<Long> appendAsync(Entry entry) {
+    long index = append(entry);
+    if (flusher == null) {
+      return CompletableFuture.completedFuture(index);
+    } else if (storage.groupCommit()) {
+      flusher.commit(index, bytesWritten);
+      return flusher.sync(index);
+    }
+    return flusher.flush(index, bytesWritten);
+  }
+
+  /**
+   * Appends a batch of entries to the log.
+   * <p>
+   * Entries are serialized and written to each {@link Segment} in a single write rather than one write per entry.
+   * If the current segment becomes full, the log rolls over to a new segment and continues appending the remaining
+   * entries. Entry indexes must be increasing, and any indexes missing between entries are {@link #skip(long) skipped}.
+   *
+   * @param entries The entries to append.
+   * @return The index of the last entry appended to the log.
+   * @throws IllegalStateException If the log is not open
+   * @throws NullPointerException If {@code entries} is {@code null}
+   * @throws IndexOutOfBoundsException If an entry's index is less than the next log index.
+   */
+  public long append(List<? extends Entry> entries) {
+    Assert.notNull(entries, "entries");
+    assertIsOpen();
+
+    int i = 0;
+    while (i < entries.size()) {
+      // Append as many entries as fit in the current segment and buffer the appended entries.
+      Segment segment = currentSegment();
+      long size = segment.size();
+      int count = segment.appendBatch(entries.subList(i, entries.size()));
+      bytesWritten += segment.size() - size;
+      for (int j = i; j < i + count; j++) {
+        entryBuffer.append(entries.get(j));
+      }
+      i += count;
+    }
+    return lastIndex();
+  }
+
   /**
    * Returns the term for the entry at the given index.
    * <p>
@@ -356,51 +466,142 @@ public class Log implements AutoCloseable {
 
     // For non-null entries, we determine whether the entry should be exposed to the Raft algorithm
     // based on the type of entry and whether it has been released.
-    if (entry != null) {
-      // The last entry in the log is always visible. This is necessary to ensure that candidates
-      // can properly read the last entry term for the voting protocol.
-      if (index == lastIndex()) {
-        return entry;
+    if (entry != null && isVisible(segment, index, entry.getCompactionMode())) {
+      return entry;
+    }
+    return null;
+  }
+
+  /**
+   * Gets the encoded bytes of an entry from the log at the given index.
+   * <p>
+   * The returned {@link RawEntry} contains the entry's serialized bytes as they're stored in the log and can be
+   * {@link #append(List) appended} to another log without deserializing the entry. This allows leaders to replicate
+   * entries without decoding and reencoding them for each member. The raw bytes of recently appended entries are
+   * cached so that replicating an entry to multiple members reads the entry from its segment only once.
+   * <p>
+   * Raw entries are subject to the same compaction rules as entries returned by {@link #get(long)}. Raw entries
+   * are not pooled and need not be released.
+   *
+   * @param index The index of the entry to get.
+   * @return The encoded entry at the given index or {@code null} if the entry doesn't exist.
+   * @throws IllegalStateException If the log is not open.
+   * @throws IndexOutOfBoundsException If the given index is not within the bounds of the log.
+   */
+  public RawEntry getRaw(long index) {
+    assertIsOpen();
+    assertValidIndex(index);
+
+    Segment segment = segments.segment(index);
+    Assert.index(segment != null, "invalid index: " + index);
+
+    // Get the raw entry from the buffer or the segment, buffering raw entries read from the segment if they're
+    // recent enough to be replicated to other members.
+    RawEntry entry = entryBuffer.getRaw(index);
+    if (entry == null) {
+      entry = segment.getRaw(index);
+      if (entry != null && lastIndex() - index < storage.entryBufferSize()) {
+        entryBuffer.appendRaw(entry);
       }
+    }
+
+    return visibleRaw(segment, index, entry);
+  }
+
+  /**
+   * Returns an iterator over the raw entries in the log beginning at the given index.
+   * <p>
+   * The returned iterator reads entries from the given index through the current {@link #lastIndex() last index}
+   * of the log. Entries are read directly from log segments rather than the log's entry buffer, so the iterator
+   * can be consumed on a thread other than the thread that writes to the log. This allows large ranges of old
+   * entries to be streamed from disk without blocking appends. Compacted entries are skipped by the iterator
+   * according to the same rules as {@link #getRaw(long)}.
+   *
+   * @param index The index from which to iterate.
+   * @return An iterator over the raw entries in the log beginning at the given index.
+   * @throws IllegalStateException If the log is not open.
+   * @throws IllegalArgumentException If the index is not positive.
+   */
+  public LogIterator iterator(long index) {
+    assertIsOpen();
+    Assert.argNot(index, index <= 0, "index must be positive");
+    return new LogIterator(this, index, lastIndex());
+  }
 
+  /**
+   * Reads a raw entry directly from its segment, bypassing the entry buffer.
+   * <p>
+   * This method may be called by a {@link LogIterator} on a thread other than the thread that writes to the log.
+   *
+   * @param index The index of the entry to read.
+   * @return The raw entry at the given index or {@code null} if the entry has been compacted from the log.
+   */
+  RawEntry readRaw(long index) {
+    assertIsOpen();
+    if (!validIndex(index))
+      return null;
+
+    Segment segment = segments.segment(index);
+    if (segment == null || !segment.contains(index))
+      return null;
+    return visibleRaw(segment, index, segment.getRaw(index));
+  }
+
+  /**
+   * Returns the given raw entry if it's visible according to its compaction mode, otherwise {@code null}.
+   */
+  private RawEntry visibleRaw(Segment segment, long index, RawEntry entry) {
+    if (entry != null) {
+      // Entries written before the compaction mode was stored in the entry header must be deserialized
+      // to determine their compaction mode.
       Compaction.Mode mode = entry.getCompactionMode();
-      if (mode == Compaction.Mode.DEFAULT) {
-        mode = compactor.getDefaultCompactionMode();
+      if (mode == null) {
+        mode = segment.compactionMode(index);
       }
-
-      // Return the entry according to the compaction mode.
-      switch (mode) {
-        // SNAPSHOT entries are returned if the snapshotIndex is less than the entry index.
-        case SNAPSHOT:
-          if (index > compactor.snapshotIndex()) {
-            return entry;
-          }
-          break;
-        // RELEASE and QUORUM entries are returned if the minorIndex is less than the entry index or the
-        // entry is still live.
-        case RELEASE:
-        case QUORUM:
-          if (index > compactor.minorIndex() || segment.isLive(index)) {
-            return entry;
-          }
-          break;
-        // FULL, SEQUENTIAL, EXPIRING, and TOMBSTONE entries are returned if the minorIndex or majorIndex is less than the
-        // entry index or if the entry is still live.
-        case FULL:
-        case SEQUENTIAL:
-        case EXPIRING:
-        case TOMBSTONE:
-          if (index > compactor.minorIndex() || index > compactor.majorIndex() || segment.isLive(index)) {
-            return entry;
-          }
-          break;
-        default:
-          break;
+      if (mode != null && isVisible(segment, index, mode)) {
+        return entry;
       }
     }
     return null;
   }
 
+  /**
+   * Returns a boolean indicating whether the entry at the given index should be exposed to the Raft algorithm
+   * based on the entry's compaction mode and whether it has been released.
+   */
+  private boolean isVisible(Segment segment, long index, Compaction.Mode mode) {
+    // The last entry in the log is always visible. This is necessary to ensure that candidates
+    // can properly read the last entry term for the voting protocol.
+    if (index == lastIndex()) {
+      return true;
+    }
+
+    if (mode == Compaction.Mode.DEFAULT) {
+      mode = compactor.getDefaultCompactionMode();
+    }
+
+    // Return the entry according to the compaction mode.
+    switch (mode) {
+      // SNAPSHOT entries are returned if the snapshotIndex is less than the entry index.
+      case SNAPSHOT:
+        return index > compactor.snapshotIndex();
+      // RELEASE and QUORUM entries are returned if the minorIndex is less than the entry index or the
+      // entry is still live.
+      case RELEASE:
+      case QUORUM:
+        return index > compactor.minorIndex() || segment.isLive(index);
+      // FULL, SEQUENTIAL, EXPIRING, and TOMBSTONE entries are returned if the minorIndex or majorIndex is less than the
+      // entry index or if the entry is still live.
+      case FULL:
+      case SEQUENTIAL:
+      case EXPIRING:
+      case TOMBSTONE:
+        return index > compactor.minorIndex() || index > compactor.majorIndex() || segment.isLive(index);
+      default:
+        return false;
+    }
+  }
+
   /**
    * Returns a boolean value indicating whether the given index is within the bounds of the log.
    * <p>
@@ -452,6 +653,9 @@ public class Log implements AutoCloseable {
 
   /**
    * Commits entries up to the given index to the log.
+   * <p>
+   * If {@link Storage#groupCommit() group commit} is enabled, committed entries will be flushed to disk asynchronously
+   * by a background flusher. Use {@link #sync(long)} to wait for a committed index to be flushed.
    *
    * @param index The index up to which to commit entries.
    * @return The log.
@@ -462,13 +666,31 @@ public class Log implements AutoCloseable {
     if (index > 0) {
       assertValidIndex(index);
       segments.commitIndex(index);
-      if (storage.flushOnCommit()) {
-        segments.currentSegment().flush();
+      if (storage.groupCommit() && flusher != null) {
+        flusher.commit(index, bytesWritten);
+      } else if (storage.flushOnCommit() && (flusher == null || flusher.flushIndex() < index)) {
+        flushCurrentSegment();
       }
     }
     return this;
   }
 
+  /**
+   * Returns a future to be completed once entries up to the given committed index have been flushed to disk.
+   * <p>
+   * If {@link Storage#groupCommit() group commit} is not enabled, the returned future will be completed immediately
+   * since commits are either flushed synchronously or not flushed at all. When group commit is enabled, the future
+   * will be completed on the flusher thread once the group flush that covers the given index completes.
+   *
+   * @param index The committed index for which to wait.
+   * @return A future to be completed once the given index has been flushed to disk.
+   * @throws IllegalStateException If the log is not open.
+   */
+  public CompletableFuture<Long> sync(long index) {
+    assertIsOpen();
+    return storage.groupCommit() && flusher != null ? flusher.sync(index) : CompletableFuture.completedFuture(index);
+  }
+
   /**
    * Skips the given number of entries.
    * <p>
@@ -526,6 +748,8 @@ public class Log implements AutoCloseable {
       }
     }
     entryBuffer.clear();
+    if (flusher != null)
+      flusher.truncate(index);
     return this;
   }
 
@@ -536,7 +760,16 @@ public class Log implements AutoCloseable {
    */
   public void flush() {
     assertIsOpen();
+    flushCurrentSegment();
+  }
+
+  /**
+   * Flushes the current segment, recording the flush latency with the compaction throttle.
+   */
+  private void flushCurrentSegment() {
+    long startTime = System.nanoTime();
     segments.currentSegment().flush();
+    compactor.throttle().recordFlush(System.nanoTime() - startTime);
   }
 
   /**
@@ -548,6 +781,8 @@ public class Log implements AutoCloseable {
   public void close() {
     assertIsOpen();
     flush();
+    if (flusher != null)
+      flusher.close();
     compactor.close();
     segments.close();
     open = false;
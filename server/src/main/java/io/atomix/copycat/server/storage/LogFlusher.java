@@ -0,0 +1,274 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage;
+
+import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.compaction.CompactionThrottle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces flushes of committed entries into group commits.
+ * <p>
+ * Rather than flushing the current {@link Segment} each time an entry is committed, the flusher schedules a single
+ * flush on a background thread for all commits that occur within the configured {@link Storage#groupCommitDelay()}.
+ * If the number of bytes written since the last flush exceeds {@link Storage#groupCommitBytes()}, the flush is
+ * triggered immediately. Futures returned by {@link #sync(long)} are completed once the flush that covers their
+ * index has completed.
+ * <p>
+ * The flusher also flushes appended entries that have not yet been committed. This allows a leader to flush its own
+ * entries in the background while they're replicated to followers rather than flushing them on commit. When group
+ * commit is enabled, the {@link Log} registers such entries as {@link #commit(long, long) commits} so they're batched
+ * into group commits. Otherwise, flushes are {@link #flush(long, long) requested} and performed immediately, and
+ * requests that arrive while a flush is in progress are coalesced into the next flush.
+ * <p>
+ * When the log is {@link #truncate(long) truncated}, commits and flushes of entries following the truncated index
+ * are rolled back so that entries later written at the same indexes are not reported durable until they're flushed.
+ * <p>
+ * Only the current segment is ever flushed by the flusher. The {@link Log} flushes full segments synchronously when
+ * it rolls over to a new segment, so all entries in prior segments are already durable.
+ * <p>
+ * The latency of each flush is recorded with the {@link CompactionThrottle} so that compaction can back off while
+ * the disk is slow to flush appends.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+final class LogFlusher implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(LogFlusher.class);
+  private final SegmentManager segments;
+  private final CompactionThrottle throttle;
+  private final ScheduledExecutorService executor;
+  private final long maxDelay;
+  private final long maxBytes;
+  private final NavigableMap<Long, CompletableFuture<Long>> futures = new TreeMap<>();
+  private ScheduledFuture<?> scheduledFlush;
+  private long commitIndex;
+  private long commitBytes;
+  private long flushIndex;
+  private long flushBytes;
+  private long truncations;
+  private boolean open = true;
+
+  LogFlusher(Storage storage, SegmentManager segments, CompactionThrottle throttle, ScheduledExecutorService executor) {
+    Assert.notNull(storage, "storage");
+    this.segments = Assert.notNull(segments, "segments");
+    this.throttle = Assert.notNull(throttle, "throttle");
+    this.executor = Assert.notNull(executor, "executor");
+    this.maxDelay = storage.groupCommitDelay().toNanos();
+    this.maxBytes = storage.groupCommitBytes();
+  }
+
+  /**
+   * Returns the highest index known to have been flushed to disk.
+   *
+   * @return The highest flushed index.
+   */
+  synchronized long flushIndex() {
+    return flushIndex;
+  }
+
+  /**
+   * Registers a commit with the flusher.
+   *
+   * @param index The committed index.
+   * @param bytes The total number of bytes written to the log at the time of the commit.
+   */
+  synchronized void commit(long index, long bytes) {
+    if (!open || index <= commitIndex)
+      return;
+
+    commitIndex = index;
+    commitBytes = bytes;
+
+    // If enough bytes have been written since the last flush, flush immediately. Otherwise, ensure a flush
+    // is scheduled within the maximum delay. If the scheduled flush is already running, it will not cover this
+    // commit and a new flush will be scheduled by the next commit since scheduledFlush is reset on each flush.
+    if (commitBytes - flushBytes >= maxBytes) {
+      if (scheduledFlush == null || scheduledFlush.cancel(false)) {
+        scheduledFlush = executor.schedule(this::flush, 0, TimeUnit.NANOSECONDS);
+      }
+    } else if (scheduledFlush == null) {
+      scheduledFlush = executor.schedule(this::flush, maxDelay, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Requests that entries up to the given index be flushed to disk as soon as possible.
+   *
+   * @param index The index up to which to flush entries.
+   * @param bytes The total number of bytes written to the log at the time of the request.
+   * @return A future to be completed once the given index has been flushed to disk.
+   */
+  synchronized CompletableFuture<Long> flush(long index, long bytes) {
+    if (index <= flushIndex || !open)
+      return CompletableFuture.completedFuture(index);
+
+    if (index > commitIndex) {
+      commitIndex = index;
+      commitBytes = bytes;
+    }
+
+    // Schedule an immediate flush unless one is already pending. If a delayed group commit flush is pending,
+    // replace it with an immediate flush.
+    if (scheduledFlush == null || scheduledFlush.getDelay(TimeUnit.NANOSECONDS) > 0 && scheduledFlush.cancel(false)) {
+      scheduledFlush = executor.schedule(this::flush, 0, TimeUnit.NANOSECONDS);
+    }
+    return futures.computeIfAbsent(index, i -> new CompletableFuture<>());
+  }
+
+  /**
+   * Returns a future to be completed once the given index has been flushed to disk.
+   * <p>
+   * The index must have been {@link #commit(long, long) committed} to the flusher for the future to be completed.
+   *
+   * @param index The index for which to wait.
+   * @return A future to be completed once the given index has been flushed to disk.
+   */
+  synchronized CompletableFuture<Long> sync(long index) {
+    if (index <= flushIndex || !open)
+      return CompletableFuture.completedFuture(index);
+    return futures.computeIfAbsent(index, i -> new CompletableFuture<>());
+  }
+
+  /**
+   * Rolls back commits and flushes of entries following the given index.
+   * <p>
+   * Futures awaiting the truncated entries are failed. If a flush is in progress, it will not update the flushed
+   * index since entries it was meant to cover may have been replaced.
+   *
+   * @param index The index after which entries were truncated.
+   */
+  void truncate(long index) {
+    List<CompletableFuture<Long>> truncated;
+    synchronized (this) {
+      truncations++;
+      commitIndex = Math.min(commitIndex, index);
+      // The number of bytes flushed prior to the truncated index isn't known, so reset the flushed bytes to
+      // ensure entries rewritten after the truncated index are flushed by the next commit.
+      if (flushIndex > index) {
+        flushIndex = index;
+        flushBytes = 0;
+      }
+      NavigableMap<Long, CompletableFuture<Long>> tail = futures.tailMap(index, false);
+      truncated = new ArrayList<>(tail.values());
+      tail.clear();
+    }
+
+    for (CompletableFuture<Long> future : truncated) {
+      future.completeExceptionally(new StorageException("entry truncated before flush"));
+    }
+  }
+
+  /**
+   * Flushes the current segment and completes futures for all indexes committed prior to the flush.
+   */
+  private void flush() {
+    long index;
+    long bytes;
+    long truncations;
+    synchronized (this) {
+      scheduledFlush = null;
+      index = commitIndex;
+      bytes = commitBytes;
+      truncations = this.truncations;
+    }
+
+    Throwable error = null;
+    try {
+      long startTime = System.nanoTime();
+      segments.currentSegment().flush();
+      throttle.recordFlush(System.nanoTime() - startTime);
+    } catch (Exception e) {
+      LOGGER.warn("Failed to flush log", e);
+      error = e;
+    }
+
+    List<CompletableFuture<Long>> completed = new ArrayList<>();
+    List<Long> indexes = new ArrayList<>();
+    synchronized (this) {
+      // If the log was truncated during the flush, entries committed since the truncation may not have been
+      // flushed. Flush again rather than completing futures for them.
+      if (truncations != this.truncations) {
+        if (!futures.isEmpty() && scheduledFlush == null && open) {
+          scheduledFlush = executor.schedule(this::flush, 0, TimeUnit.NANOSECONDS);
+        }
+        return;
+      }
+
+      if (error == null) {
+        flushIndex = Math.max(flushIndex, index);
+        flushBytes = Math.max(flushBytes, bytes);
+      }
+
+      NavigableMap<Long, CompletableFuture<Long>> flushed = futures.headMap(index, true);
+      for (Map.Entry<Long, CompletableFuture<Long>> entry : flushed.entrySet()) {
+        indexes.add(entry.getKey());
+        completed.add(entry.getValue());
+      }
+      flushed.clear();
+    }
+
+    // Complete futures outside of the lock to prevent callbacks from blocking commits.
+    for (int i = 0; i < completed.size(); i++) {
+      if (error == null) {
+        completed.get(i).complete(indexes.get(i));
+      } else {
+        completed.get(i).completeExceptionally(error);
+      }
+    }
+  }
+
+  /**
+   * Closes the flusher.
+   * <p>
+   * The log must be flushed prior to closing the flusher. Any futures still awaiting a flush will be completed.
+   */
+  @Override
+  public void close() {
+    List<Map.Entry<Long, CompletableFuture<Long>>> remaining;
+    synchronized (this) {
+      open = false;
+      if (scheduledFlush != null) {
+        scheduledFlush.cancel(false);
+        scheduledFlush = null;
+      }
+      flushIndex = Math.max(flushIndex, commitIndex);
+      remaining = new ArrayList<>(futures.entrySet());
+      futures.clear();
+    }
+
+    executor.shutdown();
+    for (Map.Entry<Long, CompletableFuture<Long>> entry : remaining) {
+      entry.getValue().complete(entry.getKey());
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[flushIndex=%d]", getClass().getSimpleName(), flushIndex);
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage;
+
+import io.atomix.copycat.server.storage.entry.RawEntry;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the {@link RawEntry raw entries} in a range of the log.
+ * <p>
+ * Log iterators are created by {@link Log#iterator(long)} and iterate from the given index through the last index
+ * of the log at the time the iterator was created. Entries that have been compacted from the log are skipped, so
+ * the indexes of entries returned by the iterator may not be contiguous.
+ * <p>
+ * Unlike most log operations, iterators read entries directly from log segments and bypass the log's entry buffer,
+ * so an iterator can be consumed on a thread other than the thread that writes to the log. This allows large ranges
+ * of old entries to be read without blocking the log's writer. An iterator must not be consumed by more than one
+ * thread at a time.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class LogIterator implements Iterator<RawEntry> {
+  private final Log log;
+  private final long firstIndex;
+  private final long lastIndex;
+  private long index;
+  private RawEntry previous;
+  private boolean previousRead;
+  private RawEntry next;
+
+  LogIterator(Log log, long firstIndex, long lastIndex) {
+    this.log = log;
+    this.firstIndex = firstIndex;
+    this.lastIndex = lastIndex;
+    this.index = Math.max(firstIndex, log.firstIndex());
+  }
+
+  /**
+   * Returns the index of the next entry to be read by the iterator.
+   *
+   * @return The index of the next entry to be read by the iterator.
+   */
+  public long index() {
+    return next != null ? next.getIndex() : index;
+  }
+
+  /**
+   * Returns the last index up to which the iterator reads entries.
+   *
+   * @return The last index up to which the iterator reads entries.
+   */
+  public long lastIndex() {
+    return lastIndex;
+  }
+
+  /**
+   * Returns the entry preceding the next entry to be returned by the iterator.
+   * <p>
+   * Once an entry has been returned by {@link #next()}, the preceding entry is the last entry returned. Before
+   * the first entry has been returned, the preceding entry is the last entry in the log prior to the iterator's
+   * first index that has not been compacted.
+   *
+   * @return The entry preceding the next entry or {@code null} if no preceding entry exists.
+   */
+  public RawEntry previous() {
+    if (!previousRead) {
+      for (long i = Math.min(firstIndex - 1, lastIndex); i > 0 && previous == null; i--) {
+        previous = log.readRaw(i);
+      }
+      previousRead = true;
+    }
+    return previous;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (next == null && index <= lastIndex) {
+      next = log.readRaw(index++);
+    }
+    return next != null;
+  }
+
+  @Override
+  public RawEntry next() {
+    if (!hasNext())
+      throw new NoSuchElementException();
+    previous = next;
+    previousRead = true;
+    next = null;
+    return previous;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[index=%d, lastIndex=%d]", getClass().getSimpleName(), index(), lastIndex);
+  }
+
+}
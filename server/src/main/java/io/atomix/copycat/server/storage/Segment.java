@@ -15,18 +15,33 @@
  */
 package io.atomix.copycat.server.storage;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
 import io.atomix.catalyst.buffer.*;
 import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.compaction.Compaction;
 import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
 import io.atomix.copycat.server.storage.index.OffsetIndex;
+import io.atomix.copycat.server.storage.index.PackedOffsetIndex;
 import io.atomix.copycat.server.storage.util.OffsetPredicate;
 import io.atomix.copycat.server.storage.util.TermIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import static io.atomix.catalyst.buffer.Bytes.BOOLEAN;
+import static io.atomix.catalyst.buffer.Bytes.BYTE;
 import static io.atomix.catalyst.buffer.Bytes.INTEGER;
 import static io.atomix.catalyst.buffer.Bytes.LONG;
 
@@ -58,37 +73,216 @@ import static io.atomix.catalyst.buffer.Bytes.LONG;
  *   <li>Required 32-bit signed entry length</li>
  *   <li>Required 32-bit unsigned entry checksum</li>
  *   <li>Required 64-bit signed offset</li>
- *   <li>Required 8-bit term flag</li>
+ *   <li>Required 8-bit flags</li>
  *   <li>Optional 64-bit term</li>
  * </ul>
+ * The lowest bit of the flags indicates whether the entry's term is present. The remaining bits store the entry's
+ * {@link Compaction.Mode} so that compaction can determine how to compact an entry without deserializing it. Live
+ * entries are {@link #transfer(Segment, long) transferred} between segments during compaction by copying their raw
+ * bytes, rewriting only the offset and term in the header. Similarly, entries can be {@link #getRaw(long) read}
+ * as {@link RawEntry raw entries} containing their encoded bytes, and raw entries are appended by writing their
+ * bytes as is once the entry checksum has been verified.
+ * <p>
+ * Entries are appended by a single writer, but may be {@link #get(long) read} by many threads concurrently. Reads
+ * do not share any mutable state with the writer: each reading thread decodes entries from its own scratch buffer,
+ * and entry bytes are copied into the scratch buffer with positional reads. Heap memory segments are read without
+ * locking. The {@link FileBuffer} of a disk segment seeks a shared file pointer on every read and write, so for disk
+ * segments only the positional I/O itself is serialized on the buffer; decoding and checksumming are not. Off-heap
+ * and mapped buffers free their memory when they're resized or closed, so reads from those segments hold a shared
+ * lock that the writer acquires exclusively while appending to or closing the segment.
+ * <p>
+ * Once a persistent segment is {@link #seal() sealed}, its offset and term indexes are written to an index file
+ * alongside the segment. When the segment is reopened, the indexes are loaded from the index file rather than rebuilt
+ * by reading and checksumming every entry in the segment. The index file is protected by its own checksum and is
+ * deleted if the segment is modified after it was sealed, in which case the index is rebuilt from the segment bytes.
  *
  * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
  */
 public class Segment implements AutoCloseable {
+  private static final Logger LOGGER = LoggerFactory.getLogger(Segment.class);
+  private static final ThreadLocal<ReadBuffer> READ_BUFFER = ThreadLocal.withInitial(ReadBuffer::new);
+  private static final int MAX_READ_BUFFER_SIZE = 1024 * 64;
+  private static final int INDEX_HEADER_BYTES = 8 + 8 + 8 + 8;
+  private static final int ENTRY_HEADER_BYTES = INTEGER + INTEGER + LONG + BYTE;
+  private static final int TERM_FLAG = 0x01;
+  private static final int MODE_SHIFT = 1;
+  private static final Compaction.Mode[] MODES = Compaction.Mode.values();
   private final SegmentFile file;
   private final SegmentDescriptor descriptor;
   private final Serializer serializer;
   private final Buffer buffer;
   private final HeapBuffer memory = HeapBuffer.allocate();
+  private final HeapBuffer batch = HeapBuffer.allocate();
   private final OffsetIndex offsetIndex;
   private final OffsetPredicate offsetPredicate;
   private final TermIndex termIndex = new TermIndex();
   private final SegmentManager manager;
+  private final boolean persistent;
+  private final boolean seeking;
+  private final ReadWriteLock memoryLock;
   private long skip = 0;
-  private boolean open = true;
+  private volatile long flushPosition = -1;
+  private boolean sealed;
+  private volatile boolean open = true;
 
   /**
+   * The offset index is created by the given factory with a {@link PackedOffsetIndex.Scanner} that scans forward
+   * through this segment, allowing sampled indexes to locate entries between samples.
+   *
    * @throws NullPointerException if any argument is null
    */
-  Segment(SegmentFile file, Buffer buffer, SegmentDescriptor descriptor, OffsetIndex offsetIndex, OffsetPredicate offsetPredicate, Serializer serializer, SegmentManager manager) {
+  Segment(SegmentFile file, Buffer buffer, SegmentDescriptor descriptor, Function<PackedOffsetIndex.Scanner, OffsetIndex> indexFactory, OffsetPredicate offsetPredicate, Serializer serializer, SegmentManager manager) {
     this.serializer = Assert.notNull(serializer, "serializer");
     this.file = Assert.notNull(file, "file");
     this.buffer = Assert.notNull(buffer, "buffer");
     this.descriptor = Assert.notNull(descriptor, "descriptor");
-    this.offsetIndex = Assert.notNull(offsetIndex, "offsetIndex");
+    this.offsetIndex = Assert.notNull(Assert.notNull(indexFactory, "indexFactory").apply(this::nextPosition), "offsetIndex");
     this.offsetPredicate = Assert.notNull(offsetPredicate, "offsetPredicate");
     this.manager = Assert.notNull(manager, "manager");
-    buildIndex();
+    Buffer root = buffer instanceof SlicedBuffer ? ((SlicedBuffer) buffer).root() : buffer;
+    this.persistent = root instanceof FileBuffer || root instanceof MappedBuffer;
+    this.seeking = root instanceof FileBuffer;
+    this.memoryLock = root instanceof DirectBuffer || root instanceof MappedBuffer || manager.storage().offHeap() ? new ReentrantReadWriteLock() : null;
+    if (!loadIndex()) {
+      buildIndex();
+    }
+  }
+
+  /**
+   * Loads the offset and term indexes from the segment's index file if the segment was sealed.
+   * <p>
+   * The index file is laid out as follows:
+   * <ul>
+   *   <li>64-bit segment ID, 64-bit segment version, and 64-bit segment index</li>
+   *   <li>64-bit position at the end of the last entry in the segment</li>
+   *   <li>32-bit entry count followed by a 32-bit offset and 32-bit position for each entry</li>
+   *   <li>32-bit term count followed by a 32-bit offset and 64-bit term for each term change</li>
+   *   <li>64-bit CRC32 checksum of all preceding bytes</li>
+   * </ul>
+   *
+   * @return Indicates whether the indexes were loaded from the index file.
+   */
+  private boolean loadIndex() {
+    if (!persistent)
+      return false;
+
+    File indexFile = file.index();
+    if (!indexFile.exists())
+      return false;
+
+    try (FileChannel indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+      long size = indexChannel.size();
+      if (size < INDEX_HEADER_BYTES + INTEGER * 2 + LONG || size > Integer.MAX_VALUE)
+        return false;
+
+      ByteBuffer bytes = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+      // Verify the checksum of the index file before reading any of the index.
+      ByteBuffer data = bytes.duplicate();
+      data.limit((int) size - LONG);
+      CRC32 crc32 = new CRC32();
+      crc32.update(data);
+      if (crc32.getValue() != bytes.getLong((int) size - LONG))
+        return false;
+
+      // Verify that the index file describes this version of the segment.
+      if (bytes.getLong() != descriptor.id() || bytes.getLong() != descriptor.version() || bytes.getLong() != descriptor.index())
+        return false;
+
+      // If entries were written after the end position, the segment was modified after it was sealed.
+      long end = bytes.getLong();
+      if (end + INTEGER <= buffer.capacity() && buffer.readInt(end) != 0)
+        return false;
+
+      int entries = bytes.getInt();
+      for (int i = 0; i < entries; i++) {
+        offsetIndex.index(bytes.getInt(), bytes.getInt());
+      }
+
+      int terms = bytes.getInt();
+      for (int i = 0; i < terms; i++) {
+        termIndex.index(bytes.getInt(), bytes.getLong());
+      }
+
+      buffer.position(end);
+      sealed = true;
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Seals the segment, persisting its offset and term indexes to an index file alongside the segment.
+   * <p>
+   * Segments should be sealed once no more entries will be appended to them, either when the log rolls over to a new
+   * segment or when a compacted segment replaces existing segments. Sealing a segment flushes it to disk to ensure the
+   * index file never refers to entries that are not durable, unless the segment has already been flushed since the
+   * last write to it.
+   */
+  void seal() {
+    lockRead();
+    try {
+      if (!persistent || sealed || !open)
+        return;
+
+      if (flushPosition != buffer.position()) {
+        flush();
+      }
+
+      Map<Long, Long> terms = termIndex.terms();
+      int entries = offsetIndex.size();
+      ByteBuffer bytes = ByteBuffer.allocate(INDEX_HEADER_BYTES + INTEGER + entries * (INTEGER + INTEGER) + INTEGER + terms.size() * (INTEGER + LONG) + LONG);
+      bytes.putLong(descriptor.id())
+        .putLong(descriptor.version())
+        .putLong(descriptor.index())
+        .putLong(buffer.position());
+
+      int countPosition = bytes.position();
+      int count = 0;
+      bytes.putInt(0);
+      for (long offset = 0, lastOffset = offsetIndex.lastOffset(); offset <= lastOffset && count < entries; offset++) {
+        long position = offsetIndex.position(offset);
+        if (position != -1) {
+          bytes.putInt((int) offset).putInt((int) position);
+          count++;
+        }
+      }
+      bytes.putInt(countPosition, count);
+
+      bytes.putInt(terms.size());
+      for (Map.Entry<Long, Long> entry : terms.entrySet()) {
+        bytes.putInt(entry.getKey().intValue()).putLong(entry.getValue());
+      }
+
+      Checksum crc32 = new CRC32();
+      crc32.update(bytes.array(), 0, bytes.position());
+      bytes.putLong(crc32.getValue());
+      bytes.flip();
+
+      try (FileChannel indexChannel = FileChannel.open(file.index().toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        while (bytes.hasRemaining()) {
+          indexChannel.write(bytes);
+        }
+        indexChannel.force(true);
+        sealed = true;
+      } catch (IOException e) {
+        LOGGER.warn("Failed to write index file for {}", this, e);
+        file.deleteIndex();
+      }
+    } finally {
+      unlockRead();
+    }
+  }
+
+  /**
+   * Deletes the segment's index file, if any, once the segment has been modified after it was sealed.
+   */
+  private void unseal() {
+    if (sealed) {
+      sealed = false;
+      file.deleteIndex();
+    }
   }
 
   /**
@@ -116,7 +310,7 @@ public class Segment implements AutoCloseable {
       long offset = memory.readLong();
 
       // If the term is set on the entry, read the term.
-      Long term = memory.readBoolean() ? memory.readLong() : null;
+      Long term = (memory.readByte() & TERM_FLAG) != 0 ? memory.readLong() : null;
 
       // Calculate the entry position and length.
       int entryPosition = (int) memory.position();
@@ -335,84 +529,378 @@ public class Segment implements AutoCloseable {
    * @throws IndexOutOfBoundsException if the {@code entry} index does not match the next index
    */
   public long append(Entry entry) {
-    Assert.notNull(entry, "entry");
-    Assert.stateNot(isFull(), "segment is full");
+    lockWrite();
+    try {
+      Assert.notNull(entry, "entry");
+      Assert.stateNot(isFull(), "segment is full");
+      unseal();
 
-    long index = nextIndex();
-    Assert.index(index == entry.getIndex(), "inconsistent index: %s", entry.getIndex());
+      long index = nextIndex();
+      Assert.index(index == entry.getIndex(), "inconsistent index: %s", entry.getIndex());
 
-    // Calculate the offset of the entry.
-    long offset = relativeOffset(index);
+      // Calculate the offset of the entry.
+      long offset = relativeOffset(index);
 
-    // Get the term from the entry.
-    long term = entry.getTerm();
+      // Get the term from the entry.
+      long term = entry.getTerm();
 
-    // Get the highest term in the index.
-    long lastTerm = termIndex.term();
+      // Get the highest term in the index.
+      long lastTerm = termIndex.term();
 
-    // The entry term must be positive and >= the last term in the segment.
-    Assert.arg(term > 0 && term >= lastTerm, "term must be monotonically increasing");
+      // The entry term must be positive and >= the last term in the segment.
+      Assert.arg(term > 0 && term >= lastTerm, "term must be monotonically increasing");
 
-    // Mark the starting position of the record and record the starting position of the new entry.
-    long position = buffer.position();
+      // Mark the starting position of the record and record the starting position of the new entry.
+      long position = buffer.position();
 
-    // Determine whether to skip writing the term to the segment.
-    boolean skipTerm = term == lastTerm;
+      // Determine whether to skip writing the term to the segment.
+      boolean skipTerm = term == lastTerm;
 
-    // Calculate the length of the entry header bytes.
-    int headerLength = INTEGER + LONG + BOOLEAN + (skipTerm ? 0 : LONG);
+      // Calculate the length of the entry header bytes.
+      int headerLength = INTEGER + LONG + BYTE + (skipTerm ? 0 : LONG);
 
-    // Clear the memory and skip the size and header.
-    memory.clear().skip(headerLength);
+      // Clear the memory and skip the size and header.
+      memory.clear().skip(headerLength);
 
-    // Serialize the object into the in-memory buffer.
-    serializer.writeObject(entry, memory);
+      // Serialize the object into the in-memory buffer.
+      writeEntry(entry, memory);
 
-    // Flip the in-memory buffer indexes.
-    memory.flip();
+      // Flip the in-memory buffer indexes.
+      memory.flip();
 
-    // The total length of the entry is the in-memory buffer limit.
-    int totalLength = (int) memory.limit();
+      // The total length of the entry is the in-memory buffer limit.
+      int totalLength = (int) memory.limit();
 
-    // Calculate the length of the serialized bytes based on the in-memory buffer limit and header length.
-    int entryLength = totalLength - headerLength;
+      // Calculate the length of the serialized bytes based on the in-memory buffer limit and header length.
+      int entryLength = totalLength - headerLength;
 
-    // Set the entry size.
-    entry.setSize(totalLength);
+      // Set the entry size.
+      entry.setSize(totalLength);
 
-    // Compute the checksum for the entry.
-    Checksum crc32 = new CRC32();
-    crc32.update(memory.array(), headerLength, entryLength);
-    long checksum = crc32.getValue();
+      // Compute the checksum for the entry.
+      Checksum crc32 = new CRC32();
+      crc32.update(memory.array(), headerLength, entryLength);
+      long checksum = crc32.getValue();
+      checkEntry(entry, checksum);
+
+      // Rewind the in-memory buffer and write the length, checksum, and offset.
+      memory.rewind()
+        .writeUnsignedInt(checksum)
+        .writeLong(offset);
+
+      // Write the entry flags. If the term has not yet been written, write the term to this entry.
+      memory.writeByte(flags(entry, skipTerm));
+      if (!skipTerm) {
+        memory.writeLong(term);
+      }
+
+      // Write the entry length and entry to the segment.
+      synchronized (buffer) {
+        buffer.writeInt(totalLength)
+          .write(memory.rewind());
+      }
 
-    // Rewind the in-memory buffer and write the length, checksum, and offset.
-    memory.rewind()
-      .writeUnsignedInt(checksum)
-      .writeLong(offset);
+      // Index the offset, position, and length.
+      offsetIndex.index(offset, position);
 
-    // If the term has not yet been written, write the term to this entry.
-    if (skipTerm) {
-      memory.writeBoolean(false);
-    } else {
-      memory.writeBoolean(true).writeLong(term);
+      // If the entry term is greater than the last indexed term, index the term.
+      if (term > lastTerm) {
+        termIndex.index(offset, term);
+      }
+
+      // Reset skip to zero since we wrote a new entry.
+      skip = 0;
+
+      return index;
+    } finally {
+      unlockWrite();
     }
+  }
+
+  /**
+   * Appends a batch of entries to the segment.
+   * <p>
+   * Entries are serialized into a single contiguous staging buffer and written to the segment in a single write.
+   * Entries are appended in order until either all entries have been appended or the segment becomes
+   * {@link #isFull() full}. Callers should roll over to a new segment to append the remaining entries.
+   * <p>
+   * Entry indexes must be increasing but need not be sequential. Indexes missing between entries are
+   * {@link #skip(long) skipped}.
+   *
+   * @param entries The entries to append.
+   * @return The number of entries appended to the segment.
+   * @throws NullPointerException if {@code entries} is null
+   * @throws IllegalStateException if the segment is full
+   * @throws IndexOutOfBoundsException if an entry index is less than the next index
+   */
+  public int appendBatch(List<? extends Entry> entries) {
+    lockWrite();
+    try {
+      Assert.notNull(entries, "entries");
+      Assert.stateNot(isFull(), "segment is full");
+      unseal();
+
+      long size = size();
+      int count = offsetIndex.size();
+      long nextIndex = nextIndex();
+      long lastTerm = termIndex.term();
+
+      long[] offsets = new long[entries.size()];
+      long[] positions = new long[entries.size()];
+      long[] terms = new long[entries.size()];
+
+      Checksum crc32 = new CRC32();
+      batch.clear();
+
+      int appended = 0;
+      for (Entry entry : entries) {
+        // Stop once the segment would be full. The first entry is always appended since the segment is not full.
+        if (size + batch.position() >= descriptor.maxSegmentSize() || count + appended >= descriptor.maxEntries()) {
+          break;
+        }
+
+        long index = entry.getIndex();
+        Assert.index(index >= nextIndex, "inconsistent index: %s", index);
+
+        // Calculate the offset of the entry.
+        long offset = relativeOffset(index);
+
+        // The entry term must be positive and >= the last term in the segment.
+        long term = entry.getTerm();
+        Assert.arg(term > 0 && term >= lastTerm, "term must be monotonically increasing");
 
-    // Write the entry length and entry to the segment.
-    buffer.writeInt(totalLength)
-      .write(memory.rewind());
+        // Determine whether to skip writing the term to the segment.
+        boolean skipTerm = term == lastTerm;
+
+        // Calculate the length of the entry header bytes.
+        int headerLength = INTEGER + LONG + BYTE + (skipTerm ? 0 : LONG);
+
+        // Write the entry header with a placeholder length and checksum followed by the entry itself.
+        long position = batch.position();
+        batch.writeInt(0)
+          .writeUnsignedInt(0)
+          .writeLong(offset)
+          .writeByte(flags(entry, skipTerm));
+        if (!skipTerm) {
+          batch.writeLong(term);
+        }
+        writeEntry(entry, batch);
+
+        // Calculate the total length of the entry and the length of the serialized bytes.
+        long endPosition = batch.position();
+        int totalLength = (int) (endPosition - position - INTEGER);
+        int entryLength = totalLength - headerLength;
+
+        // Set the entry size.
+        entry.setSize(totalLength);
+
+        // Compute the checksum for the entry bytes.
+        crc32.reset();
+        crc32.update(batch.array(), (int) (endPosition - entryLength), entryLength);
+        checkEntry(entry, crc32.getValue());
+
+        // Rewind to the start of the entry to write the length and checksum and return to the end of the entry.
+        batch.position(position)
+          .writeInt(totalLength)
+          .writeUnsignedInt(crc32.getValue())
+          .position(endPosition);
+
+        offsets[appended] = offset;
+        positions[appended] = position;
+        terms[appended] = term;
+
+        lastTerm = term;
+        nextIndex = index + 1;
+        appended++;
+      }
+
+      // Write the complete batch to the segment.
+      long position = buffer.position();
+      synchronized (buffer) {
+        buffer.write(batch.flip());
+      }
+
+      // Index the offsets and positions of all entries in the batch.
+      for (int i = 0; i < appended; i++) {
+        offsetIndex.index(offsets[i], position + positions[i]);
+        if (terms[i] > termIndex.term()) {
+          termIndex.index(offsets[i], terms[i]);
+        }
+      }
 
-    // Index the offset, position, and length.
-    offsetIndex.index(offset, position);
+      // Reset skip to zero since we wrote new entries.
+      skip = 0;
 
-    // If the entry term is greater than the last indexed term, index the term.
-    if (term > lastTerm) {
-      termIndex.index(offset, term);
+      return appended;
+    } finally {
+      unlockWrite();
     }
+  }
 
-    // Reset skip to zero since we wrote a new entry.
-    skip = 0;
+  /**
+   * Writes the serialized bytes of the given entry to the given buffer.
+   * <p>
+   * The bytes of {@link RawEntry raw entries} are written as is without being deserialized.
+   */
+  private void writeEntry(Entry entry, Buffer buffer) {
+    if (entry instanceof RawEntry) {
+      buffer.write(((RawEntry) entry).getBytes());
+    } else {
+      serializer.writeObject(entry, buffer);
+    }
+  }
 
-    return index;
+  /**
+   * Verifies that the checksum of the bytes written for a {@link RawEntry raw entry} matches the entry checksum.
+   * <p>
+   * This check is performed before any bytes are written to the segment so a corrupt entry leaves the
+   * segment unmodified.
+   */
+  private static void checkEntry(Entry entry, long checksum) {
+    if (entry instanceof RawEntry) {
+      Assert.state(((RawEntry) entry).getChecksum() == checksum, "checksum mismatch for entry %s", entry.getIndex());
+    }
+  }
+
+  /**
+   * Returns the header flags for the given entry.
+   */
+  private static int flags(Entry entry, boolean skipTerm) {
+    Compaction.Mode mode = entry.getCompactionMode();
+    int flags = mode != null ? (mode.ordinal() + 1) << MODE_SHIFT : 0;
+    return skipTerm ? flags : flags | TERM_FLAG;
+  }
+
+  /**
+   * Appends the entry at the given index in the given segment to this segment by copying the entry's raw bytes.
+   * <p>
+   * The entry is not deserialized. Its checksum is verified and its payload is copied as is, and only the entry's
+   * offset and term are rewritten in the header to reflect the entry's position in this segment. If the source
+   * segment does not contain a valid entry at the given index, the entry is not appended.
+   *
+   * @param segment The segment from which to transfer the entry.
+   * @param index The index of the entry to transfer.
+   * @return The index of the transferred entry, or {@code -1} if no entry was transferred.
+   * @throws NullPointerException if {@code segment} is null
+   * @throws IllegalStateException if the segment is full
+   * @throws IndexOutOfBoundsException if the {@code index} does not match the next index
+   */
+  public long transfer(Segment segment, long index) {
+    lockWrite();
+    segment.lockRead();
+    try {
+      Assert.notNull(segment, "segment");
+      Assert.stateNot(isFull(), "segment is full");
+      Assert.index(index == nextIndex(), "inconsistent index: %s", index);
+      segment.assertSegmentOpen();
+      segment.checkRange(index);
+
+      // Look up the position of the entry in the source segment.
+      long sourceOffset = segment.relativeOffset(index);
+      long sourcePosition = segment.offsetIndex.position(sourceOffset);
+      if (sourcePosition == -1)
+        return -1;
+
+      // Read the raw entry bytes from the source segment into the thread's scratch buffer.
+      ReadBuffer readBuffer = READ_BUFFER.get();
+      int length = segment.readInt(sourcePosition);
+      HeapBuffer source = readBuffer.acquire(length);
+      segment.read(sourcePosition + INTEGER, source.array(), length);
+
+      // Read the entry header.
+      long checksum = source.readUnsignedInt();
+      long entryOffset = source.readLong();
+      Assert.state(entryOffset == sourceOffset, "inconsistent index: %s", index);
+      int flags = source.readByte() & 0xFF;
+      if ((flags & TERM_FLAG) != 0) {
+        source.skip(LONG);
+      }
+
+      // Calculate the entry position and length and verify the checksum of the entry bytes.
+      int entryPosition = (int) source.position();
+      int entryLength = length - entryPosition;
+      Checksum crc32 = readBuffer.crc32;
+      crc32.reset();
+      crc32.update(source.array(), entryPosition, entryLength);
+      if (checksum != crc32.getValue())
+        return -1;
+
+      unseal();
+
+      // The entry term must be positive and >= the last term in this segment.
+      long term = segment.termIndex.lookup(sourceOffset);
+      long lastTerm = termIndex.term();
+      Assert.arg(term > 0 && term >= lastTerm, "term must be monotonically increasing");
+
+      // Determine whether to skip writing the term to the segment and rewrite the term flag.
+      boolean skipTerm = term == lastTerm;
+      int headerLength = INTEGER + LONG + BYTE + (skipTerm ? 0 : LONG);
+      flags = skipTerm ? flags & ~TERM_FLAG : flags | TERM_FLAG;
+
+      // Write the rewritten header followed by the unmodified entry bytes.
+      long offset = relativeOffset(index);
+      long position = buffer.position();
+      synchronized (buffer) {
+        buffer.writeInt(headerLength + entryLength)
+          .writeUnsignedInt(checksum)
+          .writeLong(offset)
+          .writeByte(flags);
+        if (!skipTerm) {
+          buffer.writeLong(term);
+        }
+        buffer.write(source.array(), entryPosition, entryLength);
+      }
+
+      // Index the offset and term.
+      offsetIndex.index(offset, position);
+      if (term > lastTerm) {
+        termIndex.index(offset, term);
+      }
+
+      // Reset skip to zero since we wrote a new entry.
+      skip = 0;
+
+      return index;
+    } finally {
+      segment.unlockRead();
+      unlockWrite();
+    }
+  }
+
+  /**
+   * Reads the compaction mode of the entry at the given index.
+   * <p>
+   * The compaction mode is read from the entry header without deserializing the entry. Entries written before the
+   * compaction mode was stored in the header are deserialized to determine their compaction mode.
+   *
+   * @param index The index of the entry for which to read the compaction mode.
+   * @return The compaction mode of the entry at the given index, or {@code null} if the segment does not contain
+   * a valid entry at the given index.
+   * @throws IllegalStateException if the segment is not open or {@code index} is inconsistent with the entry
+   */
+  public Compaction.Mode compactionMode(long index) {
+    lockRead();
+    try {
+      assertSegmentOpen();
+      checkRange(index);
+
+      long position = offsetIndex.position(relativeOffset(index));
+      if (position == -1)
+        return null;
+
+      // Read the entry header and skip the length, checksum, and offset to read the flags.
+      HeapBuffer memory = READ_BUFFER.get().acquire(ENTRY_HEADER_BYTES);
+      read(position, memory.array(), ENTRY_HEADER_BYTES);
+      int mode = (memory.skip(INTEGER + INTEGER + LONG).readByte() & 0xFF) >>> MODE_SHIFT;
+      if (mode > 0 && mode <= MODES.length)
+        return MODES[mode - 1];
+
+      try (Entry entry = get(index)) {
+        return entry != null ? entry.getCompactionMode() : null;
+      }
+    } finally {
+      unlockRead();
+    }
   }
 
   /**
@@ -440,56 +928,159 @@ public class Segment implements AutoCloseable {
    * @return The entry at the given index.
    * @throws IllegalStateException if the segment is not open or {@code index} is inconsistent with the entry
    */
-  public synchronized <T extends Entry> T get(long index) {
-    assertSegmentOpen();
-    checkRange(index);
+  public <T extends Entry> T get(long index) {
+    lockRead();
+    try {
+      assertSegmentOpen();
+      checkRange(index);
 
-    // Get the offset of the index within this segment.
-    long offset = relativeOffset(index);
+      // Get the offset of the index within this segment.
+      long offset = relativeOffset(index);
 
-    // Get the start position of the entry from the memory index.
-    long position = offsetIndex.position(offset);
+      // Get the start position of the entry from the memory index.
+      long position = offsetIndex.position(offset);
 
-    // If the index contained the entry, read the entry from the buffer.
-    if (position != -1) {
+      // If the index contained the entry, read the entry from the buffer.
+      if (position != -1) {
+        ReadBuffer readBuffer = READ_BUFFER.get();
+
+        // Read the length of the entry.
+        int length = readInt(position);
+
+        // Read the entry into the thread's scratch buffer.
+        HeapBuffer memory = readBuffer.acquire(length);
+        read(position + INTEGER, memory.array(), length);
+
+        // Read the checksum of the entry.
+        long checksum = memory.readUnsignedInt();
+
+        // Verify that the entry at the given offset matches.
+        long entryOffset = memory.readLong();
+        Assert.state(entryOffset == offset, "inconsistent index: %s", index);
+
+        // Skip the term if necessary.
+        if ((memory.readByte() & TERM_FLAG) != 0) {
+          memory.skip(LONG);
+        }
 
-      // Read the length of the entry.
-      int length = buffer.readInt(position);
+        // Calculate the entry position and length.
+        int entryPosition = (int) memory.position();
+        int entryLength = length - entryPosition;
 
-      // Read the entry into memory.
-      try (Buffer slice = buffer.slice(position + INTEGER, length)) {
-        slice.read(memory.clear().limit(length));
-        memory.flip();
+        // Compute the checksum for the entry bytes.
+        Checksum crc32 = readBuffer.crc32;
+        crc32.reset();
+        crc32.update(memory.array(), entryPosition, entryLength);
+
+        // If the stored checksum equals the computed checksum, return the entry.
+        if (checksum == crc32.getValue()) {
+          T entry = serializer.readObject(memory);
+          entry.setIndex(index).setTerm(termIndex.lookup(offset)).setSize(length);
+          return entry;
+        }
       }
+      return null;
+    } finally {
+      unlockRead();
+    }
+  }
 
-      // Read the checksum of the entry.
+  /**
+   * Reads the encoded bytes of the entry at the given index without deserializing the entry.
+   * <p>
+   * The entry checksum is verified, and the returned {@link RawEntry} contains the serialized entry bytes as they're
+   * stored in the segment. Raw entries can be {@link #append(Entry) appended} to other segments as is.
+   *
+   * @param index The index from which to read the entry.
+   * @return The encoded entry at the given index, or {@code null} if the segment does not contain a valid entry
+   * at the given index.
+   * @throws IllegalStateException if the segment is not open or {@code index} is inconsistent with the entry
+   */
+  public RawEntry getRaw(long index) {
+    lockRead();
+    try {
+      assertSegmentOpen();
+      checkRange(index);
+
+      // Get the offset and start position of the entry.
+      long offset = relativeOffset(index);
+      long position = offsetIndex.position(offset);
+      if (position == -1)
+        return null;
+
+      // Read the entry into the thread's scratch buffer.
+      ReadBuffer readBuffer = READ_BUFFER.get();
+      int length = readInt(position);
+      HeapBuffer memory = readBuffer.acquire(length);
+      read(position + INTEGER, memory.array(), length);
+
+      // Read the entry header.
       long checksum = memory.readUnsignedInt();
-
-      // Verify that the entry at the given offset matches.
       long entryOffset = memory.readLong();
       Assert.state(entryOffset == offset, "inconsistent index: %s", index);
-
-      // Skip the term if necessary.
-      if (memory.readBoolean()) {
+      int flags = memory.readByte() & 0xFF;
+      if ((flags & TERM_FLAG) != 0) {
         memory.skip(LONG);
       }
 
-      // Calculate the entry position and length.
+      // Calculate the entry position and length and verify the checksum of the entry bytes.
       int entryPosition = (int) memory.position();
       int entryLength = length - entryPosition;
-
-      // Compute the checksum for the entry bytes.
-      Checksum crc32 = new CRC32();
+      Checksum crc32 = readBuffer.crc32;
+      crc32.reset();
       crc32.update(memory.array(), entryPosition, entryLength);
+      if (checksum != crc32.getValue())
+        return null;
+
+      // Copy the entry bytes out of the scratch buffer.
+      byte[] bytes = new byte[entryLength];
+      System.arraycopy(memory.array(), entryPosition, bytes, 0, entryLength);
+
+      int mode = flags >>> MODE_SHIFT;
+      return new RawEntry()
+        .setBytes(bytes, checksum)
+        .setCompactionMode(mode > 0 && mode <= MODES.length ? MODES[mode - 1] : null)
+        .setIndex(index)
+        .setTerm(termIndex.lookup(offset))
+        .setSize(length);
+    } finally {
+      unlockRead();
+    }
+  }
 
-      // If the stored checksum equals the computed checksum, return the entry.
-      if (checksum == crc32.getValue()) {
-        T entry = serializer.readObject(memory);
-        entry.setIndex(index).setTerm(termIndex.lookup(offset)).setSize(length);
-        return entry;
-      }
+  /**
+   * Returns the position of the entry following the entry at the given position.
+   */
+  long nextPosition(long position) {
+    return position + INTEGER + readInt(position);
+  }
+
+  /**
+   * Reads a 32-bit signed integer at the given position in the segment buffer.
+   */
+  private int readInt(long position) {
+    if (!seeking)
+      return buffer.readInt(position);
+    synchronized (buffer) {
+      return buffer.readInt(position);
+    }
+  }
+
+  /**
+   * Copies {@code length} bytes at the given position in the segment buffer into the given array.
+   * <p>
+   * Reads from mapped and memory segments read directly from the underlying bytes without modifying the buffer's
+   * position. Reads from disk segments seek the {@link FileBuffer}'s shared file pointer and are therefore
+   * serialized with other reads and with the writer.
+   */
+  private void read(long position, byte[] bytes, int length) {
+    if (!seeking) {
+      buffer.read(position, bytes, 0, length);
+      return;
+    }
+    synchronized (buffer) {
+      buffer.read(position, bytes, 0, length);
     }
-    return null;
   }
 
   /**
@@ -588,23 +1179,31 @@ public class Segment implements AutoCloseable {
    * @throws IllegalStateException if the segment is not open
    */
   public Segment truncate(long index) {
-    assertSegmentOpen();
-    Assert.index(index >= manager.commitIndex(), "cannot truncate committed index");
-
-    long offset = relativeOffset(index);
-    long lastOffset = offsetIndex.lastOffset();
-
-    long diff = Math.abs(lastOffset - offset);
-    skip = Math.max(skip - diff, 0);
-
-    if (offset < lastOffset) {
-      long position = offsetIndex.truncate(offset);
-      buffer.position(position)
-        .zero(position)
-        .flush();
-      termIndex.truncate(offset);
+    lockWrite();
+    try {
+      assertSegmentOpen();
+      Assert.index(index >= manager.commitIndex(), "cannot truncate committed index");
+      unseal();
+
+      long offset = relativeOffset(index);
+      long lastOffset = offsetIndex.lastOffset();
+
+      long diff = Math.abs(lastOffset - offset);
+      skip = Math.max(skip - diff, 0);
+
+      if (offset < lastOffset) {
+        long position = offsetIndex.truncate(offset);
+        synchronized (buffer) {
+          buffer.position(position)
+            .zero(position);
+        }
+        buffer.flush();
+        termIndex.truncate(offset);
+      }
+      return this;
+    } finally {
+      unlockWrite();
     }
-    return this;
   }
 
   /**
@@ -613,18 +1212,32 @@ public class Segment implements AutoCloseable {
    * @return The segment.
    */
   public Segment flush() {
-    buffer.flush();
-    offsetIndex.flush();
-    return this;
+    lockRead();
+    try {
+      if (open) {
+        long position = buffer.position();
+        buffer.flush();
+        offsetIndex.flush();
+        flushPosition = position;
+      }
+      return this;
+    } finally {
+      unlockRead();
+    }
   }
 
   @Override
   public void close() {
-    buffer.close();
-    offsetIndex.close();
-    offsetPredicate.close();
-    descriptor.close();
-    open = false;
+    lockWrite();
+    try {
+      open = false;
+      buffer.close();
+      offsetIndex.close();
+      offsetPredicate.close();
+      descriptor.close();
+    } finally {
+      unlockWrite();
+    }
   }
 
   /**
@@ -639,6 +1252,9 @@ public class Segment implements AutoCloseable {
     }
 
     offsetIndex.delete();
+    if (persistent) {
+      file.deleteIndex();
+    }
   }
 
   @Override
@@ -646,7 +1262,73 @@ public class Segment implements AutoCloseable {
     return String.format("Segment[id=%d, version=%d, index=%d, length=%d]", descriptor.id(), descriptor.version(), firstIndex(), length());
   }
 
+  /**
+   * Acquires a read lock on the segment's native memory.
+   * <p>
+   * Off-heap and mapped buffers release their memory when they're resized or closed, so readers must hold a read
+   * lock while reading from them. The writer holds the write lock while writing to the segment, which may resize
+   * its buffers, and while closing the segment. Segments backed by heap memory or files don't require locking.
+   */
+  private void lockRead() {
+    if (memoryLock != null) {
+      memoryLock.readLock().lock();
+    }
+  }
+
+  /**
+   * Releases the read lock on the segment's native memory.
+   */
+  private void unlockRead() {
+    if (memoryLock != null) {
+      memoryLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Acquires the write lock on the segment's native memory.
+   */
+  private void lockWrite() {
+    if (memoryLock != null) {
+      memoryLock.writeLock().lock();
+    }
+  }
+
+  /**
+   * Releases the write lock on the segment's native memory.
+   */
+  private void unlockWrite() {
+    if (memoryLock != null) {
+      memoryLock.writeLock().unlock();
+    }
+  }
+
   private void assertSegmentOpen() {
     Assert.state(isOpen(), "segment not open");
   }
+
+  /**
+   * Per-thread scratch buffer into which entries are read and decoded.
+   * <p>
+   * The scratch buffer grows up to {@link #MAX_READ_BUFFER_SIZE} bytes. Larger entries are read into a buffer
+   * allocated for the single read so that one large entry doesn't pin a large buffer to every reading thread.
+   */
+  private static final class ReadBuffer {
+    private final Checksum crc32 = new CRC32();
+    private HeapBuffer buffer = HeapBuffer.wrap(new byte[1024]);
+
+    /**
+     * Returns the scratch buffer with its limit set to the given length, growing the buffer if necessary.
+     */
+    private HeapBuffer acquire(int length) {
+      if (length > MAX_READ_BUFFER_SIZE) {
+        return HeapBuffer.wrap(new byte[length]);
+      }
+      if (buffer.array().length < length) {
+        buffer = HeapBuffer.wrap(new byte[Math.min(Math.max(length, buffer.array().length * 2), MAX_READ_BUFFER_SIZE)]);
+      }
+      buffer.clear().limit(length);
+      return buffer;
+    }
+  }
+
 }
@@ -239,6 +239,7 @@ public final class SegmentDescriptor implements AutoCloseable {
   public void delete() {
     if (buffer instanceof FileBuffer) {
       ((FileBuffer) buffer).delete();
+      new SegmentFile(((FileBuffer) buffer).file()).deleteIndex();
     } else if (buffer instanceof MappedBuffer) {
       ((MappedBuffer) buffer).delete();
     }
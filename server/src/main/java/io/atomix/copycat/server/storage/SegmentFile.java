@@ -16,8 +16,12 @@
 package io.atomix.copycat.server.storage;
 
 import io.atomix.catalyst.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 
 /**
  * Segment file utility.
@@ -25,9 +29,11 @@ import java.io.File;
  * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
  */
 public final class SegmentFile {
+  private static final Logger LOGGER = LoggerFactory.getLogger(SegmentFile.class);
   private static final char PART_SEPARATOR = '-';
   private static final char EXTENSION_SEPARATOR = '.';
   private static final String EXTENSION = "log";
+  private static final String INDEX_EXTENSION = "index";
   private final File file;
 
   /**
@@ -60,6 +66,20 @@ public final class SegmentFile {
     return fileName.substring(0, fileName.lastIndexOf(PART_SEPARATOR, fileName.lastIndexOf(PART_SEPARATOR) - 1)).equals(name);
   }
 
+  /**
+   * Returns a boolean value indicating whether the given file appears to be a parsable segment index file.
+   *
+   * @throws NullPointerException if {@code file} is null
+   */
+  public static boolean isSegmentIndexFile(String name, File file) {
+    Assert.notNull(file, "file");
+    String fileName = file.getName();
+    if (!fileName.endsWith(EXTENSION_SEPARATOR + INDEX_EXTENSION))
+      return false;
+    String segmentFileName = fileName.substring(0, fileName.length() - INDEX_EXTENSION.length()) + EXTENSION;
+    return isSegmentFile(name, new File(file.getParentFile(), segmentFileName));
+  }
+
   /**
    * Creates a segment file for the given directory, log name, segment ID, and segment version.
    */
@@ -83,6 +103,25 @@ public final class SegmentFile {
     return file;
   }
 
+  /**
+   * Returns the index file in which the segment's offset and term indexes are persisted once it is sealed.
+   */
+  File index() {
+    String fileName = file.getName();
+    return new File(file.getParentFile(), fileName.substring(0, fileName.lastIndexOf(EXTENSION_SEPARATOR) + 1) + INDEX_EXTENSION);
+  }
+
+  /**
+   * Deletes the segment's index file if it exists.
+   */
+  void deleteIndex() {
+    try {
+      Files.deleteIfExists(index().toPath());
+    } catch (IOException e) {
+      LOGGER.warn("Failed to delete index file {}", index(), e);
+    }
+  }
+
   /**
    * Returns the segment identifier.
    */
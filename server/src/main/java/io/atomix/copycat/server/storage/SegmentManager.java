@@ -16,6 +16,7 @@
 package io.atomix.copycat.server.storage;
 
 import io.atomix.catalyst.buffer.Buffer;
+import io.atomix.catalyst.buffer.DirectBuffer;
 import io.atomix.catalyst.buffer.FileBuffer;
 import io.atomix.catalyst.buffer.HeapBuffer;
 import io.atomix.catalyst.buffer.MappedBuffer;
@@ -23,17 +24,23 @@ import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.server.storage.index.DelegatingOffsetIndex;
 import io.atomix.copycat.server.storage.index.OffsetIndex;
+import io.atomix.copycat.server.storage.index.PackedOffsetIndex;
 import io.atomix.copycat.server.storage.util.OffsetPredicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Manages creation and deletion of {@link Segment}s of the {@link Log}.
@@ -51,7 +58,7 @@ public class SegmentManager implements AutoCloseable {
   private final Storage storage;
   private final Serializer serializer;
   private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
-  private Segment currentSegment;
+  private volatile Segment currentSegment;
   private long commitIndex;
 
   /**
@@ -202,22 +209,32 @@ public class SegmentManager implements AutoCloseable {
    * @return The next segment.
    * @throws IllegalStateException if the segment manager is not open
    */
-  public synchronized Segment nextSegment() {
-    assertOpen();
-    Segment lastSegment = lastSegment();
-    SegmentDescriptor descriptor = SegmentDescriptor.builder()
-      .withId(lastSegment != null ? lastSegment.descriptor().id() + 1 : 1)
-      .withVersion(1)
-      .withIndex(currentSegment.lastIndex() + 1)
-      .withMaxSegmentSize(storage.maxSegmentSize())
-      .withMaxEntries(storage.maxEntriesPerSegment())
-      .build();
-    descriptor.lock();
+  public Segment nextSegment() {
+    Segment previousSegment;
+    Segment nextSegment;
+    synchronized (this) {
+      assertOpen();
+      previousSegment = currentSegment;
+
+      Segment lastSegment = lastSegment();
+      SegmentDescriptor descriptor = SegmentDescriptor.builder()
+        .withId(lastSegment != null ? lastSegment.descriptor().id() + 1 : 1)
+        .withVersion(1)
+        .withIndex(currentSegment.lastIndex() + 1)
+        .withMaxSegmentSize(storage.maxSegmentSize())
+        .withMaxEntries(storage.maxEntriesPerSegment())
+        .build();
+      descriptor.lock();
+
+      currentSegment = nextSegment = createSegment(descriptor);
 
-    currentSegment = createSegment(descriptor);
+      segments.put(descriptor.index(), currentSegment);
+    }
 
-    segments.put(descriptor.index(), currentSegment);
-    return currentSegment;
+    // Seal the previous segment to persist its indexes. The previous segment no longer receives writes, so it's
+    // sealed outside the lock to avoid blocking segment lookups while the index file is written and forced.
+    previousSegment.seal();
+    return nextSegment;
   }
 
   /**
@@ -257,27 +274,43 @@ public class SegmentManager implements AutoCloseable {
 
   /**
    * Inserts a segment.
+   * <p>
+   * Segments may be replaced concurrently by multiple compaction threads. The old segments are validated before
+   * the segments list is modified, and the new segment is inserted before the old segments are removed so that
+   * concurrent readers never observe a gap in the log.
    *
    * @param segment The segment to insert.
-   * @throws IllegalStateException if the segment is unknown
+   * @throws IllegalArgumentException if any of the old segments is unknown
    */
-  public synchronized void replaceSegments(Collection<Segment> segments, Segment segment) {
-    // Update the segment descriptor and lock the segment.
-    segment.descriptor().update(System.currentTimeMillis());
-    segment.descriptor().lock();
-
-    // Iterate through old segments and remove them from the segments list.
-    for (Segment oldSegment : segments) {
-      if (!this.segments.containsKey(oldSegment.index())) {
-        throw new IllegalArgumentException("unknown segment at index: " + oldSegment.index());
+  public void replaceSegments(Collection<Segment> segments, Segment segment) {
+    // Seal the new segment before it becomes visible. Sealing flushes the segment and writes its index file, so
+    // it's done outside the lock to avoid blocking segment lookups.
+    segment.seal();
+
+    synchronized (this) {
+      // Ensure all old segments are still in the segments list before modifying it.
+      for (Segment oldSegment : segments) {
+        if (this.segments.get(oldSegment.index()) != oldSegment) {
+          throw new IllegalArgumentException("unknown segment at index: " + oldSegment.index());
+        }
       }
-      this.segments.remove(oldSegment.index());
-    }
 
-    // Put the new segment in the segments list.
-    this.segments.put(segment.index(), segment);
+      // Update the segment descriptor and lock the segment.
+      segment.descriptor().update(System.currentTimeMillis());
+      segment.descriptor().lock();
 
-    resetCurrentSegment();
+      // Put the new segment in the segments list.
+      this.segments.put(segment.index(), segment);
+
+      // Iterate through old segments and remove them from the segments list.
+      for (Segment oldSegment : segments) {
+        if (oldSegment.index() != segment.index()) {
+          this.segments.remove(oldSegment.index());
+        }
+      }
+
+      resetCurrentSegment();
+    }
   }
 
   /**
@@ -319,7 +352,7 @@ public class SegmentManager implements AutoCloseable {
     File segmentFile = SegmentFile.createSegmentFile(name, storage.directory(), descriptor.id(), descriptor.version());
     Buffer buffer = FileBuffer.allocate(segmentFile, Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxSegmentSize()), Integer.MAX_VALUE);
     descriptor.copyTo(buffer);
-    Segment segment = new Segment(new SegmentFile(segmentFile), buffer.slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(segmentFile), buffer.slice(), descriptor);
     LOGGER.debug("Created segment: {}", segment);
     return segment;
   }
@@ -331,7 +364,7 @@ public class SegmentManager implements AutoCloseable {
     File segmentFile = SegmentFile.createSegmentFile(name, storage.directory(), descriptor.id(), descriptor.version());
     Buffer buffer = MappedBuffer.allocate(segmentFile, Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxSegmentSize()), Integer.MAX_VALUE);
     descriptor.copyTo(buffer);
-    Segment segment = new Segment(new SegmentFile(segmentFile), buffer.slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(segmentFile), buffer.slice(), descriptor);
     LOGGER.debug("Created segment: {}", segment);
     return segment;
   }
@@ -341,9 +374,9 @@ public class SegmentManager implements AutoCloseable {
    */
   private Segment createMemorySegment(SegmentDescriptor descriptor) {
     File segmentFile = SegmentFile.createSegmentFile(name, storage.directory(), descriptor.id(), descriptor.version());
-    Buffer buffer = HeapBuffer.allocate(Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxSegmentSize()), Integer.MAX_VALUE);
+    Buffer buffer = allocateMemory(Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxSegmentSize()), Integer.MAX_VALUE);
     descriptor.copyTo(buffer);
-    Segment segment = new Segment(new SegmentFile(segmentFile), buffer.slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(segmentFile), buffer.slice(), descriptor);
     LOGGER.debug("Created segment: {}", segment);
     return segment;
   }
@@ -371,7 +404,7 @@ public class SegmentManager implements AutoCloseable {
     File file = SegmentFile.createSegmentFile(name, storage.directory(), segmentId, segmentVersion);
     Buffer buffer = FileBuffer.allocate(file, Math.min(DEFAULT_BUFFER_SIZE, storage.maxSegmentSize()), Integer.MAX_VALUE);
     SegmentDescriptor descriptor = new SegmentDescriptor(buffer);
-    Segment segment = new Segment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor);
     LOGGER.debug("Loaded file segment: {} ({})", descriptor.id(), file.getName());
     return segment;
   }
@@ -383,7 +416,7 @@ public class SegmentManager implements AutoCloseable {
     File file = SegmentFile.createSegmentFile(name, storage.directory(), segmentId, segmentVersion);
     Buffer buffer = MappedBuffer.allocate(file, Math.min(DEFAULT_BUFFER_SIZE, storage.maxSegmentSize()), Integer.MAX_VALUE);
     SegmentDescriptor descriptor = new SegmentDescriptor(buffer);
-    Segment segment = new Segment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor);
     LOGGER.debug("Loaded mapped segment: {} ({})", descriptor.id(), file.getName());
     return segment;
   }
@@ -393,18 +426,32 @@ public class SegmentManager implements AutoCloseable {
    */
   private Segment loadMemorySegment(long segmentId, long segmentVersion) {
     File file = SegmentFile.createSegmentFile(name, storage.directory(), segmentId, segmentVersion);
-    Buffer buffer = HeapBuffer.allocate(Math.min(DEFAULT_BUFFER_SIZE, storage.maxSegmentSize()), Integer.MAX_VALUE);
+    Buffer buffer = allocateMemory(Math.min(DEFAULT_BUFFER_SIZE, storage.maxSegmentSize()), Integer.MAX_VALUE);
     SegmentDescriptor descriptor = new SegmentDescriptor(buffer);
-    Segment segment = new Segment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor, createIndex(descriptor), new OffsetPredicate(), serializer.clone(), this);
+    Segment segment = newSegment(new SegmentFile(file), buffer.position(SegmentDescriptor.BYTES).slice(), descriptor);
     LOGGER.debug("Loaded memory segment: {}", descriptor.id());
     return segment;
   }
 
+  /**
+   * Constructs a segment for the given file, buffer, and descriptor.
+   */
+  private Segment newSegment(SegmentFile file, Buffer buffer, SegmentDescriptor descriptor) {
+    return new Segment(file, buffer, descriptor, scanner -> createIndex(descriptor, scanner), new OffsetPredicate(), serializer.clone(), this);
+  }
+
+  /**
+   * Allocates an in memory buffer, off-heap if configured.
+   */
+  private Buffer allocateMemory(long initialCapacity, long maxCapacity) {
+    return storage.offHeap() ? DirectBuffer.allocate(initialCapacity, maxCapacity) : HeapBuffer.allocate(initialCapacity, maxCapacity);
+  }
+
   /**
    * Creates an in memory segment index.
    */
-  private OffsetIndex createIndex(SegmentDescriptor descriptor) {
-    return new DelegatingOffsetIndex(HeapBuffer.allocate(Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxEntries()), OffsetIndex.size(descriptor.maxEntries())));
+  private OffsetIndex createIndex(SegmentDescriptor descriptor, PackedOffsetIndex.Scanner scanner) {
+    return new DelegatingOffsetIndex(allocateMemory(Math.min(DEFAULT_BUFFER_SIZE, descriptor.maxEntries()), OffsetIndex.size(descriptor.maxEntries())), storage.indexSampleInterval(), scanner);
   }
 
   /**
@@ -418,10 +465,12 @@ public class SegmentManager implements AutoCloseable {
 
     TreeMap<Long, Segment> segments = new TreeMap<>();
 
-    // Iterate through all files in the log directory.
+    // Read the descriptors of all segment files in the log directory.
+    List<SegmentFile> segmentFiles = new ArrayList<>();
+    List<SegmentDescriptor> descriptors = new ArrayList<>();
     for (File file : storage.directory().listFiles(File::isFile)) {
 
-      // If the file looks like a segment file, attempt to load the segment.
+      // If the file looks like a segment file, attempt to load the segment descriptor.
       if (SegmentFile.isSegmentFile(name, file)) {
         SegmentFile segmentFile = new SegmentFile(file);
         SegmentDescriptor descriptor = new SegmentDescriptor(FileBuffer.allocate(file, SegmentDescriptor.BYTES));
@@ -429,58 +478,8 @@ public class SegmentManager implements AutoCloseable {
         // Valid segments will have been locked. Segments that resulting from failures during log cleaning will be
         // unlocked and should ultimately be deleted from disk.
         if (descriptor.locked()) {
-
-          // Load the segment.
-          Segment segment = loadSegment(descriptor.id(), descriptor.version());
-
-          // If a segment with an equal or lower index has already been loaded, ensure this segment is not superseded
-          // by the earlier segment. This can occur due to segments being combined during log compaction.
-          Map.Entry<Long, Segment> previousEntry = segments.floorEntry(segment.index());
-          if (previousEntry != null) {
-
-            // If an existing descriptor exists with a lower index than this segment's first index, check to determine
-            // whether this segment's first index is contained in that existing index. If it is, determine which segment
-            // should take precedence based on segment versions.
-            Segment previousSegment = previousEntry.getValue();
-
-            // If the two segments start at the same index, the segment with the higher version number is used.
-            if (previousSegment.index() == segment.index()) {
-              if (segment.descriptor().version() > previousSegment.descriptor().version()) {
-                LOGGER.debug("Replaced segment {} with newer version: {} ({})", previousSegment.descriptor().id(), segment.descriptor().version(), segmentFile.file().getName());
-                segments.remove(previousEntry.getKey());
-                previousSegment.close();
-                previousSegment.delete();
-              } else {
-                segment.close();
-                segment.delete();
-                continue;
-              }
-            }
-            // If the existing segment's entries overlap with the loaded segment's entries, the existing segment always
-            // supersedes the loaded segment. Log compaction processes ensure this is always the case.
-            else if (previousSegment.index() + previousSegment.length() > segment.index()) {
-              segment.close();
-              segment.delete();
-              continue;
-            }
-          }
-
-          // Add the segment to the segments list.
-          LOGGER.debug("Found segment: {} ({})", segment.descriptor().id(), segmentFile.file().getName());
-          segments.put(segment.index(), segment);
-
-          // Ensure any segments later in the log with which this segment overlaps are removed.
-          Map.Entry<Long, Segment> nextEntry = segments.higherEntry(segment.index());
-          while (nextEntry != null) {
-            if (nextEntry.getValue().index() < segment.index() + segment.length()) {
-              segments.remove(nextEntry.getKey());
-              nextEntry = segments.higherEntry(segment.index());
-            } else {
-              break;
-            }
-          }
-
-          descriptor.close();
+          segmentFiles.add(segmentFile);
+          descriptors.add(descriptor);
         }
         // If the segment descriptor wasn't locked, close and delete the descriptor.
         else {
@@ -491,6 +490,66 @@ public class SegmentManager implements AutoCloseable {
       }
     }
 
+    // Load the locked segments. Segments are independent of one another, so they're opened and indexed in parallel.
+    List<Segment> loadedSegments;
+    try {
+      loadedSegments = loadSegments(descriptors);
+    } finally {
+      descriptors.forEach(SegmentDescriptor::close);
+    }
+
+    for (int i = 0; i < loadedSegments.size(); i++) {
+      SegmentFile segmentFile = segmentFiles.get(i);
+      Segment segment = loadedSegments.get(i);
+
+      // If a segment with an equal or lower index has already been loaded, ensure this segment is not superseded
+      // by the earlier segment. This can occur due to segments being combined during log compaction.
+      Map.Entry<Long, Segment> previousEntry = segments.floorEntry(segment.index());
+      if (previousEntry != null) {
+
+        // If an existing descriptor exists with a lower index than this segment's first index, check to determine
+        // whether this segment's first index is contained in that existing index. If it is, determine which segment
+        // should take precedence based on segment versions.
+        Segment previousSegment = previousEntry.getValue();
+
+        // If the two segments start at the same index, the segment with the higher version number is used.
+        if (previousSegment.index() == segment.index()) {
+          if (segment.descriptor().version() > previousSegment.descriptor().version()) {
+            LOGGER.debug("Replaced segment {} with newer version: {} ({})", previousSegment.descriptor().id(), segment.descriptor().version(), segmentFile.file().getName());
+            segments.remove(previousEntry.getKey());
+            previousSegment.close();
+            previousSegment.delete();
+          } else {
+            segment.close();
+            segment.delete();
+            continue;
+          }
+        }
+        // If the existing segment's entries overlap with the loaded segment's entries, the existing segment always
+        // supersedes the loaded segment. Log compaction processes ensure this is always the case.
+        else if (previousSegment.index() + previousSegment.length() > segment.index()) {
+          segment.close();
+          segment.delete();
+          continue;
+        }
+      }
+
+      // Add the segment to the segments list.
+      LOGGER.debug("Found segment: {} ({})", segment.descriptor().id(), segmentFile.file().getName());
+      segments.put(segment.index(), segment);
+
+      // Ensure any segments later in the log with which this segment overlaps are removed.
+      Map.Entry<Long, Segment> nextEntry = segments.higherEntry(segment.index());
+      while (nextEntry != null) {
+        if (nextEntry.getValue().index() < segment.index() + segment.length()) {
+          segments.remove(nextEntry.getKey());
+          nextEntry = segments.higherEntry(segment.index());
+        } else {
+          break;
+        }
+      }
+    }
+
     for (Long segmentId : segments.keySet()) {
       Segment segment = segments.get(segmentId);
       Map.Entry<Long, Segment> previousEntry = segments.floorEntry(segmentId - 1);
@@ -505,6 +564,75 @@ public class SegmentManager implements AutoCloseable {
     return segments.values();
   }
 
+  /**
+   * Loads the segments for the given descriptors, returning the segments in the order of the descriptors.
+   * <p>
+   * Segments are loaded on a pool of {@link Storage#startupThreads()} threads. If only a single startup thread is
+   * configured, segments are loaded sequentially on the calling thread. If any segment fails to load, the segments
+   * that were successfully loaded are closed before the failure is rethrown.
+   */
+  private List<Segment> loadSegments(List<SegmentDescriptor> descriptors) {
+    int parallelism = Math.min(storage.startupThreads(), descriptors.size());
+    List<Segment> segments = new ArrayList<>(descriptors.size());
+    if (parallelism <= 1) {
+      try {
+        for (SegmentDescriptor descriptor : descriptors) {
+          segments.add(loadSegment(descriptor.id(), descriptor.version()));
+        }
+      } catch (RuntimeException e) {
+        closeSegments(segments);
+        throw e;
+      }
+      return segments;
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      List<Future<Segment>> futures = new ArrayList<>(descriptors.size());
+      for (SegmentDescriptor descriptor : descriptors) {
+        futures.add(pool.submit(() -> loadSegment(descriptor.id(), descriptor.version())));
+      }
+
+      // Wait for all segments to be loaded even if one fails so that no loaded segment is left open.
+      RuntimeException error = null;
+      for (Future<Segment> future : futures) {
+        try {
+          segments.add(future.get());
+        } catch (ExecutionException e) {
+          if (error == null) {
+            Throwable cause = e.getCause();
+            error = cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException("failed to load segments", cause);
+          }
+        }
+      }
+
+      if (error != null) {
+        closeSegments(segments);
+        throw error;
+      }
+      return segments;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      closeSegments(segments);
+      throw new IllegalStateException("interrupted while loading segments", e);
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * Closes the given segments after a failure to load the log.
+   */
+  private void closeSegments(List<Segment> segments) {
+    for (Segment segment : segments) {
+      try {
+        segment.close();
+      } catch (Exception e) {
+        LOGGER.warn("Failed to close segment: {}", segment.descriptor().id(), e);
+      }
+    }
+  }
+
   @Override
   public void close() {
     segments.values().forEach(s -> {
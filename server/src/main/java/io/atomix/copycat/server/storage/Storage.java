@@ -17,6 +17,9 @@ package io.atomix.copycat.server.storage;
 
 import io.atomix.catalyst.concurrent.ThreadContext;
 import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.compaction.CompactionPolicy;
+import io.atomix.copycat.server.storage.compaction.ThresholdCompactionPolicy;
+import io.atomix.copycat.server.storage.snapshot.SnapshotCompression;
 import io.atomix.copycat.server.storage.snapshot.SnapshotFile;
 import io.atomix.copycat.server.storage.snapshot.SnapshotStore;
 import io.atomix.copycat.server.storage.system.MetaStore;
@@ -64,24 +67,48 @@ public class Storage {
   private static final int DEFAULT_MAX_SEGMENT_SIZE = 1024 * 1024 * 32;
   private static final int DEFAULT_MAX_ENTRIES_PER_SEGMENT = 1024 * 1024;
   private static final int DEFAULT_ENTRY_BUFFER_SIZE = 1024;
+  private static final int DEFAULT_INDEX_SAMPLE_INTERVAL = 1;
+  private static final boolean DEFAULT_OFF_HEAP = false;
   private static final boolean DEFAULT_FLUSH_ON_COMMIT = false;
+  private static final boolean DEFAULT_GROUP_COMMIT = false;
+  private static final Duration DEFAULT_GROUP_COMMIT_DELAY = Duration.ofMillis(2);
+  private static final int DEFAULT_GROUP_COMMIT_BYTES = 1024 * 1024;
   private static final boolean DEFAULT_RETAIN_STALE_SNAPSHOTS = false;
+  private static final SnapshotCompression DEFAULT_SNAPSHOT_COMPRESSION = SnapshotCompression.NONE;
+  private static final int DEFAULT_MAX_DELTA_SNAPSHOTS = 8;
+  private static final int DEFAULT_STARTUP_THREADS = Runtime.getRuntime().availableProcessors();
   private static final int DEFAULT_COMPACTION_THREADS = max(1, Runtime.getRuntime().availableProcessors() / 2);
   private static final Duration DEFAULT_MINOR_COMPACTION_INTERVAL = Duration.ofMinutes(1);
   private static final Duration DEFAULT_MAJOR_COMPACTION_INTERVAL = Duration.ofHours(1);
   private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+  private static final long DEFAULT_COMPACTION_BYTES_PER_SECOND = 0;
+  private static final int DEFAULT_COMPACTION_OPERATIONS_PER_SECOND = 0;
+  private static final Duration DEFAULT_COMPACTION_FLUSH_LATENCY_THRESHOLD = Duration.ZERO;
+  private static final CompactionPolicy DEFAULT_COMPACTION_POLICY = new ThresholdCompactionPolicy();
 
   private StorageLevel storageLevel = StorageLevel.DISK;
   private File directory = new File(DEFAULT_DIRECTORY);
+  private boolean offHeap = DEFAULT_OFF_HEAP;
   private int maxSegmentSize = DEFAULT_MAX_SEGMENT_SIZE;
   private int maxEntriesPerSegment = DEFAULT_MAX_ENTRIES_PER_SEGMENT;
   private int entryBufferSize = DEFAULT_ENTRY_BUFFER_SIZE;
+  private int indexSampleInterval = DEFAULT_INDEX_SAMPLE_INTERVAL;
   private boolean flushOnCommit = DEFAULT_FLUSH_ON_COMMIT;
+  private boolean groupCommit = DEFAULT_GROUP_COMMIT;
+  private Duration groupCommitDelay = DEFAULT_GROUP_COMMIT_DELAY;
+  private int groupCommitBytes = DEFAULT_GROUP_COMMIT_BYTES;
   private boolean retainStaleSnapshots = DEFAULT_RETAIN_STALE_SNAPSHOTS;
+  private SnapshotCompression snapshotCompression = DEFAULT_SNAPSHOT_COMPRESSION;
+  private int maxDeltaSnapshots = DEFAULT_MAX_DELTA_SNAPSHOTS;
+  private int startupThreads = DEFAULT_STARTUP_THREADS;
   private int compactionThreads = DEFAULT_COMPACTION_THREADS;
   private Duration minorCompactionInterval = DEFAULT_MINOR_COMPACTION_INTERVAL;
   private Duration majorCompactionInterval = DEFAULT_MAJOR_COMPACTION_INTERVAL;
   private double compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+  private long compactionBytesPerSecond = DEFAULT_COMPACTION_BYTES_PER_SECOND;
+  private int compactionOperationsPerSecond = DEFAULT_COMPACTION_OPERATIONS_PER_SECOND;
+  private Duration compactionFlushLatencyThreshold = DEFAULT_COMPACTION_FLUSH_LATENCY_THRESHOLD;
+  private CompactionPolicy compactionPolicy = DEFAULT_COMPACTION_POLICY;
 
   public Storage() {
   }
@@ -143,6 +170,19 @@ public class Storage {
     return storageLevel;
   }
 
+  /**
+   * Returns whether in-memory storage is allocated off the Java heap.
+   * <p>
+   * When off-heap storage is enabled, {@link StorageLevel#MEMORY} log segments and snapshots as well as segment
+   * offset indexes are backed by {@link io.atomix.catalyst.buffer.DirectBuffer}s rather than
+   * {@link io.atomix.catalyst.buffer.HeapBuffer}s.
+   *
+   * @return Whether in-memory storage is allocated off the Java heap.
+   */
+  public boolean offHeap() {
+    return offHeap;
+  }
+
   /**
    * Returns the maximum log segment size.
    * <p>
@@ -179,6 +219,17 @@ public class Storage {
     return entryBufferSize;
   }
 
+  /**
+   * Returns the interval at which entries of compacted segments are sampled in the segment offset index.
+   * <p>
+   * An interval of {@code 1} indicates that every entry is indexed.
+   *
+   * @return The compacted segment index sample interval.
+   */
+  public int indexSampleInterval() {
+    return indexSampleInterval;
+  }
+
   /**
    *
    * Returns whether to flush buffers to disk when entries are committed.
@@ -189,6 +240,36 @@ public class Storage {
     return flushOnCommit;
   }
 
+  /**
+   * Returns whether to group commits into shared flushes.
+   * <p>
+   * When group commit is enabled, committed entries are flushed to disk by a background flusher that coalesces
+   * many commits into a single flush. Commits are only acknowledged once their index has been flushed.
+   *
+   * @return Whether to group commits into shared flushes.
+   */
+  public boolean groupCommit() {
+    return groupCommit;
+  }
+
+  /**
+   * Returns the maximum delay between a commit and the group commit flush that makes it durable.
+   *
+   * @return The maximum group commit delay.
+   */
+  public Duration groupCommitDelay() {
+    return groupCommitDelay;
+  }
+
+  /**
+   * Returns the maximum number of unflushed bytes after which a group commit flush is triggered immediately.
+   *
+   * @return The maximum number of pending group commit bytes.
+   */
+  public int groupCommitBytes() {
+    return groupCommitBytes;
+  }
+
   /**
    * Returns a boolean value indicating whether to retain stale snapshots on disk.
    * <p>
@@ -202,6 +283,44 @@ public class Storage {
     return retainStaleSnapshots;
   }
 
+  /**
+   * Returns the compression format with which new snapshots are written.
+   * <p>
+   * Compressed snapshots are stored in compressed blocks which are transparently decompressed when the snapshot
+   * is read. Snapshots installed from other servers retain the compression format in which they were sent.
+   *
+   * @return The snapshot compression format.
+   */
+  public SnapshotCompression snapshotCompression() {
+    return snapshotCompression;
+  }
+
+  /**
+   * Returns the maximum number of delta snapshots to chain to a full snapshot.
+   * <p>
+   * State machines that implement {@link io.atomix.copycat.server.IncrementalSnapshottable} write delta snapshots
+   * containing only the changes since the prior snapshot. Once the current snapshot's chain contains the maximum
+   * number of deltas, the next snapshot is a full snapshot, which consolidates the chain and allows the prior
+   * chain to be deleted.
+   *
+   * @return The maximum number of delta snapshots to chain to a full snapshot.
+   */
+  public int maxDeltaSnapshots() {
+    return maxDeltaSnapshots;
+  }
+
+  /**
+   * Returns the number of threads with which to load log segments at startup.
+   * <p>
+   * The startup thread count dictates the parallelism with which existing {@link Segment}s are opened and indexed
+   * when a {@link Log} is opened.
+   *
+   * @return The number of segment loading threads.
+   */
+  public int startupThreads() {
+    return startupThreads;
+  }
+
   /**
    * Returns the number of log compaction threads.
    * <p>
@@ -252,6 +371,51 @@ public class Storage {
     return compactionThreshold;
   }
 
+  /**
+   * Returns the maximum number of bytes per second read and written by compaction.
+   * <p>
+   * A value of {@code 0} indicates that compaction I/O is not limited.
+   *
+   * @return The maximum number of bytes per second read and written by compaction.
+   */
+  public long compactionBytesPerSecond() {
+    return compactionBytesPerSecond;
+  }
+
+  /**
+   * Returns the maximum number of I/O operations per second performed by compaction.
+   * <p>
+   * A value of {@code 0} indicates that compaction I/O operations are not limited.
+   *
+   * @return The maximum number of I/O operations per second performed by compaction.
+   */
+  public int compactionOperationsPerSecond() {
+    return compactionOperationsPerSecond;
+  }
+
+  /**
+   * Returns the log flush latency above which compaction backs off.
+   * <p>
+   * A zero threshold indicates that compaction does not back off based on flush latency.
+   *
+   * @return The log flush latency above which compaction backs off.
+   */
+  public Duration compactionFlushLatencyThreshold() {
+    return compactionFlushLatencyThreshold;
+  }
+
+  /**
+   * Returns the compaction policy.
+   * <p>
+   * The compaction policy decides when to run {@link io.atomix.copycat.server.storage.compaction.Compaction}s and
+   * which segments to compact during minor compaction.
+   *
+   * @return The compaction policy.
+   */
+  public CompactionPolicy compactionPolicy() {
+    return compactionPolicy;
+  }
+
   /**
    * Opens a new {@link MetaStore}, recovering metadata from disk if it exists.
    * <p>
@@ -332,7 +496,7 @@ public class Storage {
    */
   public void deleteLog(String name) {
     StorageCleaner cleaner = new StorageCleaner(this);
-    cleaner.cleanFiles(f -> SegmentFile.isSegmentFile(name, f));
+    cleaner.cleanFiles(f -> SegmentFile.isSegmentFile(name, f) || SegmentFile.isSegmentIndexFile(name, f));
   }
 
   @Override
@@ -405,6 +569,38 @@ public class Storage {
       return this;
     }
 
+    /**
+     * Enables off-heap in-memory storage, returning the builder for method chaining.
+     * <p>
+     * By default, {@link StorageLevel#MEMORY} logs and snapshots are stored in {@link io.atomix.catalyst.buffer.HeapBuffer}s,
+     * so large in-memory logs increase the size of the Java heap and the cost of garbage collection. When off-heap
+     * storage is enabled, in-memory log segments, snapshots, and segment offset indexes are instead stored in
+     * {@link io.atomix.catalyst.buffer.DirectBuffer}s allocated outside of the Java heap. Off-heap memory is released
+     * when the segment or snapshot that owns it is closed rather than when it's garbage collected.
+     *
+     * @return The storage builder.
+     */
+    public Builder withOffHeap() {
+      return withOffHeap(true);
+    }
+
+    /**
+     * Sets whether to store in-memory storage off-heap, returning the builder for method chaining.
+     * <p>
+     * By default, {@link StorageLevel#MEMORY} logs and snapshots are stored in {@link io.atomix.catalyst.buffer.HeapBuffer}s,
+     * so large in-memory logs increase the size of the Java heap and the cost of garbage collection. When off-heap
+     * storage is enabled, in-memory log segments, snapshots, and segment offset indexes are instead stored in
+     * {@link io.atomix.catalyst.buffer.DirectBuffer}s allocated outside of the Java heap. Off-heap memory is released
+     * when the segment or snapshot that owns it is closed rather than when it's garbage collected.
+     *
+     * @param offHeap Whether to store in-memory storage off-heap.
+     * @return The storage builder.
+     */
+    public Builder withOffHeap(boolean offHeap) {
+      storage.offHeap = offHeap;
+      return this;
+    }
+
     /**
      * Sets the maximum segment size in bytes, returning the builder for method chaining.
      * <p>
@@ -462,6 +658,24 @@ public class Storage {
       return this;
     }
 
+    /**
+     * Sets the interval at which entries of compacted segments are sampled in the segment offset index, returning
+     * the builder for method chaining.
+     * <p>
+     * Once entries have been removed from a segment by log compaction, the segment's offset index must store the
+     * offset and position of each remaining entry. For heavily compacted logs, memory consumption can be reduced by
+     * indexing only every {@code n}th entry, in which case reading an entry between samples requires scanning forward
+     * through up to {@code n - 1} entry headers in the segment. By default, every entry is indexed.
+     *
+     * @param indexSampleInterval The compacted segment index sample interval.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if the interval is not positive
+     */
+    public Builder withIndexSampleInterval(int indexSampleInterval) {
+      storage.indexSampleInterval = Assert.arg(indexSampleInterval, indexSampleInterval > 0, "indexSampleInterval must be positive");
+      return this;
+    }
+
     /**
      * Enables flushing buffers to disk when entries are committed to a segment, returning the builder
      * for method chaining.
@@ -490,6 +704,70 @@ public class Storage {
       return this;
     }
 
+    /**
+     * Enables group commit, returning the builder for method chaining.
+     * <p>
+     * When group commit is enabled, committed entries are flushed to disk by a background flusher rather than on
+     * the server thread. The flusher coalesces commits that occur within the {@link #withGroupCommitDelay(Duration) group
+     * commit delay} into a single flush, and commits are only acknowledged once their index has been flushed. Group
+     * commit takes precedence over {@link #withFlushOnCommit() flush-on-commit}.
+     *
+     * @return The storage builder.
+     */
+    public Builder withGroupCommit() {
+      return withGroupCommit(true);
+    }
+
+    /**
+     * Sets whether to enable group commit, returning the builder for method chaining.
+     * <p>
+     * When group commit is enabled, committed entries are flushed to disk by a background flusher rather than on
+     * the server thread. The flusher coalesces commits that occur within the {@link #withGroupCommitDelay(Duration) group
+     * commit delay} into a single flush, and commits are only acknowledged once their index has been flushed. Group
+     * commit takes precedence over {@link #withFlushOnCommit() flush-on-commit}.
+     *
+     * @param groupCommit Whether to enable group commit.
+     * @return The storage builder.
+     */
+    public Builder withGroupCommit(boolean groupCommit) {
+      storage.groupCommit = groupCommit;
+      return this;
+    }
+
+    /**
+     * Sets the maximum group commit delay, returning the builder for method chaining.
+     * <p>
+     * The group commit delay is the maximum amount of time a committed entry will wait to be flushed to disk when
+     * group commit is enabled. Longer delays allow more commits to share a single flush at the cost of commit latency.
+     * By default, the group commit delay is {@code 2} milliseconds.
+     *
+     * @param delay The maximum group commit delay.
+     * @return The storage builder.
+     * @throws NullPointerException if the delay is null
+     * @throws IllegalArgumentException if the delay is negative
+     */
+    public Builder withGroupCommitDelay(Duration delay) {
+      Assert.notNull(delay, "delay");
+      storage.groupCommitDelay = Assert.argNot(delay, delay.isNegative(), "delay cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of pending group commit bytes, returning the builder for method chaining.
+     * <p>
+     * When group commit is enabled and the number of bytes written to the log since the last flush exceeds the
+     * given number of bytes, a flush will be triggered immediately rather than waiting for the
+     * {@link #withGroupCommitDelay(Duration) group commit delay}. By default, the maximum is {@code 1MB}.
+     *
+     * @param groupCommitBytes The maximum number of pending group commit bytes.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if {@code groupCommitBytes} is not positive
+     */
+    public Builder withGroupCommitBytes(int groupCommitBytes) {
+      storage.groupCommitBytes = Assert.arg(groupCommitBytes, groupCommitBytes > 0, "groupCommitBytes must be positive");
+      return this;
+    }
+
     /**
      * Enables retaining stale snapshots on disk, returning the builder for method chaining.
      * <p>
@@ -522,6 +800,56 @@ public class Storage {
       return this;
     }
 
+    /**
+     * Sets the compression format with which to write snapshots, returning the builder for method chaining.
+     * <p>
+     * By default, snapshots are stored uncompressed. State machines that write highly redundant snapshots can
+     * reduce the size of snapshots on disk and the number of bytes sent to followers when installing snapshots
+     * by enabling {@link SnapshotCompression#DEFLATE DEFLATE} compression.
+     *
+     * @param snapshotCompression The snapshot compression format.
+     * @return The storage builder.
+     * @throws NullPointerException if {@code snapshotCompression} is null
+     */
+    public Builder withSnapshotCompression(SnapshotCompression snapshotCompression) {
+      storage.snapshotCompression = Assert.notNull(snapshotCompression, "snapshotCompression");
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of delta snapshots to chain to a full snapshot, returning the builder for method chaining.
+     * <p>
+     * Delta snapshots are only written by state machines that implement
+     * {@link io.atomix.copycat.server.IncrementalSnapshottable}. Longer chains reduce the number of bytes written for
+     * each snapshot at the expense of disk space and the time taken to install the chain. Setting the maximum to
+     * {@code 0} disables delta snapshots. By default, up to {@code 8} deltas are chained to each full snapshot.
+     *
+     * @param maxDeltaSnapshots The maximum number of delta snapshots to chain to a full snapshot.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if {@code maxDeltaSnapshots} is negative
+     */
+    public Builder withMaxDeltaSnapshots(int maxDeltaSnapshots) {
+      storage.maxDeltaSnapshots = Assert.argNot(maxDeltaSnapshots, maxDeltaSnapshots < 0, "maxDeltaSnapshots cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the number of threads with which to load log segments at startup, returning the builder for method chaining.
+     * <p>
+     * When a {@link Log} is opened, existing {@link Segment}s are opened and indexed independently of one another.
+     * The startup thread count dictates the parallelism with which segments are loaded. By default, the log uses
+     * {@code Runtime.getRuntime().availableProcessors()} startup threads. Setting the thread count to {@code 1}
+     * loads segments sequentially on the opening thread.
+     *
+     * @param startupThreads The number of segment loading threads.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if {@code startupThreads} is not positive
+     */
+    public Builder withStartupThreads(int startupThreads) {
+      storage.startupThreads = Assert.arg(startupThreads, startupThreads > 0, "startupThreads must be positive");
+      return this;
+    }
+
     /**
      * Sets the number of log compaction threads, returning the builder for method chaining.
      * <p>
@@ -600,6 +928,74 @@ public class Storage {
       return this;
     }
 
+    /**
+     * Sets the maximum number of bytes per second read and written by compaction, returning the builder for
+     * method chaining.
+     * <p>
+     * Compaction rewrites whole segments and can saturate the disk, increasing the latency of appends and flushes.
+     * Limiting the compaction rate spreads that I/O over time. By default, the compaction rate is not limited.
+     *
+     * @param bytesPerSecond The maximum number of bytes per second read and written by compaction, or {@code 0}
+     *                       for no limit.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if {@code bytesPerSecond} is negative
+     */
+    public Builder withCompactionBytesPerSecond(long bytesPerSecond) {
+      storage.compactionBytesPerSecond = Assert.argNot(bytesPerSecond, bytesPerSecond < 0, "bytesPerSecond cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of I/O operations per second performed by compaction, returning the builder for
+     * method chaining.
+     * <p>
+     * Each entry rewritten by compaction counts as a single operation. By default, compaction operations are
+     * not limited.
+     *
+     * @param operationsPerSecond The maximum number of operations per second, or {@code 0} for no limit.
+     * @return The storage builder.
+     * @throws IllegalArgumentException if {@code operationsPerSecond} is negative
+     */
+    public Builder withCompactionOperationsPerSecond(int operationsPerSecond) {
+      storage.compactionOperationsPerSecond = Assert.argNot(operationsPerSecond, operationsPerSecond < 0, "operationsPerSecond cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the log flush latency above which compaction backs off, returning the builder for method chaining.
+     * <p>
+     * When a flush of the log takes longer than the given threshold, compaction is paused briefly to allow the
+     * disk to catch up with appends. By default, compaction does not back off based on flush latency.
+     *
+     * @param threshold The flush latency threshold, or {@link Duration#ZERO} to disable back off.
+     * @return The storage builder.
+     * @throws NullPointerException if the threshold is null
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public Builder withCompactionFlushLatencyThreshold(Duration threshold) {
+      Assert.notNull(threshold, "threshold");
+      storage.compactionFlushLatencyThreshold = Assert.argNot(threshold, threshold.isNegative(), "threshold cannot be negative");
+      return this;
+    }
+
+    /**
+     * Sets the compaction policy, returning the builder for method chaining.
+     * <p>
+     * The compaction policy decides when to run {@link io.atomix.copycat.server.storage.compaction.Compaction}s and
+     * which segments to compact during minor compaction. By default, the {@link ThresholdCompactionPolicy} compacts
+     * the log at the configured minor and major compaction intervals and selects segments according to the
+     * {@link #withCompactionThreshold(double) compaction threshold}. The {@link io.atomix.copycat.server.storage.compaction.AdaptiveCompactionPolicy} can be used
+     * to compact the log according to a disk budget.
+     *
+     * @param policy The compaction policy.
+     * @return The storage builder.
+     * @throws NullPointerException if the policy is null
+     */
+    public Builder withCompactionPolicy(CompactionPolicy policy) {
+      storage.compactionPolicy = Assert.notNull(policy, "policy");
+      return this;
+    }
+
     /**
      * Builds the {@link Storage} object.
      *
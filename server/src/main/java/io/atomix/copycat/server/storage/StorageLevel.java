@@ -47,7 +47,8 @@ public enum StorageLevel {
    * Memory mapped logs will be written to {@link Segment segments} backed by {@link io.atomix.catalyst.buffer.MappedBuffer}.
    * Entries written to memory mapped files may be recovered after a crash, but the {@code MAPPED} storage level does not
    * guarantee that <em>all</em> entries written to the log will be persisted. Additionally, the use of persistent storage
-   * levels reduces the amount of overhead required to catch the log up at startup.
+   * levels reduces the amount of overhead required to catch the log up at startup. Completed snapshots are read
+   * through read-only memory mapped buffers.
    */
   MAPPED,
 
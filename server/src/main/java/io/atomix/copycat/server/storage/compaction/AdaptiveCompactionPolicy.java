@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.compaction;
+
+import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.Segment;
+import io.atomix.copycat.server.storage.SegmentManager;
+import io.atomix.copycat.server.storage.Storage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compaction policy which adapts compaction to the amount of reclaimable space and the size of the log.
+ * <p>
+ * In addition to compacting the log at the configured {@link Storage#minorCompactionInterval()} and
+ * {@link Storage#majorCompactionInterval()}, the adaptive policy tracks the total size of the log and the rate
+ * at which it grows, sampling the size of the log each time the compactor {@link #observe(Storage, SegmentManager)
+ * observes} it. If the log is projected to exceed the configured disk budget within the next minor compaction
+ * interval, minor compaction is run early. If the log has already exceeded the disk budget, major compaction is run
+ * as often as minor compaction would otherwise be.
+ * <p>
+ * When selecting segments for minor compaction, segments are prioritized by the estimated number of bytes reclaimed
+ * per byte rewritten, assuming entries within a segment are of similar size. While the log is within its disk
+ * budget, only segments that meet the {@link Storage#compactionThreshold()} are selected. Once the log is projected
+ * to exceed its budget, every segment with released entries is selected.
+ * <p>
+ * The adaptive policy tracks the growth of a single log and so should not be shared by multiple logs.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class AdaptiveCompactionPolicy extends ThresholdCompactionPolicy {
+  private static final Duration DEFAULT_CHECK_INTERVAL = Duration.ofSeconds(10);
+  private static final long MIN_SAMPLE_INTERVAL = 1000;
+  private final long diskBudget;
+  private final Duration checkInterval;
+  private long sampleTime;
+  private long sampleSize = -1;
+  private double growthRate;
+
+  /**
+   * @param diskBudget The maximum number of bytes the log should occupy.
+   * @throws IllegalArgumentException if {@code diskBudget} is not positive
+   */
+  public AdaptiveCompactionPolicy(long diskBudget) {
+    this(diskBudget, DEFAULT_CHECK_INTERVAL);
+  }
+
+  /**
+   * @param diskBudget The maximum number of bytes the log should occupy.
+   * @param checkInterval The interval at which to check whether to compact the log.
+   * @throws NullPointerException if {@code checkInterval} is null
+   * @throws IllegalArgumentException if {@code diskBudget} or {@code checkInterval} is not positive
+   */
+  public AdaptiveCompactionPolicy(long diskBudget, Duration checkInterval) {
+    this.diskBudget = Assert.arg(diskBudget, diskBudget > 0, "diskBudget must be positive");
+    Assert.notNull(checkInterval, "checkInterval");
+    this.checkInterval = Assert.argNot(checkInterval, checkInterval.isNegative() || checkInterval.isZero(), "checkInterval must be positive");
+  }
+
+  /**
+   * Returns the maximum number of bytes the log should occupy.
+   *
+   * @return The maximum number of bytes the log should occupy.
+   */
+  public long diskBudget() {
+    return diskBudget;
+  }
+
+  /**
+   * Returns the rate at which the log is growing in bytes per second.
+   *
+   * @return The rate at which the log is growing in bytes per second.
+   */
+  public synchronized double growthRate() {
+    return growthRate;
+  }
+
+  @Override
+  public Duration checkInterval(Storage storage) {
+    Duration interval = super.checkInterval(storage);
+    return checkInterval.compareTo(interval) <= 0 ? checkInterval : interval;
+  }
+
+  @Override
+  public synchronized void observe(Storage storage, SegmentManager segments) {
+    long size = size(segments);
+    long time = System.currentTimeMillis();
+    if (sampleSize == -1) {
+      sampleSize = size;
+      sampleTime = time;
+    } else if (time - sampleTime >= MIN_SAMPLE_INTERVAL) {
+      // Compute an exponentially weighted moving average of the growth rate. Shrinking due to compaction is
+      // treated as no growth.
+      double rate = Math.max(size - sampleSize, 0) * 1000d / (time - sampleTime);
+      growthRate = growthRate * 0.5 + rate * 0.5;
+      sampleSize = size;
+      sampleTime = time;
+    }
+  }
+
+  @Override
+  public boolean shouldCompact(Compaction compaction, Duration elapsed, Storage storage, SegmentManager segments) {
+    if (super.shouldCompact(compaction, elapsed, storage, segments))
+      return true;
+
+    switch (compaction) {
+      case MINOR:
+        return projectedSize(storage, segments) >= diskBudget;
+      case MAJOR:
+        return elapsed.compareTo(storage.minorCompactionInterval()) >= 0 && size(segments) >= diskBudget;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public List<Segment> selectSegments(List<Segment> candidates, Storage storage, SegmentManager segments) {
+    List<Segment> selected;
+    if (projectedSize(storage, segments) >= diskBudget) {
+      selected = new ArrayList<>(candidates.size());
+      for (Segment segment : candidates) {
+        if (segment.releaseCount() > 0) {
+          selected.add(segment);
+        }
+      }
+    } else {
+      selected = super.selectSegments(candidates, storage, segments);
+    }
+
+    // Compute the efficiency of each segment once since release counts may change while sorting.
+    double[] efficiencies = new double[selected.size()];
+    for (int i = 0; i < efficiencies.length; i++) {
+      efficiencies[i] = efficiency(selected.get(i));
+    }
+
+    // Sort the segments by efficiency, preserving log order for segments of equal efficiency.
+    Integer[] order = new Integer[selected.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(efficiencies[b], efficiencies[a]));
+
+    List<Segment> sorted = new ArrayList<>(selected.size());
+    for (int i : order) {
+      sorted.add(selected.get(i));
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the estimated number of bytes reclaimed per byte rewritten by compacting the given segment.
+   */
+  private static double efficiency(Segment segment) {
+    int count = segment.count();
+    long released = segment.releaseCount();
+    if (count == 0 || released == 0)
+      return 0;
+    if (released >= count)
+      return Double.POSITIVE_INFINITY;
+    return released / (double) (count - released);
+  }
+
+  /**
+   * Returns the projected size of the log after the next minor compaction interval.
+   */
+  private synchronized long projectedSize(Storage storage, SegmentManager segments) {
+    return size(segments) + (long) (growthRate * storage.minorCompactionInterval().toMillis() / 1000d);
+  }
+
+  /**
+   * Returns the current size of the log.
+   */
+  private static long size(SegmentManager segments) {
+    return segments.segments().stream().mapToLong(Segment::size).sum();
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.compaction;
+
+import io.atomix.copycat.server.storage.Segment;
+import io.atomix.copycat.server.storage.SegmentManager;
+import io.atomix.copycat.server.storage.Storage;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Decides when and what to compact.
+ * <p>
+ * The {@link Compactor} periodically consults the configured {@link Storage#compactionPolicy()} at the policy's
+ * {@link #checkInterval(Storage) check interval} to determine whether to run each {@link Compaction}. Once a
+ * {@link Compaction#MINOR minor} compaction is run, the {@link MinorCompactionManager} determines which segments
+ * are eligible for compaction, and the policy {@link #selectSegments(List, Storage, SegmentManager) selects} the
+ * segments to compact and the order in which to compact them.
+ * <p>
+ * Policies are consulted only from the compactor's threads, but a single policy instance may be shared by all logs
+ * that use the same {@link Storage} configuration.
+ *
+ * @see ThresholdCompactionPolicy
+ * @see AdaptiveCompactionPolicy
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public interface CompactionPolicy {
+
+  /**
+   * Returns the interval at which the compactor checks whether to compact the log.
+   *
+   * @param storage The storage configuration.
+   * @return The interval at which the compactor checks whether to compact the log.
+   */
+  Duration checkInterval(Storage storage);
+
+  /**
+   * Observes the state of the log prior to the compactor checking whether to compact the log.
+   * <p>
+   * The compactor calls this method once at each {@link #checkInterval(Storage) check interval} before querying
+   * {@link #shouldCompact(Compaction, Duration, Storage, SegmentManager)}. Policies that track the log over time
+   * should update their state here rather than when queried, since queries may be made any number of times.
+   *
+   * @param storage The storage configuration.
+   * @param segments The log segments.
+   */
+  default void observe(Storage storage, SegmentManager segments) {
+  }
+
+  /**
+   * Returns a boolean indicating whether the given compaction should be run.
+   *
+   * @param compaction The compaction to check.
+   * @param elapsed The time elapsed since the compaction was last run.
+   * @param storage The storage configuration.
+   * @param segments The log segments.
+   * @return Indicates whether the given compaction should be run.
+   */
+  boolean shouldCompact(Compaction compaction, Duration elapsed, Storage storage, SegmentManager segments);
+
+  /**
+   * Selects segments to compact during {@link Compaction#MINOR minor} compaction.
+   * <p>
+   * The candidate segments are all segments that can safely be compacted. Segments will be compacted in the
+   * order in which they're returned.
+   *
+   * @param candidates The segments eligible for compaction in log order.
+   * @param storage The storage configuration.
+   * @param segments The log segments.
+   * @return The segments to compact in the order in which to compact them.
+   */
+  List<Segment> selectSegments(List<Segment> candidates, Storage storage, SegmentManager segments);
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.compaction;
+
+import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.Segment;
+import io.atomix.copycat.server.storage.Storage;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the rate of compaction I/O.
+ * <p>
+ * Compaction tasks {@link #acquire(long) acquire} permits from the throttle for each entry they rewrite and
+ * {@link #flush(Segment) flush} compacted segments through the throttle before they replace the original segments.
+ * The throttle limits compaction to the configured {@link Storage#compactionBytesPerSecond()} and
+ * {@link Storage#compactionOperationsPerSecond()} using token buckets that allow bursts of up to one second of I/O.
+ * <p>
+ * Additionally, the {@link io.atomix.copycat.server.storage.Log} {@link #recordFlush(long) records} the latency of
+ * each flush with the throttle. If a flush takes longer than the configured
+ * {@link Storage#compactionFlushLatencyThreshold()}, compaction backs off for a short period to allow the disk to
+ * catch up with appends. The total time compaction spent throttled and backing off is exposed via
+ * {@link #throttledTime()} and {@link #backoffTime()}.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public final class CompactionThrottle {
+  private static final long BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private final TokenBucket bytes;
+  private final TokenBucket operations;
+  private final long flushLatencyThreshold;
+  private final AtomicLong throttledNanos = new AtomicLong();
+  private final AtomicLong backoffNanos = new AtomicLong();
+  private volatile long slowFlushTime;
+  private volatile boolean slowFlush;
+
+  public CompactionThrottle(Storage storage) {
+    Assert.notNull(storage, "storage");
+    this.bytes = storage.compactionBytesPerSecond() > 0 ? new TokenBucket(storage.compactionBytesPerSecond()) : null;
+    this.operations = storage.compactionOperationsPerSecond() > 0 ? new TokenBucket(storage.compactionOperationsPerSecond()) : null;
+    this.flushLatencyThreshold = storage.compactionFlushLatencyThreshold().toNanos();
+  }
+
+  /**
+   * Records the latency of a log flush.
+   *
+   * @param nanos The time taken to flush the log in nanoseconds.
+   */
+  public void recordFlush(long nanos) {
+    if (flushLatencyThreshold > 0 && nanos > flushLatencyThreshold) {
+      slowFlushTime = System.nanoTime();
+      slowFlush = true;
+    }
+  }
+
+  /**
+   * Returns the total time compaction has been delayed by the I/O rate limits.
+   *
+   * @return The total time compaction has been delayed by the I/O rate limits.
+   */
+  public Duration throttledTime() {
+    return Duration.ofNanos(throttledNanos.get());
+  }
+
+  /**
+   * Returns the total time compaction has backed off due to slow log flushes.
+   *
+   * @return The total time compaction has backed off due to slow log flushes.
+   */
+  public Duration backoffTime() {
+    return Duration.ofNanos(backoffNanos.get());
+  }
+
+  /**
+   * Acquires permits for a single compaction I/O operation of the given number of bytes, blocking until the
+   * operation is permitted.
+   *
+   * @param bytes The number of bytes read and written by the operation.
+   */
+  void acquire(long bytes) {
+    backoff();
+
+    long waitNanos = 0;
+    if (this.bytes != null) {
+      waitNanos = this.bytes.reserve(bytes);
+    }
+    if (operations != null) {
+      waitNanos = Math.max(waitNanos, operations.reserve(1));
+    }
+
+    if (waitNanos > 0) {
+      throttledNanos.addAndGet(sleep(waitNanos));
+    }
+  }
+
+  /**
+   * Flushes a compacted segment to disk, blocking until the flush is permitted.
+   * <p>
+   * The bytes written to a compact segment are charged as they're transferred, but they're written back to disk in
+   * a single burst when the segment is flushed. The flush is charged as a single I/O operation and waits for any
+   * outstanding byte deficit to be refilled, and its latency is {@link #recordFlush(long) recorded} so that a slow
+   * flush backs off subsequent compaction I/O.
+   *
+   * @param segment The compacted segment to flush.
+   */
+  void flush(Segment segment) {
+    acquire(0);
+    long startTime = System.nanoTime();
+    segment.flush();
+    recordFlush(System.nanoTime() - startTime);
+  }
+
+  /**
+   * Blocks while log flushes have recently exceeded the flush latency threshold.
+   */
+  private void backoff() {
+    while (slowFlush) {
+      long remaining = slowFlushTime + BACKOFF_NANOS - System.nanoTime();
+      if (remaining <= 0) {
+        slowFlush = false;
+        return;
+      }
+      backoffNanos.addAndGet(sleep(remaining));
+      if (Thread.currentThread().isInterrupted()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Sleeps for the given number of nanoseconds, returning the time actually slept.
+   */
+  private static long sleep(long nanos) {
+    long start = System.nanoTime();
+    LockSupport.parkNanos(nanos);
+    return System.nanoTime() - start;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[throttled=%s, backoff=%s]", getClass().getSimpleName(), throttledTime(), backoffTime());
+  }
+
+  /**
+   * Token bucket with a capacity of one second of permits.
+   */
+  private static final class TokenBucket {
+    private final long rate;
+    private double tokens;
+    private long time = System.nanoTime();
+
+    private TokenBucket(long rate) {
+      this.rate = rate;
+      this.tokens = rate;
+    }
+
+    /**
+     * Reserves the given number of permits, returning the number of nanoseconds to wait before the permits are
+     * available. Permits may be reserved in excess of the available tokens, in which case subsequent reservations
+     * wait for the deficit to be refilled.
+     */
+    private synchronized long reserve(long permits) {
+      long now = System.nanoTime();
+      tokens = Math.min(rate, tokens + (now - time) * rate / (double) TimeUnit.SECONDS.toNanos(1));
+      time = now;
+      tokens -= permits;
+      return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+  }
+
+}
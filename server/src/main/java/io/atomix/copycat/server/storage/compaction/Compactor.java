@@ -24,6 +24,7 @@ import io.atomix.copycat.server.storage.Storage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.Collection;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
@@ -37,7 +38,8 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>
  * The compactor is responsible for managing log compaction processes. Log {@link Compaction} processes
  * are run in a pool of background threads of the configured number of {@link Storage#compactionThreads()}.
- * {@link Compaction#MINOR} and {@link Compaction#MAJOR} executions are scheduled according to the configured
+ * {@link Compaction#MINOR} and {@link Compaction#MAJOR} executions are scheduled by the configured
+ * {@link Storage#compactionPolicy()}, which by default runs them at the configured
  * {@link Storage#minorCompactionInterval()} and {@link Storage#majorCompactionInterval()} respectively.
  * Compaction can also be run synchronously via {@link Compactor#compact()} or {@link Compactor#compact(Compaction)}.
  * <p>
@@ -46,6 +48,10 @@ import java.util.concurrent.atomic.AtomicInteger;
  * are run in parallel in the compaction thread pool. However, the compactor will not allow multiple compaction
  * executions to run in parallel. If a compaction is attempted while another compaction is already running,
  * it will be ignored.
+ * <p>
+ * Compaction I/O is limited by the compactor's {@link CompactionThrottle}, which enforces the configured
+ * {@link Storage#compactionBytesPerSecond()} and {@link Storage#compactionOperationsPerSecond()} and backs off
+ * while log flushes exceed the {@link Storage#compactionFlushLatencyThreshold()}.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
@@ -54,21 +60,61 @@ public class Compactor implements AutoCloseable {
   private final Storage storage;
   private final SegmentManager segments;
   private final ScheduledExecutorService executor;
+  private final CompactionThrottle throttle;
   private long minorIndex;
   private long majorIndex;
   private long snapshotIndex;
   private long compactIndex;
   private Compaction.Mode defaultCompactionMode = Compaction.Mode.SEQUENTIAL;
-  private ScheduledFuture<?> minor;
-  private ScheduledFuture<?> major;
+  private final long checkInterval;
+  private final ScheduledFuture<?> check;
+  private long checkTime;
+  private volatile long lastMinor = System.currentTimeMillis();
+  private volatile long lastMajor = System.currentTimeMillis();
   private CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
 
   public Compactor(Storage storage, SegmentManager segments, ScheduledExecutorService executor) {
     this.storage = Assert.notNull(storage, "storage");
     this.segments = Assert.notNull(segments, "segments");
     this.executor = Assert.notNull(executor, "executor");
-    minor = executor.scheduleAtFixedRate(() -> compact(Compaction.MINOR), storage.minorCompactionInterval().toMillis(), storage.minorCompactionInterval().toMillis(), TimeUnit.MILLISECONDS);
-    major = executor.scheduleAtFixedRate(() -> compact(Compaction.MAJOR), storage.majorCompactionInterval().toMillis(), storage.majorCompactionInterval().toMillis(), TimeUnit.MILLISECONDS);
+    this.throttle = new CompactionThrottle(storage);
+    this.checkInterval = storage.compactionPolicy().checkInterval(storage).toMillis();
+    this.checkTime = lastMinor;
+    check = executor.scheduleAtFixedRate(this::checkCompaction, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Consults the compaction policy to determine whether to compact the log.
+   * <p>
+   * Compactions run by a check are stamped with the time at which the check was scheduled rather than the time at
+   * which it actually ran, and the time elapsed since each compaction is rounded to the nearest check. Otherwise,
+   * a compaction due at every check would be skipped by every other check whenever a check runs slightly earlier
+   * relative to the last compaction than the one before it.
+   */
+  private void checkCompaction() {
+    CompactionPolicy policy = storage.compactionPolicy();
+    checkTime += checkInterval;
+    long time = checkTime;
+    long tolerance = checkInterval / 2;
+    policy.observe(storage, segments);
+    if (policy.shouldCompact(Compaction.MINOR, Duration.ofMillis(Math.max(time - lastMinor + tolerance, 0)), storage, segments)) {
+      compact(Compaction.MINOR, time);
+    }
+    if (policy.shouldCompact(Compaction.MAJOR, Duration.ofMillis(Math.max(time - lastMajor + tolerance, 0)), storage, segments)) {
+      compact(Compaction.MAJOR, time);
+    }
+  }
+
+  /**
+   * Returns the compaction throttle.
+   * <p>
+   * The throttle limits the rate of compaction I/O according to the {@link Storage} configuration and records
+   * how long compaction has been throttled.
+   *
+   * @return The compaction throttle.
+   */
+  public CompactionThrottle throttle() {
+    return throttle;
   }
 
   /**
@@ -187,7 +233,20 @@ public class Compactor implements AutoCloseable {
    * @param compaction The compaction strategy.
    * @return A completable future to be completed once the log has been compacted.
    */
-  public synchronized CompletableFuture<Void> compact(Compaction compaction) {
+  public CompletableFuture<Void> compact(Compaction compaction) {
+    return compact(compaction, System.currentTimeMillis());
+  }
+
+  /**
+   * Compacts the log using the given {@link Compaction}, recording the compaction as having been run at the given time.
+   */
+  private synchronized CompletableFuture<Void> compact(Compaction compaction, long time) {
+    if (compaction == Compaction.MINOR) {
+      lastMinor = time;
+    } else if (compaction == Compaction.MAJOR) {
+      lastMajor = time;
+    }
+
     final CompletableFuture<Void> future = new CompletableFuture<>();
     ThreadContext context = ThreadContext.currentContext();
     this.future.whenComplete((result, error) -> compact(compaction, future, context));
@@ -234,10 +293,7 @@ public class Compactor implements AutoCloseable {
    */
   @Override
   public void close() {
-    if (minor != null)
-      minor.cancel(true);
-    if (major != null)
-      major.cancel(true);
+    check.cancel(true);
 
     executor.shutdown();
     try {
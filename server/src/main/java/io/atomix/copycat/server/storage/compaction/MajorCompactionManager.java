@@ -19,26 +19,33 @@ import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.server.storage.Segment;
 import io.atomix.copycat.server.storage.SegmentManager;
 import io.atomix.copycat.server.storage.Storage;
+import io.atomix.copycat.server.storage.util.OffsetPredicate;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Builds tasks for the {@link Compaction#MAJOR} compaction process.
  * <p>
  * Major compaction works by iterating through all committed {@link Segment}s in the log and rewriting and
- * combining segments to compact them together. Because of the sequential nature of major compaction, the major
- * compaction manager builds only a single {@link MajorCompactionTask} which will rewrite the log sequentially.
- * Segments are provided to the major compaction task in groups that indicate which segments to combine. A set
- * of segments can be combined if they meet the following criteria:
+ * combining segments to compact them together. Segments are grouped according to which segments to combine, and the
+ * major compaction manager builds a {@link MajorCompactionTask} for each group so that groups can be rewritten
+ * concurrently by the compaction thread pool. A set of segments can be combined if they meet the following criteria:
  * <ul>
  *   <li>The entries in the set of segments are sequential; there are no missing segments in the set
  *   such that combining the segments would result in a segment with missing entries</li>
  *   <li>The combined size of all segments in the set is less than the configured {@link Storage#maxSegmentSize()}</li>
  *   <li>The combined number of entries after compaction is less than the configured {@link Storage#maxEntriesPerSegment()}</li>
  * </ul>
+ * <p>
+ * Because of the sequential nature of major compaction, the {@link OffsetPredicate}s of all segments are copied
+ * before any group is rewritten, and each task's segments are not replaced until the task for the preceding group has
+ * replaced its own. Tasks don't block compaction threads while waiting: a task that finishes rewriting its group
+ * before the preceding group has been replaced leaves its replacement to be run by the thread that completes the
+ * preceding group. This ensures the log is still compacted in sequential order.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
@@ -52,7 +59,37 @@ public final class MajorCompactionManager implements CompactionManager {
   @Override
   public List<CompactionTask> buildTasks(Storage storage, SegmentManager segments) {
     List<List<Segment>> groups = getCompactableGroups(storage, segments);
-    return !groups.isEmpty() ? Collections.singletonList(new MajorCompactionTask(segments, groups, compactor.snapshotIndex(), compactor.majorIndex(), compactor.getDefaultCompactionMode())) : Collections.emptyList();
+    if (groups.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    // Copy the offset predicates for all groups prior to building any tasks to prevent race conditions.
+    List<List<OffsetPredicate>> predicates = copyPredicates(groups);
+
+    // Build a task for each group, chaining each task to the task for the preceding group.
+    List<CompactionTask> tasks = new ArrayList<>(groups.size());
+    CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+    for (int i = 0; i < groups.size(); i++) {
+      MajorCompactionTask task = new MajorCompactionTask(segments, groups.get(i), predicates.get(i), previous, compactor.throttle(), compactor.snapshotIndex(), compactor.majorIndex(), compactor.getDefaultCompactionMode());
+      tasks.add(task);
+      previous = task.future();
+    }
+    return tasks;
+  }
+
+  /**
+   * Creates a copy of the offset predicates for all segments in the given groups.
+   */
+  private List<List<OffsetPredicate>> copyPredicates(List<List<Segment>> groups) {
+    List<List<OffsetPredicate>> predicates = new ArrayList<>(groups.size());
+    for (List<Segment> group : groups) {
+      List<OffsetPredicate> groupPredicates = new ArrayList<>(group.size());
+      for (Segment segment : group) {
+        groupPredicates.add(segment.offsetPredicate().copy());
+      }
+      predicates.add(groupPredicates);
+    }
+    return predicates;
   }
 
   /**
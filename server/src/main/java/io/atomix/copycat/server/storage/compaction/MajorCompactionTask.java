@@ -25,8 +25,8 @@ import io.atomix.copycat.server.storage.util.OffsetPredicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Removes tombstones from the log and combines {@link Segment}s to reclaim disk space.
@@ -55,10 +55,11 @@ import java.util.List;
  * A significant objective of the major compaction task is to remove tombstones from the log in a manor that ensures
  * failures before, during, or after the compaction task will not result in inconsistencies when state is rebuilt from
  * the log. In order to ensure tombstones are removed only <em>after</em> any prior related entries, the major compaction
- * task simply compacts segments in sequential order from the {@link Segment#firstIndex()} of the first segment to the
- * {@link Segment#lastIndex()} of the last segment. This ensures that if a failure occurs during the compaction process,
- * only entries earlier in the log will have been removed, and potential tombstones which erase the state of those entries
- * will remain.
+ * tasks replace segments in sequential order from the {@link Segment#firstIndex()} of the first segment to the
+ * {@link Segment#lastIndex()} of the last segment. Each task rewrites a single group of segments, and tasks for multiple
+ * groups may rewrite their groups concurrently. But a task does not replace and lock its compact segment until the task
+ * for the preceding group has done so. This ensures that if a failure occurs during the compaction process, only entries
+ * earlier in the log will have been removed, and potential tombstones which erase the state of those entries will remain.
  * <p>
  * Nevertheless, there are some significant potential race conditions that must be considered in the implementation of
  * major compaction. The major compaction task assumes that state machines will always release <em>related</em> entries
@@ -83,8 +84,8 @@ import java.util.List;
  * incorrect, but it will be inconsistent with other servers which are likely to have correctly removed both entry
  * {@code 1} and entry {@code 12345} during major compaction.
  * <p>
- * In order to prevent such a scenario from occurring, the major compaction task takes an immutable snapshot of the
- * state of offsets underlying all the segments to be compacted prior to rewriting any entries. This ensures that any
+ * In order to prevent such a scenario from occurring, the {@link MajorCompactionManager} takes an immutable snapshot of
+ * the state of offsets underlying all the segments to be compacted prior to rewriting any entries. This ensures that any
  * entries released after the start of rewriting segments will not be considered for compaction during the execution
  * of this task.
  *
@@ -93,50 +94,81 @@ import java.util.List;
 public final class MajorCompactionTask implements CompactionTask {
   private static final Logger LOGGER = LoggerFactory.getLogger(MajorCompactionTask.class);
   private final SegmentManager manager;
-  private final List<List<Segment>> groups;
-  private List<List<OffsetPredicate>> predicates;
+  private final List<Segment> group;
+  private final List<OffsetPredicate> predicates;
+  private final CompletableFuture<Void> previous;
+  private final CompletableFuture<Void> future = new CompletableFuture<>();
+  private final CompactionThrottle throttle;
   private final long snapshotIndex;
   private final long compactIndex;
   private final Compaction.Mode defaultCompactionMode;
 
-  MajorCompactionTask(SegmentManager manager, List<List<Segment>> groups, long snapshotIndex, long compactIndex, Compaction.Mode defaultCompactionMode) {
+  /**
+   * @param manager The segment manager.
+   * @param group The group of segments to combine.
+   * @param predicates Copies of the offset predicates for each segment in the group.
+   * @param previous A future to be completed once the preceding group's segments have been replaced.
+   * @param throttle The throttle with which to limit compaction I/O.
+   */
+  MajorCompactionTask(SegmentManager manager, List<Segment> group, List<OffsetPredicate> predicates, CompletableFuture<Void> previous, CompactionThrottle throttle, long snapshotIndex, long compactIndex, Compaction.Mode defaultCompactionMode) {
     this.manager = Assert.notNull(manager, "manager");
-    this.groups = Assert.notNull(groups, "segments");
+    this.group = Assert.notNull(group, "group");
+    this.predicates = Assert.notNull(predicates, "predicates");
+    this.previous = Assert.notNull(previous, "previous");
+    this.throttle = Assert.notNull(throttle, "throttle");
     this.snapshotIndex = snapshotIndex;
     this.compactIndex = compactIndex;
     this.defaultCompactionMode = Assert.notNull(defaultCompactionMode, "defaultCompactionMode");
   }
 
+  /**
+   * Returns a future to be completed once the task's segments have been replaced.
+   *
+   * @return A future to be completed once the task's segments have been replaced.
+   */
+  CompletableFuture<Void> future() {
+    return future;
+  }
+
   @Override
   public void run() {
-    copyPredicates();
-    compactGroups();
+    Segment compactSegment;
+    try {
+      compactSegment = compactGroup(group, predicates);
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+      throw e;
+    }
+
+    // Replace the group once the preceding group has been replaced to ensure segments are replaced in sequential
+    // order. Rather than blocking this thread until then, the replacement is run by whichever thread completes the
+    // preceding group, or immediately if the preceding group has already been replaced.
+    previous.whenComplete((result, error) -> replaceGroup(compactSegment, error));
   }
 
   /**
-   * Creates a copy of offset predicates prior to compacting segments to prevent race conditions.
+   * Replaces the group with the given compact segment once the preceding group has been replaced.
+   * <p>
+   * If the preceding group failed, the compact segment is discarded to avoid removing tombstones before prior entries.
    */
-  private void copyPredicates() {
-    predicates = new ArrayList<>(groups.size());
-    for (List<Segment> group : groups) {
-      List<OffsetPredicate> groupPredicates = new ArrayList<>(group.size());
-      for (Segment segment : group) {
-        groupPredicates.add(segment.offsetPredicate().copy());
-      }
-      predicates.add(groupPredicates);
+  private void replaceGroup(Segment compactSegment, Throwable error) {
+    if (error != null) {
+      LOGGER.debug("Discarding compact segment {}: preceding group failed to compact", compactSegment.descriptor().id());
+      compactSegment.close();
+      compactSegment.delete();
+      future.completeExceptionally(error);
+      return;
     }
-  }
 
-  /**
-   * Compacts all compactable segments.
-   */
-  private void compactGroups() {
-    for (int i = 0; i < groups.size(); i++) {
-      List<Segment> group = groups.get(i);
-      List<OffsetPredicate> groupPredicates = predicates.get(i);
-      Segment segment = compactGroup(group, groupPredicates);
-      mergeReleased(group, groupPredicates, segment);
+    try {
+      // Replace the rewritten segments with the updated segment.
+      manager.replaceSegments(group, compactSegment);
+      mergeReleased(group, predicates, compactSegment);
       deleteGroup(group);
+      future.complete(null);
+    } catch (Throwable e) {
+      LOGGER.warn("Failed to replace segments with compact segment {}", compactSegment.descriptor().id(), e);
+      future.completeExceptionally(e);
     }
   }
 
@@ -159,9 +191,8 @@ public final class MajorCompactionTask implements CompactionTask {
 
     compactGroup(segments, predicates, compactSegment);
 
-    // Replace the rewritten segments with the updated segment.
-    manager.replaceSegments(segments, compactSegment);
-
+    // Flush the compact segment through the throttle so sealing it during replacement doesn't flush it unthrottled.
+    throttle.flush(compactSegment);
     return compactSegment;
   }
 
@@ -198,23 +229,20 @@ public final class MajorCompactionTask implements CompactionTask {
    * @param compactSegment The segment to which to write the uncompacted segment.
    */
   private void checkEntry(long index, Segment segment, OffsetPredicate predicate, Segment compactSegment) {
-    try (Entry entry = segment.get(index)) {
-      // If an entry was found, remove the entry from the segment.
-      if (entry != null) {
-        checkEntry(index, entry, segment, predicate, compactSegment);
-      } else {
-        compactSegment.skip(1);
-      }
+    // Read the compaction mode from the entry header. If an entry was found, remove the entry from the segment.
+    Compaction.Mode mode = segment.compactionMode(index);
+    if (mode != null) {
+      checkEntry(index, mode, segment, predicate, compactSegment);
+    } else {
+      compactSegment.skip(1);
     }
   }
 
   /**
    * Compacts a command entry from a segment.
    */
-  private void checkEntry(long index, Entry entry, Segment segment, OffsetPredicate predicate, Segment compactSegment) {
-    // Get the entry compaction mode. If the compaction mode is DEFAULT apply the default compaction
-    // mode to the entry.
-    Compaction.Mode mode = entry.getCompactionMode();
+  private void checkEntry(long index, Compaction.Mode mode, Segment segment, OffsetPredicate predicate, Segment compactSegment) {
+    // If the compaction mode is DEFAULT apply the default compaction mode to the entry.
     if (mode == Compaction.Mode.DEFAULT) {
       mode = defaultCompactionMode;
     }
@@ -228,7 +256,7 @@ public final class MajorCompactionTask implements CompactionTask {
         if (index <= snapshotIndex && !isLive(index, segment, predicate)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // RELEASE and QUORUM entries are compacted if the entry has been released from the segment.
@@ -237,7 +265,7 @@ public final class MajorCompactionTask implements CompactionTask {
         if (!isLive(index, segment, predicate)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // FULL entries are compacted if the major compact index is greater than the entry index and
@@ -251,7 +279,7 @@ public final class MajorCompactionTask implements CompactionTask {
         if (index <= compactIndex && !isLive(index, segment, predicate)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // UNKNOWN entries are compacted if the index is less than both the snapshot and major
@@ -260,7 +288,7 @@ public final class MajorCompactionTask implements CompactionTask {
         if (index <= snapshotIndex && index <= compactIndex && !isLive(index, segment, predicate)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       default:
@@ -277,10 +305,16 @@ public final class MajorCompactionTask implements CompactionTask {
   }
 
   /**
-   * Transfers an entry to the given segment.
+   * Transfers an entry to the given segment by copying the entry's raw bytes.
    */
-  private void transferEntry(Entry entry, Segment compactSegment) {
-    compactSegment.append(entry);
+  private void transferEntry(long index, Segment segment, Segment compactSegment) {
+    long size = compactSegment.size();
+    if (compactSegment.transfer(segment, index) == -1) {
+      compactSegment.skip(1);
+    } else {
+      // Each transferred byte is read from the old segment and written to the compact segment.
+      throttle.acquire((compactSegment.size() - size) * 2);
+    }
   }
 
   /**
@@ -325,7 +359,7 @@ public final class MajorCompactionTask implements CompactionTask {
 
   @Override
   public String toString() {
-    return getClass().getSimpleName();
+    return String.format("%s[segment=%d]", getClass().getSimpleName(), group.get(0).descriptor().id());
   }
 
 }
@@ -22,8 +22,11 @@ import io.atomix.copycat.server.storage.Storage;
 import io.atomix.copycat.server.storage.entry.Entry;
 
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Builds tasks for the {@link Compaction#MINOR} compaction process.
@@ -34,7 +37,9 @@ import java.util.List;
  * However, in order to ensure segments are not compacted without cause, this compaction manager attempts to
  * prioritize segments for which compaction will result in greater disk space savings.
  * <p>
- * Segments are selected for minor compaction based on several factors:
+ * Segments are selected for minor compaction by the configured {@link Storage#compactionPolicy()} from the set of
+ * segments that can safely be compacted. By default, the {@link ThresholdCompactionPolicy} selects segments based
+ * on several factors:
  * <ul>
  *   <li>The number of {@link Entry entries} in the segment that have been {@link Segment#release(long) released}</li>
  *   <li>The number of times the segment has been compacted already</li>
@@ -53,6 +58,14 @@ import java.util.List;
  *   }
  *   }
  * </pre>
+ * <p>
+ * Tasks are built in the order in which segments are returned by the policy, so policies can prioritize the
+ * segments that are compacted first.
+ * <p>
+ * After heavy release activity, the log can consist of many small segments, each of which carries its own file,
+ * descriptor, and in-memory indexes. To keep the number of segments bounded, runs of adjacent segments are merged
+ * into a single segment by a single task when the entries remaining in the segments fit within the configured
+ * {@link Storage#maxSegmentSize()} and {@link Storage#maxEntriesPerSegment()}.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
@@ -65,19 +78,117 @@ public final class MinorCompactionManager implements CompactionManager {
 
   @Override
   public List<CompactionTask> buildTasks(Storage storage, SegmentManager segments) {
-    List<CompactionTask> tasks = new ArrayList<>(segments.segments().size());
-    for (Segment segment : getCompactableSegments(storage, segments)) {
-      tasks.add(new MinorCompactionTask(segments, segment, compactor.snapshotIndex(), compactor.majorIndex(), compactor.getDefaultCompactionMode()));
+    List<Segment> candidates = getCompactableSegments(segments);
+    List<Segment> selected = storage.compactionPolicy().selectSegments(candidates, storage, segments);
+    List<List<Segment>> groups = getCompactableGroups(storage, segments, candidates, selected);
+
+    List<CompactionTask> tasks = new ArrayList<>(groups.size());
+    for (List<Segment> group : groups) {
+      tasks.add(new MinorCompactionTask(segments, group, compactor.throttle(), compactor.snapshotIndex(), compactor.majorIndex(), compactor.getDefaultCompactionMode()));
     }
     return tasks;
   }
 
   /**
-   * Returns a list of compactable segments.
+   * Groups runs of adjacent segments to be merged into a single segment.
+   * <p>
+   * Segments selected by the compaction policy are merged with adjacent segments that are either selected or
+   * {@link #isSparse(Segment, Storage) sparse} so long as the estimated size and number of entries remaining in the
+   * merged segment are within the configured {@link Storage#maxSegmentSize()} and
+   * {@link Storage#maxEntriesPerSegment()}. Runs of multiple sparse segments are merged even if none of the segments
+   * in the run were selected. Groups are returned in the order in which the policy prioritized their segments.
+   */
+  private List<List<Segment>> getCompactableGroups(Storage storage, SegmentManager manager, List<Segment> candidates, List<Segment> selected) {
+    Map<Segment, Integer> priorities = new IdentityHashMap<>();
+    for (int i = 0; i < selected.size(); i++) {
+      priorities.put(selected.get(i), i);
+    }
+
+    Map<Segment, Integer> positions = new IdentityHashMap<>();
+    for (Segment segment : manager.segments()) {
+      positions.put(segment, positions.size());
+    }
+
+    List<List<Segment>> groups = new ArrayList<>();
+    List<Segment> group = new ArrayList<>();
+    long groupEntries = 0;
+    long groupBytes = 0;
+    long groupSize = 0;
+    int lastPosition = -1;
+    for (Segment segment : candidates) {
+      if (!priorities.containsKey(segment) && !isSparse(segment, storage)) {
+        addGroup(groups, group, priorities);
+        group = new ArrayList<>();
+        continue;
+      }
+
+      long entries = liveEntries(segment);
+      long bytes = liveBytes(segment);
+      int position = positions.getOrDefault(segment, -1);
+
+      // If the segment is not adjacent to the group or the merged segment would be too large, start a new group.
+      if (group.isEmpty()
+        || position != lastPosition + 1
+        || groupEntries + entries > storage.maxEntriesPerSegment()
+        || groupBytes + bytes > storage.maxSegmentSize()
+        || groupSize + segment.size() > Integer.MAX_VALUE) {
+        addGroup(groups, group, priorities);
+        group = new ArrayList<>();
+        groupEntries = groupBytes = groupSize = 0;
+      }
+
+      group.add(segment);
+      groupEntries += entries;
+      groupBytes += bytes;
+      groupSize += segment.size();
+      lastPosition = position;
+    }
+    addGroup(groups, group, priorities);
+
+    // Order groups by the highest priority of any selected segment in the group.
+    groups.sort(Comparator.comparingInt(g -> g.stream().mapToInt(s -> priorities.getOrDefault(s, Integer.MAX_VALUE)).min().getAsInt()));
+    return groups;
+  }
+
+  /**
+   * Adds the given group to the list of groups if the group contains a selected segment or multiple segments.
+   */
+  private static void addGroup(List<List<Segment>> groups, List<Segment> group, Map<Segment, Integer> priorities) {
+    if (group.size() > 1 || (group.size() == 1 && priorities.containsKey(group.get(0)))) {
+      groups.add(group);
+    }
+  }
+
+  /**
+   * Returns a boolean indicating whether the given segment is sparsely populated.
+   * <p>
+   * A segment is sparse if its live entries would fill less than half of a segment.
+   */
+  private static boolean isSparse(Segment segment, Storage storage) {
+    return liveEntries(segment) < storage.maxEntriesPerSegment() / 2 && liveBytes(segment) < storage.maxSegmentSize() / 2;
+  }
+
+  /**
+   * Returns the number of entries in the segment that have not been released.
+   */
+  private static long liveEntries(Segment segment) {
+    return Math.max(segment.count() - segment.releaseCount(), 0);
+  }
+
+  /**
+   * Returns the estimated number of bytes in the segment that have not been released.
+   */
+  private static long liveBytes(Segment segment) {
+    int count = segment.count();
+    return count > 0 ? segment.size() * liveEntries(segment) / count : 0;
+  }
+
+  /**
+   * Returns a list of segments that can safely be compacted.
    *
-   * @return A list of compactable segments.
+   * @return A list of compactable segments in log order.
    */
-  private Iterable<Segment> getCompactableSegments(Storage storage, SegmentManager manager) {
+  private List<Segment> getCompactableSegments(SegmentManager manager) {
     List<Segment> segments = new ArrayList<>(manager.segments().size());
     Iterator<Segment> iterator = manager.segments().iterator();
     Segment segment = iterator.next();
@@ -88,14 +199,7 @@ public final class MinorCompactionManager implements CompactionManager {
       // of entries less than the minorIndex, and a later segment with at least one committed entry must exist in the log. This ensures that
       // a non-empty entry always remains at the end of the log.
       if (segment.isCompacted() || (segment.isFull() && segment.lastIndex() < compactor.minorIndex() && nextSegment.firstIndex() <= manager.commitIndex() && !nextSegment.isEmpty())) {
-        // Calculate the percentage of entries that have been released in the segment.
-        double compactablePercentage = segment.releaseCount() / (double) segment.count();
-
-        // If the percentage of entries released times the segment version meets the compaction threshold,
-        // add the segment to the segments list for compaction.
-        if (compactablePercentage * segment.descriptor().version() >= storage.compactionThreshold()) {
-          segments.add(segment);
-        }
+        segments.add(segment);
       }
 
       segment = nextSegment;
@@ -19,11 +19,10 @@ import io.atomix.catalyst.util.Assert;
 import io.atomix.copycat.server.storage.Segment;
 import io.atomix.copycat.server.storage.SegmentDescriptor;
 import io.atomix.copycat.server.storage.SegmentManager;
-import io.atomix.copycat.server.storage.entry.Entry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
+import java.util.List;
 
 /**
  * Removes {@link io.atomix.copycat.server.storage.Log#release(long) released} entries from an individual
@@ -32,8 +31,12 @@ import java.util.Collections;
  * The minor compaction task is a lightweight process that rewrites an individual segment to remove entries for
  * that do not have to be removed sequentially from the log.
  * <p>
- * When a segment is rewritten by the minor compaction task, a new compact segment is created with the same starting
- * index as the segment being compacted and the next greatest version number. The version number allows the
+ * Each task rewrites a run of one or more adjacent segments. The {@link MinorCompactionManager} groups adjacent,
+ * sparsely populated segments into a single task so that their remaining entries are combined into a single segment,
+ * bounding the number of segment files and in-memory indexes after heavy release activity.
+ * <p>
+ * When segments are rewritten by the minor compaction task, a new compact segment is created with the same starting
+ * index as the first segment being compacted and the next greatest version number. The version number allows the
  * {@link SegmentManager} to account for failures during log compaction when recovering the log from disk. If a failure
  * occurs during minor compaction, the segment manager will attempt to load the segment with the greatest version
  * for a given range of entries from disk. If the segment with the greatest version did not finish compaction, it
@@ -46,14 +49,20 @@ import java.util.Collections;
 public final class MinorCompactionTask implements CompactionTask {
   private static final Logger LOGGER = LoggerFactory.getLogger(MinorCompactionTask.class);
   private final SegmentManager manager;
-  private final Segment segment;
+  private final List<Segment> segments;
+  private final CompactionThrottle throttle;
   private final long snapshotIndex;
   private final long compactIndex;
   private final Compaction.Mode defaultCompactionMode;
 
-  MinorCompactionTask(SegmentManager manager, Segment segment, long snapshotIndex, long compactIndex, Compaction.Mode defaultCompactionMode) {
+  /**
+   * @param manager The segment manager.
+   * @param segments A run of adjacent segments to rewrite into a single compact segment.
+   */
+  MinorCompactionTask(SegmentManager manager, List<Segment> segments, CompactionThrottle throttle, long snapshotIndex, long compactIndex, Compaction.Mode defaultCompactionMode) {
     this.manager = Assert.notNull(manager, "manager");
-    this.segment = Assert.notNull(segment, "segment");
+    this.segments = Assert.arg(Assert.notNull(segments, "segments"), !segments.isEmpty(), "segments cannot be empty");
+    this.throttle = Assert.notNull(throttle, "throttle");
     this.snapshotIndex = snapshotIndex;
     this.compactIndex = compactIndex;
     this.defaultCompactionMode = Assert.notNull(defaultCompactionMode, "defaultCompactionMode");
@@ -68,26 +77,34 @@ public final class MinorCompactionTask implements CompactionTask {
    * Compacts all compactable segments.
    */
   private void compactSegments() {
-    // Create a compact segment with a newer version to which to rewrite the segment entries.
+    // Create a compact segment with a newer version of the first segment to which to rewrite the segment entries.
+    // Released entries that can't be removed by minor compaction are still transferred, so the compact segment
+    // must be able to hold every entry in the segments being merged.
+    Segment firstSegment = segments.get(0);
     Segment compactSegment = manager.createSegment(SegmentDescriptor.builder()
-      .withId(segment.descriptor().id())
-      .withVersion(segment.descriptor().version() + 1)
-      .withIndex(segment.descriptor().index())
-      .withMaxSegmentSize(segment.descriptor().maxSegmentSize())
-      .withMaxEntries(segment.descriptor().maxEntries())
+      .withId(firstSegment.descriptor().id())
+      .withVersion(firstSegment.descriptor().version() + 1)
+      .withIndex(firstSegment.descriptor().index())
+      .withMaxSegmentSize(Math.max(segments.stream().mapToLong(s -> s.descriptor().maxSegmentSize()).max().getAsLong(), segments.stream().mapToLong(Segment::size).sum()))
+      .withMaxEntries(Math.max(segments.stream().mapToInt(s -> s.descriptor().maxEntries()).max().getAsInt(), segments.stream().mapToInt(Segment::count).sum()))
       .build());
 
-    compactEntries(segment, compactSegment);
+    for (Segment segment : segments) {
+      compactEntries(segment, compactSegment);
+    }
 
-    // Replace the old segment with the compact segment.
-    manager.replaceSegments(Collections.singletonList(segment), compactSegment);
+    // Flush the compact segment through the throttle so sealing it during replacement doesn't flush it unthrottled.
+    throttle.flush(compactSegment);
 
-    // Update the new segment with offsets that were released during compaction.
-    mergeReleasedEntries(segment, compactSegment);
+    // Replace the old segments with the compact segment.
+    manager.replaceSegments(segments, compactSegment);
 
-    // Delete the old segment.
-    segment.close();
-    segment.delete();
+    // Update the new segment with offsets that were released during compaction and delete the old segments.
+    for (Segment segment : segments) {
+      mergeReleasedEntries(segment, compactSegment);
+      segment.close();
+      segment.delete();
+    }
   }
 
   /**
@@ -110,23 +127,21 @@ public final class MinorCompactionTask implements CompactionTask {
    * @param compactSegment The segment to which to write the compacted segment.
    */
   private void checkEntry(long index, Segment segment, Segment compactSegment) {
-    try (Entry entry = segment.get(index)) {
-      // If an entry was found, only remove the entry from the segment if it's not a tombstone that has been released.
-      if (entry != null) {
-        checkEntry(index, entry, segment, compactSegment);
-      } else {
-        compactSegment.skip(1);
-      }
+    // Read the compaction mode from the entry header. If an entry was found, only remove the entry from the
+    // segment if it's not a tombstone that has been released.
+    Compaction.Mode mode = segment.compactionMode(index);
+    if (mode != null) {
+      checkEntry(index, mode, segment, compactSegment);
+    } else {
+      compactSegment.skip(1);
     }
   }
 
   /**
    * Compacts a command entry from a segment.
    */
-  private void checkEntry(long index, Entry entry, Segment segment, Segment compactSegment) {
-    // Get the entry compaction mode. If the compaction mode is DEFAULT apply the default compaction
-    // mode to the entry.
-    Compaction.Mode mode = entry.getCompactionMode();
+  private void checkEntry(long index, Compaction.Mode mode, Segment segment, Segment compactSegment) {
+    // If the compaction mode is DEFAULT apply the default compaction mode to the entry.
     if (mode == Compaction.Mode.DEFAULT) {
       mode = defaultCompactionMode;
     }
@@ -140,7 +155,7 @@ public final class MinorCompactionTask implements CompactionTask {
         if (index <= snapshotIndex && !segment.isLive(index)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(index, entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // RELEASE and QUORUM entries are compacted if the entry has been released in the segment.
@@ -149,7 +164,7 @@ public final class MinorCompactionTask implements CompactionTask {
         if (!segment.isLive(index)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(index, entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // FULL entries are compacted if the major compact index is greater than the entry index
@@ -158,7 +173,7 @@ public final class MinorCompactionTask implements CompactionTask {
         if (index <= compactIndex && !segment.isLive(index)) {
           compactEntry(index, segment, compactSegment);
         } else {
-          transferEntry(index, entry, compactSegment);
+          transferEntry(index, segment, compactSegment);
         }
         break;
       // SEQUENTIAL, EXPIRING, and TOMBSTONE entries can only be compacted during major compaction.
@@ -167,7 +182,7 @@ public final class MinorCompactionTask implements CompactionTask {
       case EXPIRING:
       case TOMBSTONE:
       case UNKNOWN:
-        transferEntry(index, entry, compactSegment);
+        transferEntry(index, segment, compactSegment);
         break;
       default:
         break;
@@ -185,8 +200,15 @@ public final class MinorCompactionTask implements CompactionTask {
   /**
    * Transfers an entry to the given compact segment.
    */
-  private void transferEntry(long index, Entry entry, Segment compactSegment) {
-    compactSegment.append(entry);
+  private void transferEntry(long index, Segment segment, Segment compactSegment) {
+    long size = compactSegment.size();
+    if (compactSegment.transfer(segment, index) == -1) {
+      compactSegment.skip(1);
+      return;
+    }
+
+    // Each transferred byte is read from the old segment and written to the compact segment.
+    throttle.acquire((compactSegment.size() - size) * 2);
 
     // If the entry was released in the prior segment, mark it as released in the compact segment.
     if (!segment.isLive(index)) {
@@ -207,7 +229,7 @@ public final class MinorCompactionTask implements CompactionTask {
 
   @Override
   public String toString() {
-    return getClass().getSimpleName();
+    return String.format("%s[segments=%d]", getClass().getSimpleName(), segments.size());
   }
 
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.compaction;
+
+import io.atomix.copycat.server.storage.Segment;
+import io.atomix.copycat.server.storage.SegmentManager;
+import io.atomix.copycat.server.storage.Storage;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Default compaction policy which compacts the log at fixed intervals.
+ * <p>
+ * Minor and major compaction are run at the configured {@link Storage#minorCompactionInterval()} and
+ * {@link Storage#majorCompactionInterval()} respectively. During minor compaction, a segment is selected for
+ * compaction if the percentage of entries released from the segment multiplied by the segment's version meets
+ * the configured {@link Storage#compactionThreshold()}:
+ * <pre>
+ *   {@code
+ *   if ((segment.releaseCount() / (double) segment.count()) * segment.descriptor().version() >= storage.compactionThreshold()) {
+ *     // Compact the segment
+ *   }
+ *   }
+ * </pre>
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class ThresholdCompactionPolicy implements CompactionPolicy {
+
+  @Override
+  public Duration checkInterval(Storage storage) {
+    Duration minor = storage.minorCompactionInterval();
+    Duration major = storage.majorCompactionInterval();
+    return minor.compareTo(major) <= 0 ? minor : major;
+  }
+
+  @Override
+  public boolean shouldCompact(Compaction compaction, Duration elapsed, Storage storage, SegmentManager segments) {
+    switch (compaction) {
+      case MINOR:
+        return elapsed.compareTo(storage.minorCompactionInterval()) >= 0;
+      case MAJOR:
+        return elapsed.compareTo(storage.majorCompactionInterval()) >= 0;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public List<Segment> selectSegments(List<Segment> candidates, Storage storage, SegmentManager segments) {
+    List<Segment> selected = new ArrayList<>(candidates.size());
+    for (Segment segment : candidates) {
+      // Calculate the percentage of entries that have been released in the segment.
+      double compactablePercentage = segment.releaseCount() / (double) segment.count();
+
+      // If the percentage of entries released times the segment version meets the compaction threshold,
+      // add the segment to the segments list for compaction.
+      if (compactablePercentage * segment.descriptor().version() >= storage.compactionThreshold()) {
+        selected.add(segment);
+      }
+    }
+    return selected;
+  }
+
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.entry;
+
+import io.atomix.catalyst.buffer.BufferInput;
+import io.atomix.catalyst.buffer.BufferOutput;
+import io.atomix.catalyst.buffer.HeapBuffer;
+import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.catalyst.util.Assert;
+import io.atomix.catalyst.util.reference.ReferenceManager;
+import io.atomix.copycat.server.storage.Log;
+import io.atomix.copycat.server.storage.compaction.Compaction;
+
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Stores the encoded bytes of another entry.
+ * <p>
+ * Raw entries are read from the log by {@link Log#getRaw(long)} and contain an entry's serialized bytes exactly
+ * as they're stored in a log segment along with the entry's checksum. Raw entries allow entries to be replicated
+ * without being deserialized and reserialized for each member. When a raw entry is appended to a log, its bytes are
+ * written to the segment as is once its checksum has been verified.
+ * <p>
+ * Raw entries are not pooled, and the encoded bytes of a raw entry must not be modified once the entry has
+ * been created since raw entries may be shared by multiple append requests.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class RawEntry extends Entry<RawEntry> {
+  private static final Compaction.Mode[] MODES = Compaction.Mode.values();
+  private long checksum;
+  private Compaction.Mode mode;
+  private byte[] bytes;
+
+  public RawEntry() {
+  }
+
+  public RawEntry(ReferenceManager<Entry<?>> referenceManager) {
+    super(referenceManager);
+  }
+
+  /**
+   * Returns the compaction mode of the encoded entry.
+   *
+   * @return The compaction mode of the encoded entry or {@code null} if the compaction mode is not known.
+   */
+  @Override
+  public Compaction.Mode getCompactionMode() {
+    return mode;
+  }
+
+  /**
+   * Sets the compaction mode of the encoded entry.
+   *
+   * @param mode The compaction mode of the encoded entry.
+   * @return The raw entry.
+   */
+  public RawEntry setCompactionMode(Compaction.Mode mode) {
+    this.mode = mode;
+    return this;
+  }
+
+  /**
+   * Returns the checksum of the encoded entry bytes.
+   *
+   * @return The checksum of the encoded entry bytes.
+   */
+  public long getChecksum() {
+    return checksum;
+  }
+
+  /**
+   * Returns the encoded entry bytes.
+   *
+   * @return The encoded entry bytes.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Sets the encoded entry bytes.
+   *
+   * @param bytes The encoded entry bytes.
+   * @param checksum The checksum of the encoded entry bytes.
+   * @return The raw entry.
+   * @throws NullPointerException if {@code bytes} is null
+   */
+  public RawEntry setBytes(byte[] bytes, long checksum) {
+    this.bytes = Assert.notNull(bytes, "bytes");
+    this.checksum = checksum;
+    return this;
+  }
+
+  /**
+   * Returns a boolean indicating whether the encoded entry bytes match the entry checksum.
+   *
+   * @return Indicates whether the encoded entry bytes match the entry checksum.
+   */
+  public boolean isValid() {
+    Checksum crc32 = new CRC32();
+    crc32.update(bytes, 0, bytes.length);
+    return crc32.getValue() == checksum;
+  }
+
+  /**
+   * Deserializes the encoded entry.
+   *
+   * @param serializer The serializer with which to deserialize the entry.
+   * @param <T> The entry type.
+   * @return The deserialized entry.
+   */
+  public <T extends Entry> T decode(Serializer serializer) {
+    T entry = serializer.readObject(HeapBuffer.wrap(bytes));
+    entry.setIndex(getIndex()).setTerm(getTerm());
+    return entry;
+  }
+
+  @Override
+  public void writeObject(BufferOutput<?> buffer, Serializer serializer) {
+    buffer.writeUnsignedInt(checksum)
+      .writeByte(mode != null ? mode.ordinal() + 1 : 0)
+      .writeInt(bytes.length)
+      .write(bytes);
+  }
+
+  @Override
+  public void readObject(BufferInput<?> buffer, Serializer serializer) {
+    checksum = buffer.readUnsignedInt();
+    int mode = buffer.readByte() & 0xFF;
+    this.mode = mode > 0 && mode <= MODES.length ? MODES[mode - 1] : null;
+    bytes = new byte[buffer.readInt()];
+    buffer.read(bytes);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[index=%d, term=%d, length=%d]", getClass().getSimpleName(), getIndex(), getTerm(), bytes != null ? bytes.length : 0);
+  }
+
+}
@@ -19,14 +19,31 @@ import io.atomix.catalyst.buffer.Buffer;
 
 /**
  * Offset index that delegates to other indexes.
+ * <p>
+ * Entries are indexed in a {@link SequentialOffsetIndex} until an offset is skipped, at which point the index is
+ * converted to a {@link PackedOffsetIndex}.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 public class DelegatingOffsetIndex implements OffsetIndex {
+  private final int sampleInterval;
+  private final PackedOffsetIndex.Scanner scanner;
   private volatile OffsetIndex index;
+  private OffsetIndex retired;
 
   public DelegatingOffsetIndex(Buffer buffer) {
+    this(buffer, 1, null);
+  }
+
+  /**
+   * @param buffer The buffer in which to store sequential offsets.
+   * @param sampleInterval The interval at which to sample entries once the index contains missing offsets.
+   * @param scanner The scanner with which to locate entries between samples.
+   */
+  public DelegatingOffsetIndex(Buffer buffer, int sampleInterval, PackedOffsetIndex.Scanner scanner) {
     this.index = new SequentialOffsetIndex(buffer);
+    this.sampleInterval = sampleInterval;
+    this.scanner = scanner;
   }
 
   @Override
@@ -37,7 +54,9 @@ public class DelegatingOffsetIndex implements OffsetIndex {
   @Override
   public boolean index(long offset, long position) {
     if (!index.index(offset, position)) {
-      index = new SearchableOffsetIndex(index);
+      // The sequential index is retained until this index is closed since concurrent readers may still hold it.
+      retired = index;
+      index = new PackedOffsetIndex(index, sampleInterval, scanner);
       return index.index(offset, position);
     }
     return true;
@@ -81,6 +100,10 @@ public class DelegatingOffsetIndex implements OffsetIndex {
   @Override
   public void close() {
     index.close();
+    if (retired != null) {
+      retired.close();
+      retired = null;
+    }
   }
 
   @Override
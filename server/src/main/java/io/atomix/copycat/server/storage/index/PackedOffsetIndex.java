@@ -0,0 +1,384 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.storage.index;
+
+import io.atomix.catalyst.util.Assert;
+
+import java.util.Arrays;
+
+/**
+ * Offset index for segments with missing entries, backed by packed primitive arrays.
+ * <p>
+ * Offsets and positions are stored in parallel {@code int} arrays in increasing offset order, and lookups are performed
+ * by binary search directly over the offsets array. The index is written by a single writer and may be read by many
+ * threads concurrently without locking: the arrays are published through a volatile reference and entries only become
+ * visible to readers once the {@link #lastOffset()} has been updated. Arrays are never modified once entries stored
+ * in them may have been removed, so {@link #truncate(long) truncating} the index publishes a copy of the arrays.
+ * <p>
+ * To reduce memory consumption for heavily compacted segments, the index can optionally sample only every
+ * {@code sampleInterval}th entry. In that case, only the offset and position of the first entry in each block of
+ * {@code sampleInterval} entries is stored in the arrays. The offsets of the remaining entries in the block are stored
+ * as variable length deltas from the preceding offset, so each retained entry typically consumes a single byte
+ * regardless of how many entries were removed from the segment. The positions of entries between samples are found
+ * by scanning forward from the block's sample with the provided {@link Scanner}.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public class PackedOffsetIndex implements OffsetIndex {
+  private static final long MAX_POSITION = (long) Math.pow(2, 32) - 1;
+  private static final int DEFAULT_CAPACITY = 1024;
+  private static final int MAX_DELTA_BYTES = 5;
+
+  /**
+   * Scans forward from an entry in a segment.
+   */
+  @FunctionalInterface
+  public interface Scanner {
+
+    /**
+     * Returns the position of the entry following the entry at the given position.
+     *
+     * @param position The position of an entry.
+     * @return The position of the next entry.
+     */
+    long next(long position);
+  }
+
+  private final int sampleInterval;
+  private final Scanner scanner;
+  private volatile Entries entries;
+  private volatile int samples;
+  private volatile int deltaSize;
+  private volatile int size;
+  private volatile long lastOffset = -1;
+  private long previousOffset = -1;
+
+  public PackedOffsetIndex() {
+    this(1, null);
+  }
+
+  /**
+   * @throws IllegalArgumentException if {@code sampleInterval} is not positive or no scanner is provided for a
+   * sampled index
+   */
+  public PackedOffsetIndex(int sampleInterval, Scanner scanner) {
+    this.sampleInterval = Assert.arg(sampleInterval, sampleInterval > 0, "sampleInterval must be positive");
+    this.scanner = Assert.arg(scanner, sampleInterval == 1 || scanner != null, "scanner must be provided for sampled indexes");
+    this.entries = Entries.allocate(sampleInterval);
+  }
+
+  /**
+   * Creates a packed index containing all entries in the given index.
+   */
+  public PackedOffsetIndex(OffsetIndex index, int sampleInterval, Scanner scanner) {
+    this(sampleInterval, scanner);
+    for (long offset = 0, lastOffset = index.lastOffset(); offset <= lastOffset; offset++) {
+      long position = index.position(offset);
+      if (position != -1) {
+        index(offset, position);
+      }
+    }
+  }
+
+  @Override
+  public long lastOffset() {
+    return lastOffset;
+  }
+
+  @Override
+  public boolean index(long offset, long position) {
+    Assert.argNot(offset, lastOffset > -1 && offset <= lastOffset, "offset cannot be less than or equal to the last offset in the index");
+    Assert.argNot(position > MAX_POSITION, "position cannot be greater than " + MAX_POSITION);
+
+    Entries entries = this.entries;
+    int size = this.size;
+
+    // Store the offset and position if this entry is a sample. When sampling is disabled, every entry is a sample.
+    if (size % sampleInterval == 0) {
+      int sample = samples;
+      if (sample == entries.offsets.length) {
+        entries = this.entries = entries.growSamples(sample * 2);
+      }
+      entries.offsets[sample] = (int) offset;
+      entries.positions[sample] = (int) position;
+      if (entries.deltaStarts != null) {
+        entries.deltaStarts[sample] = deltaSize;
+      }
+      samples = sample + 1;
+    }
+    // Otherwise, store the distance from the previous offset in the sample's block.
+    else {
+      int deltaSize = this.deltaSize;
+      if (deltaSize + MAX_DELTA_BYTES > entries.deltas.length) {
+        entries = this.entries = entries.growDeltas(Math.max(deltaSize + MAX_DELTA_BYTES, entries.deltas.length * 2));
+      }
+      this.deltaSize = writeDelta(entries.deltas, deltaSize, (int) (offset - previousOffset - 1));
+    }
+
+    this.previousOffset = offset;
+    this.size = size + 1;
+    this.lastOffset = offset;
+    return true;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(long offset) {
+    return find(offset) != -1;
+  }
+
+  @Override
+  public long position(long offset) {
+    return lookup(offset, false);
+  }
+
+  @Override
+  public long find(long offset) {
+    return lookup(offset, true);
+  }
+
+  /**
+   * Looks up the given offset, returning either its rank or its position.
+   */
+  private long lookup(long offset, boolean rank) {
+    long lastOffset = this.lastOffset;
+    if (offset < 0 || offset > lastOffset)
+      return -1;
+
+    // Read the counts before the entries to ensure the counts never exceed the arrays.
+    int size = this.size;
+    int samples = this.samples;
+    Entries entries = this.entries;
+
+    int sample = floor(entries.offsets, samples, offset);
+    if (sample == -1)
+      return -1;
+
+    long sampleRank = (long) sample * sampleInterval;
+    long position = entries.positions[sample] & 0xFFFFFFFFL;
+    long next = entries.offsets[sample];
+    if (next == offset)
+      return rank ? sampleRank : position;
+    if (entries.deltas == null)
+      return -1;
+
+    // Decode the offsets in the sample's block, scanning forward from the sample to the requested offset.
+    int count = (int) Math.min(sampleInterval, size - sampleRank);
+    int pointer = entries.deltaStarts[sample];
+    for (int i = 1; i < count; i++) {
+      int delta = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = entries.deltas[pointer++];
+        delta |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+
+      next += delta + 1;
+      if (next > offset)
+        return -1;
+
+      if (!rank) {
+        position = scanner.next(position);
+      }
+      if (next == offset)
+        return rank ? sampleRank + i : position;
+    }
+    return -1;
+  }
+
+  @Override
+  public long truncate(long offset) {
+    if (offset == lastOffset)
+      return -1;
+
+    if (offset == -1) {
+      entries = Entries.allocate(sampleInterval);
+      samples = deltaSize = size = 0;
+      previousOffset = -1;
+      lastOffset = -1;
+      return 0;
+    }
+
+    int size = this.size;
+    int samples = this.samples;
+    Entries entries = this.entries;
+
+    // Find the first entry following the truncated offset. Its position is the position at which the segment
+    // is truncated, and its rank is the new size of the index.
+    int sample = floor(entries.offsets, samples, offset);
+    long rank = -1;
+    long position = -1;
+    int deltaSize = -1;
+    long previousOffset = -1;
+    if (sample != -1) {
+      previousOffset = entries.offsets[sample];
+      if (entries.deltas != null) {
+        long nextPosition = entries.positions[sample] & 0xFFFFFFFFL;
+        int count = (int) Math.min(sampleInterval, size - (long) sample * sampleInterval);
+        int pointer = entries.deltaStarts[sample];
+        for (int i = 1; i < count; i++) {
+          int start = pointer;
+          int delta = 0;
+          int shift = 0;
+          byte b;
+          do {
+            b = entries.deltas[pointer++];
+            delta |= (b & 0x7F) << shift;
+            shift += 7;
+          } while (b < 0);
+
+          long next = previousOffset + delta + 1;
+          nextPosition = scanner.next(nextPosition);
+          if (next > offset) {
+            rank = (long) sample * sampleInterval + i;
+            position = nextPosition;
+            deltaSize = start;
+            break;
+          }
+          previousOffset = next;
+        }
+      }
+    }
+
+    // If the following entry is not within the truncated offset's block, it's the next sample.
+    if (rank == -1) {
+      int nextSample = sample + 1;
+      if (nextSample >= samples)
+        return -1;
+      rank = (long) nextSample * sampleInterval;
+      position = entries.positions[nextSample] & 0xFFFFFFFFL;
+      deltaSize = entries.deltaStarts != null ? entries.deltaStarts[nextSample] : 0;
+    }
+
+    // Concurrent readers may still be reading the truncated entries, so publish a copy of the arrays to which
+    // new entries can be written.
+    this.entries = entries.copy();
+    this.samples = (int) ((rank + sampleInterval - 1) / sampleInterval);
+    this.deltaSize = deltaSize;
+    this.previousOffset = previousOffset;
+    this.size = (int) rank;
+    this.lastOffset = offset;
+    return position;
+  }
+
+  /**
+   * Returns the index of the greatest sample offset less than or equal to the given offset, or {@code -1}.
+   */
+  private static int floor(int[] offsets, int size, long offset) {
+    int lo = 0;
+    int hi = size - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int i = offsets[mid];
+      if (i < offset) {
+        lo = mid + 1;
+      } else if (i > offset) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return hi;
+  }
+
+  /**
+   * Writes the given delta as a variable length integer, returning the position following the delta.
+   */
+  private static int writeDelta(byte[] deltas, int pointer, int delta) {
+    while ((delta & ~0x7F) != 0) {
+      deltas[pointer++] = (byte) ((delta & 0x7F) | 0x80);
+      delta >>>= 7;
+    }
+    deltas[pointer++] = (byte) delta;
+    return pointer;
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void delete() {
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[size=%d, samples=%d]", getClass().getSimpleName(), size, samples);
+  }
+
+  /**
+   * Packed index arrays.
+   */
+  private static final class Entries {
+    private final int[] offsets;
+    private final int[] positions;
+    private final int[] deltaStarts;
+    private final byte[] deltas;
+
+    private Entries(int[] offsets, int[] positions, int[] deltaStarts, byte[] deltas) {
+      this.offsets = offsets;
+      this.positions = positions;
+      this.deltaStarts = deltaStarts;
+      this.deltas = deltas;
+    }
+
+    /**
+     * Allocates empty entries for the given sample interval.
+     */
+    private static Entries allocate(int sampleInterval) {
+      if (sampleInterval == 1)
+        return new Entries(new int[DEFAULT_CAPACITY], new int[DEFAULT_CAPACITY], null, null);
+      return new Entries(new int[DEFAULT_CAPACITY], new int[DEFAULT_CAPACITY], new int[DEFAULT_CAPACITY], new byte[DEFAULT_CAPACITY]);
+    }
+
+    /**
+     * Returns a copy of the entries with the given sample capacity.
+     */
+    private Entries growSamples(int capacity) {
+      return new Entries(Arrays.copyOf(offsets, capacity), Arrays.copyOf(positions, capacity), deltaStarts != null ? Arrays.copyOf(deltaStarts, capacity) : null, deltas);
+    }
+
+    /**
+     * Returns a copy of the entries with the given delta capacity.
+     */
+    private Entries growDeltas(int capacity) {
+      return new Entries(offsets, positions, deltaStarts, Arrays.copyOf(deltas, capacity));
+    }
+
+    /**
+     * Returns a copy of the entries.
+     */
+    private Entries copy() {
+      return new Entries(offsets.clone(), positions.clone(), deltaStarts != null ? deltaStarts.clone() : null, deltas != null ? deltas.clone() : null);
+    }
+  }
+
+}
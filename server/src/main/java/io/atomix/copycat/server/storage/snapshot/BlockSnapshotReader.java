@@ -0,0 +1,284 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package io.atomix.copycat.server.storage.snapshot;
+
+import io.atomix.catalyst.buffer.Buffer;
+import io.atomix.catalyst.buffer.Bytes;
+import io.atomix.catalyst.buffer.HeapBuffer;
+import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.copycat.server.storage.StorageException;
+
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Snapshot reader that decompresses blocks written by a {@link BlockSnapshotWriter}.
+ * <p>
+ * Blocks are read from the underlying snapshot buffer and decompressed into memory one at a time as they're
+ * needed. If a fixed-length value spans blocks, the remainder of the current block is carried over into the next.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+final class BlockSnapshotReader extends SnapshotReader {
+  private final Serializer serializer;
+  private final HeapBuffer block = HeapBuffer.allocate(BlockSnapshotWriter.BLOCK_SIZE, Integer.MAX_VALUE);
+  private final Inflater inflater = new Inflater();
+  private byte[] stored = new byte[BlockSnapshotWriter.BLOCK_SIZE];
+  private byte[] raw = new byte[BlockSnapshotWriter.BLOCK_SIZE];
+  private long unread;
+
+  BlockSnapshotReader(Buffer buffer, Snapshot snapshot, Serializer serializer) {
+    super(buffer, snapshot, serializer);
+    this.serializer = serializer;
+    block.flip();
+
+    // Sum the uncompressed lengths of all blocks to determine the number of bytes remaining in the snapshot.
+    long position = buffer.position();
+    while (position < buffer.limit()) {
+      unread += buffer.readInt(position);
+      position += Integer.BYTES * 2 + buffer.readInt(position + Integer.BYTES);
+    }
+  }
+
+  /**
+   * Ensures the given number of bytes can be read from the current block, reading subsequent blocks as necessary.
+   */
+  private void ensure(long bytes) {
+    if (block.remaining() >= bytes)
+      return;
+
+    // Carry any bytes remaining in the current block over to the next block.
+    byte[] remaining = new byte[(int) block.remaining()];
+    block.read(remaining);
+    block.clear().write(remaining);
+    while (block.position() < bytes && unread > 0) {
+      readBlock();
+    }
+    block.flip();
+  }
+
+  /**
+   * Reads the next block from the snapshot, decompressing it into the current block.
+   */
+  private void readBlock() {
+    int length = buffer.readInt();
+    int storedLength = buffer.readInt();
+    if (stored.length < storedLength) {
+      stored = new byte[storedLength];
+    }
+    buffer.read(stored, 0, storedLength);
+
+    // Blocks that were not reduced by compression are stored uncompressed.
+    if (storedLength == length) {
+      block.write(stored, 0, length);
+    } else {
+      if (raw.length < length) {
+        raw = new byte[length];
+      }
+
+      inflater.reset();
+      inflater.setInput(stored, 0, storedLength);
+      try {
+        int read = 0;
+        while (read < length) {
+          int count = inflater.inflate(raw, read, length - read);
+          if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new StorageException("corrupt snapshot block");
+          }
+          read += count;
+        }
+      } catch (DataFormatException e) {
+        throw new StorageException("corrupt snapshot block", e);
+      }
+      block.write(raw, 0, length);
+    }
+    unread -= length;
+  }
+
+  @Override
+  public long remaining() {
+    return block.remaining() + unread;
+  }
+
+  @Override
+  public boolean hasRemaining() {
+    return remaining() > 0;
+  }
+
+  @Override
+  public SnapshotReader skip(long bytes) {
+    while (bytes > 0) {
+      ensure(1);
+      long count = Math.min(bytes, block.remaining());
+      block.skip(count);
+      bytes -= count;
+    }
+    return this;
+  }
+
+  @Override
+  public <T> T readObject() {
+    ensure(1);
+    return serializer.readObject(block);
+  }
+
+  @Override
+  public SnapshotReader read(Bytes bytes) {
+    return read(bytes, 0, bytes.size());
+  }
+
+  @Override
+  public SnapshotReader read(byte[] bytes) {
+    return read(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public SnapshotReader read(Bytes bytes, long offset, long length) {
+    while (length > 0) {
+      ensure(1);
+      long count = Math.min(length, block.remaining());
+      block.read(bytes, offset, count);
+      offset += count;
+      length -= count;
+    }
+    return this;
+  }
+
+  @Override
+  public SnapshotReader read(byte[] bytes, long offset, long length) {
+    while (length > 0) {
+      ensure(1);
+      long count = Math.min(length, block.remaining());
+      block.read(bytes, offset, count);
+      offset += count;
+      length -= count;
+    }
+    return this;
+  }
+
+  @Override
+  public SnapshotReader read(Buffer buffer) {
+    byte[] bytes = new byte[(int) Math.min(buffer.remaining(), remaining())];
+    read(bytes);
+    buffer.write(bytes);
+    return this;
+  }
+
+  @Override
+  public int readByte() {
+    ensure(Byte.BYTES);
+    return block.readByte();
+  }
+
+  @Override
+  public int readUnsignedByte() {
+    ensure(Byte.BYTES);
+    return block.readUnsignedByte();
+  }
+
+  @Override
+  public char readChar() {
+    ensure(Character.BYTES);
+    return block.readChar();
+  }
+
+  @Override
+  public short readShort() {
+    ensure(Short.BYTES);
+    return block.readShort();
+  }
+
+  @Override
+  public int readUnsignedShort() {
+    ensure(Short.BYTES);
+    return block.readUnsignedShort();
+  }
+
+  @Override
+  public int readMedium() {
+    ensure(3);
+    return block.readMedium();
+  }
+
+  @Override
+  public int readUnsignedMedium() {
+    ensure(3);
+    return block.readUnsignedMedium();
+  }
+
+  @Override
+  public int readInt() {
+    ensure(Integer.BYTES);
+    return block.readInt();
+  }
+
+  @Override
+  public long readUnsignedInt() {
+    ensure(Integer.BYTES);
+    return block.readUnsignedInt();
+  }
+
+  @Override
+  public long readLong() {
+    ensure(Long.BYTES);
+    return block.readLong();
+  }
+
+  @Override
+  public float readFloat() {
+    ensure(Float.BYTES);
+    return block.readFloat();
+  }
+
+  @Override
+  public double readDouble() {
+    ensure(Double.BYTES);
+    return block.readDouble();
+  }
+
+  @Override
+  public boolean readBoolean() {
+    ensure(Byte.BYTES);
+    return block.readBoolean();
+  }
+
+  @Override
+  public String readString() {
+    ensure(1);
+    return block.readString();
+  }
+
+  @Override
+  public String readString(Charset charset) {
+    ensure(1);
+    return block.readString(charset);
+  }
+
+  @Override
+  public String readUTF8() {
+    ensure(1);
+    return block.readUTF8();
+  }
+
+  @Override
+  public void close() {
+    inflater.end();
+    block.close();
+    super.close();
+  }
+
+}
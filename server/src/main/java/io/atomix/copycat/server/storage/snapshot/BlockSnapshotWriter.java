@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package io.atomix.copycat.server.storage.snapshot;
+
+import io.atomix.catalyst.buffer.Buffer;
+import io.atomix.catalyst.buffer.Bytes;
+import io.atomix.catalyst.buffer.HeapBuffer;
+import io.atomix.catalyst.serializer.Serializer;
+
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Snapshot writer that compresses snapshot bytes in blocks.
+ * <p>
+ * Bytes written to the snapshot are buffered in memory until at least {@link #BLOCK_SIZE} bytes have been written,
+ * at which point the block is compressed and written to the underlying snapshot buffer. Each block is prefixed
+ * with its uncompressed and stored lengths. Blocks that don't shrink when compressed are stored uncompressed, as
+ * indicated by equal lengths. Blocks are only completed between writes, so with the exception of byte arrays,
+ * each value is stored within a single block.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+final class BlockSnapshotWriter extends SnapshotWriter {
+  static final int BLOCK_SIZE = 1024 * 64;
+  private final Serializer serializer;
+  private final HeapBuffer block = HeapBuffer.allocate(BLOCK_SIZE, Integer.MAX_VALUE);
+  private final Deflater deflater = new Deflater();
+  private byte[] raw = new byte[BLOCK_SIZE];
+  private byte[] compressed = new byte[BLOCK_SIZE];
+
+  BlockSnapshotWriter(Buffer buffer, Snapshot snapshot, Serializer serializer) {
+    super(buffer, snapshot, serializer);
+    this.serializer = serializer;
+  }
+
+  /**
+   * Writes the current block to the snapshot if it's full.
+   */
+  private SnapshotWriter checkBlock() {
+    if (block.position() >= BLOCK_SIZE) {
+      writeBlock();
+    }
+    return this;
+  }
+
+  /**
+   * Compresses the current block and writes it to the snapshot.
+   */
+  private void writeBlock() {
+    int length = (int) block.position();
+    if (length == 0)
+      return;
+
+    if (raw.length < length) {
+      raw = new byte[length];
+      compressed = new byte[length];
+    }
+
+    block.flip().read(raw, 0, length);
+    block.clear();
+
+    deflater.reset();
+    deflater.setInput(raw, 0, length);
+    deflater.finish();
+
+    // Compress the block, giving up once the compressed block is no smaller than the raw block.
+    int compressedLength = 0;
+    while (!deflater.finished() && compressedLength < length) {
+      compressedLength += deflater.deflate(compressed, compressedLength, length - compressedLength);
+    }
+
+    if (deflater.finished() && compressedLength < length) {
+      buffer.writeInt(length).writeInt(compressedLength).write(compressed, 0, compressedLength);
+    } else {
+      buffer.writeInt(length).writeInt(length).write(raw, 0, length);
+    }
+  }
+
+  @Override
+  public SnapshotWriter writeObject(Object object) {
+    serializer.writeObject(object, block);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter write(Bytes bytes) {
+    return write(bytes, 0, bytes.size());
+  }
+
+  @Override
+  public SnapshotWriter write(byte[] bytes) {
+    return write(bytes, 0, bytes.length);
+  }
+
+  @Override
+  public SnapshotWriter write(Bytes bytes, long offset, long length) {
+    // Split large writes across blocks to bound the size of each block.
+    while (length > 0) {
+      long count = Math.min(length, Math.max(BLOCK_SIZE - block.position(), 1));
+      block.write(bytes, offset, count);
+      offset += count;
+      length -= count;
+      checkBlock();
+    }
+    return this;
+  }
+
+  @Override
+  public SnapshotWriter write(byte[] bytes, long offset, long length) {
+    // Split large writes across blocks to bound the size of each block.
+    while (length > 0) {
+      long count = Math.min(length, Math.max(BLOCK_SIZE - block.position(), 1));
+      block.write(bytes, offset, count);
+      offset += count;
+      length -= count;
+      checkBlock();
+    }
+    return this;
+  }
+
+  @Override
+  public SnapshotWriter write(Buffer buffer) {
+    byte[] bytes = new byte[(int) buffer.remaining()];
+    buffer.read(bytes);
+    return write(bytes);
+  }
+
+  @Override
+  public SnapshotWriter writeByte(int b) {
+    block.writeByte(b);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeUnsignedByte(int b) {
+    block.writeUnsignedByte(b);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeChar(char c) {
+    block.writeChar(c);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeShort(short s) {
+    block.writeShort(s);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeUnsignedShort(int s) {
+    block.writeUnsignedShort(s);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeMedium(int m) {
+    block.writeMedium(m);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeUnsignedMedium(int m) {
+    block.writeUnsignedMedium(m);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeInt(int i) {
+    block.writeInt(i);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeUnsignedInt(long i) {
+    block.writeUnsignedInt(i);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeLong(long l) {
+    block.writeLong(l);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeFloat(float f) {
+    block.writeFloat(f);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeDouble(double d) {
+    block.writeDouble(d);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeBoolean(boolean b) {
+    block.writeBoolean(b);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeString(String s) {
+    block.writeString(s);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeString(String s, Charset charset) {
+    block.writeString(s, charset);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter writeUTF8(String s) {
+    block.writeUTF8(s);
+    return checkBlock();
+  }
+
+  @Override
+  public SnapshotWriter flush() {
+    writeBlock();
+    buffer.flush();
+    return this;
+  }
+
+  @Override
+  public void close() {
+    writeBlock();
+    deflater.end();
+    block.close();
+    super.close();
+  }
+
+}
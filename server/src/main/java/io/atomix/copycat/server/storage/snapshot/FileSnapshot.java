@@ -17,24 +17,37 @@ package io.atomix.copycat.server.storage.snapshot;
 
 import io.atomix.catalyst.buffer.Buffer;
 import io.atomix.catalyst.buffer.FileBuffer;
+import io.atomix.catalyst.buffer.MappedBuffer;
 import io.atomix.catalyst.util.Assert;
+import io.atomix.copycat.server.storage.StorageLevel;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
 /**
  * File-based snapshot backed by a {@link FileBuffer}.
+ * <p>
+ * Snapshots are always written through a {@link FileBuffer}. When the snapshot store is configured with the
+ * {@link StorageLevel#MAPPED MAPPED} storage level, completed snapshots are read through a read-only
+ * {@link MappedBuffer} so that installing a snapshot in the state machine or sending it to another server
+ * reads from the page cache rather than issuing a system call for each read.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 final class FileSnapshot extends Snapshot {
   private final SnapshotFile file;
+  private final SnapshotCompression compression;
+  private final long baseIndex;
   private final SnapshotStore store;
 
-  FileSnapshot(SnapshotFile file, SnapshotStore store) {
+  FileSnapshot(SnapshotFile file, SnapshotDescriptor descriptor, SnapshotStore store) {
     super(store);
     this.file = Assert.notNull(file, "file");
+    Assert.notNull(descriptor, "descriptor");
+    this.compression = descriptor.compression();
+    this.baseIndex = descriptor.baseIndex();
     this.store = Assert.notNull(store, "store");
   }
 
@@ -49,11 +62,28 @@ final class FileSnapshot extends Snapshot {
   }
 
   @Override
-  public synchronized SnapshotWriter writer() {
+  public long baseIndex() {
+    return baseIndex;
+  }
+
+  @Override
+  public SnapshotCompression compression() {
+    return compression;
+  }
+
+  @Override
+  public long size() {
+    return file.file().length();
+  }
+
+  @Override
+  public synchronized SnapshotWriter storedWriter() {
     checkWriter();
     SnapshotDescriptor descriptor = SnapshotDescriptor.builder()
       .withIndex(file.index())
       .withTimestamp(file.timestamp())
+      .withCompression(compression)
+      .withBaseIndex(baseIndex)
       .build();
 
     Buffer buffer = FileBuffer.allocate(file.file(), SnapshotDescriptor.BYTES);
@@ -71,14 +101,26 @@ final class FileSnapshot extends Snapshot {
   }
 
   @Override
-  public synchronized SnapshotReader reader() {
+  public synchronized SnapshotReader storedReader() {
     Assert.state(file.file().exists(), "missing snapshot file: %s", file.file());
-    Buffer buffer = FileBuffer.allocate(file.file(), SnapshotDescriptor.BYTES);
+    Buffer buffer = openReadBuffer();
     SnapshotDescriptor descriptor = new SnapshotDescriptor(buffer);
     int length = buffer.position(SnapshotDescriptor.BYTES).readInt();
     return openReader(new SnapshotReader(buffer.mark().limit(SnapshotDescriptor.BYTES + Integer.BYTES + length), this, store.serializer()), descriptor);
   }
 
+  /**
+   * Opens a buffer from which to read the snapshot file.
+   */
+  private Buffer openReadBuffer() {
+    // Snapshot files can only be mapped in their entirety if they fit in a single mapped region.
+    long length = file.file().length();
+    if (store.storage.level() == StorageLevel.MAPPED && length <= Integer.MAX_VALUE) {
+      return MappedBuffer.allocate(file.file(), FileChannel.MapMode.READ_ONLY, length, length);
+    }
+    return FileBuffer.allocate(file.file(), SnapshotDescriptor.BYTES);
+  }
+
   @Override
   public Snapshot complete() {
     Buffer buffer = FileBuffer.allocate(file.file(), SnapshotDescriptor.BYTES);
@@ -105,7 +147,7 @@ final class FileSnapshot extends Snapshot {
 
   @Override
   public String toString() {
-    return String.format("%s[index=%d]", getClass().getSimpleName(), index());
+    return String.format("%s[index=%d, baseIndex=%d]", getClass().getSimpleName(), index(), baseIndex);
   }
 
 }
@@ -15,20 +15,21 @@
  */
 package io.atomix.copycat.server.storage.snapshot;
 
-import io.atomix.catalyst.buffer.HeapBuffer;
+import io.atomix.catalyst.buffer.Buffer;
 import io.atomix.catalyst.util.Assert;
 
 /**
- * In-memory snapshot backed by a {@link HeapBuffer}.
+ * In-memory snapshot backed by a {@link io.atomix.catalyst.buffer.HeapBuffer} or, for off-heap storage, a
+ * {@link io.atomix.catalyst.buffer.DirectBuffer}.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 final class MemorySnapshot extends Snapshot {
-  private final HeapBuffer buffer;
+  private final Buffer buffer;
   private final SnapshotDescriptor descriptor;
   private final SnapshotStore store;
 
-  MemorySnapshot(HeapBuffer buffer, SnapshotDescriptor descriptor, SnapshotStore store) {
+  MemorySnapshot(Buffer buffer, SnapshotDescriptor descriptor, SnapshotStore store) {
     super(store);
     buffer.mark();
     this.buffer = Assert.notNull(buffer, "buffer");
@@ -48,7 +49,22 @@ final class MemorySnapshot extends Snapshot {
   }
 
   @Override
-  public SnapshotWriter writer() {
+  public long baseIndex() {
+    return descriptor.baseIndex();
+  }
+
+  @Override
+  public SnapshotCompression compression() {
+    return descriptor.compression();
+  }
+
+  @Override
+  public long size() {
+    return buffer.limit();
+  }
+
+  @Override
+  public SnapshotWriter storedWriter() {
     checkWriter();
     return new SnapshotWriter(buffer.reset().slice(), this, store.serializer());
   }
@@ -60,7 +76,7 @@ final class MemorySnapshot extends Snapshot {
   }
 
   @Override
-  public synchronized SnapshotReader reader() {
+  public synchronized SnapshotReader storedReader() {
     return openReader(new SnapshotReader(buffer.reset().slice(), this, store.serializer()), descriptor);
   }
 
@@ -78,7 +94,7 @@ final class MemorySnapshot extends Snapshot {
 
   @Override
   public String toString() {
-    return String.format("%s[index=%d]", getClass().getSimpleName(), descriptor.index());
+    return String.format("%s[index=%d, baseIndex=%d]", getClass().getSimpleName(), descriptor.index(), descriptor.baseIndex());
   }
 
 }
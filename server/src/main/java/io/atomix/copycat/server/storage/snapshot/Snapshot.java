@@ -28,7 +28,7 @@ import io.atomix.catalyst.util.Assert;
  * levels like {@link io.atomix.copycat.server.storage.StorageLevel#DISK DISK} and
  * {@link io.atomix.copycat.server.storage.StorageLevel#MAPPED MAPPED} will be stored in a {@link java.io.RandomAccessFile}
  * backed buffer, and {@link io.atomix.copycat.server.storage.StorageLevel#MEMORY MEMORY} snapshots will
- * be stored in an on-heap buffer.
+ * be stored in an on-heap buffer. Completed {@code MAPPED} snapshots are read through a memory mapped buffer.
  * <p>
  * Snapshots are read and written by a {@link SnapshotReader} and {@link SnapshotWriter} respectively.
  * To create a reader or writer, use the {@link #reader()} and {@link #writer()} methods.
@@ -78,17 +78,73 @@ public abstract class Snapshot implements AutoCloseable {
    */
   public abstract long timestamp();
 
+  /**
+   * Returns the index of the snapshot on which this snapshot is based.
+   * <p>
+   * Full snapshots contain the complete state machine state and have a base index of {@code 0}. Delta snapshots
+   * contain only the changes to the state machine state since the base snapshot, and the state at the snapshot
+   * index is restored by installing each snapshot in the {@link SnapshotStore#snapshotChain(Snapshot) chain}.
+   *
+   * @return The base snapshot index.
+   */
+  public abstract long baseIndex();
+
+  /**
+   * Returns a boolean indicating whether the snapshot is a delta of its {@link #baseIndex() base} snapshot.
+   *
+   * @return Indicates whether the snapshot is a delta snapshot.
+   */
+  public boolean isDelta() {
+    return baseIndex() > 0;
+  }
+
+  /**
+   * Returns the size of the snapshot as stored, in bytes.
+   * <p>
+   * The size includes the snapshot header and reflects the {@link #compression() compressed} size of the snapshot,
+   * so it approximates the number of bytes that must be sent to install the snapshot on another server.
+   *
+   * @return The size of the snapshot in bytes.
+   */
+  public abstract long size();
+
+  /**
+   * Returns the snapshot compression format.
+   *
+   * @return The snapshot compression format.
+   */
+  public abstract SnapshotCompression compression();
+
   /**
    * Returns a new snapshot writer.
    * <p>
    * Only a single {@link SnapshotWriter} per {@link Snapshot} can be created. The single writer
    * must write the snapshot in full and {@link #complete()} the snapshot to persist it to disk
-   * and make it available for {@link #reader() reads}.
+   * and make it available for {@link #reader() reads}. If the snapshot is {@link #compression() compressed},
+   * bytes written to the writer are compressed before being stored.
    *
    * @return A new snapshot writer.
    * @throws IllegalStateException if a writer was already created or the snapshot is {@link #complete() complete}
    */
-  public abstract SnapshotWriter writer();
+  public SnapshotWriter writer() {
+    SnapshotWriter writer = storedWriter();
+    if (compression() == SnapshotCompression.NONE) {
+      return writer;
+    }
+    return new BlockSnapshotWriter(writer.buffer, this, store.serializer());
+  }
+
+  /**
+   * Returns a new writer for the stored bytes of the snapshot.
+   * <p>
+   * Stored writers write bytes to the snapshot as-is, without compressing them. This can be used to copy the
+   * {@link #storedReader() stored bytes} of a snapshot of the same {@link #compression() compression format}
+   * without decompressing and recompressing them. For uncompressed snapshots, this is equivalent to {@link #writer()}.
+   *
+   * @return A new stored snapshot writer.
+   * @throws IllegalStateException if a writer was already created or the snapshot is {@link #complete() complete}
+   */
+  public abstract SnapshotWriter storedWriter();
 
   /**
    * Checks that the snapshot can be written.
@@ -119,12 +175,30 @@ public abstract class Snapshot implements AutoCloseable {
    * <p>
    * A {@link SnapshotReader} can only be created for a snapshot that has been fully written and
    * {@link #complete() completed}. Multiple concurrent readers can be created for the same snapshot
-   * since completed snapshots are immutable.
+   * since completed snapshots are immutable. If the snapshot is {@link #compression() compressed},
+   * the reader transparently decompresses the stored bytes.
    *
    * @return A new snapshot reader.
    * @throws IllegalStateException if the snapshot is not {@link #complete() complete}
    */
-  public abstract SnapshotReader reader();
+  public SnapshotReader reader() {
+    SnapshotReader reader = storedReader();
+    if (compression() == SnapshotCompression.NONE) {
+      return reader;
+    }
+    return new BlockSnapshotReader(reader.buffer, this, store.serializer());
+  }
+
+  /**
+   * Returns a new reader for the stored bytes of the snapshot.
+   * <p>
+   * Stored readers read the bytes of the snapshot as they're stored, without decompressing them. For uncompressed
+   * snapshots, this is equivalent to {@link #reader()}.
+   *
+   * @return A new stored snapshot reader.
+   * @throws IllegalStateException if the snapshot is not {@link #complete() complete}
+   */
+  public abstract SnapshotReader storedReader();
 
   /**
    * Opens the given snapshot reader.
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package io.atomix.copycat.server.storage.snapshot;
+
+/**
+ * Snapshot compression format.
+ * <p>
+ * The compression format of a snapshot is recorded in its {@link SnapshotDescriptor} when the snapshot is
+ * {@link SnapshotStore#createSnapshot(long, SnapshotCompression) created}. Compressed snapshots are stored as a
+ * sequence of independently compressed blocks which are transparently decompressed by the snapshot's
+ * {@link Snapshot#reader() reader}. The stored blocks can be read and written as-is via {@link Snapshot#storedReader()}
+ * and {@link Snapshot#storedWriter()}, allowing compressed snapshots to be copied between servers without being
+ * decompressed and recompressed.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+public enum SnapshotCompression {
+
+  /**
+   * Snapshot bytes are stored uncompressed.
+   */
+  NONE(0),
+
+  /**
+   * Snapshot bytes are stored in blocks compressed with {@link java.util.zip.Deflater}.
+   */
+  DEFLATE(1);
+
+  private final int id;
+
+  SnapshotCompression(int id) {
+    this.id = id;
+  }
+
+  /**
+   * Returns the compression identifier stored in snapshot descriptors.
+   *
+   * @return The compression identifier.
+   */
+  public int id() {
+    return id;
+  }
+
+  /**
+   * Returns the compression format for the given identifier.
+   *
+   * @param id The compression identifier.
+   * @return The compression format.
+   * @throws IllegalArgumentException if the identifier is unknown
+   */
+  public static SnapshotCompression forId(int id) {
+    switch (id) {
+      case 0:
+        return NONE;
+      case 1:
+        return DEFLATE;
+      default:
+        throw new IllegalArgumentException("unknown snapshot compression: " + id);
+    }
+  }
+
+}
@@ -58,6 +58,8 @@ public final class SnapshotDescriptor implements AutoCloseable {
   private final long index;
   private final long timestamp;
   private boolean locked;
+  private final SnapshotCompression compression;
+  private final long baseIndex;
 
   /**
    * @throws NullPointerException if {@code buffer} is null
@@ -67,6 +69,8 @@ public final class SnapshotDescriptor implements AutoCloseable {
     this.index = buffer.readLong();
     this.timestamp = buffer.readLong();
     this.locked = buffer.readBoolean();
+    this.compression = SnapshotCompression.forId(buffer.readByte());
+    this.baseIndex = buffer.readLong();
     buffer.skip(BYTES - buffer.position());
   }
 
@@ -99,6 +103,27 @@ public final class SnapshotDescriptor implements AutoCloseable {
     return locked;
   }
 
+  /**
+   * Returns the snapshot compression format.
+   *
+   * @return The snapshot compression format.
+   */
+  public SnapshotCompression compression() {
+    return compression;
+  }
+
+  /**
+   * Returns the index of the snapshot on which the snapshot is based.
+   * <p>
+   * Full snapshots have a base index of {@code 0}. Delta snapshots record only the changes to the state machine
+   * state since the base snapshot.
+   *
+   * @return The base snapshot index.
+   */
+  public long baseIndex() {
+    return baseIndex;
+  }
+
   /**
    * Locks the segment.
    */
@@ -117,6 +142,8 @@ public final class SnapshotDescriptor implements AutoCloseable {
       .writeLong(index)
       .writeLong(timestamp)
       .writeBoolean(locked)
+      .writeByte(compression.id())
+      .writeLong(baseIndex)
       .skip(BYTES - buffer.position())
       .flush();
     return this;
@@ -167,6 +194,28 @@ public final class SnapshotDescriptor implements AutoCloseable {
       return this;
     }
 
+    /**
+     * Sets the snapshot compression format.
+     *
+     * @param compression The snapshot compression format.
+     * @return The snapshot builder.
+     */
+    public Builder withCompression(SnapshotCompression compression) {
+      buffer.writeByte(17, Assert.notNull(compression, "compression").id());
+      return this;
+    }
+
+    /**
+     * Sets the index of the snapshot on which the snapshot is based.
+     *
+     * @param baseIndex The base snapshot index.
+     * @return The snapshot builder.
+     */
+    public Builder withBaseIndex(long baseIndex) {
+      buffer.writeLong(18, Assert.argNot(baseIndex, baseIndex < 0, "baseIndex must be positive"));
+      return this;
+    }
+
     /**
      * Builds the segment descriptor.
      *
@@ -37,7 +37,7 @@ import io.atomix.catalyst.util.Assert;
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 public class SnapshotReader implements BufferInput<SnapshotReader> {
-  private final Buffer buffer;
+  final Buffer buffer;
   private final Snapshot snapshot;
   private final Serializer serializer;
 
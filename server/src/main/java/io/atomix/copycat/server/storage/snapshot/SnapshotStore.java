@@ -16,6 +16,8 @@
 package io.atomix.copycat.server.storage.snapshot;
 
 import io.atomix.catalyst.buffer.FileBuffer;
+import io.atomix.catalyst.buffer.Buffer;
+import io.atomix.catalyst.buffer.DirectBuffer;
 import io.atomix.catalyst.buffer.HeapBuffer;
 import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.catalyst.util.Assert;
@@ -67,6 +69,12 @@ import java.util.*;
  * the state machine state, only prior entries that contributed to the state stored in the snapshot -
  * commands marked with the {@link Command.CompactionMode#SNAPSHOT SNAPSHOT}
  * compaction mode - are removed from the log prior to the snapshot.
+ * <p>
+ * Snapshots may also be {@link #createDeltaSnapshot(long) created} as deltas of the {@link #currentSnapshot() current}
+ * snapshot. A delta snapshot records only the changes to the state machine state since its {@link Snapshot#baseIndex()
+ * base} snapshot, and the state at a delta snapshot is restored by installing each snapshot in its
+ * {@link #snapshotChain(Snapshot) chain} in order. The store retains every snapshot in the chain of the current
+ * snapshot. Once a full snapshot is completed, the prior chain becomes stale and is deleted.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
@@ -93,6 +101,19 @@ public class SnapshotStore implements AutoCloseable {
       snapshots.put(snapshot.index(), snapshot);
     }
 
+    // Delete delta snapshots whose chain is broken. Snapshots are iterated in index order, so a delta is removed
+    // if any snapshot in its chain has been removed.
+    Iterator<Snapshot> iterator = snapshots.values().iterator();
+    while (iterator.hasNext()) {
+      Snapshot snapshot = iterator.next();
+      if (snapshot.isDelta() && !snapshots.containsKey(snapshot.baseIndex())) {
+        LOGGER.debug("Deleting orphaned delta snapshot: {}", snapshot);
+        iterator.remove();
+        snapshot.close();
+        snapshot.delete();
+      }
+    }
+
     if (!snapshots.isEmpty()) {
       currentSnapshot = snapshots.lastEntry().getValue();
     }
@@ -143,6 +164,30 @@ public class SnapshotStore implements AutoCloseable {
     return snapshots.get(index);
   }
 
+  /**
+   * Returns the chain of snapshots required to restore the state at the given snapshot.
+   * <p>
+   * The chain begins with the full snapshot on which the given snapshot is ultimately based and ends with the
+   * given snapshot itself. For full snapshots, the chain contains only the given snapshot.
+   *
+   * @param snapshot The snapshot for which to return the chain.
+   * @return The snapshot chain in index order.
+   * @throws NullPointerException if {@code snapshot} is null
+   * @throws IllegalStateException if a snapshot in the chain is missing
+   */
+  public List<Snapshot> snapshotChain(Snapshot snapshot) {
+    Assert.notNull(snapshot, "snapshot");
+    LinkedList<Snapshot> chain = new LinkedList<>();
+    chain.addFirst(snapshot);
+    while (snapshot.isDelta()) {
+      long baseIndex = snapshot.baseIndex();
+      snapshot = snapshots.get(baseIndex);
+      Assert.stateNot(snapshot == null, "missing base snapshot %d", baseIndex);
+      chain.addFirst(snapshot);
+    }
+    return chain;
+  }
+
   /**
    * Loads all available snapshots from disk.
    *
@@ -166,7 +211,7 @@ public class SnapshotStore implements AutoCloseable {
         // unlocked and should ultimately be deleted from disk.
         if (descriptor.locked()) {
           LOGGER.debug("Loaded disk snapshot: {} ({})", snapshotFile.index(), snapshotFile.file().getName());
-          snapshots.add(new FileSnapshot(snapshotFile, this));
+          snapshots.add(new FileSnapshot(snapshotFile, descriptor, this));
           descriptor.close();
         }
         // If the segment descriptor wasn't locked, close and delete the descriptor.
@@ -183,14 +228,60 @@ public class SnapshotStore implements AutoCloseable {
 
   /**
    * Creates a new snapshot.
+   * <p>
+   * The snapshot will be compressed according to the configured {@link Storage#snapshotCompression()}.
    *
    * @param index The snapshot index.
    * @return The snapshot.
    */
   public Snapshot createSnapshot(long index) {
+    return createSnapshot(index, storage.snapshotCompression());
+  }
+
+  /**
+   * Creates a new snapshot with the given compression format.
+   *
+   * @param index The snapshot index.
+   * @param compression The snapshot compression format.
+   * @return The snapshot.
+   * @throws NullPointerException if {@code compression} is null
+   */
+  public Snapshot createSnapshot(long index, SnapshotCompression compression) {
+    return createSnapshot(index, compression, 0);
+  }
+
+  /**
+   * Creates a new delta snapshot based on the {@link #currentSnapshot() current} snapshot.
+   * <p>
+   * The snapshot will be compressed according to the configured {@link Storage#snapshotCompression()}.
+   *
+   * @param index The snapshot index.
+   * @return The snapshot.
+   * @throws IllegalStateException if there is no current snapshot or the current snapshot is not prior to {@code index}
+   */
+  public Snapshot createDeltaSnapshot(long index) {
+    Assert.stateNot(currentSnapshot == null, "no base snapshot");
+    Assert.state(currentSnapshot.index() < index, "base snapshot must precede the delta snapshot");
+    return createSnapshot(index, storage.snapshotCompression(), currentSnapshot.index());
+  }
+
+  /**
+   * Creates a new snapshot with the given compression format and base snapshot.
+   *
+   * @param index The snapshot index.
+   * @param compression The snapshot compression format.
+   * @param baseIndex The index of the snapshot on which the snapshot is based, or {@code 0} for a full snapshot.
+   * @return The snapshot.
+   * @throws NullPointerException if {@code compression} is null
+   * @throws IllegalArgumentException if {@code baseIndex} is negative or not prior to {@code index}
+   */
+  public Snapshot createSnapshot(long index, SnapshotCompression compression, long baseIndex) {
+    Assert.arg(baseIndex < index, "baseIndex must precede index");
     SnapshotDescriptor descriptor = SnapshotDescriptor.builder()
       .withIndex(index)
       .withTimestamp(System.currentTimeMillis())
+      .withCompression(compression)
+      .withBaseIndex(baseIndex)
       .build();
     return createSnapshot(descriptor);
   }
@@ -210,7 +301,9 @@ public class SnapshotStore implements AutoCloseable {
    * Creates a memory snapshot.
    */
   private Snapshot createMemorySnapshot(SnapshotDescriptor descriptor) {
-    HeapBuffer buffer = HeapBuffer.allocate(SnapshotDescriptor.BYTES, Integer.MAX_VALUE);
+    Buffer buffer = storage.offHeap()
+      ? DirectBuffer.allocate(SnapshotDescriptor.BYTES, Integer.MAX_VALUE)
+      : HeapBuffer.allocate(SnapshotDescriptor.BYTES, Integer.MAX_VALUE);
     Snapshot snapshot = new MemorySnapshot(buffer, descriptor.copyTo(buffer), this);
     LOGGER.debug("Created memory snapshot: {}", snapshot);
     return snapshot;
@@ -221,7 +314,7 @@ public class SnapshotStore implements AutoCloseable {
    */
   private Snapshot createDiskSnapshot(SnapshotDescriptor descriptor) {
     SnapshotFile file = new SnapshotFile(SnapshotFile.createSnapshotFile(name, storage.directory(), descriptor.index(), descriptor.timestamp()));
-    Snapshot snapshot = new FileSnapshot(file, this);
+    Snapshot snapshot = new FileSnapshot(file, descriptor, this);
     LOGGER.debug("Created disk snapshot: {}", snapshot);
     return snapshot;
   }
@@ -237,12 +330,14 @@ public class SnapshotStore implements AutoCloseable {
       currentSnapshot = snapshot;
     }
 
-    // Delete old snapshots if necessary.
+    // Delete old snapshots if necessary. Snapshots in the chain of the current snapshot are required to restore
+    // the current snapshot and are retained.
     if (!storage.retainStaleSnapshots()) {
+      Set<Snapshot> chain = new HashSet<>(snapshotChain(currentSnapshot));
       Iterator<Map.Entry<Long, Snapshot>> iterator = snapshots.entrySet().iterator();
       while (iterator.hasNext()) {
         Snapshot oldSnapshot = iterator.next().getValue();
-        if (oldSnapshot.index() < currentSnapshot.index()) {
+        if (oldSnapshot.index() < currentSnapshot.index() && !chain.contains(oldSnapshot)) {
           iterator.remove();
           oldSnapshot.close();
           oldSnapshot.delete();
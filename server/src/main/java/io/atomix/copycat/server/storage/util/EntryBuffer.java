@@ -16,17 +16,23 @@
 package io.atomix.copycat.server.storage.util;
 
 import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.entry.RawEntry;
 
 /**
  * Log entry buffer.
+ * <p>
+ * The buffer stores both deserialized entries and the {@link RawEntry encoded bytes} of entries. Raw entries
+ * appended to the buffer are only returned by {@link #getRaw(long)} since they're not deserialized.
  *
  * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
  */
 public class EntryBuffer {
   private final Entry[] buffer;
+  private final RawEntry[] rawBuffer;
 
   public EntryBuffer(int size) {
     this.buffer = new Entry[size];
+    this.rawBuffer = new RawEntry[size];
   }
 
   /**
@@ -36,15 +42,39 @@ public class EntryBuffer {
    * @return The entry buffer.
    */
   public EntryBuffer append(Entry entry) {
+    if (entry instanceof RawEntry) {
+      return appendRaw((RawEntry) entry);
+    }
+
     int offset = offset(entry.getIndex());
     Entry oldEntry = buffer[offset];
     buffer[offset] = entry.acquire();
+    rawBuffer[offset] = null;
     if (oldEntry != null) {
       oldEntry.release();
     }
     return this;
   }
 
+  /**
+   * Appends the encoded bytes of an entry to the buffer.
+   * <p>
+   * If the buffer contains a deserialized entry for the same index, the deserialized entry is retained.
+   *
+   * @param entry The raw entry to append.
+   * @return The entry buffer.
+   */
+  public EntryBuffer appendRaw(RawEntry entry) {
+    int offset = offset(entry.getIndex());
+    Entry oldEntry = buffer[offset];
+    if (oldEntry != null && oldEntry.getIndex() != entry.getIndex()) {
+      buffer[offset] = null;
+      oldEntry.release();
+    }
+    rawBuffer[offset] = entry;
+    return this;
+  }
+
   /**
    * Looks up an entry in the buffer.
    *
@@ -58,6 +88,17 @@ public class EntryBuffer {
     return entry != null && entry.getIndex() == index ? (T) entry.acquire() : null;
   }
 
+  /**
+   * Looks up the encoded bytes of an entry in the buffer.
+   *
+   * @param index The entry index.
+   * @return The raw entry or {@code null} if the entry is not present in the index.
+   */
+  public RawEntry getRaw(long index) {
+    RawEntry entry = rawBuffer[offset(index)];
+    return entry != null && entry.getIndex() == index ? entry : null;
+  }
+
   /**
    * Clears the buffer and resets the index to the given index.
    *
@@ -66,6 +107,7 @@ public class EntryBuffer {
   public EntryBuffer clear() {
     for (int i = 0; i < buffer.length; i++) {
       buffer[i] = null;
+      rawBuffer[i] = null;
     }
     return this;
   }
@@ -37,6 +37,7 @@ public final class StorageSerialization implements SerializableTypeResolver {
     put(InitializeEntry.class, -39);
     put(QueryEntry.class, -40);
     put(RegisterEntry.class, -41);
+    put(RawEntry.class, -42);
     put(UnregisterEntry.class, -43);
   }};
 
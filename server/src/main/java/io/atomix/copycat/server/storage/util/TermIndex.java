@@ -70,6 +70,15 @@ public final class TermIndex {
     return entry != null ? entry.getValue() : 0;
   }
 
+  /**
+   * Returns a copy of the offsets at which terms change, mapped to their terms.
+   *
+   * @return An ordered copy of the offsets at which terms change.
+   */
+  public synchronized Map<Long, Long> terms() {
+    return new TreeMap<>(terms);
+  }
+
   /**
    * Truncates the index to the given offset.
    *
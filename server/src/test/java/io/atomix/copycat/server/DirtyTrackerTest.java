@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server;
+
+import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.copycat.server.storage.Storage;
+import io.atomix.copycat.server.storage.StorageLevel;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotStore;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+/**
+ * Dirty tracker test.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+@Test
+public class DirtyTrackerTest {
+
+  /**
+   * Tests that a delta written by the tracker updates and removes only the changed keys when installed.
+   */
+  public void testWriteAndInstallDelta() {
+    SnapshotStore store = new SnapshotStore("test", new Storage(StorageLevel.MEMORY), new Serializer());
+
+    Map<String, String> state = new HashMap<>();
+    state.put("a", "1");
+    state.put("b", "2");
+    state.put("c", "3");
+    Map<String, String> base = new HashMap<>(state);
+
+    DirtyTracker<String> dirty = new DirtyTracker<>();
+    state.put("a", "4");
+    dirty.markDirty("a");
+    state.remove("b");
+    dirty.markDirty("b");
+    state.put("d", "5");
+    dirty.markDirty("d");
+    assertTrue(dirty.isDirty("a"));
+    assertFalse(dirty.isDirty("c"));
+    assertEquals(dirty.count(), 3);
+
+    Snapshot snapshot = store.createSnapshot(1);
+    try (SnapshotWriter writer = snapshot.writer()) {
+      dirty.writeDelta(state, writer);
+    }
+    snapshot.complete();
+    assertEquals(dirty.dirtyKeys(), Collections.emptySet());
+
+    DirtyTracker<String> installed = new DirtyTracker<String>().markDirty("c");
+    try (SnapshotReader reader = snapshot.reader()) {
+      installed.installDelta(base, reader);
+    }
+    assertEquals(base, state);
+    assertEquals(installed.count(), 0);
+  }
+
+}
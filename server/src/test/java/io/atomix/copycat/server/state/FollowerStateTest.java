@@ -22,9 +22,11 @@ import io.atomix.copycat.server.protocol.VoteRequest;
 import io.atomix.copycat.server.protocol.AppendResponse;
 import io.atomix.copycat.server.protocol.PollResponse;
 import io.atomix.copycat.server.protocol.VoteResponse;
+import io.atomix.copycat.server.storage.entry.RawEntry;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.util.Arrays;
 import java.util.Collections;
 
 /**
@@ -365,4 +367,40 @@ public class FollowerStateTest extends AbstractStateTest<FollowerState> {
     });
   }
 
+  /**
+   * Tests that a follower rejects an append request containing a corrupt entry without modifying its log.
+   */
+  public void testFollowerRejectsCorruptEntryWithoutTruncating() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(2);
+      append(3, 1);
+
+      // The first entry conflicts with the log and would cause the log to be truncated if it were appended.
+      RawEntry entry = serverContext.getLog().getRaw(2);
+      RawEntry conflict = new RawEntry().setBytes(entry.getBytes(), entry.getChecksum()).setIndex(2).setTerm(2);
+      byte[] bytes = Arrays.copyOf(entry.getBytes(), entry.getBytes().length);
+      bytes[bytes.length - 1] ^= 1;
+      RawEntry corrupt = new RawEntry().setBytes(bytes, entry.getChecksum()).setIndex(3).setTerm(2);
+
+      AppendRequest request = AppendRequest.builder()
+          .withTerm(2)
+          .withLeader(members.get(2).hashCode())
+          .withEntries(conflict, corrupt)
+          .withLogIndex(1)
+          .withLogTerm(1)
+          .withCommitIndex(0)
+          .withGlobalIndex(0)
+          .build();
+
+      AppendResponse response = state.append(request).get();
+
+      threadAssertEquals(response.status(), Status.OK);
+      threadAssertFalse(response.succeeded());
+      threadAssertEquals(response.logIndex(), 3L);
+      threadAssertEquals(serverContext.getLog().lastIndex(), 3L);
+      threadAssertEquals(serverContext.getLog().term(2), 1L);
+      threadAssertEquals(serverContext.getLog().term(3), 1L);
+    });
+  }
+
 }
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.atomix.copycat.server.state;
+
+import io.atomix.copycat.error.CopycatError;
+import io.atomix.copycat.protocol.Response;
+import io.atomix.copycat.server.protocol.AppendRequest;
+import io.atomix.copycat.server.protocol.AppendResponse;
+import io.atomix.copycat.server.protocol.InstallRequest;
+import io.atomix.copycat.server.protocol.InstallResponse;
+import io.atomix.copycat.server.storage.LogIterator;
+import io.atomix.copycat.server.storage.TestEntry;
+import io.atomix.copycat.server.storage.compaction.Compaction;
+import io.atomix.copycat.server.storage.entry.Entry;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotCompression;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.testng.Assert.*;
+
+/**
+ * Leader appender test.
+ *
+ * @author <a href="http://github.com/kuujo">Jordan Halterman</a>
+ */
+@Test
+public class LeaderAppenderTest extends AbstractStateTest<LeaderState> {
+  private static final int CHUNK_SIZE = 16;
+  private LeaderAppender appender;
+
+  @BeforeMethod
+  @Override
+  void beforeMethod() throws Throwable {
+    super.beforeMethod();
+    state = new LeaderState(serverContext);
+    appender = new LeaderAppender(state);
+  }
+
+  @AfterMethod
+  @Override
+  void afterMethod() throws Throwable {
+    appender.close();
+    super.afterMethod();
+  }
+
+  /**
+   * Tests that multiple snapshot chunks are sent before any is acknowledged and that a failed install is resumed
+   * from the first chunk the member has not received.
+   */
+  public void testInstallWindowRewind() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+      serverContext.setSnapshotChunkSize(CHUNK_SIZE);
+      createSnapshot(10, CHUNK_SIZE * 4);
+      MemberState member = serverContext.getClusterState().getRemoteMemberStates().iterator().next();
+
+      // Chunks are sent without waiting for the preceding chunks to be acknowledged.
+      InstallRequest first = appender.buildInstallRequest(member);
+      InstallRequest second = appender.buildInstallRequest(member);
+      InstallRequest third = appender.buildInstallRequest(member);
+      assertEquals(first.offset(), 0);
+      assertEquals(second.offset(), 1);
+      assertEquals(third.offset(), 2);
+      assertEquals(member.getNextSnapshotOffset(), 3);
+
+      // If a chunk fails, the install is rewound to the failed chunk rather than the start of the snapshot.
+      appender.handleInstallResponseFailure(member, second, new IOException());
+      assertEquals(member.getNextSnapshotIndex(), 10);
+      assertEquals(member.getNextSnapshotOffset(), 1);
+
+      // Later chunks rejected by the member because the failed chunk was not received don't rewind further.
+      appender.handleInstallResponse(member, third, error(1));
+      assertEquals(member.getNextSnapshotOffset(), 1);
+
+      // The install resumes from the failed chunk.
+      InstallRequest resent = appender.buildInstallRequest(member);
+      assertEquals(resent.index(), 10);
+      assertEquals(resent.offset(), 1);
+      assertEquals(resent.data(), second.data());
+      assertEquals(appender.buildInstallRequest(member).data(), third.data());
+
+      // If the member rejects a chunk and expects an earlier chunk, the install resumes from the expected chunk.
+      InstallRequest fourth = appender.buildInstallRequest(member);
+      assertEquals(fourth.offset(), 3);
+      appender.handleInstallResponse(member, fourth, error(2));
+      assertEquals(member.getNextSnapshotOffset(), 2);
+      assertEquals(appender.buildInstallRequest(member).data(), third.data());
+    });
+  }
+
+  /**
+   * Tests that each snapshot in the current snapshot's chain that the member has not installed is sent in order,
+   * and that the chain is resent from the full snapshot if the member rejects a delta.
+   */
+  public void testInstallSnapshotChain() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+      serverContext.setSnapshotChunkSize(CHUNK_SIZE);
+      createSnapshot(10, CHUNK_SIZE);
+      completeSnapshot(serverContext.getSnapshotStore().createDeltaSnapshot(20), CHUNK_SIZE);
+      MemberState member = serverContext.getClusterState().getRemoteMemberStates().iterator().next();
+
+      // The full snapshot at the start of the chain is sent first.
+      InstallRequest full = appender.buildInstallRequest(member);
+      assertEquals(full.index(), 10);
+      assertEquals(full.baseIndex(), 0);
+      assertTrue(full.complete());
+
+      // Once the full snapshot has been installed, the delta is sent.
+      member.setSnapshotIndex(10);
+      appender.resetSnapshot(member);
+      InstallRequest delta = appender.buildInstallRequest(member);
+      assertEquals(delta.index(), 20);
+      assertEquals(delta.baseIndex(), 10);
+      assertEquals(delta.offset(), 0);
+
+      // If the member rejects the delta, the chain is resent from the full snapshot.
+      appender.handleInstallResponse(member, delta, error(0));
+      assertEquals(member.getSnapshotIndex(), 0);
+      InstallRequest resent = appender.buildInstallRequest(member);
+      assertEquals(resent.index(), 10);
+      assertEquals(resent.offset(), 0);
+      assertEquals(resent.data(), full.data());
+    });
+  }
+
+  /**
+   * Tests that new entries are held for the append linger before being replicated.
+   */
+  public void testLingerEntries() throws Throwable {
+    runOnServer(() -> {
+      startAppending(Duration.ofMillis(100), 64);
+      appender.appendEntries(1);
+      appender.appendEntries(2);
+      assertFalse(isAppending());
+    });
+
+    Thread.sleep(500);
+    runOnServer(() -> assertTrue(isAppending()));
+  }
+
+  /**
+   * Tests that lingering entries are replicated as soon as the append batch size is reached.
+   */
+  public void testFlushEntriesOnBatchSize() throws Throwable {
+    runOnServer(() -> {
+      startAppending(Duration.ofSeconds(10), 3);
+      appender.appendEntries(1);
+      appender.appendEntries(2);
+      assertFalse(isAppending());
+      appender.appendEntries(3);
+      assertTrue(isAppending());
+    });
+  }
+
+  /**
+   * Tests that new entries are replicated immediately when no append linger is configured.
+   */
+  public void testFlushEntriesWithoutLinger() throws Throwable {
+    runOnServer(() -> {
+      startAppending(Duration.ZERO, 64);
+      appender.appendEntries(1);
+      assertTrue(isAppending());
+    });
+  }
+
+  /**
+   * Tests that entries the leader has not yet flushed to disk are committed only once a quorum of followers has
+   * stored them.
+   */
+  public void testCommitWhenLeaderLagsFollowers() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+
+      // The first entry is durable on the leader, but the remaining entries have not been flushed.
+      appendDurable(1);
+      append(2, 1);
+      List<MemberState> members = serverContext.getClusterState().getActiveMemberStates();
+
+      // A single follower and the leader form a quorum only for the entry the leader has flushed.
+      appender.handleAppendResponse(members.get(0), appendRequest(1, 3), appendResponse(3));
+      assertEquals(serverContext.getCommitIndex(), 1);
+
+      // Entries stored by a quorum of followers are committed without the leader.
+      appender.handleAppendResponse(members.get(1), appendRequest(1, 3), appendResponse(3));
+      assertEquals(serverContext.getCommitIndex(), 3);
+    });
+  }
+
+  /**
+   * Tests that entries the leader has flushed to disk are committed once a single follower has stored them.
+   */
+  public void testCommitWhenLeaderLeadsFollowers() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+      appendDurable(3);
+      List<MemberState> members = serverContext.getClusterState().getActiveMemberStates();
+
+      // The leader and a single follower form a quorum for the entries the follower has stored.
+      appender.handleAppendResponse(members.get(0), appendRequest(1, 2), appendResponse(2));
+      assertEquals(serverContext.getCommitIndex(), 2);
+      appender.handleAppendResponse(members.get(1), appendRequest(3, 3), appendResponse(3));
+      assertEquals(serverContext.getCommitIndex(), 3);
+    });
+  }
+
+  /**
+   * Tests that a member's catch-up iterator is reused as long as it continues from the member's next index.
+   */
+  public void testCatchUpIteratorReuse() throws Throwable {
+    runOnServer(() -> {
+      appendPadded(10, 0);
+      MemberState member = prepareMembers().get(0);
+      member.setNextIndex(1);
+
+      LogIterator iterator = appender.catchUpIterator(member);
+      assertSame(appender.catchUpIterator(member), iterator);
+      iterator.next();
+      iterator.next();
+      member.setNextIndex(3);
+      assertSame(appender.catchUpIterator(member), iterator);
+
+      // If the member's next index moves elsewhere, a new iterator is opened at the next index.
+      member.setNextIndex(2);
+      LogIterator rewound = appender.catchUpIterator(member);
+      assertNotSame(rewound, iterator);
+      assertSame(member.getCatchUpIterator(), rewound);
+      assertEquals(rewound.index(), 2);
+
+      // Exhausted iterators are replaced.
+      while (rewound.hasNext()) {
+        rewound.next();
+      }
+      member.setNextIndex(rewound.index());
+      assertNotSame(appender.catchUpIterator(member), rewound);
+    });
+  }
+
+  /**
+   * Tests that batches read for a member whose state changed during the read are not sent.
+   */
+  public void testCatchUpDiscardsStaleBatch() throws Throwable {
+    try (CatchUpReader reader = new CatchUpReader(1, 0)) {
+      runOnServer(() -> {
+        appendPadded(10, 0);
+        MemberState member = prepareMembers().get(0);
+
+        // Batches read before the member's state was reset are discarded.
+        member.setNextIndex(1);
+        LogIterator iterator = appender.catchUpIterator(member);
+        member.startCatchUp();
+        CatchUpReader.Batch batch = reader.read(iterator).get();
+        member.resetState(serverContext.getLog());
+        appender.completeCatchUp(member, iterator, 1, batch, null);
+        assertFalse(member.isCatchingUp());
+        assertEquals(member.getHeartbeatStartTime(), 0);
+
+        // If the member's next index changed during the read, the batch is discarded and entries are sent
+        // from the member's new next index.
+        member.setNextIndex(1);
+        iterator = appender.catchUpIterator(member);
+        member.startCatchUp();
+        batch = reader.read(iterator).get();
+        member.setNextIndex(5);
+        appender.completeCatchUp(member, iterator, 1, batch, null);
+        assertFalse(member.isCatchingUp());
+        assertNull(member.getCatchUpIterator());
+        assertNotEquals(member.getHeartbeatStartTime(), 0);
+      });
+    }
+  }
+
+  /**
+   * Tests that a member is sent a snapshot if one that is cheaper than the remaining entries becomes available
+   * while entries are being read for the member.
+   */
+  public void testCatchUpSwitchesToSnapshot() throws Throwable {
+    try (CatchUpReader reader = new CatchUpReader(1, 0)) {
+      runOnServer(() -> {
+        appendPadded(10, 1024);
+        serverContext.setSnapshotChunkSize(CHUNK_SIZE);
+        MemberState member = prepareMembers().get(0);
+        member.setNextIndex(1);
+
+        LogIterator iterator = appender.catchUpIterator(member);
+        member.startCatchUp();
+        CatchUpReader.Batch batch = reader.read(iterator).get();
+        createSnapshot(5, 1);
+        appender.completeCatchUp(member, iterator, 1, batch, null);
+        assertFalse(member.isCatchingUp());
+        assertNull(member.getCatchUpIterator());
+        assertEquals(member.getNextSnapshotIndex(), 5);
+      });
+    }
+  }
+
+  /**
+   * Tests that a failed catch-up read resets the member's iterator.
+   */
+  public void testCatchUpErrorResetsIterator() throws Throwable {
+    runOnServer(() -> {
+      appendPadded(10, 0);
+      MemberState member = prepareMembers().get(0);
+      member.setNextIndex(1);
+
+      LogIterator iterator = appender.catchUpIterator(member);
+      member.startCatchUp();
+      appender.completeCatchUp(member, iterator, 1, null, new IOException());
+      assertFalse(member.isCatchingUp());
+      assertNull(member.getCatchUpIterator());
+      assertEquals(member.getHeartbeatStartTime(), 0);
+      assertNotSame(appender.catchUpIterator(member), iterator);
+    });
+  }
+
+  /**
+   * Tests that a member is sent the entries covered by a snapshot that is larger than the entries only until the
+   * entries are hidden by compaction.
+   */
+  public void testSendEntriesCheaperThanSnapshot() throws Throwable {
+    runOnServer(() -> {
+      appendPadded(10, 1024);
+      MemberState member = prepareMembers().get(0);
+      member.setNextIndex(1);
+
+      // The snapshot has been written but the compactor's snapshot index has not yet been updated.
+      completeSnapshot(serverContext.getSnapshotStore().createSnapshot(5, SnapshotCompression.NONE), 1024 * 64);
+      assertFalse(appender.needsSnapshot(member));
+      AppendRequest request = appender.buildAppendRequest(member, serverContext.getLog().lastIndex());
+      assertTrue(request.entries().size() >= 5);
+      for (int i = 0; i < 5; i++) {
+        assertEquals(request.entries().get(i).getIndex(), i + 1);
+      }
+
+      // Once the compactor's snapshot index is updated, the entries covered by the snapshot are no longer visible.
+      serverContext.getLog().compactor().snapshotIndex(5);
+      assertTrue(appender.needsSnapshot(member));
+    });
+  }
+
+  /**
+   * Tests that the catch-up bandwidth limit delays batches without blocking reads for other members.
+   */
+  public void testCatchUpThrottleDoesNotBlockReads() throws Throwable {
+    try (CatchUpReader reader = new CatchUpReader(1, 1024)) {
+      List<LogIterator> iterators = new ArrayList<>();
+      runOnServer(() -> {
+        appendPadded(10, 1024);
+        iterators.add(serverContext.getLog().iterator(1));
+        iterators.add(serverContext.getLog().iterator(1));
+      });
+
+      // The first batch exceeds the bandwidth limit and is delayed, but the second batch is still read.
+      CompletableFuture<CatchUpReader.Batch> first = reader.read(iterators.get(0));
+      reader.read(iterators.get(1));
+      long start = System.currentTimeMillis();
+      while (iterators.get(1).hasNext() && System.currentTimeMillis() - start < 5000) {
+        Thread.sleep(10);
+      }
+      assertFalse(iterators.get(1).hasNext());
+      assertFalse(first.isDone());
+    }
+  }
+
+  /**
+   * Appends the given number of snapshot-compacted entries with the given padding to the log.
+   */
+  private void appendPadded(int entries, int padding) {
+    for (int i = 0; i < entries; i++) {
+      try (TestEntry entry = serverContext.getLog().create(TestEntry.class)) {
+        entry.setTerm(1);
+        entry.setCompactionMode(Compaction.Mode.SNAPSHOT);
+        entry.setPadding(padding);
+        serverContext.getLog().append(entry);
+      }
+    }
+  }
+
+  /**
+   * Appends the given number of entries through the appender, which considers them durable once flushed.
+   */
+  private void appendDurable(int entries) {
+    for (int i = 0; i < entries; i++) {
+      try (TestEntry entry = serverContext.getLog().create(TestEntry.class)) {
+        appender.append(entry.setTerm(1));
+      }
+    }
+  }
+
+  /**
+   * Returns an append request for the given range of entries in the log.
+   */
+  private AppendRequest appendRequest(long firstIndex, long lastIndex) {
+    List<Entry> entries = new ArrayList<>();
+    for (long i = firstIndex; i <= lastIndex; i++) {
+      entries.add(serverContext.getLog().getRaw(i));
+    }
+    return AppendRequest.builder()
+      .withTerm(1)
+      .withLeader(serverContext.getCluster().member().id())
+      .withLogIndex(firstIndex - 1)
+      .withLogTerm(firstIndex > 1 ? 1 : 0)
+      .withCommitIndex(serverContext.getCommitIndex())
+      .withGlobalIndex(0)
+      .withEntries(entries)
+      .build();
+  }
+
+  /**
+   * Returns a successful append response with the given log index.
+   */
+  private static AppendResponse appendResponse(long logIndex) {
+    return AppendResponse.builder()
+      .withStatus(Response.Status.OK)
+      .withTerm(1)
+      .withSucceeded(true)
+      .withLogIndex(logIndex)
+      .build();
+  }
+
+  /**
+   * Configures the append linger and prepares active members to receive entries appended to the log.
+   */
+  private void startAppending(Duration linger, int batchSize) throws Throwable {
+    serverContext.setAppendLinger(linger).setAppendBatchSize(batchSize);
+    append(3, 1);
+    prepareMembers();
+  }
+
+  /**
+   * Prepares active members to receive entries appended to the log in the current term.
+   */
+  private List<MemberState> prepareMembers() {
+    serverContext.setTerm(1);
+    List<MemberState> members = serverContext.getClusterState().getActiveMemberStates();
+    for (MemberState member : members) {
+      member.resetState(serverContext.getLog());
+      member.setConfigTerm(1);
+    }
+    return members;
+  }
+
+  /**
+   * Returns a boolean indicating whether append requests have been sent to all active members.
+   */
+  private boolean isAppending() {
+    return serverContext.getClusterState().getActiveMemberStates().stream().allMatch(m -> m.getHeartbeatStartTime() != 0);
+  }
+
+  /**
+   * Creates and completes a snapshot of the given size at the given index and updates the compactor's snapshot
+   * index as the state machine does.
+   */
+  private Snapshot createSnapshot(long index, int size) {
+    Snapshot snapshot = completeSnapshot(serverContext.getSnapshotStore().createSnapshot(index, SnapshotCompression.NONE), size);
+    serverContext.getLog().compactor().snapshotIndex(index);
+    return snapshot;
+  }
+
+  /**
+   * Writes the given number of bytes to the given snapshot and completes it.
+   */
+  private Snapshot completeSnapshot(Snapshot snapshot, int size) {
+    try (SnapshotWriter writer = snapshot.writer()) {
+      for (int i = 0; i < size; i++) {
+        writer.writeByte(i);
+      }
+    }
+    return snapshot.complete();
+  }
+
+  /**
+   * Returns an install response rejecting a chunk.
+   */
+  private static InstallResponse error(int nextOffset) {
+    return InstallResponse.builder()
+      .withStatus(Response.Status.ERROR)
+      .withError(CopycatError.Type.ILLEGAL_MEMBER_STATE_ERROR)
+      .withNextOffset(nextOffset)
+      .build();
+  }
+
+}
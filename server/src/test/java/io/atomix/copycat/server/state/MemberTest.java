@@ -26,7 +26,9 @@ import org.testng.annotations.Test;
 import java.time.Instant;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 /**
  * Member test.
@@ -82,4 +84,136 @@ public class MemberTest {
     assertEquals(member.updated(), instant);
   }
 
+  /**
+   * Creates a new member state.
+   */
+  private MemberState createMemberState() {
+    return new MemberState(new ServerMember(Member.Type.ACTIVE, new Address("localhost", 5000), null, Instant.now()), null);
+  }
+
+  /**
+   * Tests that pipelined appends are limited by the append window.
+   */
+  public void testAppendWindowLimitsPipelining() {
+    MemberState member = createMemberState();
+    assertTrue(member.canAppend());
+    member.startAppend(MemberState.MIN_APPEND_WINDOW);
+    assertFalse(member.canAppend());
+    member.completeAppend(MemberState.MIN_APPEND_WINDOW, 1000).appendSucceeded(MemberState.MIN_APPEND_WINDOW);
+
+    int window = member.getAppendWindow();
+    member.startAppend(window / 2);
+    assertTrue(member.canAppend());
+    member.startAppend(window / 2);
+    assertEquals(member.getAppendingBytes(), window);
+    assertEquals(member.getAppending(), 2);
+    assertFalse(member.canAppend());
+    member.completeAppend(window / 2);
+    assertTrue(member.canAppend());
+    member.appendFailed();
+    assertFalse(member.canAppend());
+  }
+
+  /**
+   * Tests growing the append window as appends are acknowledged.
+   */
+  public void testAppendWindowGrowth() {
+    MemberState member = createMemberState();
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW);
+    member.startAppend(MemberState.MIN_APPEND_WINDOW).completeAppend(MemberState.MIN_APPEND_WINDOW, 1000).appendSucceeded(MemberState.MIN_APPEND_WINDOW);
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW + MemberState.MIN_APPEND_WINDOW);
+
+    // Small appends that do not fill the window do not grow it.
+    member.startAppend(1024).completeAppend(1024, 1000).appendSucceeded(1024);
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW + MemberState.MIN_APPEND_WINDOW);
+
+    for (int i = 0; i < 1000; i++) {
+      int window = member.getAppendWindow();
+      member.startAppend(window).completeAppend(window, 1000).appendSucceeded(window);
+    }
+    assertEquals(member.getAppendWindow(), MemberState.MAX_APPEND_WINDOW);
+  }
+
+  /**
+   * Tests reducing the append window when appends fail or round trip times increase.
+   */
+  public void testAppendWindowReduction() {
+    MemberState member = createMemberState();
+    for (int i = 0; i < 4; i++) {
+      int window = member.getAppendWindow();
+      member.startAppend(window).completeAppend(window).appendSucceeded(window);
+    }
+    int window = member.getAppendWindow();
+    member.reduceAppendWindow();
+    assertEquals(member.getAppendWindow(), window / 2);
+
+    int batch = MemberState.MIN_RTT_SAMPLE_SIZE;
+    member = createMemberState();
+    member.startAppend(batch).completeAppend(batch, 1000);
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW);
+    for (int i = 0; i < 10; i++) {
+      member.startAppend(batch).completeAppend(batch, 10000);
+    }
+    assertEquals(member.getAppendWindow(), MemberState.MIN_APPEND_WINDOW);
+
+    // Even once the window has been reduced to the minimum, more than one request may be outstanding.
+    member.appendSucceeded(0);
+    member.startAppend(1024);
+    assertTrue(member.canAppend());
+    member.startAppend(1024);
+    assertFalse(member.canAppend());
+  }
+
+  /**
+   * Tests that the round trip times of small requests don't lower the minimum round trip time.
+   */
+  public void testSmallAppendsDoNotReduceAppendWindow() {
+    MemberState member = createMemberState();
+    for (int i = 0; i < 10; i++) {
+      member.startAppend(1024).completeAppend(1024, 1000);
+    }
+    for (int i = 0; i < 10; i++) {
+      member.startAppend(MemberState.MIN_RTT_SAMPLE_SIZE).completeAppend(MemberState.MIN_RTT_SAMPLE_SIZE, 10000);
+    }
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW);
+  }
+
+  /**
+   * Tests that a lasting increase in round trip time becomes the new minimum once the minimum expires.
+   */
+  public void testMinAppendRoundTripTimeExpiration() {
+    // Before the minimum round trip time expires, an increased round trip time reduces the window.
+    MemberState member = createMemberState();
+    long now = 1;
+    member.startAppend(MemberState.MIN_RTT_SAMPLE_SIZE).completeAppend(MemberState.MIN_RTT_SAMPLE_SIZE, 1000, now);
+    completeAppends(member, now, 10000);
+    assertEquals(member.getAppendWindow(), MemberState.MIN_APPEND_WINDOW);
+
+    // Once the minimum round trip time has expired, the increased round trip time becomes the minimum.
+    member = createMemberState();
+    member.startAppend(MemberState.MIN_RTT_SAMPLE_SIZE).completeAppend(MemberState.MIN_RTT_SAMPLE_SIZE, 1000, now);
+    completeAppends(member, now + MemberState.MIN_RTT_EXPIRATION, 10000);
+    assertEquals(member.getAppendWindow(), MemberState.INITIAL_APPEND_WINDOW);
+  }
+
+  /**
+   * Completes appends with the given round trip time a millisecond apart beginning at the given time.
+   */
+  private void completeAppends(MemberState member, long now, long time) {
+    for (int i = 0; i < 10; i++) {
+      member.startAppend(MemberState.MIN_RTT_SAMPLE_SIZE).completeAppend(MemberState.MIN_RTT_SAMPLE_SIZE, time, now + i * 1000000);
+    }
+  }
+
+  /**
+   * Tests completing more appends than were started after the member state is reset.
+   */
+  public void testCompleteAppendAfterReset() {
+    MemberState member = createMemberState();
+    member.completeAppend(1024);
+    assertEquals(member.getAppending(), 0);
+    assertEquals(member.getAppendingBytes(), 0);
+    assertTrue(member.canAppend());
+  }
+
 }
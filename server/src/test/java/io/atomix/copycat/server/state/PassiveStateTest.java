@@ -24,6 +24,8 @@ import io.atomix.copycat.server.TestStateMachine.TestCommand;
 import io.atomix.copycat.server.TestStateMachine.TestQuery;
 import io.atomix.copycat.server.protocol.*;
 import io.atomix.copycat.server.storage.TestEntry;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -205,6 +207,79 @@ public class PassiveStateTest extends AbstractStateTest<PassiveState> {
     });
   }
 
+  public void testInstallSnapshotChunks() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+      int leader = serverContext.getClusterState().getActiveMemberStates().iterator().next().getMember().id();
+
+      assertEquals(install(leader, 0, new byte[]{1, 2}, false).status(), Status.OK);
+      assertEquals(install(leader, 1, new byte[]{3, 4}, false).nextOffset(), 2);
+
+      // Chunks that have already been written should be acknowledged but not written again.
+      assertEquals(install(leader, 1, new byte[]{3, 4}, false).nextOffset(), 2);
+
+      // Chunks that skip ahead of the next expected chunk should be rejected with the next expected chunk.
+      InstallResponse rejected = install(leader, 3, new byte[]{7, 8}, false);
+      assertEquals(rejected.status(), Status.ERROR);
+      assertEquals(rejected.nextOffset(), 2);
+
+      // Restarting the install at the first chunk should discard the partially written snapshot.
+      assertEquals(install(leader, 0, new byte[]{1, 2}, false).status(), Status.OK);
+      assertEquals(install(leader, 1, new byte[]{3, 4}, false).status(), Status.OK);
+      assertEquals(install(leader, 2, new byte[]{5}, true).status(), Status.OK);
+
+      Snapshot snapshot = serverContext.getSnapshotStore().currentSnapshot();
+      assertNotNull(snapshot);
+      assertEquals(snapshot.index(), 10L);
+      try (SnapshotReader reader = snapshot.reader()) {
+        byte[] data = new byte[(int) reader.remaining()];
+        reader.read(data);
+        assertEquals(data, new byte[]{1, 2, 3, 4, 5});
+      }
+    });
+  }
+
+  public void testInstallDeltaSnapshotWithoutBase() throws Throwable {
+    runOnServer(() -> {
+      serverContext.setTerm(1);
+      int leader = serverContext.getClusterState().getActiveMemberStates().iterator().next().getMember().id();
+
+      // Deltas must be rejected until the snapshot on which they're based has been installed.
+      assertEquals(install(leader, 20, 10, 0, new byte[]{3, 4}, true).status(), Status.ERROR);
+      assertNull(serverContext.getSnapshotStore().snapshot(20));
+
+      assertEquals(install(leader, 0, new byte[]{1, 2}, true).status(), Status.OK);
+      assertEquals(install(leader, 20, 10, 0, new byte[]{3, 4}, true).status(), Status.OK);
+
+      Snapshot snapshot = serverContext.getSnapshotStore().currentSnapshot();
+      assertNotNull(snapshot);
+      assertEquals(snapshot.index(), 20L);
+      assertEquals(snapshot.baseIndex(), 10L);
+    });
+  }
+
+  /**
+   * Sends an install request for a chunk of the snapshot at index 10.
+   */
+  private InstallResponse install(int leader, int offset, byte[] data, boolean complete) throws Throwable {
+    return install(leader, 10, 0, offset, data, complete);
+  }
+
+  /**
+   * Sends an install request for a chunk of the snapshot at the given index.
+   */
+  private InstallResponse install(int leader, long index, long baseIndex, int offset, byte[] data, boolean complete) throws Throwable {
+    return state.install(InstallRequest.builder()
+      .withTerm(1)
+      .withLeader(leader)
+      .withIndex(index)
+      .withBaseIndex(baseIndex)
+      .withOffset(offset)
+      .withData(data)
+      .withComplete(complete)
+      .build()).get();
+  }
+
   public void testCommandWithoutLeader() throws Throwable {
     runOnServer(() -> {
       CommandRequest request = CommandRequest.builder().withSession(1).withCommand(new TestCommand("test")).build();
@@ -15,13 +15,24 @@
  */
 package io.atomix.copycat.server.state;
 
+import io.atomix.catalyst.serializer.Serializer;
+import io.atomix.copycat.server.session.SessionListener;
 import io.atomix.copycat.server.storage.Log;
+import io.atomix.copycat.server.storage.Storage;
+import io.atomix.copycat.server.storage.StorageLevel;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotStore;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
 /**
@@ -37,6 +48,7 @@ public class ServerSessionTest {
    */
   public void testInitializeSession() throws Throwable {
     ServerStateMachineContext context = mock(ServerStateMachineContext.class);
+    when(context.sessions()).thenReturn(new ServerSessionManager(mock(ServerContext.class)));
     ServerSessionContext session = new ServerSessionContext(10, UUID.randomUUID().toString(), mock(Log.class), context, 1000);
     assertEquals(session.id(), 10);
     assertEquals(session.getLastCompleted(), 9);
@@ -48,14 +60,43 @@ public class ServerSessionTest {
    */
   public void testSequenceIndexQuery() throws Throwable {
     ServerStateMachineContext context = mock(ServerStateMachineContext.class);
+    ServerSessionManager sessions = new ServerSessionManager(mock(ServerContext.class));
+    when(context.sessions()).thenReturn(sessions);
     ServerSessionContext session = new ServerSessionContext(10, UUID.randomUUID().toString(), mock(Log.class), context, 1000);
     AtomicBoolean complete = new AtomicBoolean();
     session.registerIndexQuery(10, () -> complete.set(true));
     assertFalse(complete.get());
-    session.setLastApplied(9);
+    sessions.setLastApplied(9);
     assertFalse(complete.get());
-    session.setLastApplied(10);
+    assertEquals(session.getLastApplied(), 9);
+    sessions.setLastApplied(10);
     assertTrue(complete.get());
+    assertEquals(session.getLastApplied(), 10);
+  }
+
+  /**
+   * Tests that index queries for many sessions are triggered in index order.
+   */
+  public void testSequenceIndexQueriesAcrossSessions() throws Throwable {
+    ServerStateMachineContext context = mock(ServerStateMachineContext.class);
+    ServerSessionManager sessions = new ServerSessionManager(mock(ServerContext.class));
+    when(context.sessions()).thenReturn(sessions);
+    List<Long> completed = new ArrayList<>();
+    for (long i = 1; i <= 1000; i++) {
+      ServerSessionContext session = new ServerSessionContext(i, UUID.randomUUID().toString(), mock(Log.class), context, 1000);
+      sessions.registerSession(session);
+      long index = 2000 - i;
+      if (i % 10 == 0) {
+        session.registerIndexQuery(index, () -> completed.add(index));
+      }
+    }
+    sessions.setLastApplied(1500);
+    assertEquals(completed.size(), 51);
+    for (int i = 1; i < completed.size(); i++) {
+      assertTrue(completed.get(i) > completed.get(i - 1));
+    }
+    sessions.setLastApplied(2000);
+    assertEquals(completed.size(), 100);
   }
 
   /**
@@ -73,6 +114,41 @@ public class ServerSessionTest {
     assertTrue(complete.get());
   }
 
+  /**
+   * Tests tracking the completed index across sessions with pending events.
+   */
+  public void testLastCompletedAcrossSessions() throws Throwable {
+    ServerStateMachineContext context = mock(ServerStateMachineContext.class);
+    ServerSessionManager sessions = new ServerSessionManager(mock(ServerContext.class));
+    when(context.sessions()).thenReturn(sessions);
+    when(context.type()).thenReturn(ServerStateMachineContext.Type.COMMAND);
+
+    ServerSessionContext session1 = new ServerSessionContext(1, UUID.randomUUID().toString(), mock(Log.class), context, 1000);
+    ServerSessionContext session2 = new ServerSessionContext(2, UUID.randomUUID().toString(), mock(Log.class), context, 1000);
+    sessions.registerSession(session1);
+    sessions.registerSession(session2);
+    session1.open();
+    session2.open();
+    sessions.setLastApplied(20);
+    assertEquals(sessions.getLastCompleted(20), 20);
+
+    when(context.index()).thenReturn(10L);
+    session1.publish("foo");
+    session1.commit(10);
+    assertEquals(sessions.getLastCompleted(20), 9);
+
+    when(context.index()).thenReturn(15L);
+    session2.publish("bar");
+    session2.commit(15);
+    assertEquals(sessions.getLastCompleted(20), 9);
+
+    session1.resendEvents(10);
+    assertEquals(sessions.getLastCompleted(20), 14);
+
+    sessions.unregisterSession(session2.id());
+    assertEquals(sessions.getLastCompleted(20), 20);
+  }
+
   /**
    * Tests caching a response.
    */
@@ -85,4 +161,82 @@ public class ServerSessionTest {
     assertNull(session.getResult(2));
   }
 
+  /**
+   * Tests storing sessions in a snapshot and restoring them.
+   */
+  public void testSnapshotRestoreSessions() throws Throwable {
+    ServerStateMachineContext context = mock(ServerStateMachineContext.class);
+    ServerSessionManager sessions = new ServerSessionManager(mock(ServerContext.class));
+    when(context.sessions()).thenReturn(sessions);
+    Log log = mock(Log.class);
+
+    String client = UUID.randomUUID().toString();
+    ServerSessionContext session = new ServerSessionContext(10, client, log, context, 1000);
+    sessions.registerSession(session);
+    session.open();
+    session.setTimestamp(100).setKeepAliveIndex(15);
+    session.setCommandSequence(3);
+    session.resetRequestSequence(3);
+    session.registerResult(2, new ServerStateMachine.Result(12, 10, "foo"));
+    session.registerResult(3, new ServerStateMachine.Result(13, 10, "bar"));
+    session.clearResults(1);
+
+    SnapshotStore store = new SnapshotStore("test", Storage.builder().withStorageLevel(StorageLevel.MEMORY).build(), new Serializer());
+    Snapshot snapshot = store.createSnapshot(20);
+    ServerSessionSnapshot sessionSnapshot = ServerSessionSnapshot.capture(sessions.sessions.values()).complete();
+    try (SnapshotWriter writer = snapshot.writer()) {
+      sessionSnapshot.writeTo(writer, store.serializer());
+      writer.writeLong(1234);
+    }
+    snapshot.complete();
+
+    // Sessions with no open commits release their register and keep-alive entries.
+    sessionSnapshot.release(log);
+    verify(log).release(10);
+    verify(log).release(15);
+
+    ServerStateMachineContext restoredContext = mock(ServerStateMachineContext.class);
+    ServerSessionManager restoredSessions = new ServerSessionManager(mock(ServerContext.class));
+    when(restoredContext.sessions()).thenReturn(restoredSessions);
+    SessionListener listener = mock(SessionListener.class);
+
+    try (SnapshotReader reader = snapshot.reader()) {
+      ServerSessionSnapshot restored = ServerSessionSnapshot.readFrom(reader);
+      assertNotNull(restored);
+      assertEquals(reader.readLong(), 1234);
+      restored.restoreSessions(log, restoredContext);
+      restored.restoreState(Collections.singleton(listener), store.serializer());
+    }
+
+    ServerSessionContext restoredSession = restoredSessions.getSession(10);
+    assertNotNull(restoredSession);
+    assertEquals(restoredSession.client(), client);
+    assertEquals(restoredSession.timeout(), 1000);
+    assertEquals(restoredSession.getTimestamp(), 100);
+    assertEquals(restoredSession.getKeepAliveIndex(), 15);
+    assertEquals(restoredSession.getCommandSequence(), 3);
+    assertEquals(restoredSession.getRequestSequence(), 3);
+    assertNull(restoredSession.getResult(1));
+    assertEquals(restoredSession.getResult(2).result, "foo");
+    assertEquals(restoredSession.getResult(3).result, "bar");
+    assertEquals(restoredSession.getResult(3).index, 13);
+    verify(listener).register(restoredSession);
+  }
+
+  /**
+   * Tests that snapshots without sessions are detected.
+   */
+  public void testSnapshotWithoutSessions() throws Throwable {
+    SnapshotStore store = new SnapshotStore("test", Storage.builder().withStorageLevel(StorageLevel.MEMORY).build(), new Serializer());
+    Snapshot snapshot = store.createSnapshot(20);
+    try (SnapshotWriter writer = snapshot.writer()) {
+      writer.writeLong(1234);
+    }
+    snapshot.complete();
+
+    try (SnapshotReader reader = snapshot.reader()) {
+      assertNull(ServerSessionSnapshot.readFrom(reader));
+    }
+  }
+
 }
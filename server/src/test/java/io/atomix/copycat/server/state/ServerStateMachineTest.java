@@ -26,13 +26,18 @@ import io.atomix.copycat.Command;
 import io.atomix.copycat.Query;
 import io.atomix.copycat.protocol.ClientRequestTypeResolver;
 import io.atomix.copycat.protocol.ClientResponseTypeResolver;
+import io.atomix.copycat.server.AsyncSnapshottable;
 import io.atomix.copycat.server.Commit;
+import io.atomix.copycat.server.IncrementalSnapshottable;
 import io.atomix.copycat.server.StateMachine;
 import io.atomix.copycat.server.StateMachineExecutor;
 import io.atomix.copycat.server.cluster.Member;
 import io.atomix.copycat.server.storage.Storage;
 import io.atomix.copycat.server.storage.StorageLevel;
 import io.atomix.copycat.server.storage.entry.*;
+import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotReader;
+import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 import io.atomix.copycat.server.storage.util.StorageSerialization;
 import io.atomix.copycat.server.util.ServerSerialization;
 import io.atomix.copycat.session.Session;
@@ -43,8 +48,16 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 import static org.testng.Assert.*;
 
@@ -55,8 +68,10 @@ import static org.testng.Assert.*;
  */
 @Test
 public class ServerStateMachineTest extends ConcurrentTestCase {
+  private Serializer serializer;
   private ThreadContext callerContext;
   private ThreadContext stateContext;
+  private LocalServerRegistry registry;
   private Transport transport;
   private ServerContext state;
   private long timestamp;
@@ -64,7 +79,7 @@ public class ServerStateMachineTest extends ConcurrentTestCase {
 
   @BeforeMethod
   public void createStateMachine() throws Throwable {
-    Serializer serializer = new Serializer().resolve(
+    serializer = new Serializer().resolve(
       new ClientRequestTypeResolver(),
       new ClientResponseTypeResolver(),
       new ProtocolSerialization(),
@@ -74,18 +89,95 @@ public class ServerStateMachineTest extends ConcurrentTestCase {
 
     callerContext = new SingleThreadContext("caller", serializer.clone());
     stateContext = new SingleThreadContext("state", serializer.clone());
-    LocalServerRegistry registry = new LocalServerRegistry();
+    registry = new LocalServerRegistry();
     transport = new LocalTransport(registry);
-    Storage storage = new Storage(StorageLevel.MEMORY);
+    createState(TestStateMachine::new);
+    timestamp = System.currentTimeMillis();
+    sequence = new AtomicLong();
+  }
+
+  /**
+   * Creates the server context with the given state machine.
+   */
+  private void createState(Supplier<StateMachine> stateMachineFactory) throws Throwable {
+    createState(new Storage(StorageLevel.MEMORY), stateMachineFactory);
+  }
+
+  /**
+   * Creates the server context with the given storage and state machine.
+   */
+  private void createState(Storage storage, Supplier<StateMachine> stateMachineFactory) throws Throwable {
     ServerMember member = new ServerMember(Member.Type.ACTIVE, new Address("localhost", 5000), new Address("localhost", 6000), Instant.now());
 
     new SingleThreadContext("test", serializer.clone()).executor().execute(() -> {
-      state = new ServerContext("test", member.type(), member.serverAddress(), member.clientAddress(), storage, serializer, TestStateMachine::new, new ConnectionManager(new LocalTransport(registry).client()), callerContext);
+      state = new ServerContext("test", member.type(), member.serverAddress(), member.clientAddress(), storage, serializer, stateMachineFactory, new ConnectionManager(new LocalTransport(registry).client()), callerContext);
       resume();
     });
     await(1000);
-    timestamp = System.currentTimeMillis();
-    sequence = new AtomicLong();
+  }
+
+  /**
+   * Replaces the server context with a context for the given state machine.
+   */
+  private void recreateState(Supplier<StateMachine> stateMachineFactory) throws Throwable {
+    recreateState(new Storage(StorageLevel.MEMORY), stateMachineFactory);
+  }
+
+  /**
+   * Replaces the server context with a context for the given storage and state machine.
+   */
+  private void recreateState(Storage storage, Supplier<StateMachine> stateMachineFactory) throws Throwable {
+    state.close();
+    createState(storage, stateMachineFactory);
+  }
+
+  /**
+   * Registers a session at the next index in the log.
+   */
+  private void registerSession() throws Throwable {
+    callerContext.execute(() -> {
+
+      long index;
+      try (RegisterEntry entry = state.getLog().create(RegisterEntry.class)) {
+        entry.setTerm(1)
+          .setTimestamp(timestamp)
+          .setTimeout(500)
+          .setClient(UUID.randomUUID().toString());
+        index = state.getLog().append(entry);
+      }
+
+      state.getStateMachine().apply(index).whenComplete((result, error) -> {
+        threadAssertNull(error);
+        resume();
+      });
+    });
+
+    await();
+  }
+
+  /**
+   * Applies a command for session 1 at the next index in the log.
+   */
+  private void applyCommand(long commandSequence) throws Throwable {
+    callerContext.execute(() -> {
+
+      long index;
+      try (CommandEntry entry = state.getLog().create(CommandEntry.class)) {
+        entry.setTerm(1)
+          .setSession(1)
+          .setSequence(commandSequence)
+          .setTimestamp(timestamp + commandSequence)
+          .setCommand(new TestCommand());
+        index = state.getLog().append(entry);
+      }
+
+      state.getStateMachine().<ServerStateMachine.Result>apply(index).whenComplete((result, error) -> {
+        threadAssertNull(error);
+        resume();
+      });
+    });
+
+    await(5000);
   }
 
   /**
@@ -460,6 +552,92 @@ public class ServerStateMachineTest extends ConcurrentTestCase {
     assertEquals(session.getTimestamp(), timestamp + 100);
   }
 
+  /**
+   * Tests that an asynchronous snapshot view is written outside the state machine thread without blocking it.
+   */
+  public void testAsyncSnapshotWrittenInBackground() throws Throwable {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicReference<Thread> viewThread = new AtomicReference<>();
+    AtomicReference<Thread> writeThread = new AtomicReference<>();
+    recreateState(() -> new AsyncTestStateMachine(() -> {
+      viewThread.set(Thread.currentThread());
+      return writer -> {
+        writeThread.set(Thread.currentThread());
+        writing.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        writer.writeLong(1);
+      };
+    }));
+
+    // The first entry applied to the state machine takes the first snapshot.
+    registerSession();
+    assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+    // Commands must continue to be applied while the view is being written.
+    applyCommand(1);
+    release.countDown();
+
+    assertNotNull(viewThread.get());
+    assertNotEquals(writeThread.get(), viewThread.get());
+  }
+
+  /**
+   * Tests that a snapshot view that fails to be captured doesn't prevent later snapshots from being taken.
+   */
+  public void testFailedSnapshotViewDoesNotBlockSnapshots() throws Throwable {
+    AtomicInteger views = new AtomicInteger();
+    recreateState(() -> new AsyncTestStateMachine(() -> {
+      if (views.incrementAndGet() == 1) {
+        throw new IllegalStateException("failed to capture view");
+      }
+      return writer -> writer.writeLong(1);
+    }));
+
+    // The first snapshot fails once the session is registered. Once the failed snapshot has been discarded,
+    // a new snapshot must be taken as further entries are applied.
+    registerSession();
+    for (long i = 1; i <= 10; i++) {
+      applyCommand(i);
+    }
+
+    long timeout = System.currentTimeMillis() + 5000;
+    while (views.get() < 2 && System.currentTimeMillis() < timeout) {
+      Thread.sleep(10);
+    }
+    assertTrue(views.get() >= 2);
+  }
+
+  /**
+   * Tests that incremental snapshottable state machines take delta snapshots until the snapshot chain reaches the
+   * maximum number of deltas, at which point a full snapshot is taken to consolidate the chain.
+   */
+  public void testDeltaSnapshotConsolidation() throws Throwable {
+    List<String> snapshots = new CopyOnWriteArrayList<>();
+    Storage storage = Storage.builder()
+      .withStorageLevel(StorageLevel.MEMORY)
+      .withMaxEntriesPerSegment(5)
+      .withMaxDeltaSnapshots(2)
+      .build();
+    recreateState(storage, () -> new IncrementalTestStateMachine(snapshots));
+
+    // Snapshots are taken as entries are applied and segments become compactable.
+    registerSession();
+    for (long i = 1; i <= 100 && snapshots.size() < 7; i++) {
+      applyCommand(i);
+    }
+
+    assertTrue(snapshots.size() >= 7, snapshots.toString());
+    assertEquals(snapshots.subList(0, 7), Arrays.asList("full", "delta", "delta", "full", "delta", "delta", "full"));
+    Snapshot currentSnapshot = state.getSnapshotStore().currentSnapshot();
+    assertNotNull(currentSnapshot);
+    assertTrue(state.getSnapshotStore().snapshotChain(currentSnapshot).size() <= 3);
+  }
+
   @AfterMethod
   public void closeStateMachine() {
     state.close();
@@ -498,6 +676,60 @@ public class ServerStateMachineTest extends ConcurrentTestCase {
     }
   }
 
+  /**
+   * Asynchronous snapshottable test state machine.
+   */
+  private class AsyncTestStateMachine extends TestStateMachine implements AsyncSnapshottable {
+    private final Supplier<View> views;
+
+    private AsyncTestStateMachine(Supplier<View> views) {
+      this.views = views;
+    }
+
+    @Override
+    public View snapshotView() {
+      return views.get();
+    }
+
+    @Override
+    public void install(SnapshotReader reader) {
+      reader.readLong();
+    }
+  }
+
+  /**
+   * Incremental snapshottable test state machine that records the snapshots it writes.
+   */
+  private class IncrementalTestStateMachine extends TestStateMachine implements IncrementalSnapshottable {
+    private final List<String> snapshots;
+
+    private IncrementalTestStateMachine(List<String> snapshots) {
+      this.snapshots = snapshots;
+    }
+
+    @Override
+    public void snapshot(SnapshotWriter writer) {
+      writer.writeLong(sequence.get());
+      snapshots.add("full");
+    }
+
+    @Override
+    public void snapshotDelta(SnapshotWriter writer) {
+      writer.writeLong(sequence.get());
+      snapshots.add("delta");
+    }
+
+    @Override
+    public void install(SnapshotReader reader) {
+      reader.readLong();
+    }
+
+    @Override
+    public void installDelta(SnapshotReader reader) {
+      reader.readLong();
+    }
+  }
+
   /**
    * Test command.
    */
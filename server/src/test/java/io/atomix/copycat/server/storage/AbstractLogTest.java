@@ -186,6 +186,21 @@ public abstract class AbstractLogTest {
     }
   }
   
+  /**
+   * Describes the index state of each segment in the given log.
+   */
+  protected static List<String> describeSegments(Log log) {
+    List<String> segments = new ArrayList<>();
+    for (Segment segment : log.segments.segments()) {
+      StringBuilder builder = new StringBuilder(String.format("%d-%d:%d-%d:%d", segment.descriptor().id(), segment.descriptor().version(), segment.firstIndex(), segment.lastIndex(), segment.size()));
+      for (long i = segment.firstIndex(); i <= segment.lastIndex(); i++) {
+        builder.append(String.format(":%b/%d", segment.contains(i), segment.term(i)));
+      }
+      segments.add(builder.toString());
+    }
+    return segments;
+  }
+
   protected void printLog() {
     for (int i = 1; i < log.length(); i++) {
       System.out.println(log.get(i).toString());
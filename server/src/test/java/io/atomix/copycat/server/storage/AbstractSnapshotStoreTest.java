@@ -21,6 +21,8 @@ import io.atomix.copycat.server.storage.snapshot.SnapshotStore;
 import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 import org.testng.annotations.Test;
 
+import java.util.List;
+
 import static org.testng.Assert.*;
 
 /**
@@ -74,4 +76,102 @@ public abstract class AbstractSnapshotStoreTest {
     }
   }
 
+  /**
+   * Tests writing and reading a snapshot larger than a single compression block.
+   */
+  public void testWriteLargeSnapshot() {
+    SnapshotStore store = createSnapshotStore();
+    Snapshot snapshot = store.createSnapshot(1);
+    try (SnapshotWriter writer = snapshot.writer()) {
+      for (int i = 0; i < 100000; i++) {
+        writer.writeLong(i).writeString("key-" + i);
+      }
+      writer.write(new byte[1024 * 256]);
+    }
+    snapshot.complete();
+
+    try (SnapshotReader reader = store.currentSnapshot().reader()) {
+      for (int i = 0; i < 100000; i++) {
+        assertEquals(reader.readLong(), i);
+        assertEquals(reader.readString(), "key-" + i);
+      }
+      assertEquals(reader.remaining(), 1024 * 256);
+      byte[] bytes = new byte[1024 * 256];
+      reader.read(bytes);
+      assertEquals(bytes, new byte[1024 * 256]);
+      assertFalse(reader.hasRemaining());
+    }
+  }
+
+  /**
+   * Tests copying the stored bytes of a snapshot to a new snapshot.
+   */
+  public void testCopyStoredSnapshot() {
+    SnapshotStore store = createSnapshotStore();
+    Snapshot snapshot = store.createSnapshot(1);
+    try (SnapshotWriter writer = snapshot.writer()) {
+      for (int i = 0; i < 10000; i++) {
+        writer.writeLong(i);
+      }
+    }
+    snapshot.complete();
+
+    Snapshot copy = store.createSnapshot(2, snapshot.compression());
+    try (SnapshotReader reader = snapshot.storedReader(); SnapshotWriter writer = copy.storedWriter()) {
+      byte[] bytes = new byte[(int) reader.remaining()];
+      reader.read(bytes);
+      writer.write(bytes);
+    }
+    copy.complete();
+    assertEquals(store.currentSnapshot().index(), 2);
+
+    try (SnapshotReader reader = store.currentSnapshot().reader()) {
+      for (int i = 0; i < 10000; i++) {
+        assertEquals(reader.readLong(), i);
+      }
+      assertFalse(reader.hasRemaining());
+    }
+  }
+
+  /**
+   * Tests chaining delta snapshots to a full snapshot.
+   */
+  public void testDeltaSnapshotChain() {
+    SnapshotStore store = createSnapshotStore();
+    writeSnapshot(store.createSnapshot(1), 1);
+    writeSnapshot(store.createDeltaSnapshot(2), 2);
+    writeSnapshot(store.createDeltaSnapshot(3), 3);
+
+    Snapshot current = store.currentSnapshot();
+    assertEquals(current.index(), 3);
+    assertTrue(current.isDelta());
+    assertEquals(current.baseIndex(), 2);
+    assertEquals(store.snapshots().size(), 3);
+
+    List<Snapshot> chain = store.snapshotChain(current);
+    assertEquals(chain.size(), 3);
+    for (int i = 0; i < chain.size(); i++) {
+      assertEquals(chain.get(i).index(), i + 1);
+      try (SnapshotReader reader = chain.get(i).reader()) {
+        assertEquals(reader.readLong(), i + 1);
+      }
+    }
+    assertFalse(chain.get(0).isDelta());
+
+    // A full snapshot consolidates the chain, and the prior chain is deleted.
+    writeSnapshot(store.createSnapshot(4), 4);
+    assertEquals(store.snapshots().size(), 1);
+    assertEquals(store.snapshotChain(store.currentSnapshot()).size(), 1);
+  }
+
+  /**
+   * Writes a single value to the given snapshot and completes it.
+   */
+  protected void writeSnapshot(Snapshot snapshot, long value) {
+    try (SnapshotWriter writer = snapshot.writer()) {
+      writer.writeLong(value);
+    }
+    snapshot.complete();
+  }
+
 }
@@ -19,6 +19,16 @@ import io.atomix.copycat.server.storage.entry.Entry;
 import org.testng.annotations.Factory;
 import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import static org.testng.Assert.*;
 
 /**
@@ -94,6 +104,80 @@ public class FileLogTest extends LogTest {
     }
   }
 
+  /**
+   * Tests recovery of a log from the index files of sealed segments.
+   */
+  public void testRecoverFromSealedSegmentIndexes() throws Throwable {
+    appendEntries(entriesPerSegment * 3 + 1);
+    List<Segment> segments = new ArrayList<>(log.segments.segments());
+    assertEquals(segments.size(), 4);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(segments.get(i).file().index().exists());
+    }
+    assertFalse(segments.get(3).file().index().exists());
+
+    // Corrupt the index file of the second segment to force its index to be rebuilt from the segment.
+    Files.write(segments.get(1).file().index().toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, StandardOpenOption.APPEND);
+    log.close();
+
+    try (Log log = createLog()) {
+      assertEquals(log.length(), entriesPerSegment * 3 + 1);
+      for (long i = log.firstIndex(); i <= log.lastIndex(); i++) {
+        try (Entry entry = log.get(i)) {
+          assertEquals(entry.getIndex(), i);
+          assertEquals(log.term(i), 1);
+        }
+      }
+
+      // Appending to a recovered log must continue at the correct position.
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(1).setPadding(entryPadding);
+        assertEquals(log.append(entry), entriesPerSegment * 3 + 2);
+      }
+      assertEquals(log.get(entriesPerSegment * 3 + 2).getIndex(), entriesPerSegment * 3 + 2);
+    }
+  }
+
+  /**
+   * Tests that loading segments in parallel results in the same log state as loading segments sequentially.
+   */
+  public void testParallelRecoveryMatchesSequentialRecovery() throws Throwable {
+    appendEntries(entriesPerSegment * 8 + 2);
+    List<Segment> segments = new ArrayList<>(log.segments.segments());
+    Segment lastSegment = segments.get(segments.size() - 1);
+    long end = lastSegment.size();
+    log.close();
+
+    // Remove the index file of a sealed segment and tear the tail of the last segment so that both segments
+    // are recovered by scanning and checksumming their entries.
+    Files.delete(segments.get(3).file().index().toPath());
+    try (FileChannel channel = FileChannel.open(lastSegment.file().file().toPath(), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 16, 1, 2, 3, 4, 5, 6, 7, 8}), end);
+    }
+
+    storage = recoveryStorageBuilder().withStartupThreads(1).build();
+    List<String> sequential;
+    try (Log log = createLog()) {
+      sequential = describeSegments(log);
+    }
+
+    storage = recoveryStorageBuilder().withStartupThreads(4).build();
+    try (Log log = createLog()) {
+      assertEquals(describeSegments(log), sequential);
+      assertEquals(log.lastIndex(), entriesPerSegment * 8 + 2);
+    }
+  }
+
+  /**
+   * Returns a storage builder for recovering the test log.
+   */
+  private Storage.Builder recoveryStorageBuilder() {
+    return tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment)
+      .withStorageLevel(storageLevel());
+  }
+
   /**
    * Tests recovering from an inconsistent disk.
    */
@@ -116,4 +200,155 @@ public class FileLogTest extends LogTest {
     }
   }
 
+  /**
+   * Tests that the index file of an unlocked segment is deleted along with the segment on recovery.
+   */
+  public void testRecoverDeletesUnlockedSegmentIndex() throws Throwable {
+    appendEntries(entriesPerSegment * 2);
+    Segment firstSegment = log.segments.firstSegment();
+    Segment segment = log.segments.createSegment(SegmentDescriptor.builder()
+      .withId(firstSegment.descriptor().id())
+      .withIndex(firstSegment.descriptor().index())
+      .withVersion(firstSegment.descriptor().version() + 1)
+      .withMaxSegmentSize(firstSegment.descriptor().maxSegmentSize())
+      .withMaxEntries(firstSegment.descriptor().maxEntries())
+      .build());
+    segment.seal();
+    segment.close();
+    assertTrue(segment.file().index().exists());
+
+    log.close();
+
+    try (Log log = createLog()) {
+      assertEquals(log.segments.firstSegment().descriptor().version(), 1);
+      assertFalse(segment.file().file().exists());
+      assertFalse(segment.file().index().exists());
+    }
+  }
+
+  /**
+   * Tests that group commits are completed once committed entries have been flushed.
+   */
+  public void testGroupCommit() throws Throwable {
+    log.close();
+    storage = tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment)
+      .withStorageLevel(storageLevel())
+      .withGroupCommit()
+      .withGroupCommitDelay(Duration.ofMillis(10))
+      .build();
+    log = createLog();
+
+    appendEntries(entriesPerSegment * 2);
+    CompletableFuture<Long> first = log.commit(entriesPerSegment).sync(entriesPerSegment);
+    CompletableFuture<Long> second = log.commit(entriesPerSegment * 2).sync(entriesPerSegment * 2);
+    assertEquals(second.get(5, TimeUnit.SECONDS).longValue(), entriesPerSegment * 2);
+    assertTrue(first.isDone());
+    assertEquals(first.join().longValue(), entriesPerSegment);
+    assertTrue(log.sync(entriesPerSegment * 2).isDone());
+  }
+
+  /**
+   * Tests that entries appended asynchronously are readable immediately and completed once flushed.
+   */
+  public void testAppendAsync() throws Throwable {
+    log.close();
+    storage = tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment)
+      .withStorageLevel(storageLevel())
+      .withFlushOnCommit()
+      .build();
+    log = createLog();
+
+    CompletableFuture<Long> future;
+    try (TestEntry entry = log.create(TestEntry.class)) {
+      entry.setTerm(1).setPadding(entryPadding);
+      future = log.appendAsync(entry);
+    }
+    assertEquals(log.lastIndex(), 1);
+    try (TestEntry entry = log.get(1)) {
+      assertEquals(entry.getTerm(), 1);
+    }
+    assertEquals(future.get(5, TimeUnit.SECONDS).longValue(), 1);
+    assertTrue(log.commit(1).sync(1).isDone());
+  }
+
+  /**
+   * Tests that entries appended asynchronously with group commit enabled are flushed with the next group commit.
+   */
+  public void testAppendAsyncGroupCommit() throws Throwable {
+    log.close();
+    storage = tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment + 1)
+      .withStorageLevel(storageLevel())
+      .withGroupCommit()
+      .withGroupCommitDelay(Duration.ofMillis(500))
+      .build();
+    log = createLog();
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int i = 0; i < entriesPerSegment; i++) {
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(1).setPadding(entryPadding);
+        futures.add(log.appendAsync(entry));
+      }
+    }
+
+    // Appends are not flushed until the group commit delay expires.
+    assertFalse(futures.get(0).isDone());
+    for (int i = 0; i < entriesPerSegment; i++) {
+      assertEquals(futures.get(i).get(5, TimeUnit.SECONDS).longValue(), i + 1);
+    }
+    assertTrue(log.sync(entriesPerSegment).isDone());
+  }
+
+  /**
+   * Tests that entries rewritten after truncating asynchronously appended entries are not reported durable until
+   * they're flushed.
+   */
+  public void testTruncateAfterAppendAsync() throws Throwable {
+    log.close();
+    storage = tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment + 1)
+      .withStorageLevel(storageLevel())
+      .withGroupCommit()
+      .withGroupCommitDelay(Duration.ofMillis(500))
+      .build();
+    log = createLog();
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      futures.add(appendAsync());
+    }
+    assertEquals(futures.get(3).get(5, TimeUnit.SECONDS).longValue(), 4);
+
+    // Futures awaiting truncated entries are failed.
+    log.truncate(2);
+    CompletableFuture<Long> truncated = appendAsync();
+    log.truncate(2);
+    assertTrue(truncated.isCompletedExceptionally());
+
+    // Entries rewritten at flushed indexes are flushed before they're reported durable.
+    appendAsync();
+    appendAsync();
+    log.commit(4);
+    CompletableFuture<Long> sync = log.sync(4);
+    assertFalse(sync.isDone());
+    assertEquals(sync.get(5, TimeUnit.SECONDS).longValue(), 4);
+  }
+
+  /**
+   * Appends an entry to the log asynchronously.
+   */
+  private CompletableFuture<Long> appendAsync() {
+    try (TestEntry entry = log.create(TestEntry.class)) {
+      entry.setTerm(1).setPadding(entryPadding);
+      return log.appendAsync(entry);
+    }
+  }
+
 }
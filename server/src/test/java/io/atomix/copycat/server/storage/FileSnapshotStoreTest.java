@@ -17,6 +17,7 @@ package io.atomix.copycat.server.storage;
 
 import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.copycat.server.storage.snapshot.Snapshot;
+import io.atomix.copycat.server.storage.snapshot.SnapshotCompression;
 import io.atomix.copycat.server.storage.snapshot.SnapshotStore;
 import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 import org.testng.annotations.AfterMethod;
@@ -45,9 +46,24 @@ public class FileSnapshotStoreTest extends AbstractSnapshotStoreTest {
    * Returns a new snapshot store.
    */
   protected SnapshotStore createSnapshotStore() {
+    return createSnapshotStore(SnapshotCompression.NONE);
+  }
+
+  /**
+   * Returns the storage level with which to store snapshots.
+   */
+  protected StorageLevel storageLevel() {
+    return StorageLevel.DISK;
+  }
+
+  /**
+   * Returns a new snapshot store that writes snapshots with the given compression.
+   */
+  protected SnapshotStore createSnapshotStore(SnapshotCompression compression) {
     Storage storage = Storage.builder()
-      .withStorageLevel(StorageLevel.DISK)
+      .withStorageLevel(storageLevel())
       .withDirectory(new File(String.format("target/test-logs/%s", testId)))
+      .withSnapshotCompression(compression)
       .build();
     return new SnapshotStore("test", storage, new Serializer());
   }
@@ -71,6 +87,21 @@ public class FileSnapshotStoreTest extends AbstractSnapshotStoreTest {
     assertEquals(store.currentSnapshot().index(), 1);
   }
 
+  /**
+   * Tests storing and loading a chain of delta snapshots.
+   */
+  public void testStoreLoadDeltaSnapshot() {
+    SnapshotStore store = createSnapshotStore();
+    writeSnapshot(store.createSnapshot(1), 1);
+    writeSnapshot(store.createDeltaSnapshot(2), 2);
+    store.close();
+
+    store = createSnapshotStore();
+    assertEquals(store.currentSnapshot().index(), 2);
+    assertEquals(store.currentSnapshot().baseIndex(), 1);
+    assertEquals(store.snapshotChain(store.currentSnapshot()).size(), 2);
+  }
+
   @BeforeMethod
   @AfterMethod
   protected void cleanupStorage() throws IOException {
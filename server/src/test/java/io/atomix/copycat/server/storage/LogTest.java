@@ -15,11 +15,20 @@
  */
 package io.atomix.copycat.server.storage;
 
+import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.copycat.server.storage.compaction.Compaction;
+import io.atomix.copycat.server.storage.entry.RawEntry;
+import io.atomix.copycat.server.storage.util.StorageSerialization;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 import static org.testng.Assert.*;
 
@@ -79,6 +88,145 @@ public abstract class LogTest extends AbstractLogTest {
     }
   }
 
+  /**
+   * Asserts that a batch of entries spanning 3 segments is appended and read with the expected indexes.
+   */
+  public void testAppendBatch() {
+    List<TestEntry> entries = new ArrayList<>();
+    for (long i = 1; i <= entriesPerSegment * 3; i++) {
+      TestEntry entry = new TestEntry().setIndex(i).setTerm(1);
+      entry.setPadding(entryPadding);
+      entries.add(entry);
+    }
+
+    assertEquals(log.append(entries), entriesPerSegment * 3);
+    assertEquals(log.length(), entriesPerSegment * 3);
+    assertEquals(log.segments.segments().size(), 3);
+
+    for (long i = 1; i <= entriesPerSegment * 3; i++) {
+      TestEntry entry = log.get(i);
+      assertEquals(entry.getIndex(), i);
+      assertEquals(entry.getTerm(), 1);
+    }
+  }
+
+  /**
+   * Asserts that indexes missing from a batch of entries are skipped.
+   */
+  public void testAppendBatchSkipsMissingIndexes() {
+    appendEntries(1);
+    List<TestEntry> entries = Arrays.asList(new TestEntry().setIndex(3).setTerm(1), new TestEntry().setIndex(4).setTerm(2));
+    assertEquals(log.append(entries), 4);
+    assertEquals(log.lastIndex(), 4);
+    assertNull(log.get(2));
+    assertEquals(log.get(3).getIndex(), 3);
+    assertEquals(log.term(3), 1);
+    assertEquals(log.term(4), 2);
+  }
+
+  /**
+   * Asserts that raw entries read from one log are appended to another log without deserialization.
+   */
+  public void testGetAndAppendRawEntries() {
+    appendEntries(entriesPerSegment * 3);
+
+    List<RawEntry> entries = new ArrayList<>();
+    for (long i = 1; i <= entriesPerSegment * 3; i++) {
+      RawEntry entry = log.getRaw(i);
+      assertEquals(entry.getIndex(), i);
+      assertEquals(entry.getTerm(), 1);
+      assertEquals(entry.getCompactionMode(), Compaction.Mode.QUORUM);
+      assertTrue(entry.isValid());
+      assertEquals(entry.<TestEntry>decode(log.serializer()).getIndex(), i);
+
+      // Raw entries are serialized with their encoded bytes.
+      RawEntry copy = log.serializer().readObject(log.serializer().writeObject(entry).flip());
+      assertEquals(copy.getBytes(), entry.getBytes());
+      assertEquals(copy.getChecksum(), entry.getChecksum());
+      entries.add(copy.setIndex(entry.getIndex()).setTerm(entry.getTerm()));
+    }
+
+    withOtherLog(other -> {
+      assertEquals(other.append(entries), entriesPerSegment * 3);
+      for (long i = 1; i <= entriesPerSegment * 3; i++) {
+        TestEntry entry = other.get(i);
+        assertEquals(entry.getIndex(), i);
+        assertEquals(entry.getTerm(), 1);
+        assertEquals(entry.getCompactionMode(), Compaction.Mode.QUORUM);
+        assertEquals(other.getRaw(i).getBytes(), entries.get((int) i - 1).getBytes());
+      }
+    });
+  }
+
+  /**
+   * Asserts that an iterator reads entries across segments on another thread.
+   */
+  public void testIterator() throws Throwable {
+    appendEntries(entriesPerSegment * 3);
+    LogIterator iterator = log.iterator(entriesPerSegment + 1);
+    appendEntries(1);
+    assertEquals(iterator.index(), entriesPerSegment + 1);
+    assertEquals(iterator.lastIndex(), entriesPerSegment * 3);
+
+    List<RawEntry> entries = new CopyOnWriteArrayList<>();
+    List<RawEntry> previous = new CopyOnWriteArrayList<>();
+    Thread thread = new Thread(() -> {
+      entries.add(iterator.previous());
+      while (iterator.hasNext()) {
+        entries.add(iterator.next());
+        previous.add(iterator.previous());
+      }
+    });
+    thread.start();
+    thread.join();
+
+    assertEquals(entries.size(), entriesPerSegment * 2 + 1);
+    assertEquals(previous, entries.subList(1, entries.size()));
+    for (int i = 0; i < entries.size(); i++) {
+      RawEntry entry = entries.get(i);
+      assertEquals(entry.getIndex(), entriesPerSegment + i);
+      assertEquals(entry.getTerm(), 1);
+      assertTrue(entry.isValid());
+    }
+    assertFalse(iterator.hasNext());
+    assertEquals(iterator.index(), entriesPerSegment * 3 + 1);
+  }
+
+  /**
+   * Asserts that raw entries with invalid checksums are not appended to the log.
+   */
+  public void testAppendCorruptRawEntry() {
+    appendEntries(1);
+    RawEntry entry = log.getRaw(1);
+    byte[] bytes = Arrays.copyOf(entry.getBytes(), entry.getBytes().length);
+    bytes[bytes.length - 1] ^= 1;
+    RawEntry corrupt = new RawEntry().setBytes(bytes, entry.getChecksum()).setIndex(1).setTerm(1);
+    assertFalse(corrupt.isValid());
+
+    withOtherLog(other -> {
+      try {
+        other.append(Collections.singletonList(corrupt));
+        fail();
+      } catch (IllegalStateException e) {
+        assertTrue(other.isEmpty());
+      }
+    });
+  }
+
+  /**
+   * Runs the given test against a second log in the same storage, deleting the log once the test completes.
+   */
+  private void withOtherLog(Consumer<Log> test) {
+    String name = UUID.randomUUID().toString();
+    Log other = new Log(name, storage, new Serializer().resolve(new StorageSerialization()).register(TestEntry.class));
+    try {
+      test.accept(other);
+    } finally {
+      other.close();
+      storage.deleteLog(name);
+    }
+  }
+
   @Test(expectedExceptions = IllegalStateException.class)
   public void appendEntryShouldThrowWhenClosed() throws Exception {
     log.close();
@@ -202,6 +350,74 @@ public abstract class LogTest extends AbstractLogTest {
     assertCompacted(entriesPerSegment + 1, entriesPerSegment * 2);
   }
 
+  /**
+   * Tests reading entries from the same segments on many threads concurrently.
+   */
+  public void testConcurrentSegmentReads() throws Throwable {
+    appendEntries(entriesPerSegment * 3);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        try {
+          for (int r = 0; r < 100; r++) {
+            for (long i = 1; i <= entriesPerSegment * 3; i++) {
+              try (TestEntry entry = log.segments.segment(i).get(i)) {
+                assertEquals(entry.getIndex(), i);
+                assertEquals(entry.getPadding().length, entryPadding);
+              }
+            }
+          }
+        } catch (Throwable e) {
+          errors.add(e);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertTrue(errors.isEmpty(), errors.toString());
+  }
+
+  /**
+   * Tests reading entries on another thread while entries larger than the read scratch buffer are appended.
+   */
+  public void testConcurrentReadsWhileAppending() throws Throwable {
+    appendEntries(1);
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    Thread reader = new Thread(() -> {
+      try {
+        for (int r = 0; r < 100; r++) {
+          try (TestEntry entry = log.segments.segment(1).get(1)) {
+            assertEquals(entry.getPadding().length, entryPadding);
+          }
+        }
+      } catch (Throwable e) {
+        errors.add(e);
+      }
+    });
+    reader.start();
+
+    // Append enough bytes to force segment buffers to be resized while entries are being read.
+    for (int i = 0; i < 16; i++) {
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(1).setPadding(1024 * 128);
+        log.append(entry);
+      }
+    }
+    reader.join();
+    assertTrue(errors.isEmpty(), errors.toString());
+
+    for (long i = 2; i <= 17; i++) {
+      try (TestEntry entry = log.get(i)) {
+        assertEquals(entry.getPadding().length, 1024 * 128);
+      }
+    }
+  }
+
   /**
    * Tests {@link Log#isClosed()}.
    */
@@ -248,6 +464,23 @@ public abstract class LogTest extends AbstractLogTest {
     assertEquals(log.lastIndex(), entriesPerSegment * 3);
   }
 
+  /**
+   * Tests {@link Log#size(long, long)} across segments.
+   */
+  public void testSizeRange() {
+    assertEquals(log.size(1, 1), -1);
+    appendEntries(entriesPerSegment * 3);
+    long size = log.size(1, entriesPerSegment * 3);
+    assertTrue(size > 0);
+    assertTrue(size <= log.size());
+    assertTrue(log.size(1, entriesPerSegment) < size);
+
+    // Ranges that include compacted segments can't be measured.
+    log.commit(entriesPerSegment * 3);
+    cleanAndCompact(entriesPerSegment + 1, entriesPerSegment * 2 + 1);
+    assertEquals(log.size(1, entriesPerSegment * 3), -1);
+  }
+
   /**
    * Tests {@link Log#length()} across segments.
    */
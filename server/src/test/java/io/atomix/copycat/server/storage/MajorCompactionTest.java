@@ -15,9 +15,12 @@
  */
 package io.atomix.copycat.server.storage;
 
+import io.atomix.catalyst.serializer.Serializer;
 import io.atomix.copycat.server.storage.compaction.Compaction;
+import io.atomix.copycat.server.storage.util.StorageSerialization;
 import org.testng.annotations.Test;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 
 import static org.testng.Assert.*;
@@ -65,6 +68,49 @@ public class MajorCompactionTest extends AbstractLogTest {
     }
   }
 
+  /**
+   * Tests that compacting segment groups in parallel produces the same log as compacting them sequentially.
+   */
+  public void testParallelMajorCompactionMatchesSequentialCompaction() throws Throwable {
+    assertEquals(compactLog(4), compactLog(1));
+  }
+
+  /**
+   * Writes, releases, and compacts entries in a log with the given number of compaction threads, returning a
+   * description of the resulting segments.
+   */
+  private List<String> compactLog(int compactionThreads) throws Throwable {
+    String name = String.format("%s-%d", logId, compactionThreads);
+    Storage storage = tempStorageBuilder()
+      .withMaxEntriesPerSegment(10)
+      .withCompactionThreads(compactionThreads)
+      .build();
+
+    try (Log log = new Log(name, storage, new Serializer().resolve(new StorageSerialization()).register(TestEntry.class))) {
+      for (int i = 0; i < 101; i++) {
+        try (TestEntry entry = log.create(TestEntry.class)) {
+          entry.setTerm(entry.getIndex() / 7 + 1);
+          entry.setCompactionMode(entry.getIndex() % 3 == 0 ? Compaction.Mode.SEQUENTIAL : Compaction.Mode.QUORUM);
+          log.append(entry);
+        }
+      }
+
+      for (long index = 1; index < 101; index++) {
+        if (index % 5 != 0) {
+          log.release(index);
+        }
+      }
+      log.commit(101).compactor().minorIndex(101).majorIndex(101);
+
+      CountDownLatch latch = new CountDownLatch(1);
+      log.compactor().compact(Compaction.MAJOR).thenRun(latch::countDown);
+      latch.await();
+      return describeSegments(log);
+    } finally {
+      storage.deleteLog(name);
+    }
+  }
+
   /**
    * Writes a set of session entries to the log.
    */
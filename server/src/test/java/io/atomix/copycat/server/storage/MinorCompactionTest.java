@@ -15,10 +15,18 @@
  */
 package io.atomix.copycat.server.storage;
 
+import io.atomix.copycat.server.storage.compaction.AdaptiveCompactionPolicy;
 import io.atomix.copycat.server.storage.compaction.Compaction;
+import io.atomix.copycat.server.storage.compaction.CompactionPolicy;
+import io.atomix.copycat.server.storage.compaction.ThresholdCompactionPolicy;
 import org.testng.annotations.Test;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.testng.Assert.*;
 
@@ -72,6 +80,254 @@ public class MinorCompactionTest extends AbstractLogTest {
     }
   }
 
+  /**
+   * Tests that entries transferred during compaction retain their terms and contents.
+   */
+  public void testMinorCompactionTransfersEntries() throws Throwable {
+    for (int i = 0; i < 31; i++) {
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(entry.getIndex() / 4 + 1);
+        entry.setPadding((int) entry.getIndex());
+        entry.setCompactionMode(Compaction.Mode.QUORUM);
+        log.append(entry);
+      }
+    }
+
+    // Release all but one entry per term so that transferred entries must be rewritten with their terms.
+    for (long index = 1; index < 31; index++) {
+      if (index % 4 != 1) {
+        log.release(index);
+      }
+    }
+    log.commit(31).compactor().minorIndex(31);
+
+    CountDownLatch latch = new CountDownLatch(1);
+    log.compactor().compact(Compaction.MINOR).thenRun(latch::countDown);
+    latch.await();
+
+    // Read entries directly from the compacted segments to bypass the entry buffer.
+    for (long index = 1; index <= 31; index++) {
+      Segment segment = log.segments.segment(index);
+      try (TestEntry entry = segment.get(index)) {
+        if (index % 4 != 1 && index < 31) {
+          assertTrue(segment.isCompacted());
+          assertNull(entry);
+        } else {
+          assertNotNull(entry);
+          assertEquals(entry.getTerm(), index / 4 + 1);
+          assertEquals(entry.getPadding().length, (int) index);
+          assertEquals(entry.getCompactionMode(), Compaction.Mode.QUORUM);
+          assertEquals(segment.compactionMode(index), Compaction.Mode.QUORUM);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tests that compaction I/O is throttled according to the configured compaction rate.
+   */
+  public void testThrottledMinorCompaction() throws Throwable {
+    log.close();
+    storage.deleteLog(logId);
+    storage = tempStorageBuilder()
+      .withMaxEntriesPerSegment(10)
+      .withCompactionBytesPerSecond(1024 * 10)
+      .build();
+    log = createLog();
+
+    for (int i = 0; i < 31; i++) {
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(1);
+        entry.setPadding(512);
+        log.append(entry);
+      }
+    }
+
+    for (long index = 2; index < 31; index += 2) {
+      log.release(index);
+    }
+    log.commit(31).compactor().minorIndex(31);
+
+    CountDownLatch latch = new CountDownLatch(1);
+    log.compactor().compact(Compaction.MINOR).thenRun(latch::countDown);
+    latch.await();
+
+    assertTrue(log.compactor().throttle().throttledTime().toNanos() > 0);
+    for (long index = 1; index < 31; index += 2) {
+      assertTrue(log.contains(index));
+    }
+  }
+
+  /**
+   * Tests that the flush of a compacted segment is recorded with the throttle and backs off compaction when slow.
+   */
+  public void testSlowCompactSegmentFlushBacksOffCompaction() throws Throwable {
+    log.close();
+    storage.deleteLog(logId);
+    storage = tempStorageBuilder()
+      .withMaxEntriesPerSegment(10)
+      .withCompactionFlushLatencyThreshold(Duration.ofNanos(1))
+      .build();
+    log = createLog();
+
+    writeEntries(31);
+
+    // Wait for the backoff triggered by flushing segments while appending to expire.
+    Thread.sleep(200);
+
+    for (long index = 21; index < 28; index++) {
+      log.release(index);
+    }
+    log.commit(31).compactor().minorIndex(31);
+    log.compactor().compact(Compaction.MINOR).join();
+    assertEquals(log.compactor().throttle().backoffTime().toNanos(), 0);
+
+    // The flush of the first compact segment must back off the next compaction.
+    for (long index = 1; index < 8; index++) {
+      log.release(index);
+    }
+    log.compactor().compact(Compaction.MINOR).join();
+    assertTrue(log.compactor().throttle().backoffTime().toNanos() > 0);
+    for (long index = 1; index < 8; index++) {
+      assertFalse(log.contains(index));
+    }
+  }
+
+  /**
+   * Tests that the adaptive compaction policy prioritizes segments that reclaim the most space.
+   */
+  public void testAdaptiveCompactionPolicySelectsSegments() throws Throwable {
+    writeEntries(31);
+
+    // Release 3 entries from the first segment, 8 from the second, and 5 from the third.
+    for (long index = 1; index <= 3; index++) {
+      log.release(index);
+    }
+    for (long index = 11; index <= 18; index++) {
+      log.release(index);
+    }
+    for (long index = 21; index <= 25; index++) {
+      log.release(index);
+    }
+
+    List<Segment> candidates = new ArrayList<>(log.segments.segments()).subList(0, 3);
+    Segment first = candidates.get(0);
+    Segment second = candidates.get(1);
+    Segment third = candidates.get(2);
+
+    // Within the disk budget, only segments that meet the compaction threshold are selected.
+    CompactionPolicy policy = new AdaptiveCompactionPolicy(Long.MAX_VALUE);
+    assertEquals(policy.selectSegments(candidates, storage, log.segments), Arrays.asList(second, third));
+
+    // Over the disk budget, all segments with released entries are selected.
+    policy = new AdaptiveCompactionPolicy(1);
+    assertEquals(policy.selectSegments(candidates, storage, log.segments), Arrays.asList(second, third, first));
+    assertTrue(policy.shouldCompact(Compaction.MINOR, Duration.ZERO, storage, log.segments));
+  }
+
+  /**
+   * Tests that the adaptive compaction policy samples the growth of the log only when observing the log.
+   */
+  public void testAdaptiveCompactionPolicyObservesGrowth() throws Throwable {
+    AdaptiveCompactionPolicy policy = new AdaptiveCompactionPolicy(Long.MAX_VALUE);
+    policy.observe(storage, log.segments);
+    writeEntries(31);
+    Thread.sleep(1100);
+
+    for (int i = 0; i < 10; i++) {
+      assertFalse(policy.shouldCompact(Compaction.MINOR, Duration.ZERO, storage, log.segments));
+      assertFalse(policy.shouldCompact(Compaction.MAJOR, Duration.ZERO, storage, log.segments));
+    }
+    assertEquals(policy.growthRate(), 0d);
+
+    policy.observe(storage, log.segments);
+    assertTrue(policy.growthRate() > 0);
+  }
+
+  /**
+   * Tests that minor compaction is run at every check when the check interval is the minor compaction interval.
+   */
+  public void testMinorCompactionRunsAtEveryCheck() throws Throwable {
+    AtomicInteger checks = new AtomicInteger();
+    AtomicInteger compactions = new AtomicInteger();
+    CompactionPolicy policy = new ThresholdCompactionPolicy() {
+      @Override
+      public boolean shouldCompact(Compaction compaction, Duration elapsed, Storage storage, SegmentManager segments) {
+        if (compaction != Compaction.MINOR)
+          return false;
+        checks.incrementAndGet();
+        boolean compact = super.shouldCompact(compaction, elapsed, storage, segments);
+        if (compact) {
+          compactions.incrementAndGet();
+        }
+        return compact;
+      }
+    };
+
+    log.close();
+    storage.deleteLog(logId);
+    storage = tempStorageBuilder()
+      .withMaxEntriesPerSegment(10)
+      .withMinorCompactionInterval(Duration.ofMillis(50))
+      .withMajorCompactionInterval(Duration.ofHours(1))
+      .withCompactionPolicy(policy)
+      .build();
+    log = createLog();
+
+    while (checks.get() < 10) {
+      Thread.sleep(50);
+    }
+    assertTrue(compactions.get() >= checks.get() - 1);
+  }
+
+  /**
+   * Tests that minor compaction merges adjacent sparse segments.
+   */
+  public void testMinorCompactionMergesSparseSegments() throws Throwable {
+    for (int i = 0; i < 31; i++) {
+      try (TestEntry entry = log.create(TestEntry.class)) {
+        entry.setTerm(1);
+        entry.setCompactionMode(Compaction.Mode.QUORUM);
+        log.append(entry);
+      }
+    }
+
+    assertEquals(log.segments.segments().size(), 4);
+
+    // Release all but two entries in each of the first three segments.
+    for (long index = 1; index < 31; index++) {
+      if (index % 10 != 1 && index % 10 != 6) {
+        log.release(index);
+      }
+    }
+    log.commit(31).compactor().minorIndex(31);
+
+    CountDownLatch latch = new CountDownLatch(1);
+    log.compactor().compact(Compaction.MINOR).thenRun(latch::countDown);
+    latch.await();
+
+    // The first three segments should have been merged into a single segment.
+    assertEquals(log.segments.segments().size(), 2);
+    Segment segment = log.segments.segment(1);
+    assertEquals(segment.firstIndex(), 1);
+    assertEquals(segment.lastIndex(), 30);
+    assertEquals(segment.count(), 6);
+
+    for (long index = 1; index <= 30; index++) {
+      try (TestEntry entry = segment.get(index)) {
+        if (index % 10 == 1 || index % 10 == 6) {
+          assertNotNull(entry);
+          assertEquals(entry.getIndex(), index);
+        } else {
+          assertNull(entry);
+        }
+      }
+    }
+    try (TestEntry entry = log.get(31)) {
+      assertNotNull(entry);
+    }
+  }
+
   /**
    * Writes a set of session entries to the log.
    */
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package io.atomix.copycat.server.storage;
+
+import org.testng.annotations.Factory;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Off-heap in-memory log test.
+ *
+ * @author <a href="http://github.com/kuujo>Jordan Halterman</a>
+ */
+@Test
+public class OffHeapMemoryLogTest extends LogTest {
+  @Factory
+  public Object[] createTests() throws Throwable {
+    return testsFor(OffHeapMemoryLogTest.class);
+  }
+
+  @Override
+  protected Storage createStorage() {
+    return tempStorageBuilder()
+      .withMaxSegmentSize(Integer.MAX_VALUE)
+      .withMaxEntriesPerSegment(entriesPerSegment)
+      .withStorageLevel(storageLevel())
+      .withOffHeap()
+      .build();
+  }
+
+  @Override
+  protected StorageLevel storageLevel() {
+    return StorageLevel.MEMORY;
+  }
+
+  /**
+   * Tests that reading from a segment that is closed concurrently fails rather than reading released memory.
+   */
+  public void testConcurrentReadsWhileClosing() throws Throwable {
+    appendEntries(entriesPerSegment);
+    Segment segment = log.segments.segment(1);
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    Thread reader = new Thread(() -> {
+      try {
+        while (true) {
+          try (TestEntry entry = segment.get(1)) {
+            assertEquals(entry.getIndex(), 1);
+          }
+        }
+      } catch (IllegalStateException e) {
+        // The segment was closed.
+      } catch (Throwable e) {
+        errors.add(e);
+      }
+    });
+    reader.start();
+
+    Thread.sleep(10);
+    log.close();
+    reader.join();
+    assertTrue(errors.isEmpty(), errors.toString());
+  }
+
+}
@@ -18,6 +18,7 @@ package io.atomix.copycat.server.storage;
 import io.atomix.catalyst.buffer.HeapBuffer;
 import io.atomix.copycat.server.storage.index.DelegatingOffsetIndex;
 import io.atomix.copycat.server.storage.index.OffsetIndex;
+import io.atomix.copycat.server.storage.index.PackedOffsetIndex;
 import org.testng.annotations.Test;
 
 import static org.testng.Assert.*;
@@ -136,4 +137,92 @@ public class OffsetIndexTest {
     assertEquals(index.truncate(1), 30);
   }
 
+  /**
+   * Tests indexing and reading missing offsets in a packed index.
+   */
+  public void testPackedIndexMissingOffsets() {
+    OffsetIndex index = new PackedOffsetIndex();
+    for (int i = 0; i < 5000; i++) {
+      index.index(i * 2, i * 10);
+    }
+    assertEquals(index.size(), 5000);
+    assertEquals(index.lastOffset(), 9998);
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(index.position(i * 2), i * 10);
+      assertEquals(index.find(i * 2), i);
+      assertEquals(index.position(i * 2 + 1), -1);
+      assertFalse(index.contains(i * 2 + 1));
+    }
+  }
+
+  /**
+   * Tests that a sampled packed index scans forward to entries between samples.
+   */
+  public void testSampledPackedIndex() {
+    OffsetIndex index = new PackedOffsetIndex(4, position -> position + 10);
+    for (int i = 0; i < 5000; i++) {
+      index.index(i * 3, i * 10);
+    }
+    assertEquals(index.size(), 5000);
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(index.contains(i * 3));
+      assertEquals(index.position(i * 3), i * 10);
+      assertEquals(index.find(i * 3), i);
+      assertFalse(index.contains(i * 3 + 1));
+      assertEquals(index.position(i * 3 + 2), -1);
+    }
+  }
+
+  /**
+   * Tests truncating a packed index.
+   */
+  public void testTruncatePackedIndex() {
+    for (int interval : new int[]{1, 3}) {
+      OffsetIndex index = new PackedOffsetIndex(interval, position -> position + 10);
+      index.index(0, 0);
+      index.index(1, 10);
+      index.index(3, 20);
+      index.index(4, 30);
+      index.index(7, 40);
+      assertEquals(index.truncate(2), 20);
+      assertEquals(index.size(), 2);
+      assertEquals(index.lastOffset(), 2);
+      assertFalse(index.contains(3));
+      index.index(3, 20);
+      assertEquals(index.position(3), 20);
+      assertEquals(index.find(3), 2);
+      assertEquals(index.truncate(-1), 0);
+      assertTrue(index.isEmpty());
+    }
+  }
+
+  /**
+   * Tests truncating and rewriting a sampled index with large gaps between offsets.
+   */
+  public void testTruncateSampledPackedIndexWithGaps() {
+    OffsetIndex index = new PackedOffsetIndex(4, position -> position + 10);
+    for (int i = 0; i < 100; i++) {
+      index.index(i * 1000, i * 10);
+    }
+
+    // Truncate in the middle of a block and then at the end of a block.
+    assertEquals(index.truncate(41500), 420);
+    assertEquals(index.size(), 42);
+    assertEquals(index.truncate(39000), 400);
+    assertEquals(index.size(), 40);
+    for (int i = 40; i < 100; i++) {
+      index.index(i * 300 + 28000, i * 10);
+    }
+
+    for (int i = 0; i < 40; i++) {
+      assertEquals(index.position(i * 1000), i * 10);
+      assertEquals(index.find(i * 1000), i);
+      assertFalse(index.contains(i * 1000 + 1));
+    }
+    for (int i = 40; i < 100; i++) {
+      assertEquals(index.position(i * 300 + 28000), i * 10);
+      assertEquals(index.find(i * 300 + 28000), i);
+    }
+  }
+
 }
@@ -17,6 +17,9 @@ package io.atomix.copycat.test;
 
 import io.atomix.catalyst.concurrent.Listener;
 import io.atomix.catalyst.transport.Address;
+import io.atomix.catalyst.transport.Transport;
+import io.atomix.catalyst.transport.local.LocalServerRegistry;
+import io.atomix.catalyst.transport.local.LocalTransport;
 import io.atomix.catalyst.transport.netty.NettyTransport;
 import io.atomix.copycat.Command;
 import io.atomix.copycat.Query;
@@ -36,15 +39,22 @@ import io.atomix.copycat.server.storage.snapshot.SnapshotWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -56,9 +66,22 @@ public class PerformanceTest implements Runnable {
 
   /**
    * Runs the test.
+   * <p>
+   * Run with {@code -Dbenchmark=snapshotInstall} to time installing a large snapshot on a joining member, or with
+   * {@code -Dbenchmark=offHeap} to compare GC pauses with heap and off-heap in-memory logs.
    */
   public static void main(String[] args) {
-    new PerformanceTest().run();
+    switch (System.getProperty("benchmark", "operations")) {
+      case "snapshotInstall":
+        new PerformanceTest().runSnapshotInstall();
+        break;
+      case "offHeap":
+        new PerformanceTest().runOffHeap();
+        break;
+      default:
+        new PerformanceTest().run();
+        break;
+    }
   }
 
   private static final int ITERATIONS = 10;
@@ -70,6 +93,17 @@ public class PerformanceTest implements Runnable {
   private static final Query.ConsistencyLevel QUERY_CONSISTENCY = Query.ConsistencyLevel.LINEARIZABLE;
   private static final ServerSelectionStrategy SERVER_SELECTION_STRATEGY = ServerSelectionStrategies.ANY;
 
+  // Run with -DappendLinger=<millis> to compare write latency and throughput with leader append lingering.
+  private static final Duration APPEND_LINGER = Duration.ofMillis(Long.getLong("appendLinger", 0));
+
+  // Run with -Dbenchmark=snapshotInstall -DsnapshotSize=<bytes> to change the size of the installed snapshot.
+  private static final int SNAPSHOT_SIZE = Integer.getInteger("snapshotSize", 1024 * 1024 * 64);
+
+  // Run with -Dbenchmark=offHeap -DlogSize=<bytes> to change the size of each server's log. Each of the three
+  // servers retains its entire log, so large logs require a correspondingly large heap for the heap run.
+  private static final long LOG_SIZE = Long.getLong("logSize", 1024L * 1024 * 256);
+  private static final int VALUE_SIZE = 1024;
+
   private int port = 5000;
   private List<Member> members = new ArrayList<>();
   private List<CopycatClient> clients = new ArrayList<>();
@@ -80,6 +114,8 @@ public class PerformanceTest implements Runnable {
   private final AtomicInteger totalOperations = new AtomicInteger();
   private final AtomicInteger writeCount = new AtomicInteger();
   private final AtomicInteger readCount = new AtomicInteger();
+  private final AtomicLong writeTime = new AtomicLong();
+  private volatile CountDownLatch snapshots = new CountDownLatch(0);
 
   static {
     for (int i = 0; i < 1024; i++) {
@@ -109,6 +145,165 @@ public class PerformanceTest implements Runnable {
     }
   }
 
+  /**
+   * Runs the snapshot install test.
+   */
+  public void runSnapshotInstall() {
+    for (int i = 0; i < ITERATIONS; i++) {
+      try {
+        iterations.add(runSnapshotInstallIteration());
+      } catch (Exception e) {
+        e.printStackTrace();
+        return;
+      }
+    }
+
+    System.out.println("Completed " + ITERATIONS + " iterations");
+    long averageInstallTime = (long) iterations.stream().mapToLong(v -> v).average().getAsDouble();
+    System.out.println(String.format("averageInstallTime: %dms", averageInstallTime));
+
+    try {
+      shutdown();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Runs a single snapshot install iteration over the local transport, returning the time taken for a joining
+   * member to install the leader's snapshot.
+   */
+  private long runSnapshotInstallIteration() throws Exception {
+    reset();
+
+    LocalServerRegistry registry = new LocalServerRegistry();
+    snapshots = new CountDownLatch(3);
+    createServers(3, member -> createServer(member, new LocalTransport(registry), memoryStorage(false), () -> new SnapshotStateMachine(null)));
+    CopycatClient client = createClient(RecoveryStrategies.RECOVER, new LocalTransport(registry));
+
+    // The first snapshot is taken once entries are applied, and it's completed once later entries are applied.
+    while (!snapshots.await(10, TimeUnit.MILLISECONDS)) {
+      client.submit(new Put(randomKey(), UUID.randomUUID().toString())).join();
+    }
+    for (int i = 0; i < 100; i++) {
+      client.submit(new Put(randomKey(), UUID.randomUUID().toString())).join();
+    }
+
+    CountDownLatch installed = new CountDownLatch(1);
+    Member member = nextMember(Member.Type.ACTIVE);
+    CopycatServer joiner = createServer(member, new LocalTransport(registry), memoryStorage(false), () -> new SnapshotStateMachine(installed));
+    long startTime = System.currentTimeMillis();
+    joiner.join(members.stream().map(Member::serverAddress).collect(Collectors.toList()));
+    if (!installed.await(5, TimeUnit.MINUTES)) {
+      throw new TimeoutException("Snapshot was not installed");
+    }
+    long runTime = System.currentTimeMillis() - startTime;
+    System.out.println(String.format("snapshotSize: %dKB, installTime: %dms, throughput: %dKB/s",
+      SNAPSHOT_SIZE / 1024,
+      runTime,
+      runTime > 0 ? SNAPSHOT_SIZE * 1000L / runTime / 1024 : 0));
+    return runTime;
+  }
+
+  /**
+   * Runs the off-heap test, comparing GC pauses while writing to heap and off-heap in-memory logs.
+   */
+  public void runOffHeap() {
+    try {
+      runOffHeapIteration(false);
+      runOffHeapIteration(true);
+      shutdown();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Runs a single off-heap test iteration, writing entries to logs that are never compacted and reporting the
+   * time spent in garbage collection.
+   */
+  private void runOffHeapIteration(boolean offHeap) throws Exception {
+    reset();
+
+    createServers(3, member -> createServer(member, new NettyTransport(), memoryStorage(offHeap), LogStateMachine::new));
+    CompletableFuture<Void>[] futures = new CompletableFuture[NUM_CLIENTS];
+    CopycatClient[] clients = new CopycatClient[NUM_CLIENTS];
+    for (int i = 0; i < NUM_CLIENTS; i++) {
+      clients[i] = createClient(RecoveryStrategies.RECOVER);
+      futures[i] = new CompletableFuture<>();
+    }
+
+    char[] chars = new char[VALUE_SIZE];
+    Arrays.fill(chars, 'x');
+    String value = new String(chars);
+    int writes = (int) (LOG_SIZE / VALUE_SIZE);
+
+    System.gc();
+    long gcCount = gcCount();
+    long gcTime = gcTime();
+    long startTime = System.currentTimeMillis();
+    for (int i = 0; i < clients.length; i++) {
+      runWriter(clients[i], writes, value, futures[i]);
+    }
+    CompletableFuture.allOf(futures).join();
+    long runTime = System.currentTimeMillis() - startTime;
+    gcCount = gcCount() - gcCount;
+    gcTime = gcTime() - gcTime;
+
+    // A full collection must trace the entire log when it's stored on the heap.
+    long fullGcStartTime = System.currentTimeMillis();
+    System.gc();
+    long fullGcTime = System.currentTimeMillis() - fullGcStartTime;
+
+    System.out.println(String.format("offHeap: %b, writeCount: %d, logSize: %dMB, runTime: %dms, gcCount: %d, gcTime: %dms, averageGcPause: %dms, fullGcTime: %dms",
+      offHeap,
+      writeCount.get(),
+      (long) writeCount.get() * VALUE_SIZE / 1024 / 1024,
+      runTime,
+      gcCount,
+      gcTime,
+      gcCount > 0 ? gcTime / gcCount : 0,
+      fullGcTime));
+  }
+
+  /**
+   * Writes values of the given size for a single client until the given number of writes have been submitted.
+   */
+  private void runWriter(CopycatClient client, int writes, String value, CompletableFuture<Void> future) {
+    if (totalOperations.incrementAndGet() > writes) {
+      future.complete(null);
+    } else {
+      client.submit(new Put(randomKey(), value)).whenComplete((result, error) -> {
+        if (error == null) {
+          writeCount.incrementAndGet();
+        }
+        runWriter(client, writes, value, future);
+      });
+    }
+  }
+
+  /**
+   * Returns the total number of garbage collections.
+   */
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(collector.getCollectionCount(), 0);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the total time spent in garbage collection in milliseconds.
+   */
+  private static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += Math.max(collector.getCollectionTime(), 0);
+    }
+    return time;
+  }
+
   /**
    * Runs a single performance test iteration, returning the iteration run time.
    */
@@ -132,12 +327,15 @@ public class PerformanceTest implements Runnable {
     CompletableFuture.allOf(futures).join();
     long endTime = System.currentTimeMillis();
     long runTime = endTime - startTime;
-    System.out.println(String.format("readCount: %d/%d, writeCount: %d/%d, runTime: %dms",
+    System.out.println(String.format("readCount: %d/%d, writeCount: %d/%d, runTime: %dms, throughput: %d ops/s, averageWriteLatency: %dus, appendLinger: %dms",
       readCount.get(),
       (int) (TOTAL_OPERATIONS * (WRITE_RATIO / 10d)),
       writeCount.get(),
       (int) (TOTAL_OPERATIONS * (1 - (WRITE_RATIO / 10d))),
-      runTime));
+      runTime,
+      runTime > 0 ? (readCount.get() + writeCount.get()) * 1000L / runTime : 0,
+      writeCount.get() > 0 ? TimeUnit.NANOSECONDS.toMicros(writeTime.get() / writeCount.get()) : 0,
+      APPEND_LINGER.toMillis()));
     return runTime;
   }
 
@@ -149,9 +347,11 @@ public class PerformanceTest implements Runnable {
     if (count > TOTAL_OPERATIONS) {
       future.complete(null);
     } else if (count % 10 < WRITE_RATIO) {
+      long startTime = System.nanoTime();
       client.submit(new Put(randomKey(), UUID.randomUUID().toString())).whenComplete((result, error) -> {
         if (error == null) {
           writeCount.incrementAndGet();
+          writeTime.addAndGet(System.nanoTime() - startTime);
         }
         runClient(client, future);
       });
@@ -172,6 +372,7 @@ public class PerformanceTest implements Runnable {
     totalOperations.set(0);
     readCount.set(0);
     writeCount.set(0);
+    writeTime.set(0);
 
     shutdown();
 
@@ -247,6 +448,13 @@ public class PerformanceTest implements Runnable {
    * Creates a set of Copycat servers.
    */
   private List<CopycatServer> createServers(int nodes) throws Exception {
+    return createServers(nodes, this::createServer);
+  }
+
+  /**
+   * Creates a set of Copycat servers with the given server factory.
+   */
+  private List<CopycatServer> createServers(int nodes, Function<Member, CopycatServer> factory) throws Exception {
     List<CopycatServer> servers = new ArrayList<>();
 
     for (int i = 0; i < nodes; i++) {
@@ -255,7 +463,7 @@ public class PerformanceTest implements Runnable {
 
     CountDownLatch latch = new CountDownLatch(nodes);
     for (int i = 0; i < nodes; i++) {
-      CopycatServer server = createServer(members.get(i));
+      CopycatServer server = factory.apply(members.get(i));
       server.bootstrap(members.stream().map(Member::serverAddress).collect(Collectors.toList())).thenRun(latch::countDown);
       servers.add(server);
     }
@@ -269,15 +477,23 @@ public class PerformanceTest implements Runnable {
    * Creates a Copycat server.
    */
   private CopycatServer createServer(Member member) {
+    return createServer(member, new NettyTransport(), Storage.builder()
+      .withStorageLevel(StorageLevel.DISK)
+      .withDirectory(new File(String.format("target/performance-logs/%d", member.address().hashCode())))
+      .withCompactionThreads(1)
+      .build(), PerformanceStateMachine::new);
+  }
+
+  /**
+   * Creates a Copycat server with the given transport, storage and state machine.
+   */
+  private CopycatServer createServer(Member member, Transport transport, Storage storage, Supplier<StateMachine> stateMachine) {
     CopycatServer.Builder builder = CopycatServer.builder(member.clientAddress(), member.serverAddress())
       .withType(member.type())
-      .withTransport(new NettyTransport())
-      .withStorage(Storage.builder()
-        .withStorageLevel(StorageLevel.DISK)
-        .withDirectory(new File(String.format("target/performance-logs/%d", member.address().hashCode())))
-        .withCompactionThreads(1)
-        .build())
-      .withStateMachine(PerformanceStateMachine::new);
+      .withTransport(transport)
+      .withStorage(storage)
+      .withAppendLinger(APPEND_LINGER)
+      .withStateMachine(stateMachine);
 
     CopycatServer server = builder.build();
     server.serializer().disableWhitelist();
@@ -285,12 +501,31 @@ public class PerformanceTest implements Runnable {
     return server;
   }
 
+  /**
+   * Returns in-memory storage that never compacts the log.
+   */
+  private Storage memoryStorage(boolean offHeap) {
+    return Storage.builder()
+      .withStorageLevel(StorageLevel.MEMORY)
+      .withOffHeap(offHeap)
+      .withMinorCompactionInterval(Duration.ofDays(1))
+      .withMajorCompactionInterval(Duration.ofDays(1))
+      .build();
+  }
+
   /**
    * Creates a Copycat client.
    */
   private CopycatClient createClient(RecoveryStrategy strategy) throws Exception {
+    return createClient(strategy, new NettyTransport());
+  }
+
+  /**
+   * Creates a Copycat client with the given transport.
+   */
+  private CopycatClient createClient(RecoveryStrategy strategy, Transport transport) throws Exception {
     CopycatClient client = CopycatClient.builder()
-      .withTransport(new NettyTransport())
+      .withTransport(transport)
       .withConnectionStrategy(ConnectionStrategies.FIBONACCI_BACKOFF)
       .withRecoveryStrategy(strategy)
       .withServerSelectionStrategy(SERVER_SELECTION_STRATEGY)
@@ -380,6 +615,57 @@ public class PerformanceTest implements Runnable {
     }
   }
 
+  /**
+   * Off-heap test state machine.
+   * <p>
+   * Commits are closed as soon as they're applied, but the state machine doesn't support snapshots and the test
+   * storage never compacts the log, so each server's log retains every write.
+   */
+  public class LogStateMachine extends StateMachine {
+    public long put(Commit<Put> commit) {
+      try {
+        return commit.index();
+      } finally {
+        commit.close();
+      }
+    }
+  }
+
+  /**
+   * Snapshot install test state machine.
+   */
+  public class SnapshotStateMachine extends StateMachine implements Snapshottable {
+    private final byte[] state = new byte[SNAPSHOT_SIZE];
+    private final CountDownLatch installed;
+
+    public SnapshotStateMachine(CountDownLatch installed) {
+      this.installed = installed;
+      random.nextBytes(state);
+    }
+
+    @Override
+    public void snapshot(SnapshotWriter writer) {
+      writer.writeInt(state.length).write(state);
+      snapshots.countDown();
+    }
+
+    @Override
+    public void install(SnapshotReader reader) {
+      reader.read(state, 0, reader.readInt());
+      if (installed != null) {
+        installed.countDown();
+      }
+    }
+
+    public long put(Commit<Put> commit) {
+      try {
+        return commit.index();
+      } finally {
+        commit.close();
+      }
+    }
+  }
+
   public static class Put implements Command<Long> {
     public String key;
     public String value;